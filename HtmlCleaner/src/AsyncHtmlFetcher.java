@@ -0,0 +1,893 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * A non-blocking alternative to {@link HtmlFetcher} that multiplexes many HTTP/1.1 exchanges over a
+ * small number of {@link Selector} threads. Each exchange uses a {@link SocketChannel} (wrapped by
+ * an {@link SSLEngine} for HTTPS connections) instead of a blocking {@link java.net.Socket}.
+ *
+ * The results have the same semantics as {@link HtmlFetcher#fetch(URL, int)}: the future completes
+ * with the HTML as a single string if the status code is 200 and the content type is HTML, follows
+ * redirects while the redirect count is greater than 0, and completes with {@code null} otherwise.
+ * The returned futures never complete exceptionally.
+ *
+ * The connect and read timeouts of the fetch context apply to each exchange, the read timeout
+ * measuring how long the connection stays idle, and the deadline applies to the whole fetch
+ * including redirects. Rather than a timer per exchange, each selector thread wakes up when the
+ * earliest exchange is due to expire and closes every exchange that has, completing it with
+ * {@code null} as {@link HtmlFetcher#fetch(URL, int, FetchContext)} does on a timeout.
+ *
+ * Responses are buffered whole before they are decoded, so an exchange whose response grows past
+ * {@link #MAX_RESPONSE} bytes is closed and completes with {@code null}. Host names are resolved
+ * by the {@link HostResolver} of the fetch context, which answers cached hosts immediately and
+ * looks up the rest on its own bounded set of threads.
+ *
+ * @see HtmlFetcher#fetch(URL, int)
+ */
+public class AsyncHtmlFetcher implements Closeable {
+
+  /** The default number of selector threads. */
+  public static final int DEFAULT_THREADS = 2;
+
+  /** The most bytes buffered for one response, headers included. */
+  public static final int MAX_RESPONSE = 16 * 1024 * 1024;
+
+  /** The most idle TLS packet buffers each selector loop keeps for reuse. */
+  private static final int POOLED_BUFFERS = 64;
+
+  /** Used when the engine needs to wrap handshake data without any application data. */
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  /** The selector loops that exchanges are spread across. */
+  private final EventLoop[] loops;
+
+  /** Used to assign new exchanges to loops in round-robin order. */
+  private final AtomicInteger next;
+
+  /** The context used to create engines for HTTPS exchanges. */
+  private final SSLContext context;
+
+  /** The socket options, TLS context, and handshake statistics to use. */
+  private final FetchContext settings;
+
+  /**
+   * Initializes a fetcher with the default number of selector threads.
+   *
+   * @throws IOException if unable to open a selector
+   */
+  public AsyncHtmlFetcher() throws IOException {
+    this(DEFAULT_THREADS);
+  }
+
+  /**
+   * Initializes a fetcher with the provided number of selector threads.
+   *
+   * @param threads the number of selector threads to use
+   * @throws IOException if unable to open a selector
+   */
+  public AsyncHtmlFetcher(int threads) throws IOException {
+    this(threads, FetchContext.DEFAULT);
+  }
+
+  /**
+   * Initializes a fetcher with the provided number of selector threads, using the socket options,
+   * timeouts, deadline, and shared TLS context from the fetch context.
+   *
+   * @param threads the number of selector threads to use
+   * @param settings the fetch context to use
+   * @throws IOException if unable to open a selector
+   */
+  public AsyncHtmlFetcher(int threads, FetchContext settings) throws IOException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("At least one thread is required.");
+    }
+
+    this.settings = settings;
+    this.context = settings.getSslContext();
+
+    this.loops = new EventLoop[threads];
+    this.next = new AtomicInteger();
+
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new EventLoop(i);
+      loops[i].thread.start();
+    }
+  }
+
+  /**
+   * Fetches the resource at the URL without blocking the calling thread. See
+   * {@link HtmlFetcher#fetch(URL, int)} for how the result is determined.
+   *
+   * @param url the url to fetch
+   * @param redirects the number of times to follow redirects
+   * @return a future for the html, which completes with {@code null} if unable to fetch the
+   *   resource or the resource is not html
+   *
+   * @see HtmlFetcher#fetch(URL, int)
+   */
+  public CompletableFuture<String> fetch(URL url, int redirects) {
+    CompletableFuture<String> result = new CompletableFuture<>();
+    submit(url, redirects, expiry(Long.MAX_VALUE, settings.getDeadline()), result);
+    return result;
+  }
+
+  /**
+   * Converts the {@link String} url into a {@link URL} object and then calls
+   * {@link #fetch(URL, int)}.
+   *
+   * @param url the url to fetch
+   * @param redirects the number of times to follow redirects
+   * @return a future for the html, which completes with {@code null} if unable to fetch the
+   *   resource or the resource is not html
+   *
+   * @see #fetch(URL, int)
+   */
+  public CompletableFuture<String> fetch(String url, int redirects) {
+    try {
+      return fetch(new URL(url), redirects);
+    }
+    catch (MalformedURLException e) {
+      return CompletableFuture.completedFuture(null);
+    }
+  }
+
+  /**
+   * Calls {@link #fetch(URL, int)} with 0 redirects.
+   *
+   * @param url the url to fetch
+   * @return a future for the html, which completes with {@code null} if unable to fetch the
+   *   resource or the resource is not html
+   */
+  public CompletableFuture<String> fetch(URL url) {
+    return fetch(url, 0);
+  }
+
+  /**
+   * Resolves the host of the URL and hands a new exchange to the next selector loop. Cached hosts
+   * resolve immediately, and the rest are looked up by the resolver without blocking this thread,
+   * which may be a selector thread following a redirect.
+   *
+   * @param url the url to fetch
+   * @param redirects the number of times to follow redirects
+   * @param deadline when the whole fetch expires in {@link System#nanoTime()} units, or
+   *   {@link Long#MAX_VALUE} if never
+   * @param result the future to complete once the fetch (including redirects) is done
+   */
+  private void submit(URL url, int redirects, long deadline, CompletableFuture<String> result) {
+    String protocol = url.getProtocol();
+    boolean https = protocol != null && protocol.equalsIgnoreCase("https");
+    int defaultPort = https ? 443 : 80;
+    int port = url.getPort() < 0 ? defaultPort : url.getPort();
+
+    settings.getResolver().resolveAsync(url.getHost())
+        .thenAccept(address -> {
+          EventLoop loop = loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+          loop.register(new Exchange(url, https, new InetSocketAddress(address, port), redirects, deadline, result));
+        })
+        .exceptionally(e -> {
+          result.complete(null);
+          return null;
+        });
+  }
+
+  /**
+   * Decides the result of a finished exchange, following a redirect if necessary.
+   *
+   * @param exchange the finished exchange
+   */
+  private void finish(Exchange exchange) {
+    try {
+      byte[] bytes = exchange.response.toByteArray();
+      HttpHeaders headers = HttpHeaders.parse(bytes);
+
+      if (headers.getStatusCode() == 200 && headers.isHtml()) {
+        int start = HttpHeaders.findContent(bytes, 0, bytes.length);
+        exchange.result.complete(start < 0 ? "" : content(bytes, start, headers));
+        return;
+      }
+
+      if (exchange.redirects > 0 && headers.isRedirect()) {
+        URL location = new URL(exchange.url, headers.getLocation());
+        submit(location, exchange.redirects - 1, exchange.deadline, exchange.result);
+        return;
+      }
+    }
+    catch (IOException | RuntimeException e) {
+      exchange.result.complete(null);
+      return;
+    }
+
+    exchange.result.complete(null);
+  }
+
+  /**
+   * Returns when a timeout started now expires, but never later than the deadline.
+   *
+   * @param deadline the latest possible expiry in {@link System#nanoTime()} units, or
+   *   {@link Long#MAX_VALUE} if none
+   * @param timeout the timeout, or zero for no limit
+   * @return the expiry in {@link System#nanoTime()} units, or {@link Long#MAX_VALUE} if never
+   */
+  private static long expiry(long deadline, Duration timeout) {
+    if (timeout.isZero()) {
+      return deadline;
+    }
+
+    return earlier(deadline, System.nanoTime() + timeout.toNanos());
+  }
+
+  /**
+   * Returns whether an expiry has passed.
+   *
+   * @param expires the expiry in {@link System#nanoTime()} units, or {@link Long#MAX_VALUE} if never
+   * @param now the current {@link System#nanoTime()}
+   * @return {@code true} if the expiry has passed
+   */
+  private static boolean expired(long expires, long now) {
+    return expires != Long.MAX_VALUE && expires - now <= 0;
+  }
+
+  /**
+   * Returns the earlier of two expiries.
+   *
+   * @param first an expiry, or {@link Long#MAX_VALUE} if never
+   * @param second another expiry, or {@link Long#MAX_VALUE} if never
+   * @return the earlier expiry
+   */
+  private static long earlier(long first, long second) {
+    if (first == Long.MAX_VALUE) {
+      return second;
+    }
+
+    return second == Long.MAX_VALUE || first - second < 0 ? first : second;
+  }
+
+  /**
+   * Decodes the content of a response and joins its lines the same way
+   * {@link HtmlFetcher#fetch(URL, int)} does.
+   *
+   * @param bytes the raw response bytes
+   * @param start where the content starts
+   * @param headers the headers of the response, which may declare the charset
+   * @return the content lines joined by newlines
+   * @throws IOException if unable to decode the content
+   */
+  private static String content(byte[] bytes, int start, HttpHeaders headers) throws IOException {
+    String content = ContentDecoder.decode(bytes, start, bytes.length - start, headers.getCharset());
+
+    try (BufferedReader reader = new BufferedReader(new StringReader(content))) {
+      return reader.lines().collect(Collectors.joining("\n"));
+    }
+  }
+
+  /**
+   * Stops all of the selector threads. Any exchanges still in progress complete with
+   * {@code null}.
+   */
+  @Override
+  public void close() {
+    for (EventLoop loop : loops) {
+      loop.shutdown();
+    }
+  }
+
+  /**
+   * A single selector thread and the exchanges registered with it.
+   */
+  private class EventLoop implements Runnable {
+
+    /** The selector for this loop. */
+    private final Selector selector;
+
+    /** The thread running this loop. */
+    private final Thread thread;
+
+    /** Exchanges waiting to be registered with the selector. */
+    private final Queue<Exchange> pending;
+
+    /**
+     * Shared buffer for decrypted or plain application data. Exchanges drain this buffer
+     * immediately after every read, so one buffer per loop is enough. It is a heap buffer so its
+     * bytes can be copied into the response without an intermediate array.
+     */
+    private final ByteBuffer appIn;
+
+    /** The size of the TLS packet buffers. */
+    private final int packetSize;
+
+    /** Idle TLS packet buffers, only used by the loop thread. */
+    private final Deque<ByteBuffer> buffers;
+
+    /** Whether this loop has been asked to stop. */
+    private volatile boolean shutdown;
+
+    /**
+     * Initializes a new loop.
+     *
+     * @param id the loop number, used for the thread name
+     * @throws IOException if unable to open the selector
+     */
+    public EventLoop(int id) throws IOException {
+      this.selector = Selector.open();
+      this.pending = new ConcurrentLinkedQueue<>();
+      this.shutdown = false;
+
+      SSLEngine engine = context.createSSLEngine();
+      int size = engine.getSession().getApplicationBufferSize();
+      this.appIn = ByteBuffer.allocate(Math.max(size, 16 * 1024));
+      this.packetSize = engine.getSession().getPacketBufferSize();
+      this.buffers = new ArrayDeque<>();
+
+      this.thread = new Thread(this, "fetch-loop-" + id);
+      this.thread.setDaemon(true);
+    }
+
+    /**
+     * Queues an exchange for this loop and wakes up the selector.
+     *
+     * @param exchange the exchange to register
+     */
+    public void register(Exchange exchange) {
+      if (shutdown) {
+        exchange.result.complete(null);
+        return;
+      }
+
+      pending.add(exchange);
+      selector.wakeup();
+    }
+
+    /**
+     * Returns an empty TLS packet buffer, reusing an idle one if possible. Must be called from the
+     * loop thread.
+     *
+     * @return the buffer, in write mode
+     */
+    private ByteBuffer acquire() {
+      ByteBuffer buffer = buffers.poll();
+      return buffer == null ? ByteBuffer.allocateDirect(packetSize) : buffer.clear();
+    }
+
+    /**
+     * Keeps a TLS packet buffer for reuse, unless it was enlarged or enough are already idle. Must
+     * be called from the loop thread.
+     *
+     * @param buffer the buffer, or {@code null} if none
+     */
+    private void release(ByteBuffer buffer) {
+      if (buffer != null && buffer.capacity() == packetSize && buffers.size() < POOLED_BUFFERS) {
+        buffers.push(buffer);
+      }
+    }
+
+    /**
+     * Closes every exchange that has expired, completing it with {@code null}.
+     *
+     * @return when the earliest remaining exchange expires, or {@link Long#MAX_VALUE} if never
+     */
+    private long expire() {
+      long now = System.nanoTime();
+      long sweep = Long.MAX_VALUE;
+
+      for (SelectionKey key : new ArrayList<>(selector.keys())) {
+        Exchange exchange = (Exchange) key.attachment();
+
+        if (!key.isValid()) {
+          continue;
+        }
+
+        if (expired(exchange.expires, now)) {
+          exchange.abandon();
+        }
+        else {
+          sweep = earlier(sweep, exchange.expires);
+        }
+      }
+
+      return sweep;
+    }
+
+    /**
+     * Asks the loop to stop and wakes up the selector.
+     */
+    public void shutdown() {
+      shutdown = true;
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      // when the earliest exchange may expire, which only ever errs on the early side
+      long sweep = Long.MAX_VALUE;
+
+      try {
+        while (!shutdown) {
+          if (sweep == Long.MAX_VALUE) {
+            selector.select();
+          }
+          else {
+            // round up, since waking up early would only spin until the expiry
+            long wait = TimeUnit.NANOSECONDS.toMillis(sweep - System.nanoTime() + 999_999);
+
+            if (wait > 0) {
+              selector.select(wait);
+            }
+            else {
+              selector.selectNow();
+            }
+          }
+
+          Exchange exchange;
+          while ((exchange = pending.poll()) != null) {
+            exchange.connect(this);
+            sweep = earlier(sweep, exchange.expires);
+          }
+
+          for (SelectionKey key : selector.selectedKeys()) {
+            exchange = (Exchange) key.attachment();
+            exchange.process(key, appIn);
+            sweep = earlier(sweep, exchange.expires);
+          }
+
+          selector.selectedKeys().clear();
+
+          if (expired(sweep, System.nanoTime())) {
+            sweep = expire();
+          }
+        }
+      }
+      catch (IOException | ClosedSelectorException e) {
+        // fall through and abandon any remaining exchanges
+      }
+      finally {
+        for (SelectionKey key : selector.keys()) {
+          ((Exchange) key.attachment()).abandon();
+        }
+
+        Exchange exchange;
+        while ((exchange = pending.poll()) != null) {
+          exchange.abandon();
+        }
+
+        try {
+          selector.close();
+        }
+        catch (IOException e) {
+          // nothing left to clean up
+        }
+      }
+    }
+  }
+
+  /**
+   * The state of a single HTTP/1.1 request and response over one connection.
+   */
+  private class Exchange {
+
+    /** The url being fetched. */
+    private final URL url;
+
+    /** The resolved address of the web server. */
+    private final InetSocketAddress address;
+
+    /** The number of redirects remaining. */
+    private final int redirects;
+
+    /** When the whole fetch expires, or {@link Long#MAX_VALUE} if never. */
+    private final long deadline;
+
+    /** The future to complete once the fetch is done. */
+    private final CompletableFuture<String> result;
+
+    /** The request bytes, which are consumed as they are written or wrapped. */
+    private final ByteBuffer request;
+
+    /** The raw response bytes received so far. */
+    private final ByteArrayOutputStream response;
+
+    /** The engine for HTTPS connections, or {@code null} for HTTP connections. */
+    private final SSLEngine engine;
+
+    /**
+     * Encrypted bytes waiting to be written to the channel (in read mode), borrowed from the loop
+     * once connected.
+     */
+    private ByteBuffer netOut;
+
+    /**
+     * Encrypted bytes read from the channel but not yet unwrapped (in write mode), borrowed from the
+     * loop once connected.
+     */
+    private ByteBuffer netIn;
+
+    /** The loop handling this exchange, or {@code null} until connecting. */
+    private EventLoop loop;
+
+    /** The channel for this exchange. */
+    private SocketChannel channel;
+
+    /** Whether the server has closed its side of the connection. */
+    private boolean eof;
+
+    /** When the handshake started in milliseconds since the epoch, or 0 once recorded. */
+    private long handshake;
+
+    /** When the current connect or read times out, or {@link Long#MAX_VALUE} if never. */
+    private long expires;
+
+    /**
+     * Initializes a new exchange.
+     *
+     * @param url the url to fetch
+     * @param https whether to use TLS
+     * @param address the resolved address of the web server
+     * @param redirects the number of redirects remaining
+     * @param deadline when the whole fetch expires, or {@link Long#MAX_VALUE} if never
+     * @param result the future to complete once the fetch is done
+     */
+    public Exchange(URL url, boolean https, InetSocketAddress address, int redirects, long deadline,
+        CompletableFuture<String> result) {
+      this.url = url;
+      this.address = address;
+      this.redirects = redirects;
+      this.deadline = deadline;
+      this.result = result;
+      this.response = new ByteArrayOutputStream();
+      this.eof = false;
+      this.expires = deadline;
+
+      StringWriter writer = new StringWriter();
+      try (PrintWriter printer = new PrintWriter(writer)) {
+        HttpsFetcher.printGetRequest(printer, url);
+      }
+      catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+
+      this.request = ByteBuffer.wrap(writer.toString().getBytes(StandardCharsets.UTF_8));
+
+      if (https) {
+        this.engine = context.createSSLEngine(url.getHost(), address.getPort());
+        this.engine.setUseClientMode(true);
+
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        this.engine.setSSLParameters(parameters);
+      }
+      else {
+        this.engine = null;
+      }
+    }
+
+    /**
+     * Opens a non-blocking channel and starts connecting to the web server.
+     *
+     * @param loop the loop to register the channel with
+     */
+    public void connect(EventLoop loop) {
+      this.loop = loop;
+      Selector selector = loop.selector;
+      expires = expiry(deadline, settings.getConnectTimeout());
+
+      try {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, settings.isTcpNoDelay());
+
+        if (settings.getReceiveBufferSize() > 0) {
+          channel.setOption(StandardSocketOptions.SO_RCVBUF, settings.getReceiveBufferSize());
+        }
+
+        channel.register(selector, SelectionKey.OP_CONNECT, this);
+
+        if (channel.connect(address)) {
+          start(channel.keyFor(selector));
+        }
+      }
+      catch (IOException e) {
+        abandon();
+      }
+    }
+
+    /**
+     * Handles a readiness event for this exchange.
+     *
+     * @param key the selection key for this exchange
+     * @param appIn the shared application data buffer of the loop
+     */
+    public void process(SelectionKey key, ByteBuffer appIn) {
+      try {
+        if (key.isConnectable()) {
+          if (!channel.finishConnect()) {
+            return;
+          }
+
+          start(key);
+        }
+
+        boolean done = engine == null ? plainStep(appIn) : secureStep(appIn);
+
+        if (done) {
+          close();
+          finish(this);
+        }
+        else {
+          boolean writing = engine == null ? request.hasRemaining() : netOut.hasRemaining();
+          key.interestOps(SelectionKey.OP_READ | (writing ? SelectionKey.OP_WRITE : 0));
+        }
+      }
+      catch (IOException | RuntimeException e) {
+        abandon();
+      }
+    }
+
+    /**
+     * Called once the connection is established.
+     *
+     * @param key the selection key for this exchange
+     * @throws SSLException if unable to start the handshake
+     */
+    private void start(SelectionKey key) throws SSLException {
+      expires = expiry(deadline, settings.getReadTimeout());
+
+      if (engine != null) {
+        netOut = loop.acquire().flip();
+        netIn = loop.acquire();
+        handshake = System.currentTimeMillis();
+        engine.beginHandshake();
+      }
+
+      key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Writes the request and reads the response over a plain connection, as far as possible
+     * without blocking.
+     *
+     * @param appIn the shared application data buffer
+     * @return {@code true} if the server has closed the connection
+     * @throws IOException if unable to read or write
+     */
+    private boolean plainStep(ByteBuffer appIn) throws IOException {
+      if (request.hasRemaining()) {
+        channel.write(request);
+      }
+
+      int read;
+
+      do {
+        appIn.clear();
+        read = channel.read(appIn);
+        drain(appIn);
+
+        if (read > 0) {
+          expires = expiry(deadline, settings.getReadTimeout());
+        }
+      } while (read > 0);
+
+      return read < 0;
+    }
+
+    /**
+     * Advances the handshake, writes the request and reads the response over a TLS connection,
+     * as far as possible without blocking.
+     *
+     * @param appIn the shared application data buffer
+     * @return {@code true} if the server has closed the connection
+     * @throws IOException if unable to read, write, or process TLS records
+     */
+    private boolean secureStep(ByteBuffer appIn) throws IOException {
+      boolean progress = true;
+
+      while (progress && !engine.isInboundDone()) {
+        switch (engine.getHandshakeStatus()) {
+          case NEED_TASK:
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+              task.run();
+            }
+            progress = true;
+            break;
+
+          case NEED_WRAP:
+            progress = wrap(EMPTY);
+            break;
+
+          case NEED_UNWRAP:
+          case NEED_UNWRAP_AGAIN:
+            progress = unwrap(appIn);
+            break;
+
+          default:
+            progress = wrap(request) | unwrap(appIn);
+            break;
+        }
+
+        if (eof && !progress) {
+          break;
+        }
+      }
+
+      flush();
+      return eof || engine.isInboundDone();
+    }
+
+    /**
+     * Wraps outgoing data into the network buffer and writes it to the channel.
+     *
+     * @param source the outgoing application data
+     * @return {@code true} if any progress was made
+     * @throws IOException if unable to wrap or write
+     */
+    private boolean wrap(ByteBuffer source) throws IOException {
+      if (!flush() || (source != EMPTY && !source.hasRemaining())) {
+        return false;
+      }
+
+      netOut.clear();
+      SSLEngineResult result = engine.wrap(source, netOut);
+      netOut.flip();
+      finished(result);
+
+      if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+        ByteBuffer larger = ByteBuffer.allocateDirect(netOut.capacity() * 2).flip();
+        loop.release(netOut);
+        netOut = larger;
+        return true;
+      }
+
+      flush();
+      return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+    }
+
+    /**
+     * Reads from the channel and unwraps as much data as possible.
+     *
+     * @param appIn the shared application data buffer
+     * @return {@code true} if any progress was made
+     * @throws IOException if unable to read or unwrap
+     */
+    private boolean unwrap(ByteBuffer appIn) throws IOException {
+      int read = eof ? 0 : channel.read(netIn);
+
+      if (read < 0) {
+        eof = true;
+      }
+      else if (read > 0) {
+        expires = expiry(deadline, settings.getReadTimeout());
+      }
+
+      netIn.flip();
+      appIn.clear();
+      SSLEngineResult result = engine.unwrap(netIn, appIn);
+      netIn.compact();
+      drain(appIn);
+      finished(result);
+
+      switch (result.getStatus()) {
+        case BUFFER_UNDERFLOW:
+          if (netIn.position() == netIn.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(netIn.capacity() * 2);
+            netIn.flip();
+            larger.put(netIn);
+            loop.release(netIn);
+            netIn = larger;
+          }
+          return read > 0;
+
+        case CLOSED:
+          return false;
+
+        default:
+          return read > 0 || result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+      }
+    }
+
+    /**
+     * Records the handshake statistics if the result completed the initial handshake. Later
+     * results may also report finishing, such as after a TLS 1.3 session ticket arrives.
+     *
+     * @param result the result of the last wrap or unwrap
+     */
+    private void finished(SSLEngineResult result) {
+      if (handshake > 0 && result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+        settings.getHandshakeStatistics().record(engine.getSession(), handshake);
+        handshake = 0;
+      }
+    }
+
+    /**
+     * Writes any pending encrypted bytes to the channel.
+     *
+     * @return {@code true} if no bytes remain pending
+     * @throws IOException if unable to write
+     */
+    private boolean flush() throws IOException {
+      if (netOut.hasRemaining()) {
+        channel.write(netOut);
+      }
+
+      return !netOut.hasRemaining();
+    }
+
+    /**
+     * Copies the application data read so far into the response.
+     *
+     * @param appIn the shared application data buffer (in write mode)
+     * @throws IOException if the response grows larger than {@link #MAX_RESPONSE} bytes
+     */
+    private void drain(ByteBuffer appIn) throws IOException {
+      appIn.flip();
+
+      if (appIn.remaining() > MAX_RESPONSE - response.size()) {
+        throw new IOException("Response larger than " + MAX_RESPONSE + " bytes: " + url);
+      }
+
+      response.write(appIn.array(), appIn.arrayOffset() + appIn.position(), appIn.remaining());
+      appIn.clear();
+    }
+
+    /**
+     * Closes the channel for this exchange and returns its TLS packet buffers to the loop.
+     */
+    private void close() {
+      if (loop != null) {
+        loop.release(netOut);
+        loop.release(netIn);
+        netOut = null;
+        netIn = null;
+      }
+
+      try {
+        if (engine != null) {
+          engine.closeOutbound();
+        }
+
+        if (channel != null) {
+          channel.close();
+        }
+      }
+      catch (IOException e) {
+        // already closing
+      }
+    }
+
+    /**
+     * Closes the channel and completes the result with {@code null}.
+     */
+    public void abandon() {
+      close();
+      result.complete(null);
+    }
+  }
+}
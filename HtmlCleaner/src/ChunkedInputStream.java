@@ -0,0 +1,173 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes content sent using chunked transfer encoding as it is read, so the chunk sizes and
+ * trailers never appear in the content. Reading stops at the last (empty) chunk without consuming
+ * anything after the trailers, so the underlying stream may be used for another response.
+ */
+public class ChunkedInputStream extends FilterInputStream {
+
+  /** The number of bytes left in the current chunk. */
+  private int remaining;
+
+  /** Whether the last chunk and trailers have been read. */
+  private boolean done;
+
+  /**
+   * Initializes a stream positioned at the first chunk size.
+   *
+   * @param in the stream of the response, which should be buffered
+   */
+  public ChunkedInputStream(InputStream in) {
+    super(in);
+    this.remaining = 0;
+    this.done = false;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!nextChunk()) {
+      return -1;
+    }
+
+    int next = in.read();
+
+    if (next < 0) {
+      throw new EOFException("Connection closed while reading chunks.");
+    }
+
+    remaining--;
+    return next;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+
+    if (!nextChunk()) {
+      return -1;
+    }
+
+    int read = in.read(bytes, offset, Math.min(length, remaining));
+
+    if (read < 0) {
+      throw new EOFException("Connection closed while reading chunks.");
+    }
+
+    remaining -= read;
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = 0;
+
+    while (skipped < n && nextChunk()) {
+      long step = in.skip(Math.min(n - skipped, remaining));
+
+      if (step <= 0) {
+        break;
+      }
+
+      remaining -= step;
+      skipped += step;
+    }
+
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return done ? 0 : Math.min(in.available(), remaining);
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  /**
+   * Moves to the next chunk if the current one has been completely read.
+   *
+   * @return {@code false} if there are no more chunks
+   * @throws IOException if unable to read the chunk size, or it is not a hex number that fits in
+   *   an int
+   */
+  private boolean nextChunk() throws IOException {
+    if (done) {
+      return false;
+    }
+
+    if (remaining > 0) {
+      return true;
+    }
+
+    String size = readLine(in);
+
+    // the line ending after the previous chunk
+    if (size != null && size.isEmpty()) {
+      size = readLine(in);
+    }
+
+    if (size == null) {
+      throw new EOFException("Connection closed while reading chunks.");
+    }
+
+    int extension = size.indexOf(';');
+    String digits = (extension < 0 ? size : size.substring(0, extension)).strip();
+
+    // parseInt also accepts a sign, which would make a negative size
+    if (digits.isEmpty() || Character.digit(digits.charAt(0), 16) < 0) {
+      throw new IOException("Invalid chunk size: " + size);
+    }
+
+    try {
+      remaining = Integer.parseInt(digits, 16);
+    }
+    catch (NumberFormatException e) {
+      throw new IOException("Invalid chunk size: " + size, e);
+    }
+
+    if (remaining == 0) {
+      String trailer;
+      while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+        continue;
+      }
+
+      done = true;
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Reads a single line terminated by a line feed, removing any carriage return before it.
+   *
+   * @param in the stream to read from
+   * @return the line without its terminator, or {@code null} if the stream ended first
+   * @throws IOException if unable to read from the stream
+   */
+  public static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int next;
+
+    while ((next = in.read()) >= 0 && next != '\n') {
+      line.write(next);
+    }
+
+    if (next < 0 && line.size() == 0) {
+      return null;
+    }
+
+    String text = line.toString(StandardCharsets.ISO_8859_1);
+    return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+  }
+}
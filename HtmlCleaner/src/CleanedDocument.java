@@ -0,0 +1,53 @@
+import java.net.URL;
+import java.util.Objects;
+
+/**
+ * The cleaned text of a fetched page, along with the url it was fetched from. Documents are
+ * immutable.
+ *
+ * @see DocumentPublisher
+ */
+public class CleanedDocument {
+
+  /** The url that was fetched. */
+  private final URL url;
+
+  /** The cleaned text. */
+  private final String text;
+
+  /**
+   * Initializes a document.
+   *
+   * @param url the url that was fetched
+   * @param text the cleaned text
+   */
+  public CleanedDocument(URL url, String text) {
+    this.url = Objects.requireNonNull(url);
+    this.text = Objects.requireNonNull(text);
+  }
+
+  /**
+   * Returns the url that was fetched, before following any redirects.
+   *
+   * @return the url
+   */
+  public URL getUrl() {
+    return url;
+  }
+
+  /**
+   * Returns the cleaned text of the page.
+   *
+   * @return the text
+   *
+   * @see HtmlCleaner#stripHtml(String)
+   */
+  public String getText() {
+    return text;
+  }
+
+  @Override
+  public String toString() {
+    return url + " (" + text.length() + " characters)";
+  }
+}
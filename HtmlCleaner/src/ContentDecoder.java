@@ -0,0 +1,498 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Locale;
+
+/**
+ * Decodes the content of a response into characters using the charset it declares, rather than
+ * assuming UTF-8. The charset is resolved once per response from the "Content-Type" header, then
+ * a byte order mark, then a {@code <meta>} tag within the first {@link #SNIFF} bytes, and
+ * otherwise defaults to UTF-8.
+ *
+ * The reader decodes through a single reusable {@link CharsetDecoder} and byte buffer. Runs of
+ * ASCII bytes are copied straight to characters when the charset maps them to themselves, so
+ * mostly-ASCII pages cost little more than a copy. Malformed input is replaced the same way
+ * {@link java.io.InputStreamReader} does.
+ */
+public class ContentDecoder extends Reader {
+
+  /** The number of leading content bytes searched for a {@code <meta>} charset. */
+  public static final int SNIFF = 1024;
+
+  /** The charset used when the response does not declare one. */
+  public static final Charset DEFAULT = StandardCharsets.UTF_8;
+
+  /** The longest byte order mark. */
+  private static final int MAX_BOM = 3;
+
+  /** The smallest byte buffer, which always holds a complete character in any charset. */
+  private static final int MIN_BUFFER = 64;
+
+  /** The source of the content bytes. */
+  private final InputStream input;
+
+  /** The charset of the content. */
+  private final Charset charset;
+
+  /** Decodes the content bytes, reused for the whole response. */
+  private final CharsetDecoder decoder;
+
+  /** Whether ASCII bytes may be copied to characters without decoding. */
+  private final boolean ascii;
+
+  /** The bytes read but not yet decoded, ready for reading. */
+  private final ByteBuffer bytes;
+
+  /** Holds both halves of a surrogate pair when only one character was requested. */
+  private final CharBuffer pair;
+
+  /** Whether the input has ended. */
+  private boolean ended;
+
+  /** Whether the decoder has been flushed after the input ended. */
+  private boolean flushed;
+
+  /**
+   * Initializes a decoder for content in a known charset.
+   *
+   * @param input the source of the content bytes
+   * @param charset the charset of the content
+   * @param size the number of bytes to read at a time
+   */
+  public ContentDecoder(InputStream input, Charset charset, int size) {
+    this(input, charset, size, new byte[0], 0, 0);
+  }
+
+  /**
+   * Initializes a decoder whose first bytes were already read from the input.
+   *
+   * @param input the source of the remaining content bytes
+   * @param charset the charset of the content
+   * @param size the number of bytes to read at a time
+   * @param first the bytes already read
+   * @param offset where the bytes already read start
+   * @param length the number of bytes already read
+   */
+  private ContentDecoder(InputStream input, Charset charset, int size, byte[] first, int offset, int length) {
+    this.input = input;
+    this.charset = charset;
+    this.decoder = charset.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    this.ascii = isAsciiCompatible(charset);
+    this.bytes = ByteBuffer.allocate(Math.max(MIN_BUFFER, Math.max(size, length)));
+    this.pair = CharBuffer.allocate(2);
+    this.ended = false;
+    this.flushed = false;
+
+    bytes.put(first, offset, length).flip();
+    pair.flip();
+  }
+
+  /**
+   * Opens a decoder for the content in a stream, resolving the charset from the declared charset
+   * and the first bytes of the content. Any byte order mark is skipped.
+   *
+   * @param input the stream positioned at the start of the content
+   * @param declared the charset from the "Content-Type" header, or {@code null} if none
+   * @param size the number of bytes to read at a time
+   * @return the decoder
+   * @throws IOException if unable to read the first bytes
+   */
+  public static ContentDecoder open(InputStream input, String declared, int size) throws IOException {
+    Charset header = lookup(declared);
+    byte[] first = new byte[header == null ? SNIFF : MAX_BOM];
+    int length = input.readNBytes(first, 0, first.length);
+
+    Charset charset = detect(header, first, 0, length);
+    int bom = getBomLength(charset, first, 0, length);
+    return new ContentDecoder(input, charset, size, first, bom, length - bom);
+  }
+
+  /**
+   * Decodes content that was read in full, skipping any byte order mark. Pure ASCII content in an
+   * ASCII compatible charset is copied without decoding.
+   *
+   * @param content the content bytes
+   * @param offset where the content starts
+   * @param length the number of content bytes
+   * @param declared the charset from the "Content-Type" header, or {@code null} if none
+   * @return the decoded content
+   */
+  public static String decode(byte[] content, int offset, int length, String declared) {
+    Charset charset = detect(lookup(declared), content, offset, length);
+    int bom = getBomLength(charset, content, offset, length);
+
+    if (isAsciiCompatible(charset) && isAscii(content, offset + bom, length - bom)) {
+      return new String(content, offset + bom, length - bom, StandardCharsets.ISO_8859_1);
+    }
+
+    return new String(content, offset + bom, length - bom, charset);
+  }
+
+  /**
+   * Resolves the charset of content from the declared charset, then a byte order mark, then a
+   * {@code <meta>} tag within the first {@link #SNIFF} bytes, defaulting to {@link #DEFAULT}.
+   *
+   * @param declared the charset from the "Content-Type" header, or {@code null} if none
+   * @param content the first bytes of the content
+   * @param offset where the content starts
+   * @param length the number of bytes available
+   * @return the charset to decode with
+   */
+  public static Charset detect(String declared, byte[] content, int offset, int length) {
+    return detect(lookup(declared), content, offset, length);
+  }
+
+  /**
+   * See {@link #detect(String, byte[], int, int)} for details.
+   *
+   * @param header the supported charset from the header, or {@code null} if none
+   * @param content the first bytes of the content
+   * @param offset where the content starts
+   * @param length the number of bytes available
+   * @return the charset to decode with
+   */
+  private static Charset detect(Charset header, byte[] content, int offset, int length) {
+    Charset bom = getBomCharset(content, offset, length);
+
+    if (header != null) {
+      // a byte order mark only settles which way round a declared utf-16 is
+      boolean wide = header.name().startsWith("UTF-16");
+      return wide && bom != null && bom.name().startsWith("UTF-16") ? bom : header;
+    }
+
+    if (bom != null) {
+      return bom;
+    }
+
+    Charset meta = lookup(sniff(content, offset, Math.min(length, SNIFF)));
+
+    if (meta != null) {
+      // a meta tag readable as ascii cannot really be in utf-16
+      return meta.name().startsWith("UTF-16") ? StandardCharsets.UTF_8 : meta;
+    }
+
+    return DEFAULT;
+  }
+
+  /**
+   * Looks up a charset by name, which may be quoted. Labels for ISO-8859-1 and US-ASCII are treated as windows-1252,
+   * which browsers also do since pages labelled that way often use its extra characters.
+   *
+   * @param name the charset name, or {@code null}
+   * @return the charset, or {@code null} if the name is missing or not supported
+   */
+  public static Charset lookup(String name) {
+    if (name == null || name.isBlank()) {
+      return null;
+    }
+
+    String stripped = name.strip();
+
+    if (stripped.length() >= 2 && stripped.startsWith("\"") && stripped.endsWith("\"")) {
+      stripped = stripped.substring(1, stripped.length() - 1);
+    }
+
+    try {
+      Charset charset = Charset.forName(stripped);
+
+      if (charset.equals(StandardCharsets.ISO_8859_1) || charset.equals(StandardCharsets.US_ASCII)) {
+        return Charset.isSupported("windows-1252") ? Charset.forName("windows-1252") : charset;
+      }
+
+      return charset;
+    }
+    catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Finds the charset named by a {@code <meta charset>} or {@code <meta http-equiv>} tag. The
+   * bytes are read as ASCII, which every charset a meta tag can be found in agrees with.
+   *
+   * @param content the first bytes of the content
+   * @param offset where the content starts
+   * @param length the number of bytes to search
+   * @return the charset name, or {@code null} if none was found
+   */
+  public static String sniff(byte[] content, int offset, int length) {
+    String text = new String(content, offset, length, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+    int index = 0;
+
+    while ((index = text.indexOf("<meta", index)) >= 0) {
+      int end = text.indexOf('>', index);
+
+      if (end < 0) {
+        break;
+      }
+
+      String tag = text.substring(index, end);
+      int charset = tag.indexOf("charset");
+
+      if (charset >= 0) {
+        int start = charset + "charset".length();
+
+        while (start < tag.length() && Character.isWhitespace(tag.charAt(start))) {
+          start++;
+        }
+
+        if (start < tag.length() && tag.charAt(start) == '=') {
+          start++;
+
+          while (start < tag.length() && (Character.isWhitespace(tag.charAt(start)) ||
+              tag.charAt(start) == '"' || tag.charAt(start) == '\'')) {
+            start++;
+          }
+
+          int stop = start;
+
+          while (stop < tag.length() && "\"'; \t\r\n/".indexOf(tag.charAt(stop)) < 0) {
+            stop++;
+          }
+
+          if (stop > start) {
+            return tag.substring(start, stop);
+          }
+        }
+      }
+
+      index = end;
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the charset indicated by a byte order mark at the start of the content.
+   *
+   * @param content the first bytes of the content
+   * @param offset where the content starts
+   * @param length the number of bytes available
+   * @return the charset, or {@code null} if there is no byte order mark
+   */
+  private static Charset getBomCharset(byte[] content, int offset, int length) {
+    if (length >= 3 && (content[offset] & 0xFF) == 0xEF && (content[offset + 1] & 0xFF) == 0xBB &&
+        (content[offset + 2] & 0xFF) == 0xBF) {
+      return StandardCharsets.UTF_8;
+    }
+
+    if (length >= 2 && (content[offset] & 0xFF) == 0xFE && (content[offset + 1] & 0xFF) == 0xFF) {
+      return StandardCharsets.UTF_16BE;
+    }
+
+    if (length >= 2 && (content[offset] & 0xFF) == 0xFF && (content[offset + 1] & 0xFF) == 0xFE) {
+      return StandardCharsets.UTF_16LE;
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the length of the byte order mark to skip, if it marks the charset being used.
+   *
+   * @param charset the charset being used
+   * @param content the first bytes of the content
+   * @param offset where the content starts
+   * @param length the number of bytes available
+   * @return the number of bytes to skip
+   */
+  private static int getBomLength(Charset charset, byte[] content, int offset, int length) {
+    Charset bom = getBomCharset(content, offset, length);
+
+    if (bom == null || !bom.equals(charset)) {
+      return 0;
+    }
+
+    return bom.equals(StandardCharsets.UTF_8) ? 3 : 2;
+  }
+
+  /**
+   * Determines whether a charset decodes every ASCII byte to the same character on its own, so
+   * runs of those bytes can be copied. Stateful charsets that switch modes with escape sequences
+   * fail this check, since the escape bytes do not decode alone.
+   *
+   * @param charset the charset
+   * @return {@code true} if ASCII bytes may be copied without decoding
+   */
+  private static boolean isAsciiCompatible(Charset charset) {
+    if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1) ||
+        charset.equals(StandardCharsets.US_ASCII)) {
+      return true;
+    }
+
+    byte[] ascii = new byte[128];
+
+    for (int i = 0; i < ascii.length; i++) {
+      ascii[i] = (byte) i;
+    }
+
+    String decoded = new String(ascii, charset);
+
+    if (decoded.length() != ascii.length) {
+      return false;
+    }
+
+    for (int i = 0; i < ascii.length; i++) {
+      if (decoded.charAt(i) != i) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Determines whether every byte is ASCII.
+   *
+   * @param content the bytes
+   * @param offset where to start
+   * @param length the number of bytes
+   * @return {@code true} if no byte has the high bit set
+   */
+  private static boolean isAscii(byte[] content, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      if (content[i] < 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the charset the content is decoded with.
+   *
+   * @return the charset
+   */
+  public Charset getCharset() {
+    return charset;
+  }
+
+  @Override
+  public int read(char[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+
+    if (pair.hasRemaining()) {
+      buffer[offset] = pair.get();
+      return 1;
+    }
+
+    while (true) {
+      int copied = ascii ? copyAscii(buffer, offset, length) : 0;
+
+      if (copied > 0) {
+        return copied;
+      }
+
+      // a lone requested character may need room for both halves of a surrogate pair
+      CharBuffer output = length == 1 ? pair.clear() : CharBuffer.wrap(buffer, offset, length);
+      int decoded = decode(output);
+
+      if (length == 1) {
+        pair.flip();
+
+        if (pair.hasRemaining()) {
+          buffer[offset] = pair.get();
+          return 1;
+        }
+      }
+      else if (decoded > 0) {
+        return decoded;
+      }
+
+      if (flushed) {
+        return -1;
+      }
+
+      if (!ended && !bytes.hasRemaining() || decoded == 0) {
+        fill();
+      }
+    }
+  }
+
+  /**
+   * Copies the run of ASCII bytes at the front of the buffer straight into characters.
+   *
+   * @param buffer where to copy the characters
+   * @param offset where to start copying
+   * @param length the most characters to copy
+   * @return the number of characters copied
+   */
+  private int copyAscii(char[] buffer, int offset, int length) {
+    byte[] array = bytes.array();
+    int start = bytes.position();
+    int limit = start + Math.min(length, bytes.remaining());
+    int i = start;
+
+    while (i < limit && array[i] >= 0) {
+      buffer[offset++] = (char) array[i++];
+    }
+
+    bytes.position(i);
+    return i - start;
+  }
+
+  /**
+   * Decodes as many buffered bytes as fit in the output, flushing the decoder once the input has
+   * ended and every byte is decoded.
+   *
+   * @param output where to decode the characters
+   * @return the number of characters decoded
+   */
+  private int decode(CharBuffer output) {
+    int start = output.position();
+
+    if (flushed) {
+      return 0;
+    }
+
+    CoderResult result = decoder.decode(bytes, output, ended);
+
+    if (ended && result.isUnderflow()) {
+      flushed = decoder.flush(output).isUnderflow();
+    }
+
+    return output.position() - start;
+  }
+
+  /**
+   * Reads more bytes into the buffer, keeping any that were not yet decoded.
+   *
+   * @throws IOException if unable to read
+   */
+  private void fill() throws IOException {
+    if (ended) {
+      return;
+    }
+
+    bytes.compact();
+    int read = input.read(bytes.array(), bytes.position(), bytes.remaining());
+
+    if (read < 0) {
+      ended = true;
+    }
+    else {
+      bytes.position(bytes.position() + read);
+    }
+
+    bytes.flip();
+  }
+
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+}
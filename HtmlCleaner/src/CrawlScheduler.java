@@ -0,0 +1,494 @@
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A crawl frontier that hands out URLs politely. Every host has its own first-in first-out queue
+ * of URLs, and hosts wait in a priority queue ordered by when they may next be fetched. A host is
+ * only handed out again once the previous fetch from it is done and its delay has passed, and no
+ * more than a fixed number of fetches are active at once.
+ *
+ * Queued URLs are stored as packed bytes per host (see {@link PackedUrlQueue}), so millions of
+ * queued URLs cost little more than their UTF-8 encoding.
+ *
+ * @see HtmlFetcher#fetch(URL, int, FetchContext)
+ */
+public class CrawlScheduler {
+
+  /** The default delay between fetches from the same host. */
+  public static final Duration DELAY = Duration.ofSeconds(1);
+
+  /** The queue of every host keyed by protocol, host, and port. */
+  private final HashMap<String, HostQueue> hosts;
+
+  /** The hosts with queued urls that are not being fetched, by next allowed fetch time. */
+  private final PriorityQueue<HostQueue> ready;
+
+  /** Guards every field below. */
+  private final ReentrantLock lock;
+
+  /** Signalled whenever a host may have become ready or the frontier may be drained. */
+  private final Condition changed;
+
+  /** The maximum number of active fetches. */
+  private final int concurrency;
+
+  /** The default delay between fetches from the same host in nanoseconds. */
+  private final long delay;
+
+  /** The number of queued urls. */
+  private long size;
+
+  /** The number of urls handed out but not done. */
+  private int active;
+
+  /** Used to break ties between hosts allowed at the same time. */
+  private long sequence;
+
+  /** Whether the scheduler was closed. */
+  private boolean closed;
+
+  /**
+   * Initializes a scheduler with the default delay.
+   *
+   * @param concurrency the maximum number of active fetches
+   */
+  public CrawlScheduler(int concurrency) {
+    this(concurrency, DELAY);
+  }
+
+  /**
+   * Initializes a scheduler.
+   *
+   * @param concurrency the maximum number of active fetches
+   * @param delay the default delay between fetches from the same host
+   */
+  public CrawlScheduler(int concurrency, Duration delay) {
+    if (concurrency < 1 || delay.isNegative()) {
+      throw new IllegalArgumentException("Concurrency must be positive and durations may not be negative.");
+    }
+
+    this.hosts = new HashMap<>();
+    this.ready = new PriorityQueue<>();
+    this.lock = new ReentrantLock();
+    this.changed = lock.newCondition();
+    this.concurrency = concurrency;
+    this.delay = delay.toNanos();
+    this.size = 0;
+    this.active = 0;
+    this.sequence = 0;
+    this.closed = false;
+  }
+
+  /**
+   * Adds a url to the end of its host queue. Only http and https urls are accepted.
+   *
+   * @param url the url to fetch
+   * @return {@code true} if the url was queued
+   */
+  public boolean add(URL url) {
+    String protocol = url.getProtocol().toLowerCase(Locale.ROOT);
+
+    if (!protocol.equals("http") && !protocol.equals("https") || url.getHost().isEmpty()) {
+      return false;
+    }
+
+    String file = url.getFile().isEmpty() ? "/" : url.getFile();
+
+    lock.lock();
+
+    try {
+      if (closed) {
+        return false;
+      }
+
+      HostQueue host = hosts.computeIfAbsent(key(url), k -> new HostQueue(origin(url)));
+      host.urls.add(file);
+      size++;
+
+      if (!host.busy && host.urls.size() == 1) {
+        schedule(host);
+      }
+
+      return true;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Changes the delay between fetches from the host of a url, for example to honor a crawl delay.
+   *
+   * @param origin any url on the host
+   * @param hostDelay the delay between fetches from that host
+   */
+  public void setDelay(URL origin, Duration hostDelay) {
+    if (hostDelay.isNegative()) {
+      throw new IllegalArgumentException("Durations may not be negative.");
+    }
+
+    lock.lock();
+
+    try {
+      hosts.computeIfAbsent(key(origin), k -> new HostQueue(origin(origin))).delay = hostDelay.toNanos();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until a host may be fetched and fewer than the maximum number of fetches are active,
+   * then returns the oldest url queued for that host. Every returned url must be passed to
+   * {@link #done(URL)} once fetched.
+   *
+   * @return the next url to fetch, or {@code null} if nothing is queued or active, or the
+   *   scheduler was closed
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public URL take() throws InterruptedException {
+    lock.lock();
+
+    try {
+      while (true) {
+        if (closed || (size == 0 && active == 0)) {
+          return null;
+        }
+
+        HostQueue host = ready.peek();
+
+        if (host == null || active >= concurrency) {
+          changed.await();
+          continue;
+        }
+
+        long wait = host.allowed - System.nanoTime();
+
+        if (wait > 0) {
+          changed.awaitNanos(wait);
+          continue;
+        }
+
+        ready.poll();
+        host.busy = true;
+        active++;
+        size--;
+
+        String file = host.urls.poll();
+
+        try {
+          return new URL(host.origin + file);
+        }
+        catch (MalformedURLException e) {
+          // only possible if the url changed form, so drop it and move on
+          release(host);
+        }
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Marks a url returned by {@link #take()} as fetched, so its host may be fetched again after
+   * its delay.
+   *
+   * @param url the url that was fetched
+   */
+  public void done(URL url) {
+    lock.lock();
+
+    try {
+      HostQueue host = hosts.get(key(url));
+
+      if (host == null || !host.busy) {
+        throw new IllegalStateException("The url was not taken from this scheduler: " + url);
+      }
+
+      release(host);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of queued urls.
+   *
+   * @return the number of urls not yet taken
+   */
+  public long size() {
+    lock.lock();
+
+    try {
+      return size;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of urls taken but not yet done.
+   *
+   * @return the number of active fetches
+   */
+  public int active() {
+    lock.lock();
+
+    try {
+      return active;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of hosts seen so far.
+   *
+   * @return the number of hosts
+   */
+  public int hosts() {
+    lock.lock();
+
+    try {
+      return hosts.size();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stops handing out urls and wakes up every waiting thread. Queued urls are discarded.
+   */
+  public void close() {
+    lock.lock();
+
+    try {
+      closed = true;
+      changed.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Fetches every queued url, and any url added while crawling, using as many worker threads as
+   * the maximum number of active fetches. Returns once the frontier is drained or the scheduler is
+   * closed. The results are called from the worker threads with {@code null} html for failed
+   * fetches, and may add more urls to crawl.
+   *
+   * @param context the settings for each fetch
+   * @param redirects the number of redirects to follow for each url
+   * @param results called with each url and its html
+   * @throws InterruptedException if interrupted while waiting for the workers
+   */
+  public void crawl(FetchContext context, int redirects, BiConsumer<URL, String> results)
+      throws InterruptedException {
+    crawl(context, redirects, null, results);
+  }
+
+  /**
+   * Crawls the same way as {@link #crawl(FetchContext, int, BiConsumer)}, but honors the
+   * robots.txt rules of each host. Urls that are not allowed are skipped without calling the
+   * results, and a crawl delay longer than the delay of a host replaces it.
+   *
+   * @param context the settings for each fetch
+   * @param redirects the number of redirects to follow for each url
+   * @param robots the robots.txt rules of each host, or {@code null} to ignore them
+   * @param results called with each allowed url and its html
+   * @throws InterruptedException if interrupted while waiting for the workers
+   */
+  public void crawl(FetchContext context, int redirects, RobotsCache robots,
+      BiConsumer<URL, String> results) throws InterruptedException {
+    List<Thread> workers = new ArrayList<>(concurrency);
+
+    for (int i = 0; i < concurrency; i++) {
+      Thread worker = new Thread(() -> {
+        try {
+          URL url;
+
+          while ((url = take()) != null) {
+            try {
+              if (robots == null) {
+                results.accept(url, HtmlFetcher.fetch(url, redirects, context));
+              }
+              else if (robots.isAllowed(url)) {
+                slowDown(url, robots.getCrawlDelay(url));
+                results.accept(url, HtmlFetcher.fetch(url, redirects, context));
+              }
+            }
+            finally {
+              done(url);
+            }
+          }
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }, "crawl-" + i);
+
+      worker.setDaemon(true);
+      worker.start();
+      workers.add(worker);
+    }
+
+    try {
+      for (Thread worker : workers) {
+        worker.join();
+      }
+    }
+    catch (InterruptedException e) {
+      close();
+      workers.forEach(Thread::interrupt);
+      throw e;
+    }
+  }
+
+  @Override
+  public String toString() {
+    lock.lock();
+
+    try {
+      return String.format("queued=%d, active=%d, hosts=%d", size, active, hosts.size());
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Raises the delay of the host of a url to a crawl delay, if longer.
+   *
+   * @param url any url on the host
+   * @param crawlDelay the requested crawl delay, or {@code null} if none
+   */
+  private void slowDown(URL url, Duration crawlDelay) {
+    if (crawlDelay == null) {
+      return;
+    }
+
+    lock.lock();
+
+    try {
+      HostQueue host = hosts.get(key(url));
+
+      if (host != null) {
+        host.delay = Math.max(host.delay < 0 ? delay : host.delay, crawlDelay.toNanos());
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Finishes a fetch from a host and schedules the host again if it has more urls. Must be called
+   * while holding the lock.
+   *
+   * @param host the host that was fetched
+   */
+  private void release(HostQueue host) {
+    host.busy = false;
+    host.allowed = System.nanoTime() + (host.delay < 0 ? delay : host.delay);
+    active--;
+
+    if (!host.urls.isEmpty()) {
+      schedule(host);
+    }
+
+    changed.signalAll();
+  }
+
+  /**
+   * Adds a host to the ready queue. Must be called while holding the lock.
+   *
+   * @param host the host with queued urls
+   */
+  private void schedule(HostQueue host) {
+    host.sequence = sequence++;
+    ready.add(host);
+    changed.signalAll();
+  }
+
+  /**
+   * Returns the key of the host of a url, including the protocol and port.
+   *
+   * @param url the url
+   * @return the protocol, host, and port
+   */
+  private static String key(URL url) {
+    int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+    return url.getProtocol().toLowerCase(Locale.ROOT) + "://" +
+        url.getHost().toLowerCase(Locale.ROOT) + ":" + port;
+  }
+
+  /**
+   * Returns the protocol, host, and port of a url, leaving out the port if it is the default.
+   *
+   * @param url the url
+   * @return the start of every url on the same host
+   */
+  private static String origin(URL url) {
+    int port = url.getPort() == url.getDefaultPort() ? -1 : url.getPort();
+    return url.getProtocol().toLowerCase(Locale.ROOT) + "://" +
+        url.getHost().toLowerCase(Locale.ROOT) + (port < 0 ? "" : ":" + port);
+  }
+
+  /**
+   * The queued urls and timing of a single host.
+   */
+  private static class HostQueue implements Comparable<HostQueue> {
+
+    /** The protocol, host, and port each queued file is appended to. */
+    private final String origin;
+
+    /** The queued paths and queries. */
+    private final PackedUrlQueue urls;
+
+    /** When the host may next be fetched in nanoseconds. */
+    private long allowed;
+
+    /** The delay for this host in nanoseconds, or negative to use the default. */
+    private long delay;
+
+    /** Whether a url from this host is being fetched. */
+    private boolean busy;
+
+    /** Breaks ties between hosts allowed at the same time. */
+    private long sequence;
+
+    /**
+     * Initializes an empty host queue.
+     *
+     * @param origin the protocol, host, and port
+     */
+    public HostQueue(String origin) {
+      this.origin = origin;
+      this.urls = new PackedUrlQueue();
+      this.allowed = System.nanoTime();
+      this.delay = -1;
+      this.busy = false;
+      this.sequence = 0;
+    }
+
+    @Override
+    public int compareTo(HostQueue other) {
+      int compare = Long.compare(allowed - other.allowed, 0);
+      return compare != 0 ? compare : Long.compare(sequence, other.sequence);
+    }
+  }
+}
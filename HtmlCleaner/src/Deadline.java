@@ -0,0 +1,251 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the overall time limit for one fetch across every connection it opens, such as one per
+ * redirect. Socket timeouts only limit how long each individual read may take, so a server that
+ * sends one byte at a time could otherwise keep a fetch going forever. Instead, the deadline closes
+ * the current socket once time runs out, or as soon as {@link #cancel()} is called, which makes any
+ * blocked read or write fail immediately.
+ */
+public class Deadline {
+
+  /** Closes sockets when their deadlines expire. */
+  private static final ScheduledThreadPoolExecutor WATCHDOG;
+
+  static {
+    WATCHDOG = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "fetch-deadline");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    WATCHDOG.setRemoveOnCancelPolicy(true);
+  }
+
+  /** When the deadline expires in nanoseconds, or {@link Long#MAX_VALUE} for no limit. */
+  private final long expires;
+
+  /** The socket currently being used by the fetch. */
+  private Socket socket;
+
+  /** Closes the current socket when the deadline expires. */
+  private ScheduledFuture<?> timer;
+
+  /** Whether the fetch has been cancelled. */
+  private boolean cancelled;
+
+  /** The deadline this one was forked from, or {@code null}. */
+  private final Deadline parent;
+
+  /** The deadlines forked from this one that are still in use. */
+  private final Set<Deadline> forks;
+
+  /**
+   * Starts a new deadline.
+   *
+   * @param limit how long the fetch may take, or zero for no limit
+   */
+  public Deadline(Duration limit) {
+    this(limit.isZero() ? Long.MAX_VALUE : System.nanoTime() + limit.toNanos(), null);
+  }
+
+  /**
+   * Initializes a deadline expiring at a fixed time.
+   *
+   * @param expires when the deadline expires in nanoseconds, or {@link Long#MAX_VALUE}
+   * @param parent the deadline this one was forked from, or {@code null}
+   */
+  private Deadline(long expires, Deadline parent) {
+    this.expires = expires;
+    this.parent = parent;
+    this.forks = new HashSet<>();
+    this.socket = null;
+    this.timer = null;
+    this.cancelled = false;
+  }
+
+  /**
+   * Returns a deadline for an attempt running alongside this fetch, such as a hedged request, which
+   * needs its own socket. The fork expires at the same time as this deadline and is cancelled along
+   * with it, but cancelling the fork does not affect this deadline. The fork is forgotten once it
+   * is released.
+   *
+   * @return the forked deadline
+   */
+  public synchronized Deadline fork() {
+    Deadline fork = new Deadline(expires, this);
+
+    if (cancelled) {
+      fork.cancelled = true;
+    }
+    else {
+      forks.add(fork);
+    }
+
+    return fork;
+  }
+
+  /**
+   * Waits before trying again, such as between retries. Returns right away without waiting if the
+   * deadline would expire first, since there would be no time left to try again.
+   *
+   * @param delay how long to wait
+   * @return {@code true} if the delay passed, or {@code false} if the deadline expired or the fetch
+   *   was cancelled
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized boolean pause(Duration delay) throws InterruptedException {
+    long end = System.nanoTime() + delay.toNanos();
+
+    if (expires != Long.MAX_VALUE && end - expires >= 0) {
+      return false;
+    }
+
+    while (!isExpired()) {
+      long left = end - System.nanoTime();
+
+      if (left <= 0) {
+        return true;
+      }
+
+      TimeUnit.NANOSECONDS.timedWait(this, left);
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns whether the deadline has expired or the fetch was cancelled.
+   *
+   * @return {@code true} if the fetch should not continue
+   */
+  public synchronized boolean isExpired() {
+    return cancelled || (expires != Long.MAX_VALUE && System.nanoTime() - expires >= 0);
+  }
+
+  /**
+   * Returns the socket timeout to use, which is the smaller of the provided limit and the time left
+   * before the deadline.
+   *
+   * @param limit the timeout for a single operation, or zero for no limit
+   * @return the timeout in milliseconds, or 0 for no limit
+   * @throws SocketTimeoutException if the deadline has already expired
+   */
+  public int timeout(Duration limit) throws SocketTimeoutException {
+    if (isExpired()) {
+      throw new SocketTimeoutException("Fetch deadline expired.");
+    }
+
+    long wanted = limit.isZero() ? Long.MAX_VALUE : limit.toMillis();
+    long remaining = expires == Long.MAX_VALUE ? Long.MAX_VALUE :
+        TimeUnit.NANOSECONDS.toMillis(expires - System.nanoTime());
+    long timeout = Math.min(wanted, remaining);
+
+    return timeout == Long.MAX_VALUE ? 0 : (int) Math.max(1, Math.min(timeout, Integer.MAX_VALUE));
+  }
+
+  /**
+   * Makes the provided socket the one closed when the deadline expires or the fetch is cancelled.
+   *
+   * @param socket the socket now being used by the fetch
+   * @throws SocketTimeoutException if the deadline has already expired, in which case the socket is
+   *   closed
+   */
+  public synchronized void attach(Socket socket) throws SocketTimeoutException {
+    if (timer != null) {
+      timer.cancel(false);
+      timer = null;
+    }
+
+    this.socket = socket;
+
+    if (isExpired()) {
+      close(socket);
+      throw new SocketTimeoutException("Fetch deadline expired.");
+    }
+
+    if (expires != Long.MAX_VALUE) {
+      timer = WATCHDOG.schedule(this::expire, expires - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Stops watching the current socket, typically because the fetch completed.
+   */
+  public void release() {
+    synchronized (this) {
+      if (timer != null) {
+        timer.cancel(false);
+        timer = null;
+      }
+
+      socket = null;
+    }
+
+    if (parent != null) {
+      parent.forget(this);
+    }
+  }
+
+  /**
+   * Cancels the fetch, closing the current socket so that any blocked operation fails right away.
+   * Every deadline forked from this one is cancelled as well.
+   */
+  public void cancel() {
+    List<Deadline> cancelling;
+
+    synchronized (this) {
+      cancelled = true;
+      close(socket);
+      notifyAll();
+
+      cancelling = new ArrayList<>(forks);
+      forks.clear();
+    }
+
+    // cancel the forks without holding this lock, since they lock this one when released
+    cancelling.forEach(Deadline::cancel);
+  }
+
+  /**
+   * Stops tracking a forked deadline that is no longer in use.
+   *
+   * @param fork the forked deadline
+   */
+  private synchronized void forget(Deadline fork) {
+    forks.remove(fork);
+  }
+
+  /**
+   * Called by the watchdog when the deadline expires.
+   */
+  private synchronized void expire() {
+    close(socket);
+  }
+
+  /**
+   * Closes a socket, ignoring any errors.
+   *
+   * @param socket the socket to close, which may be {@code null}
+   */
+  private static void close(Socket socket) {
+    if (socket != null) {
+      try {
+        socket.close();
+      }
+      catch (IOException e) {
+        // already closing
+      }
+    }
+  }
+}
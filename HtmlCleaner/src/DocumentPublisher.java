@@ -0,0 +1,337 @@
+import java.net.URL;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Publishes the cleaned text of each page in a stream of urls to a single reactive subscriber.
+ * Nothing is fetched until the subscriber requests documents, and the number of pages being
+ * fetched, cleaned, or waiting for delivery never exceeds the outstanding demand, so a slow
+ * subscriber holds back the fetching instead of letting pages pile up in memory. The urls are
+ * also taken from the stream only as demand allows, apart from looking one url ahead whenever
+ * nothing is in flight to notice the end of the stream, so the stream may be lazy or unbounded.
+ *
+ * Documents are delivered in the order their fetches finish, not the order of the urls. Urls that
+ * fail to fetch or are not html are skipped without using up demand, as with
+ * {@link FetchPipeline}. Cancelling the subscription cancels the fetches in progress. Once
+ * nothing is in flight, the end of the stream is noticed even without demand, so a subscriber
+ * that requested exactly as many documents as there are is still sent
+ * {@link Flow.Subscriber#onComplete()}.
+ *
+ * Since the stream of urls can only be consumed once, the publisher accepts a single subscriber;
+ * any later subscriber receives an {@link IllegalStateException} through
+ * {@link Flow.Subscriber#onError(Throwable)}.
+ *
+ * @see HtmlFetcher#fetch(URL, int, FetchContext, Deadline)
+ * @see HtmlCleaner#stripHtml(String)
+ */
+public class DocumentPublisher implements Flow.Publisher<CleanedDocument> {
+
+  /** The default number of pages fetched at once when demand allows. */
+  public static final int PARALLELISM = FetchPipeline.FETCHERS;
+
+  /** Fetches and cleans pages for publishers without their own executor. */
+  private static final ExecutorService WORKERS;
+
+  static {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS,
+        new SynchronousQueue<>(), runnable -> {
+          Thread thread = new Thread(runnable, "publisher-fetch");
+          thread.setDaemon(true);
+          return thread;
+        });
+
+    WORKERS = executor;
+  }
+
+  /** The urls to fetch. */
+  private final Iterator<URL> urls;
+
+  /** The settings for each fetch. */
+  private final FetchContext context;
+
+  /** The number of redirects to follow for each url. */
+  private final int redirects;
+
+  /** The most pages fetched at once. */
+  private final int parallelism;
+
+  /** Runs each fetch. */
+  private final Executor executor;
+
+  /** Whether a subscriber has subscribed. */
+  private final AtomicBoolean subscribed;
+
+  /**
+   * Initializes a publisher that fetches up to {@link #PARALLELISM} pages at once on shared
+   * daemon threads.
+   *
+   * @param urls the urls to fetch, consumed lazily as demand allows
+   * @param context the settings for each fetch
+   * @param redirects the number of redirects to follow for each url
+   */
+  public DocumentPublisher(Stream<URL> urls, FetchContext context, int redirects) {
+    this(urls, context, redirects, PARALLELISM, WORKERS);
+  }
+
+  /**
+   * Initializes a publisher.
+   *
+   * @param urls the urls to fetch, consumed lazily as demand allows
+   * @param context the settings for each fetch
+   * @param redirects the number of redirects to follow for each url
+   * @param parallelism the most pages fetched at once, even if more are requested
+   * @param executor runs each fetch, which blocks on the network
+   */
+  public DocumentPublisher(Stream<URL> urls, FetchContext context, int redirects, int parallelism,
+      Executor executor) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive.");
+    }
+
+    this.urls = urls.iterator();
+    this.context = Objects.requireNonNull(context);
+    this.redirects = redirects;
+    this.parallelism = parallelism;
+    this.executor = Objects.requireNonNull(executor);
+    this.subscribed = new AtomicBoolean(false);
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super CleanedDocument> subscriber) {
+    Objects.requireNonNull(subscriber);
+
+    if (subscribed.compareAndSet(false, true)) {
+      subscriber.onSubscribe(new Subscription(subscriber));
+    }
+    else {
+      subscriber.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+          return;
+        }
+
+        @Override
+        public void cancel() {
+          return;
+        }
+      });
+
+      subscriber.onError(new IllegalStateException("The publisher already has a subscriber."));
+    }
+  }
+
+  /**
+   * The subscription of the single subscriber. Every signal to the subscriber is sent from
+   * {@link #drain()}, which only one thread runs at a time; a thread that finds it already
+   * running leaves the extra pass to that thread instead of waiting.
+   */
+  private class Subscription implements Flow.Subscription {
+
+    /** The subscriber. */
+    private final Flow.Subscriber<? super CleanedDocument> subscriber;
+
+    /** Documents cleaned but not yet delivered. */
+    private final Queue<CleanedDocument> ready;
+
+    /** The deadlines of fetches in progress, so cancelling can abort them. */
+    private final Set<Deadline> active;
+
+    /** The documents requested but not yet delivered, or {@link Long#MAX_VALUE} if unbounded. */
+    private final AtomicLong requested;
+
+    /** The urls taken from the stream that are being fetched or are ready but not delivered. */
+    private final AtomicInteger pending;
+
+    /** The number of times {@link #drain()} was called since the running pass started. */
+    private final AtomicInteger passes;
+
+    /** An error to send the subscriber, or {@code null} if none. */
+    private volatile Throwable error;
+
+    /** Whether the subscription was cancelled or a terminal signal was sent. */
+    private volatile boolean done;
+
+    /** Whether the stream of urls has no more urls, used only while draining. */
+    private boolean exhausted;
+
+    /**
+     * Initializes a subscription.
+     *
+     * @param subscriber the subscriber
+     */
+    public Subscription(Flow.Subscriber<? super CleanedDocument> subscriber) {
+      this.subscriber = subscriber;
+      this.ready = new ConcurrentLinkedQueue<>();
+      this.active = ConcurrentHashMap.newKeySet();
+      this.requested = new AtomicLong();
+      this.pending = new AtomicInteger();
+      this.passes = new AtomicInteger();
+      this.error = null;
+      this.done = false;
+      this.exhausted = false;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        error = new IllegalArgumentException("Requested " + n + " documents, which is not positive.");
+      }
+      else {
+        requested.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+      }
+
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      done = true;
+      active.forEach(Deadline::cancel);
+      drain();
+    }
+
+    /**
+     * Delivers ready documents and starts fetches as demand allows, then completes once every url
+     * has been fetched and delivered.
+     */
+    private void drain() {
+      if (passes.getAndIncrement() != 0) {
+        return;
+      }
+
+      int missed = 1;
+
+      do {
+        try {
+          pass();
+        }
+        catch (RuntimeException e) {
+          // the subscriber threw, which it must not, so stop sending it anything
+          terminate();
+        }
+
+        missed = passes.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    /**
+     * Makes one pass over the ready documents and the stream of urls.
+     */
+    private void pass() {
+      long demand = requested.get();
+
+      while (!done && error == null && demand > 0) {
+        CleanedDocument document = ready.poll();
+
+        if (document == null) {
+          break;
+        }
+
+        pending.decrementAndGet();
+        demand = demand == Long.MAX_VALUE ? demand : requested.decrementAndGet();
+        subscriber.onNext(document);
+      }
+
+      while (!done && error == null && !exhausted && pending.get() < Math.min(demand, parallelism)) {
+        try {
+          if (!urls.hasNext()) {
+            exhausted = true;
+            break;
+          }
+
+          URL url = urls.next();
+          pending.incrementAndGet();
+
+          try {
+            executor.execute(() -> fetch(url));
+          }
+          catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            throw e;
+          }
+        }
+        catch (RuntimeException e) {
+          error = e;
+        }
+      }
+
+      // with nothing left in flight, completion needs no demand, so look for the end without it
+      if (!done && error == null && !exhausted && pending.get() == 0) {
+        try {
+          exhausted = !urls.hasNext();
+        }
+        catch (RuntimeException e) {
+          error = e;
+        }
+      }
+
+      if (done) {
+        ready.clear();
+      }
+      else if (error != null) {
+        terminate();
+        subscriber.onError(error);
+      }
+      else if (exhausted && pending.get() == 0) {
+        terminate();
+        subscriber.onComplete();
+      }
+    }
+
+    /**
+     * Stops the subscription, cancelling fetches in progress and discarding ready documents.
+     */
+    private void terminate() {
+      done = true;
+      active.forEach(Deadline::cancel);
+      ready.clear();
+    }
+
+    /**
+     * Fetches and cleans a page, then drains so the document is delivered or another url is taken
+     * in place of a failure.
+     *
+     * @param url the url to fetch
+     */
+    private void fetch(URL url) {
+      Deadline deadline = context.start();
+      active.add(deadline);
+      boolean fetched = false;
+
+      try {
+        if (!done) {
+          String html = HtmlFetcher.fetch(url, redirects, context, deadline);
+
+          if (html != null) {
+            ready.add(new CleanedDocument(url, HtmlCleaner.stripHtml(html)));
+            fetched = true;
+          }
+        }
+      }
+      finally {
+        active.remove(deadline);
+
+        if (!fetched) {
+          pending.decrementAndGet();
+        }
+
+        drain();
+      }
+    }
+  }
+}
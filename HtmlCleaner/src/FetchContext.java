@@ -0,0 +1,447 @@
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Objects;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * The settings used by {@link HttpsFetcher} and {@link HtmlFetcher} when opening connections. A
+ * context is immutable, so it may be shared between threads; each of the "with" methods returns a
+ * modified copy.
+ *
+ * A zero duration means no limit, the same way a timeout of 0 does for {@link java.net.Socket}.
+ *
+ * Every copy shares the same {@link SSLContext} unless a different one is provided, so repeat
+ * connections to the same host resume their TLS session instead of doing a full handshake.
+ *
+ * The validator cache, response store, redirect cache, and retry policy are all disabled unless
+ * provided, so the default context makes every request over the network exactly once.
+ */
+public class FetchContext {
+
+  /** The default connect timeout. */
+  public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+  /** The default timeout for each individual read. */
+  public static final Duration READ_TIMEOUT = Duration.ofSeconds(10);
+
+  /** The default overall deadline for a fetch, including every redirect. */
+  public static final Duration DEADLINE = Duration.ofSeconds(25);
+
+  /** The default number of TLS sessions to cache, which should be at least the number of hosts. */
+  public static final int SESSION_CACHE_SIZE = 10000;
+
+  /** The default length of time to keep TLS sessions for resumption. */
+  public static final Duration SESSION_TIMEOUT = Duration.ofHours(4);
+
+  /** The context used when none is provided. */
+  public static final FetchContext DEFAULT = new FetchContext();
+
+  /** How long to wait for a connection to be established. */
+  private final Duration connectTimeout;
+
+  /** How long to wait for each individual read. */
+  private final Duration readTimeout;
+
+  /** How long an entire fetch may take, including every redirect. */
+  private final Duration deadline;
+
+  /** Creates TLS sockets and caches their sessions for resumption. */
+  private final SSLContext ssl;
+
+  /** Counts full and resumed TLS handshakes for the TLS context. */
+  private final HandshakeStatistics handshakes;
+
+  /** Whether to disable Nagle's algorithm. */
+  private final boolean noDelay;
+
+  /** The socket receive buffer size, or 0 for the system default. */
+  private final int receiveBuffer;
+
+  /** Resolves and caches host names. */
+  private final HostResolver resolver;
+
+  /** Stores validators and cleaned text for conditional requests, or {@code null} if disabled. */
+  private final ValidatorCache validators;
+
+  /** Stores raw responses so repeat fetches skip the network, or {@code null} if disabled. */
+  private final ResponseStore responses;
+
+  /** Remembers redirects so repeat fetches skip them, or {@code null} if disabled. */
+  private final RedirectCache redirects;
+
+  /** Records the time spent in each phase of a fetch. */
+  private final FetchMetrics metrics;
+
+  /** Decides when failed requests are retried, or {@code null} if disabled. */
+  private final RetryPolicy retries;
+
+  /**
+   * Initializes a context with the default settings, without any caching or retries.
+   */
+  public FetchContext() {
+    this.connectTimeout = CONNECT_TIMEOUT;
+    this.readTimeout = READ_TIMEOUT;
+    this.deadline = DEADLINE;
+    this.noDelay = true;
+    this.receiveBuffer = 0;
+    this.handshakes = new HandshakeStatistics();
+    this.resolver = new HostResolver();
+    this.validators = null;
+    this.responses = null;
+    this.redirects = null;
+    this.metrics = FetchMetrics.DEFAULT;
+    this.retries = null;
+
+    try {
+      this.ssl = SSLContext.getInstance("TLS");
+      this.ssl.init(null, null, null);
+    }
+    catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Unable to initialize TLS context.", e);
+    }
+
+    configure(ssl, SESSION_CACHE_SIZE, SESSION_TIMEOUT);
+  }
+
+  /**
+   * Initializes a context with every setting provided.
+   *
+   * @param connectTimeout how long to wait for a connection to be established
+   * @param readTimeout how long to wait for each individual read
+   * @param deadline how long an entire fetch may take
+   * @param ssl the TLS context
+   * @param handshakes the handshake statistics for the TLS context
+   * @param noDelay whether to disable Nagle's algorithm
+   * @param receiveBuffer the socket receive buffer size, or 0 for the system default
+   * @param resolver resolves and caches host names
+   * @param validators stores validators for conditional requests, or {@code null}
+   * @param responses stores raw responses, or {@code null}
+   * @param redirects remembers redirects, or {@code null}
+   * @param metrics records the time spent in each phase of a fetch
+   * @param retries decides when failed requests are retried, or {@code null}
+   */
+  private FetchContext(Duration connectTimeout, Duration readTimeout, Duration deadline,
+      SSLContext ssl, HandshakeStatistics handshakes, boolean noDelay, int receiveBuffer,
+      HostResolver resolver, ValidatorCache validators, ResponseStore responses,
+      RedirectCache redirects, FetchMetrics metrics, RetryPolicy retries) {
+    this.connectTimeout = check(connectTimeout);
+    this.readTimeout = check(readTimeout);
+    this.deadline = check(deadline);
+    this.ssl = Objects.requireNonNull(ssl);
+    this.handshakes = handshakes;
+    this.noDelay = noDelay;
+    this.receiveBuffer = receiveBuffer;
+    this.resolver = Objects.requireNonNull(resolver);
+    this.validators = validators;
+    this.responses = responses;
+    this.redirects = redirects;
+    this.metrics = Objects.requireNonNull(metrics);
+    this.retries = retries;
+  }
+
+  /**
+   * Returns a copy of this context with a different connect timeout.
+   *
+   * @param timeout how long to wait for a connection to be established, or zero for no limit
+   * @return the modified copy
+   */
+  public FetchContext withConnectTimeout(Duration timeout) {
+    return new FetchContext(timeout, readTimeout, deadline, ssl, handshakes, noDelay, receiveBuffer, resolver, validators, responses, redirects, metrics, retries);
+  }
+
+  /**
+   * Returns a copy of this context with a different read timeout.
+   *
+   * @param timeout how long to wait for each individual read, or zero for no limit
+   * @return the modified copy
+   */
+  public FetchContext withReadTimeout(Duration timeout) {
+    return new FetchContext(connectTimeout, timeout, deadline, ssl, handshakes, noDelay, receiveBuffer, resolver, validators, responses, redirects, metrics, retries);
+  }
+
+  /**
+   * Returns a copy of this context with a different overall deadline.
+   *
+   * @param deadline how long an entire fetch may take including redirects, or zero for no limit
+   * @return the modified copy
+   */
+  public FetchContext withDeadline(Duration deadline) {
+    return new FetchContext(connectTimeout, readTimeout, deadline, ssl, handshakes, noDelay, receiveBuffer, resolver, validators, responses, redirects, metrics, retries);
+  }
+
+  /**
+   * Returns a copy of this context that uses a different TLS context, such as one that trusts a
+   * private certificate authority. The copy starts with its own handshake statistics.
+   *
+   * @param ssl the TLS context to use
+   * @return the modified copy
+   */
+  public FetchContext withSslContext(SSLContext ssl) {
+    return new FetchContext(connectTimeout, readTimeout, deadline, ssl, new HandshakeStatistics(), noDelay, receiveBuffer, resolver, validators, responses, redirects, metrics, retries);
+  }
+
+  /**
+   * Returns a copy of this context with different TLS session cache settings. The settings are
+   * applied to the shared TLS context, so they also affect every other context sharing it.
+   *
+   * @param size the maximum number of sessions to cache, or 0 for no limit
+   * @param timeout how long to keep sessions for resumption, or zero for no limit
+   * @return the modified copy
+   */
+  public FetchContext withSessionCache(int size, Duration timeout) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Cache size may not be negative.");
+    }
+
+    configure(ssl, size, check(timeout));
+    return new FetchContext(connectTimeout, readTimeout, deadline, ssl, handshakes, noDelay, receiveBuffer, resolver, validators, responses, redirects, metrics, retries);
+  }
+
+  /**
+   * Returns a copy of this context with different socket options.
+   *
+   * @param noDelay whether to disable Nagle's algorithm (TCP_NODELAY)
+   * @param receiveBuffer the socket receive buffer size in bytes, or 0 for the system default
+   * @return the modified copy
+   */
+  public FetchContext withSocketOptions(boolean noDelay, int receiveBuffer) {
+    if (receiveBuffer < 0) {
+      throw new IllegalArgumentException("Buffer size may not be negative.");
+    }
+
+    return new FetchContext(connectTimeout, readTimeout, deadline, ssl, handshakes, noDelay, receiveBuffer, resolver, validators, responses, redirects, metrics, retries);
+  }
+
+  /**
+   * Returns a copy of this context that uses a different host name resolver, such as one with
+   * different time-to-live values. Contexts copied from each other share the same resolver
+   * otherwise.
+   *
+   * @param resolver the resolver to use
+   * @return the modified copy
+   */
+  public FetchContext withResolver(HostResolver resolver) {
+    return new FetchContext(connectTimeout, readTimeout, deadline, ssl, handshakes, noDelay, receiveBuffer, resolver, validators, responses, redirects, metrics, retries);
+  }
+
+  /**
+   * Returns a copy of this context that sends conditional requests using the validators in the
+   * cache, and reuses the stored cleaned text when the server answers "304 Not Modified".
+   *
+   * @param validators the cache to use, or {@code null} to disable conditional requests
+   * @return the modified copy
+   *
+   * @see HtmlFetcher#fetchCleaned(java.net.URL, int, Appendable, int, FetchContext, Deadline)
+   */
+  public FetchContext withValidatorCache(ValidatorCache validators) {
+    return new FetchContext(connectTimeout, readTimeout, deadline, ssl, handshakes, noDelay, receiveBuffer, resolver, validators, responses, redirects, metrics, retries);
+  }
+
+  /**
+   * Returns a copy of this context that answers {@link HttpsFetcher#fetchURL(java.net.URL,
+   * FetchContext, Deadline)} from the store when possible, and stores every response it fetches.
+   *
+   * @param responses the store to use, or {@code null} to always fetch from the network
+   * @return the modified copy
+   */
+  public FetchContext withResponseStore(ResponseStore responses) {
+    return new FetchContext(connectTimeout, readTimeout, deadline, ssl, handshakes, noDelay, receiveBuffer, resolver, validators, responses, redirects, metrics, retries);
+  }
+
+  /**
+   * Returns a copy of this context that uses a different redirect cache. Contexts copied from each
+   * other share the same cache otherwise.
+   *
+   * @param redirects the cache to use, or {@code null} to follow every redirect over the network
+   * @return the modified copy
+   */
+  public FetchContext withRedirectCache(RedirectCache redirects) {
+    return new FetchContext(connectTimeout, readTimeout, deadline, ssl, handshakes, noDelay, receiveBuffer, resolver, validators, responses, redirects, metrics, retries);
+  }
+
+  /**
+   * Returns a copy of this context that records phase timings into different metrics. Contexts
+   * copied from each other share {@link FetchMetrics#DEFAULT} otherwise.
+   *
+   * @param metrics the metrics to use
+   * @return the modified copy
+   */
+  public FetchContext withMetrics(FetchMetrics metrics) {
+    return new FetchContext(connectTimeout, readTimeout, deadline, ssl, handshakes, noDelay, receiveBuffer, resolver, validators, responses, redirects, metrics, retries);
+  }
+
+  /**
+   * Returns a copy of this context that uses a different retry policy, such as one that hedges
+   * slow requests. Contexts copied from each other share the same policy and retry budgets
+   * otherwise.
+   *
+   * @param retries the policy to use, or {@code null} to make every request once
+   * @return the modified copy
+   *
+   * @see HtmlFetcher#fetch(java.net.URL, int, FetchContext, Deadline)
+   */
+  public FetchContext withRetryPolicy(RetryPolicy retries) {
+    return new FetchContext(connectTimeout, readTimeout, deadline, ssl, handshakes, noDelay, receiveBuffer, resolver, validators, responses, redirects, metrics, retries);
+  }
+
+  /**
+   * Returns how long to wait for a connection to be established.
+   *
+   * @return the connect timeout, or zero for no limit
+   */
+  public Duration getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * Returns how long to wait for each individual read.
+   *
+   * @return the read timeout, or zero for no limit
+   */
+  public Duration getReadTimeout() {
+    return readTimeout;
+  }
+
+  /**
+   * Returns how long an entire fetch may take, including every redirect.
+   *
+   * @return the overall deadline, or zero for no limit
+   */
+  public Duration getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * Returns the TLS context used to create secure sockets.
+   *
+   * @return the TLS context
+   */
+  public SSLContext getSslContext() {
+    return ssl;
+  }
+
+  /**
+   * Returns the statistics for the TLS handshakes made using this context.
+   *
+   * @return the handshake statistics
+   */
+  public HandshakeStatistics getHandshakeStatistics() {
+    return handshakes;
+  }
+
+  /**
+   * Returns whether to disable Nagle's algorithm (TCP_NODELAY).
+   *
+   * @return {@code true} if small writes should be sent right away
+   */
+  public boolean isTcpNoDelay() {
+    return noDelay;
+  }
+
+  /**
+   * Returns the socket receive buffer size.
+   *
+   * @return the receive buffer size in bytes, or 0 for the system default
+   */
+  public int getReceiveBufferSize() {
+    return receiveBuffer;
+  }
+
+  /**
+   * Returns the resolver used to look up host names.
+   *
+   * @return the host name resolver
+   */
+  public HostResolver getResolver() {
+    return resolver;
+  }
+
+  /**
+   * Returns the cache used for conditional requests.
+   *
+   * @return the validator cache, or {@code null} if conditional requests are disabled
+   */
+  public ValidatorCache getValidatorCache() {
+    return validators;
+  }
+
+  /**
+   * Returns the store of raw responses.
+   *
+   * @return the response store, or {@code null} if responses are always fetched
+   */
+  public ResponseStore getResponseStore() {
+    return responses;
+  }
+
+  /**
+   * Returns the cache of redirects.
+   *
+   * @return the redirect cache, or {@code null} if redirects are not cached
+   */
+  public RedirectCache getRedirectCache() {
+    return redirects;
+  }
+
+  /**
+   * Returns the metrics recording the time spent in each phase of a fetch.
+   *
+   * @return the fetch metrics
+   */
+  public FetchMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Returns the policy deciding when failed requests are retried.
+   *
+   * @return the retry policy, or {@code null} if every request is made once
+   */
+  public RetryPolicy getRetryPolicy() {
+    return retries;
+  }
+
+  /**
+   * Starts the clock on a new fetch using this context.
+   *
+   * @return a new deadline for the fetch
+   */
+  public Deadline start() {
+    return new Deadline(deadline);
+  }
+
+  /**
+   * Applies session cache settings to a TLS context.
+   *
+   * @param ssl the TLS context
+   * @param size the maximum number of sessions to cache
+   * @param timeout how long to keep sessions
+   */
+  private static void configure(SSLContext ssl, int size, Duration timeout) {
+    SSLSessionContext sessions = ssl.getClientSessionContext();
+    sessions.setSessionCacheSize(size);
+    sessions.setSessionTimeout((int) Math.min(timeout.toSeconds(), Integer.MAX_VALUE));
+  }
+
+  /**
+   * Makes sure a duration is valid.
+   *
+   * @param duration the duration to check
+   * @return the duration
+   * @throws IllegalArgumentException if the duration is negative
+   */
+  private static Duration check(Duration duration) {
+    if (Objects.requireNonNull(duration).isNegative()) {
+      throw new IllegalArgumentException("Durations may not be negative.");
+    }
+
+    return duration;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("connect=%s, read=%s, deadline=%s, nodelay=%b, rcvbuf=%d, handshakes=[%s], dns=[%s]",
+        connectTimeout, readTimeout, deadline, noDelay, receiveBuffer, handshakes, resolver);
+  }
+}
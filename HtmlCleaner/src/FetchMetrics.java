@@ -0,0 +1,516 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Records how long each phase of a fetch takes, such as resolving the host or waiting for the
+ * first byte of the response, into a {@link LatencyHistogram} per phase, host, and status class
+ * ("2xx", "3xx", and so on, or "error" if the fetch failed). Phases are timed by a {@link Trace}
+ * that holds on to them until the status is known.
+ *
+ * Recording is off unless the {@code htmlcleaner.metrics} system property is {@code true} or
+ * {@link #setEnabled(boolean)} is called, so it costs nothing by default. Separately, every phase
+ * is also committed as a "htmlcleaner.FetchPhase" Java Flight Recorder event whenever a recording
+ * has that event enabled, such as one started with {@code -XX:StartFlightRecording} or
+ * {@code jcmd <pid> JFR.start}. Neither needs the code to be changed or recompiled.
+ *
+ * The histograms can be read with {@link #snapshot()} or exported in the Prometheus text format
+ * with {@link #toPrometheus()}.
+ */
+public class FetchMetrics {
+
+  /** The system property that enables recording for the default metrics. */
+  public static final String PROPERTY = "htmlcleaner.metrics";
+
+  /** The default maximum number of hosts tracked separately; later hosts are tracked as "other". */
+  public static final int MAX_HOSTS = 1000;
+
+  /** The metrics used when none are provided, enabled by the system property. */
+  public static final FetchMetrics DEFAULT = new FetchMetrics(Boolean.getBoolean(PROPERTY));
+
+  /** The upper bounds of the exported Prometheus buckets in seconds. */
+  private static final double[] BOUNDS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5,
+      1, 2.5, 5, 10, 30};
+
+  /** The flight recorder event type, used to check whether any recording wants the events. */
+  private static final EventType EVENT_TYPE = EventType.getEventType(PhaseEvent.class);
+
+  /**
+   * The phases of a fetch.
+   */
+  public enum Phase {
+    /** Resolving the host name. */
+    DNS,
+
+    /** Establishing the TCP connection. */
+    CONNECT,
+
+    /** Completing the TLS handshake. */
+    TLS,
+
+    /** Waiting for the first byte of the response after sending the request. */
+    FIRST_BYTE,
+
+    /** Reading and parsing the response headers. */
+    HEADERS,
+
+    /** Downloading the response body, including cleaning it while streaming. */
+    BODY,
+
+    /** The whole of a request that was answered with a redirect. */
+    REDIRECT;
+
+    /**
+     * Returns the name used in exported metrics.
+     *
+     * @return the lowercase name
+     */
+    public String label() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  /** The histograms of each phase, keyed by host and status class separated by a space. */
+  private final Map<Phase, ConcurrentHashMap<String, LatencyHistogram>> histograms;
+
+  /** The hosts tracked separately. */
+  private final Set<String> hosts;
+
+  /** The maximum number of hosts tracked separately. */
+  private final int maxHosts;
+
+  /** Whether to record histograms. */
+  private volatile boolean enabled;
+
+  /**
+   * Initializes empty metrics.
+   *
+   * @param enabled whether to record histograms
+   */
+  public FetchMetrics(boolean enabled) {
+    this(enabled, MAX_HOSTS);
+  }
+
+  /**
+   * Initializes empty metrics. Every host has its own histograms, so the number of hosts is
+   * limited to keep memory and the size of the export in check.
+   *
+   * @param enabled whether to record histograms
+   * @param maxHosts the maximum number of hosts tracked separately
+   */
+  public FetchMetrics(boolean enabled, int maxHosts) {
+    if (maxHosts < 0) {
+      throw new IllegalArgumentException("Host limit may not be negative.");
+    }
+
+    this.histograms = new EnumMap<>(Phase.class);
+    this.hosts = ConcurrentHashMap.newKeySet();
+    this.maxHosts = maxHosts;
+    this.enabled = enabled;
+
+    for (Phase phase : Phase.values()) {
+      histograms.put(phase, new ConcurrentHashMap<>());
+    }
+  }
+
+  /**
+   * Turns recording histograms on or off. Flight recorder events do not depend on this setting.
+   *
+   * @param enabled whether to record histograms
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Returns whether histograms are being recorded.
+   *
+   * @return {@code true} if enabled
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Starts timing a single request. If neither histograms nor flight recorder events are enabled,
+   * the returned trace does nothing.
+   *
+   * @param url the url being requested
+   * @return the trace for the request
+   */
+  public Trace start(URL url) {
+    boolean events = EVENT_TYPE.isEnabled();
+    return enabled || events ? new Trace(this, url.getHost().toLowerCase(Locale.ROOT), events) : Trace.NONE;
+  }
+
+  /**
+   * Records the length of a phase.
+   *
+   * @param phase the phase
+   * @param host the host name
+   * @param status the status code, or 0 if the fetch failed
+   * @param nanos the length of the phase in nanoseconds
+   */
+  public void record(Phase phase, String host, int status, long nanos) {
+    String tracked = hosts.contains(host) || (hosts.size() < maxHosts && hosts.add(host)) ? host : "other";
+    histograms.get(phase).computeIfAbsent(tracked + " " + statusClass(status), key -> new LatencyHistogram())
+        .record(nanos);
+  }
+
+  /**
+   * Returns a copy of the histogram for one phase, host, and status class.
+   *
+   * @param phase the phase
+   * @param host the host name, or "other"
+   * @param status the status class such as "2xx", or "error"
+   * @return the copy, or {@code null} if nothing was recorded
+   */
+  public LatencyHistogram getHistogram(Phase phase, String host, String status) {
+    LatencyHistogram histogram = histograms.get(phase).get(host + " " + status);
+    return histogram == null ? null : histogram.copy();
+  }
+
+  /**
+   * Returns a copy of every histogram, ordered by phase, then host, then status class.
+   *
+   * @return the copies
+   */
+  public List<Series> snapshot() {
+    List<Series> series = new ArrayList<>();
+
+    for (Phase phase : Phase.values()) {
+      List<String> keys = new ArrayList<>(histograms.get(phase).keySet());
+      Collections.sort(keys);
+
+      for (String key : keys) {
+        int space = key.lastIndexOf(' ');
+        LatencyHistogram histogram = histograms.get(phase).get(key).copy();
+        series.add(new Series(phase, key.substring(0, space), key.substring(space + 1), histogram));
+      }
+    }
+
+    return series;
+  }
+
+  /**
+   * Writes every histogram in the Prometheus text exposition format, as the histogram
+   * "fetch_phase_duration_seconds" with "phase", "host", and "status" labels.
+   *
+   * @param output where to write the metrics
+   * @throws IOException if unable to write
+   */
+  public void writePrometheus(Appendable output) throws IOException {
+    output.append("# HELP fetch_phase_duration_seconds Time spent in each phase of a fetch.\n");
+    output.append("# TYPE fetch_phase_duration_seconds histogram\n");
+
+    for (Series series : snapshot()) {
+      String labels = String.format("phase=\"%s\",host=\"%s\",status=\"%s\"",
+          series.getPhase().label(), escape(series.getHost()), series.getStatus());
+      LatencyHistogram histogram = series.getHistogram();
+
+      for (double bound : BOUNDS) {
+        long count = histogram.getCountAtOrBelow((long) (bound * 1e9));
+        output.append(String.format("fetch_phase_duration_seconds_bucket{%s,le=\"%s\"} %d\n", labels, bound, count));
+      }
+
+      output.append(String.format("fetch_phase_duration_seconds_bucket{%s,le=\"+Inf\"} %d\n", labels, histogram.getCount()));
+      output.append(String.format("fetch_phase_duration_seconds_sum{%s} %s\n", labels, histogram.getSum() / 1e9));
+      output.append(String.format("fetch_phase_duration_seconds_count{%s} %d\n", labels, histogram.getCount()));
+    }
+  }
+
+  /**
+   * Returns every histogram in the Prometheus text exposition format.
+   *
+   * @return the metrics
+   *
+   * @see #writePrometheus(Appendable)
+   */
+  public String toPrometheus() {
+    StringBuilder output = new StringBuilder();
+
+    try {
+      writePrometheus(output);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    return output.toString();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    for (Series series : snapshot()) {
+      builder.append(series).append('\n');
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * Returns the status class of a status code.
+   *
+   * @param status the status code, or 0 if the fetch failed
+   * @return the status class such as "2xx", or "error"
+   */
+  public static String statusClass(int status) {
+    return status >= 100 && status < 600 ? (status / 100) + "xx" : "error";
+  }
+
+  /**
+   * Escapes a Prometheus label value.
+   *
+   * @param value the value
+   * @return the escaped value
+   */
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /**
+   * Times the phases of a single request. Phases are timed one after another with {@link #mark()}
+   * and {@link #lap(Phase)}, and recorded by {@link #finish(int)} once the status is known. A
+   * trace is used by one thread at a time.
+   */
+  public static class Trace {
+
+    /** A trace that records nothing. */
+    public static final Trace NONE = new Trace(null, null, false);
+
+    /** The metrics to record into, or {@code null} if nothing is recorded. */
+    private final FetchMetrics metrics;
+
+    /** The host being requested. */
+    private final String host;
+
+    /** Whether to commit flight recorder events. */
+    private final boolean events;
+
+    /** The length of each phase in nanoseconds, or -1 if not timed. */
+    private final long[] nanos;
+
+    /** When the request started in nanoseconds. */
+    private final long started;
+
+    /** When the current phase started in nanoseconds. */
+    private long last;
+
+    /** Whether the trace was already recorded. */
+    private boolean finished;
+
+    /**
+     * Initializes a trace starting now.
+     *
+     * @param metrics the metrics to record into, or {@code null}
+     * @param host the host being requested
+     * @param events whether to commit flight recorder events
+     */
+    private Trace(FetchMetrics metrics, String host, boolean events) {
+      this.metrics = metrics;
+      this.host = host;
+      this.events = events;
+      this.nanos = new long[Phase.values().length];
+      this.started = System.nanoTime();
+      this.last = started;
+      this.finished = metrics == null;
+
+      Arrays.fill(nanos, -1);
+    }
+
+    /**
+     * Returns whether anything will be recorded, so callers can skip work done only for timing.
+     *
+     * @return {@code true} if phases are recorded
+     */
+    public boolean isActive() {
+      return metrics != null;
+    }
+
+    /**
+     * Starts the next phase now, leaving out the time since the last phase ended.
+     */
+    public void mark() {
+      if (metrics != null) {
+        last = System.nanoTime();
+      }
+    }
+
+    /**
+     * Ends a phase now, which started when the last phase ended or at the last {@link #mark()}.
+     *
+     * @param phase the phase that ended
+     */
+    public void lap(Phase phase) {
+      if (metrics != null) {
+        long now = System.nanoTime();
+        nanos[phase.ordinal()] = now - last;
+        last = now;
+      }
+    }
+
+    /**
+     * Records every timed phase with the status of the response. A response with a redirect status
+     * also records its whole length as a {@link Phase#REDIRECT} hop. Only the first call has any
+     * effect.
+     *
+     * @param status the status code, or 0 if the fetch failed
+     */
+    public void finish(int status) {
+      if (finished) {
+        return;
+      }
+
+      finished = true;
+
+      if (status >= 300 && status < 400 && status != 304) {
+        nanos[Phase.REDIRECT.ordinal()] = System.nanoTime() - started;
+      }
+
+      for (Phase phase : Phase.values()) {
+        long length = nanos[phase.ordinal()];
+
+        if (length < 0) {
+          continue;
+        }
+
+        if (metrics.isEnabled()) {
+          metrics.record(phase, host, status, length);
+        }
+
+        if (events) {
+          PhaseEvent event = new PhaseEvent();
+
+          if (event.shouldCommit()) {
+            event.host = host;
+            event.phase = phase.label();
+            event.status = status;
+            event.latency = length;
+            event.commit();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * A copy of the histogram for one phase, host, and status class.
+   */
+  public static class Series {
+
+    /** The phase. */
+    private final Phase phase;
+
+    /** The host name, or "other". */
+    private final String host;
+
+    /** The status class. */
+    private final String status;
+
+    /** The copy of the histogram. */
+    private final LatencyHistogram histogram;
+
+    /**
+     * Initializes a series.
+     *
+     * @param phase the phase
+     * @param host the host name, or "other"
+     * @param status the status class
+     * @param histogram the copy of the histogram
+     */
+    private Series(Phase phase, String host, String status, LatencyHistogram histogram) {
+      this.phase = phase;
+      this.host = host;
+      this.status = status;
+      this.histogram = histogram;
+    }
+
+    /**
+     * Returns the phase.
+     *
+     * @return the phase
+     */
+    public Phase getPhase() {
+      return phase;
+    }
+
+    /**
+     * Returns the host name.
+     *
+     * @return the host name, or "other" for hosts past the limit
+     */
+    public String getHost() {
+      return host;
+    }
+
+    /**
+     * Returns the status class.
+     *
+     * @return the status class such as "2xx", or "error"
+     */
+    public String getStatus() {
+      return status;
+    }
+
+    /**
+     * Returns the copy of the histogram.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getHistogram() {
+      return histogram;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s %s %s: %s", phase.label(), host, status, histogram);
+    }
+  }
+
+  /**
+   * The flight recorder event committed for each phase of a fetch.
+   */
+  @Name("htmlcleaner.FetchPhase")
+  @Label("Fetch Phase")
+  @Category({"HtmlCleaner", "Fetch"})
+  @Description("Time spent in one phase of fetching a url.")
+  @StackTrace(false)
+  static class PhaseEvent extends Event {
+
+    /** The host name. */
+    @Label("Host")
+    String host;
+
+    /** The phase label. */
+    @Label("Phase")
+    String phase;
+
+    /** The status code, or 0 if the fetch failed. */
+    @Label("Status")
+    int status;
+
+    /** The length of the phase. */
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+  }
+}
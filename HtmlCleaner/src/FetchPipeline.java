@@ -0,0 +1,499 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fetches, cleans, and delivers pages in three stages that run at the same time, so waiting on the
+ * network overlaps with cleaning on the processor. Each stage has its own threads and takes work
+ * from a bounded queue, so a slow stage fills the queue in front of it and eventually blocks
+ * {@link #submit(URL)} instead of letting work pile up in memory.
+ *
+ * The fetch stage is mostly waiting on sockets, so it uses many threads. The clean stage uses one
+ * thread per processor, and the sink stage a single thread by default so sinks need not be thread
+ * safe. Each stage reports its queue depth and how busy its threads are (see {@link Stage}), which
+ * shows at a glance whether the pipeline is limited by the network, the processor, or the sink.
+ *
+ * @see HtmlFetcher#fetch(URL, int, FetchContext)
+ * @see HtmlCleaner#stripHtml(String)
+ */
+public class FetchPipeline implements Closeable {
+
+  /** The default number of fetch threads. */
+  public static final int FETCHERS = 32;
+
+  /** The default capacity of each queue. */
+  public static final int CAPACITY = 256;
+
+  /** Marks the end of the input in a queue. */
+  private static final Item END = new Item(null, null);
+
+  /**
+   * Receives the cleaned text of each fetched page.
+   */
+  @FunctionalInterface
+  public interface Sink {
+
+    /**
+     * Receives the cleaned text of a page.
+     *
+     * @param url the url that was fetched
+     * @param text the cleaned text
+     * @throws IOException if unable to store the text
+     */
+    void accept(URL url, String text) throws IOException;
+  }
+
+  /** Fetches urls into html. */
+  private final Stage fetch;
+
+  /** Cleans html into text. */
+  private final Stage clean;
+
+  /** Passes text to the sink. */
+  private final Stage sink;
+
+  /** The settings for each fetch. */
+  private final FetchContext context;
+
+  /** The number of redirects to follow for each url. */
+  private final int redirects;
+
+  /** The sink receiving the cleaned text. */
+  private final Sink output;
+
+  /** The deadlines of fetches in progress, so closing can cancel them. */
+  private final Set<Deadline> active;
+
+  /** Whether {@link #finish()} or {@link #close()} has been called. */
+  private volatile boolean finished;
+
+  /** Whether {@link #close()} has been called. */
+  private volatile boolean closed;
+
+  /**
+   * Initializes a pipeline with the default number of threads and queue capacity.
+   *
+   * @param context the settings for each fetch
+   * @param redirects the number of redirects to follow for each url
+   * @param output receives the cleaned text of each page
+   */
+  public FetchPipeline(FetchContext context, int redirects, Sink output) {
+    this(context, redirects, output, FETCHERS, Runtime.getRuntime().availableProcessors(), 1, CAPACITY);
+  }
+
+  /**
+   * Initializes and starts a pipeline.
+   *
+   * @param context the settings for each fetch
+   * @param redirects the number of redirects to follow for each url
+   * @param output receives the cleaned text of each page
+   * @param fetchers the number of fetch threads
+   * @param cleaners the number of clean threads
+   * @param sinks the number of sink threads, which must be 1 unless the sink is thread safe
+   * @param capacity the capacity of each queue
+   */
+  public FetchPipeline(FetchContext context, int redirects, Sink output, int fetchers, int cleaners,
+      int sinks, int capacity) {
+    if (fetchers < 1 || cleaners < 1 || sinks < 1 || capacity < 1) {
+      throw new IllegalArgumentException("Thread counts and capacity must be positive.");
+    }
+
+    this.context = Objects.requireNonNull(context);
+    this.redirects = redirects;
+    this.output = Objects.requireNonNull(output);
+    this.active = ConcurrentHashMap.newKeySet();
+    this.finished = false;
+    this.closed = false;
+
+    this.sink = new Stage("sink", sinks, capacity, null, this::deliver);
+    this.clean = new Stage("clean", cleaners, capacity, sink, this::clean);
+    this.fetch = new Stage("fetch", fetchers, capacity, clean, this::fetch);
+
+    sink.start();
+    clean.start();
+    fetch.start();
+  }
+
+  /**
+   * Adds a url to the pipeline, waiting while the fetch queue is full.
+   *
+   * @param url the url to fetch
+   * @throws InterruptedException if interrupted while waiting
+   * @throws IllegalStateException if the pipeline was finished or closed
+   */
+  public void submit(URL url) throws InterruptedException {
+    if (finished) {
+      throw new IllegalStateException("The pipeline no longer accepts urls.");
+    }
+
+    fetch.queue.put(new Item(url, null));
+  }
+
+  /**
+   * Stops accepting urls and waits until every submitted url has been through every stage.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void finish() throws InterruptedException {
+    if (!finished) {
+      finished = true;
+      fetch.queue.put(END);
+    }
+
+    fetch.join();
+    clean.join();
+    sink.join();
+  }
+
+  /**
+   * Stops every stage right away, cancelling fetches in progress and discarding any queued work.
+   */
+  @Override
+  public void close() {
+    finished = true;
+    closed = true;
+    active.forEach(Deadline::cancel);
+    fetch.interrupt();
+    clean.interrupt();
+    sink.interrupt();
+  }
+
+  /**
+   * Returns the fetch stage, whose threads mostly wait on the network.
+   *
+   * @return the fetch stage
+   */
+  public Stage getFetchStage() {
+    return fetch;
+  }
+
+  /**
+   * Returns the clean stage, whose threads mostly use the processor.
+   *
+   * @return the clean stage
+   */
+  public Stage getCleanStage() {
+    return clean;
+  }
+
+  /**
+   * Returns the sink stage.
+   *
+   * @return the sink stage
+   */
+  public Stage getSinkStage() {
+    return sink;
+  }
+
+  @Override
+  public String toString() {
+    return String.join(", ", fetch.toString(), clean.toString(), sink.toString());
+  }
+
+  /**
+   * Fetches the html of a url.
+   *
+   * @param item the url
+   * @return the url and html, or {@code null} if not fetched
+   */
+  private Item fetch(Item item) {
+    Deadline deadline = context.start();
+    active.add(deadline);
+
+    try {
+      if (closed) {
+        return null;
+      }
+
+      String html = HtmlFetcher.fetch(item.url, redirects, context, deadline);
+      return html == null ? null : new Item(item.url, html);
+    }
+    finally {
+      active.remove(deadline);
+    }
+  }
+
+  /**
+   * Cleans the html of a page.
+   *
+   * @param item the url and html
+   * @return the url and text
+   */
+  private Item clean(Item item) {
+    return new Item(item.url, HtmlCleaner.stripHtml(item.text));
+  }
+
+  /**
+   * Passes the text of a page to the sink.
+   *
+   * @param item the url and text
+   * @return {@code null}, since this is the last stage
+   * @throws IOException if the sink fails
+   */
+  private Item deliver(Item item) throws IOException {
+    output.accept(item.url, item.text);
+    return null;
+  }
+
+  /**
+   * The work done by a stage for each item.
+   */
+  @FunctionalInterface
+  private interface Work {
+
+    /**
+     * Processes an item.
+     *
+     * @param item the item to process
+     * @return the item for the next stage, or {@code null} if there is nothing to pass on
+     * @throws IOException if unable to process the item
+     */
+    Item process(Item item) throws IOException;
+  }
+
+  /**
+   * One stage of the pipeline, with its own queue and threads.
+   */
+  public static class Stage {
+
+    /** The name of the stage, used for threads. */
+    private final String name;
+
+    /** The work waiting for this stage. */
+    private final BlockingQueue<Item> queue;
+
+    /** The capacity of the queue. */
+    private final int capacity;
+
+    /** The next stage, or {@code null} if this is the last stage. */
+    private final Stage next;
+
+    /** The work done for each item. */
+    private final Work work;
+
+    /** The threads of this stage. */
+    private final List<Thread> threads;
+
+    /** The number of threads still running. */
+    private final AtomicInteger running;
+
+    /** The total time threads spent processing items, excluding waiting on queues. */
+    private final LongAdder busy;
+
+    /** The number of items processed. */
+    private final LongAdder processed;
+
+    /** The number of items that failed or produced nothing. */
+    private final LongAdder failed;
+
+    /** When the stage started in nanoseconds. */
+    private final AtomicLong started;
+
+    /**
+     * Initializes a stage without starting it.
+     *
+     * @param name the name of the stage
+     * @param count the number of threads
+     * @param capacity the capacity of the queue
+     * @param next the next stage, or {@code null}
+     * @param work the work done for each item
+     */
+    private Stage(String name, int count, int capacity, Stage next, Work work) {
+      this.name = name;
+      this.queue = new ArrayBlockingQueue<>(capacity);
+      this.capacity = capacity;
+      this.next = next;
+      this.work = work;
+      this.threads = new ArrayList<>(count);
+      this.running = new AtomicInteger(count);
+      this.busy = new LongAdder();
+      this.processed = new LongAdder();
+      this.failed = new LongAdder();
+      this.started = new AtomicLong();
+
+      for (int i = 0; i < count; i++) {
+        Thread thread = new Thread(this::run, "pipeline-" + name + "-" + i);
+        thread.setDaemon(true);
+        threads.add(thread);
+      }
+    }
+
+    /**
+     * Returns the name of the stage.
+     *
+     * @return the name
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns the number of items waiting in front of this stage.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+      return queue.size();
+    }
+
+    /**
+     * Returns the capacity of the queue in front of this stage.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+      return capacity;
+    }
+
+    /**
+     * Returns the number of threads of this stage.
+     *
+     * @return the number of threads
+     */
+    public int getThreads() {
+      return threads.size();
+    }
+
+    /**
+     * Returns the number of items processed, including failures.
+     *
+     * @return the number of items
+     */
+    public long getProcessed() {
+      return processed.sum();
+    }
+
+    /**
+     * Returns the number of items that failed or produced nothing, such as pages that were not
+     * html.
+     *
+     * @return the number of failed items
+     */
+    public long getFailed() {
+      return failed.sum();
+    }
+
+    /**
+     * Returns the fraction of time the threads of this stage spent processing items rather than
+     * waiting for work or for room in the next queue, since the stage started. A stage near 1 while
+     * the others are low is the bottleneck.
+     *
+     * @return the utilization from 0 to 1
+     */
+    public double getUtilization() {
+      long elapsed = System.nanoTime() - started.get();
+      return elapsed <= 0 ? 0 : Math.min(1, busy.sum() / ((double) elapsed * threads.size()));
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[queue=%d/%d, threads=%d, busy=%.0f%%, processed=%d, failed=%d]",
+          name, getQueueDepth(), capacity, getThreads(), getUtilization() * 100, getProcessed(), getFailed());
+    }
+
+    /**
+     * Starts the threads of this stage.
+     */
+    private void start() {
+      started.set(System.nanoTime());
+      threads.forEach(Thread::start);
+    }
+
+    /**
+     * Waits for every thread of this stage to finish.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void join() throws InterruptedException {
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    }
+
+    /**
+     * Interrupts every thread of this stage.
+     */
+    private void interrupt() {
+      threads.forEach(Thread::interrupt);
+    }
+
+    /**
+     * Processes items until the end of the input, passing the end on once every thread of this
+     * stage is done.
+     */
+    private void run() {
+      try {
+        while (true) {
+          Item item = queue.take();
+
+          if (item == END) {
+            // leave the end for the other threads of this stage
+            queue.put(END);
+            break;
+          }
+
+          long start = System.nanoTime();
+          Item result = null;
+          boolean error = false;
+
+          try {
+            result = work.process(item);
+          }
+          catch (IOException | RuntimeException e) {
+            error = true;
+          }
+
+          busy.add(System.nanoTime() - start);
+          processed.increment();
+
+          if (result != null) {
+            next.queue.put(result);
+          }
+          else if (error || next != null) {
+            failed.increment();
+          }
+        }
+
+        if (running.decrementAndGet() == 0 && next != null) {
+          next.queue.put(END);
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * A url and its html or text, passed between stages.
+   */
+  private static class Item {
+
+    /** The url of the page. */
+    private final URL url;
+
+    /** The html or text of the page, or {@code null} before it is fetched. */
+    private final String text;
+
+    /**
+     * Initializes an item.
+     *
+     * @param url the url of the page
+     * @param text the html or text of the page, or {@code null} before it is fetched
+     */
+    public Item(URL url, String text) {
+      this.url = url;
+      this.text = text;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.SSLSession;
+
+/**
+ * Counts how many TLS handshakes were full handshakes versus resumed sessions. A resumed session
+ * keeps the creation time of the session it resumes, so any session created before its handshake
+ * started must have been resumed.
+ */
+public class HandshakeStatistics {
+
+  /** The number of full handshakes. */
+  private final LongAdder full;
+
+  /** The number of resumed sessions. */
+  private final LongAdder resumed;
+
+  /**
+   * Initializes empty statistics.
+   */
+  public HandshakeStatistics() {
+    this.full = new LongAdder();
+    this.resumed = new LongAdder();
+  }
+
+  /**
+   * Records a completed handshake.
+   *
+   * @param session the session negotiated by the handshake
+   * @param start when the handshake started, in milliseconds since the epoch
+   * @return {@code true} if the session was resumed
+   */
+  public boolean record(SSLSession session, long start) {
+    if (session.getCreationTime() < start) {
+      resumed.increment();
+      return true;
+    }
+
+    full.increment();
+    return false;
+  }
+
+  /**
+   * Returns the number of full handshakes.
+   *
+   * @return the number of full handshakes
+   */
+  public long getFullHandshakes() {
+    return full.sum();
+  }
+
+  /**
+   * Returns the number of handshakes that resumed a previous session.
+   *
+   * @return the number of resumed sessions
+   */
+  public long getResumedHandshakes() {
+    return resumed.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("full=%d, resumed=%d", getFullHandshakes(), getResumedHandshakes());
+  }
+}
@@ -0,0 +1,416 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches host name lookups so that fetching many pages from the same hosts does not ask the system
+ * resolver every time. Successful lookups are kept for the positive time-to-live and failed lookups
+ * for the (usually much shorter) negative time-to-live. Java does not expose the time-to-live of
+ * the actual DNS records, so both are fixed durations.
+ *
+ * Hosts that are looked up again close to their expiration are refreshed in the background while
+ * the cached addresses keep being used, so busy hosts never wait on the resolver once cached.
+ * When a host has several addresses, each lookup returns the next one in round-robin order.
+ */
+public class HostResolver {
+
+  /** The default time to keep successful lookups. */
+  public static final Duration POSITIVE_TTL = Duration.ofMinutes(5);
+
+  /** The default time to keep failed lookups. */
+  public static final Duration NEGATIVE_TTL = Duration.ofSeconds(30);
+
+  /** The number of cached hosts above which expired entries are purged. */
+  public static final int PURGE_THRESHOLD = 10000;
+
+  /** The number of threads looking up uncached hosts for {@link #resolveAsync(String)}. */
+  public static final int LOOKUP_THREADS = 8;
+
+  /** Refreshes hosts in the background, shared by every resolver. */
+  private static final ExecutorService REFRESHER = executor("dns-refresh", 2);
+
+  /** Looks up uncached hosts for {@link #resolveAsync(String)}, shared by every resolver. */
+  private static final ExecutorService LOOKUPS = executor("dns-lookup", LOOKUP_THREADS);
+
+  /**
+   * Looks up all of the addresses for a host name.
+   */
+  @FunctionalInterface
+  public interface Lookup {
+
+    /**
+     * Looks up all of the addresses for a host name.
+     *
+     * @param host the host name
+     * @return the addresses, which may not be empty
+     * @throws UnknownHostException if the host cannot be resolved
+     */
+    InetAddress[] lookup(String host) throws UnknownHostException;
+  }
+
+  /** The cached lookups, which may still be in progress. */
+  private final ConcurrentHashMap<String, CompletableFuture<Entry>> cache;
+
+  /** The time to keep successful lookups in nanoseconds. */
+  private final long positive;
+
+  /** The time to keep failed lookups in nanoseconds. */
+  private final long negative;
+
+  /** Performs the actual lookups. */
+  private final Lookup lookup;
+
+  /** The number of lookups answered from the cache. */
+  private final AtomicInteger hits;
+
+  /** The number of lookups sent to the underlying resolver, including refreshes. */
+  private final AtomicInteger queries;
+
+  /**
+   * Initializes a resolver with the default time-to-live values using the system resolver.
+   */
+  public HostResolver() {
+    this(POSITIVE_TTL, NEGATIVE_TTL);
+  }
+
+  /**
+   * Initializes a resolver using the system resolver.
+   *
+   * @param positive how long to keep successful lookups
+   * @param negative how long to keep failed lookups
+   */
+  public HostResolver(Duration positive, Duration negative) {
+    this(positive, negative, InetAddress::getAllByName);
+  }
+
+  /**
+   * Initializes a resolver.
+   *
+   * @param positive how long to keep successful lookups
+   * @param negative how long to keep failed lookups
+   * @param lookup performs the actual lookups
+   */
+  public HostResolver(Duration positive, Duration negative, Lookup lookup) {
+    if (positive.isNegative() || negative.isNegative()) {
+      throw new IllegalArgumentException("Durations may not be negative.");
+    }
+
+    this.cache = new ConcurrentHashMap<>();
+    this.positive = positive.toNanos();
+    this.negative = negative.toNanos();
+    this.lookup = Objects.requireNonNull(lookup);
+    this.hits = new AtomicInteger();
+    this.queries = new AtomicInteger();
+  }
+
+  /**
+   * Returns an address for the host, using the cache if possible. Concurrent lookups of the same
+   * uncached host wait for a single query rather than each asking the resolver.
+   *
+   * @param host the host name
+   * @return the next address for the host in round-robin order
+   * @throws UnknownHostException if the host cannot be resolved, possibly from the cache
+   */
+  public InetAddress resolve(String host) throws UnknownHostException {
+    String key = host.toLowerCase();
+
+    while (true) {
+      CompletableFuture<Entry> future = cache.get(key);
+
+      if (future == null) {
+        CompletableFuture<Entry> created = new CompletableFuture<>();
+        future = cache.putIfAbsent(key, created);
+
+        if (future == null) {
+          purge();
+
+          try {
+            created.complete(query(key));
+          }
+          catch (RuntimeException e) {
+            cache.remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+          }
+
+          return created.join().next(key);
+        }
+      }
+
+      Entry entry;
+
+      try {
+        entry = future.join();
+      }
+      catch (CompletionException e) {
+        cache.remove(key, future);
+        continue;
+      }
+
+      long now = System.nanoTime();
+
+      if (entry.isExpired(now)) {
+        cache.remove(key, future);
+        continue;
+      }
+
+      hits.incrementAndGet();
+
+      if (entry.shouldRefresh(now)) {
+        refresh(key, future, entry);
+      }
+
+      return entry.next(key);
+    }
+  }
+
+  /**
+   * Returns an address for the host without blocking. Cached hosts are answered immediately, and
+   * the rest are looked up by {@link #resolve(String)} on a shared pool of
+   * {@link #LOOKUP_THREADS} threads, so a burst of new hosts queues up rather than starting a
+   * thread each.
+   *
+   * @param host the host name
+   * @return a future for the next address for the host, which completes exceptionally with an
+   *   {@link UnknownHostException} if the host cannot be resolved
+   */
+  public CompletableFuture<InetAddress> resolveAsync(String host) {
+    String key = host.toLowerCase();
+    CompletableFuture<Entry> future = cache.get(key);
+    Entry entry = future == null ? null : future.getNow(null);
+    long now = System.nanoTime();
+
+    if (entry != null && !entry.isExpired(now)) {
+      hits.incrementAndGet();
+
+      if (entry.shouldRefresh(now)) {
+        refresh(key, future, entry);
+      }
+
+      try {
+        return CompletableFuture.completedFuture(entry.next(key));
+      }
+      catch (UnknownHostException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }
+
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return resolve(key);
+      }
+      catch (UnknownHostException e) {
+        throw new CompletionException(e);
+      }
+    }, LOOKUPS);
+  }
+
+  /**
+   * Removes a host from the cache, for example after connections to it keep failing.
+   *
+   * @param host the host name
+   */
+  public void invalidate(String host) {
+    cache.remove(host.toLowerCase());
+  }
+
+  /**
+   * Removes every host from the cache.
+   */
+  public void clear() {
+    cache.clear();
+  }
+
+  /**
+   * Returns the number of lookups answered from the cache.
+   *
+   * @return the number of cache hits
+   */
+  public int getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of lookups sent to the underlying resolver, including refreshes.
+   *
+   * @return the number of queries
+   */
+  public int getQueries() {
+    return queries.get();
+  }
+
+  /**
+   * Returns the number of hosts currently cached.
+   *
+   * @return the number of hosts
+   */
+  public int size() {
+    return cache.size();
+  }
+
+  /**
+   * Asks the underlying resolver for the addresses of a host.
+   *
+   * @param host the host name
+   * @return the new cache entry
+   */
+  private Entry query(String host) {
+    queries.incrementAndGet();
+    long now = System.nanoTime();
+
+    try {
+      InetAddress[] addresses = lookup.lookup(host);
+
+      if (addresses == null || addresses.length == 0) {
+        return new Entry(null, now + negative, 0);
+      }
+
+      return new Entry(addresses, now + positive, now + positive - positive / 4);
+    }
+    catch (UnknownHostException e) {
+      return new Entry(null, now + negative, 0);
+    }
+  }
+
+  /**
+   * Replaces a cached entry in the background, continuing to use the old one until done. Only one
+   * refresh per entry is started. A failed refresh keeps the old addresses until they expire.
+   *
+   * @param host the host name
+   * @param current the cached future for the host
+   * @param entry the current entry
+   */
+  private void refresh(String host, CompletableFuture<Entry> current, Entry entry) {
+    if (!entry.refreshing.compareAndSet(false, true)) {
+      return;
+    }
+
+    REFRESHER.execute(() -> {
+      Entry fresh = query(host);
+
+      if (fresh.addresses != null) {
+        cache.replace(host, current, CompletableFuture.completedFuture(fresh));
+      }
+    });
+  }
+
+  /**
+   * Removes expired entries once the cache grows large.
+   */
+  private void purge() {
+    if (cache.size() <= PURGE_THRESHOLD) {
+      return;
+    }
+
+    long now = System.nanoTime();
+    cache.values().removeIf(future -> {
+      Entry entry = future.getNow(null);
+      return entry != null && entry.isExpired(now);
+    });
+  }
+
+  @Override
+  public String toString() {
+    return String.format("hosts=%d, hits=%d, queries=%d", size(), getHits(), getQueries());
+  }
+
+  /**
+   * Creates a pool of daemon threads that stop when idle.
+   *
+   * @param name the thread name
+   * @param threads the number of threads
+   * @return the pool
+   */
+  private static ExecutorService executor(String name, int threads) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), runnable -> {
+          Thread thread = new Thread(runnable, name);
+          thread.setDaemon(true);
+          return thread;
+        });
+
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * The result of one lookup.
+   */
+  private static class Entry {
+
+    /** The addresses for the host, or {@code null} if the lookup failed. */
+    private final InetAddress[] addresses;
+
+    /** When the entry expires in nanoseconds. */
+    private final long expires;
+
+    /** When to start refreshing the entry in nanoseconds, or 0 to never refresh. */
+    private final long refresh;
+
+    /** The position of the next address to return. */
+    private final AtomicInteger next;
+
+    /** Whether a refresh has been started. */
+    private final AtomicBoolean refreshing;
+
+    /**
+     * Initializes a new entry.
+     *
+     * @param addresses the addresses for the host, or {@code null} if the lookup failed
+     * @param expires when the entry expires in nanoseconds
+     * @param refresh when to start refreshing the entry in nanoseconds, or 0 to never refresh
+     */
+    public Entry(InetAddress[] addresses, long expires, long refresh) {
+      this.addresses = addresses;
+      this.expires = expires;
+      this.refresh = refresh;
+      this.next = new AtomicInteger();
+      this.refreshing = new AtomicBoolean();
+    }
+
+    /**
+     * Returns whether the entry has expired.
+     *
+     * @param now the current time in nanoseconds
+     * @return {@code true} if the entry may no longer be used
+     */
+    public boolean isExpired(long now) {
+      return now - expires >= 0;
+    }
+
+    /**
+     * Returns whether the entry should be refreshed in the background.
+     *
+     * @param now the current time in nanoseconds
+     * @return {@code true} if the entry is close to expiring
+     */
+    public boolean shouldRefresh(long now) {
+      return addresses != null && now - refresh >= 0 && !refreshing.get();
+    }
+
+    /**
+     * Returns the next address in round-robin order.
+     *
+     * @param host the host name, used for the exception message
+     * @return the next address
+     * @throws UnknownHostException if the lookup failed
+     */
+    public InetAddress next(String host) throws UnknownHostException {
+      if (addresses == null) {
+        throw new UnknownHostException(host);
+      }
+
+      return addresses[Math.floorMod(next.getAndIncrement(), addresses.length)];
+    }
+  }
+}
@@ -0,0 +1,653 @@
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK header compression for HTTP/2, as described in RFC 7541. An {@link Encoder} and a
+ * {@link Decoder} each keep a dynamic table of recently sent header fields, so repeated headers
+ * such as the authority and user agent shrink to a single byte after the first request.
+ *
+ * Header names and values are treated as octets, so they are converted to and from strings as
+ * ISO-8859-1, which maps every byte to one character.
+ *
+ * @see Http2Fetcher
+ */
+public class Hpack {
+
+  /** The default maximum size of a dynamic table in octets. */
+  public static final int TABLE_SIZE = 4096;
+
+  /** The overhead counted for each dynamic table entry in addition to its name and value. */
+  private static final int ENTRY_OVERHEAD = 32;
+
+  /** The static table, indexed from 1. */
+  private static final String[][] STATIC = {
+      {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+      {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+      {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+      {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+      {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""},
+      {"accept", ""}, {"access-control-allow-origin", ""}, {"age", ""}, {"allow", ""},
+      {"authorization", ""}, {"cache-control", ""}, {"content-disposition", ""},
+      {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+      {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+      {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""}, {"from", ""}, {"host", ""},
+      {"if-match", ""}, {"if-modified-since", ""}, {"if-none-match", ""}, {"if-range", ""},
+      {"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""}, {"location", ""},
+      {"max-forwards", ""}, {"proxy-authenticate", ""}, {"proxy-authorization", ""},
+      {"range", ""}, {"referer", ""}, {"refresh", ""}, {"retry-after", ""}, {"server", ""},
+      {"set-cookie", ""}, {"strict-transport-security", ""}, {"transfer-encoding", ""},
+      {"user-agent", ""}, {"vary", ""}, {"via", ""}, {"www-authenticate", ""}
+  };
+
+  /** The Huffman code of each octet, followed by the end of string code. */
+  private static final int[] CODES = {
+      0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+      0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+      0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+      0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb, 0x14,
+      0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa, 0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17,
+      0x18, 0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d, 0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20,
+      0xffb, 0x3fc, 0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62, 0x63, 0x64, 0x65, 0x66, 0x67,
+      0x68, 0x69, 0x6a, 0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72, 0xfc, 0x73, 0xfd, 0x1ffb,
+      0x7fff0, 0x1ffc, 0x3ffc, 0x22, 0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26, 0x27, 0x6,
+      0x74, 0x75, 0x28, 0x29, 0x2a, 0x7, 0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78, 0x79, 0x7a,
+      0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc, 0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8,
+      0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9, 0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd,
+      0x7fffde, 0xffffeb, 0x7fffdf, 0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1,
+      0x7fffe2, 0x7fffe3, 0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7,
+      0xffffef, 0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+      0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec, 0x1fffe0,
+      0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef, 0xfffea, 0x3fffe2,
+      0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1, 0x3ffffe0, 0x3ffffe1, 0xfffeb,
+      0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec, 0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde,
+      0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed, 0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0,
+      0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2, 0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9,
+      0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5, 0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9,
+      0x1fffe7, 0x1fffe8, 0x7ffff3, 0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5,
+      0x3ffffea, 0x7ffff4, 0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8,
+      0x7ffffe9, 0x7ffffea, 0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef,
+      0x7fffff0, 0x3ffffee, 0x3fffffff
+  };
+
+  /** The length in bits of each Huffman code. */
+  private static final byte[] LENGTHS = {
+      13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 30,
+      28, 28, 28, 28, 28, 28, 28, 28, 28, 6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+      5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10, 13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+      7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6, 15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7,
+      7, 6, 6, 6, 5, 6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28, 20, 22, 20, 20, 22, 22,
+      22, 23, 22, 23, 23, 23, 23, 23, 24, 23, 24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22,
+      23, 23, 24, 22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23, 21, 21, 22, 21,
+      23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23, 26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26,
+      27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27, 20, 24,
+      20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23, 26, 27, 26, 26, 27, 27, 27, 27, 27,
+      28, 27, 27, 27, 27, 27, 26, 30
+  };
+
+  /** The end of string symbol, which must never appear in decoded strings. */
+  private static final int EOS = 256;
+
+  /**
+   * The Huffman decoding tree. Each node has two slots for the next node after a 0 or 1 bit. A
+   * slot holds the index of the next node, or the bitwise complement of the symbol at a leaf.
+   */
+  private static final int[] TREE = buildTree();
+
+  /**
+   * Builds the Huffman decoding tree from the codes.
+   *
+   * @return the tree
+   */
+  private static int[] buildTree() {
+    int[] tree = new int[2 * CODES.length];
+    int nodes = 1;
+
+    for (int symbol = 0; symbol < CODES.length; symbol++) {
+      int node = 0;
+
+      for (int bit = LENGTHS[symbol] - 1; bit >= 0; bit--) {
+        int slot = 2 * node + ((CODES[symbol] >>> bit) & 1);
+
+        if (bit == 0) {
+          tree[slot] = ~symbol;
+        }
+        else {
+          if (tree[slot] == 0) {
+            tree[slot] = nodes++;
+          }
+
+          node = tree[slot];
+        }
+      }
+    }
+
+    return tree;
+  }
+
+  /**
+   * Returns the number of octets a string takes when Huffman coded.
+   *
+   * @param bytes the string octets
+   * @return the coded length
+   */
+  public static int huffmanLength(byte[] bytes) {
+    long bits = 0;
+
+    for (byte b : bytes) {
+      bits += LENGTHS[b & 0xFF];
+    }
+
+    return (int) ((bits + 7) / 8);
+  }
+
+  /**
+   * Huffman codes a string, padding the last octet with the most significant bits of the end of
+   * string code.
+   *
+   * @param bytes the string octets
+   * @param out where to write the coded octets
+   */
+  public static void huffmanEncode(byte[] bytes, ByteArrayOutputStream out) {
+    long pending = 0;
+    int count = 0;
+
+    for (byte b : bytes) {
+      int symbol = b & 0xFF;
+      pending = (pending << LENGTHS[symbol]) | CODES[symbol];
+      count += LENGTHS[symbol];
+
+      while (count >= 8) {
+        count -= 8;
+        out.write((int) (pending >>> count));
+      }
+    }
+
+    if (count > 0) {
+      out.write((int) ((pending << (8 - count)) | (0xFF >>> count)));
+    }
+  }
+
+  /**
+   * Decodes a Huffman coded string.
+   *
+   * @param bytes the coded octets
+   * @param offset where the coded octets start
+   * @param length the number of coded octets
+   * @return the decoded octets
+   * @throws ProtocolException if the coding is invalid or the padding is not a prefix of the end
+   *   of string code
+   */
+  public static byte[] huffmanDecode(byte[] bytes, int offset, int length) throws ProtocolException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(length * 8 / 5 + 1);
+    int node = 0;
+    int depth = 0;
+    boolean ones = true;
+
+    for (int i = offset; i < offset + length; i++) {
+      for (int bit = 7; bit >= 0; bit--) {
+        int one = (bytes[i] >>> bit) & 1;
+        int next = TREE[2 * node + one];
+        depth++;
+        ones &= one == 1;
+
+        if (next < 0) {
+          if (~next == EOS) {
+            throw new ProtocolException("Huffman string contains the end of string code.");
+          }
+
+          out.write(~next);
+          node = 0;
+          depth = 0;
+          ones = true;
+        }
+        else if (next == 0) {
+          throw new ProtocolException("Invalid Huffman code.");
+        }
+        else {
+          node = next;
+        }
+      }
+    }
+
+    if (depth > 7 || !ones) {
+      throw new ProtocolException("Invalid Huffman padding.");
+    }
+
+    return out.toByteArray();
+  }
+
+  /**
+   * Writes an integer with a prefix of the given number of bits in the first octet.
+   *
+   * @param out where to write the integer
+   * @param value the non-negative value
+   * @param prefix the number of bits available in the first octet
+   * @param flags the bits above the prefix in the first octet
+   */
+  private static void writeInteger(ByteArrayOutputStream out, int value, int prefix, int flags) {
+    int max = (1 << prefix) - 1;
+
+    if (value < max) {
+      out.write(flags | value);
+      return;
+    }
+
+    out.write(flags | max);
+    value -= max;
+
+    while (value >= 0x80) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+
+    out.write(value);
+  }
+
+  /**
+   * Writes a string literal, Huffman coded if that is shorter.
+   *
+   * @param out where to write the string
+   * @param text the string
+   * @param huffman whether Huffman coding may be used
+   */
+  private static void writeString(ByteArrayOutputStream out, String text, boolean huffman) {
+    byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+    int coded = huffman ? huffmanLength(bytes) : Integer.MAX_VALUE;
+
+    if (coded < bytes.length) {
+      writeInteger(out, coded, 7, 0x80);
+      huffmanEncode(bytes, out);
+    }
+    else {
+      writeInteger(out, bytes.length, 7, 0);
+      out.write(bytes, 0, bytes.length);
+    }
+  }
+
+  /**
+   * Returns the size a header field counts against a dynamic table.
+   *
+   * @param name the header name
+   * @param value the header value
+   * @return the size in octets
+   */
+  private static int size(String name, String value) {
+    return name.length() + value.length() + ENTRY_OVERHEAD;
+  }
+
+  /**
+   * Encodes header blocks. Header fields already in the static or dynamic table are sent as a
+   * single index, and other fields are added to the dynamic table if they fit.
+   */
+  public static class Encoder {
+
+    /** The dynamic table. */
+    private final Table table;
+
+    /** Whether strings are Huffman coded when that is shorter. */
+    private final boolean huffman;
+
+    /** The smallest table size since the last block, or -1 if the size has not changed. */
+    private int smallest;
+
+    /**
+     * Initializes an encoder with the default table size.
+     *
+     * @param huffman whether strings are Huffman coded when that is shorter
+     */
+    public Encoder(boolean huffman) {
+      this.table = new Table(TABLE_SIZE);
+      this.huffman = huffman;
+      this.smallest = -1;
+    }
+
+    /**
+     * Changes the size of the dynamic table, such as after the peer sends its header table size.
+     * The change is signalled at the start of the next header block.
+     *
+     * @param size the new maximum size, limited to {@link #TABLE_SIZE}
+     */
+    public void setMaxTableSize(int size) {
+      int limited = Math.min(Math.max(size, 0), TABLE_SIZE);
+      smallest = smallest < 0 ? limited : Math.min(smallest, limited);
+      table.resize(limited);
+    }
+
+    /**
+     * Encodes a header block.
+     *
+     * @param headers the header names and values in order, with lowercase names
+     * @return the encoded block
+     */
+    public byte[] encode(List<Map.Entry<String, String>> headers) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+      if (smallest >= 0) {
+        // a decoder must see the smallest size in case entries were evicted by it
+        writeInteger(out, smallest, 5, 0x20);
+
+        if (smallest != table.getMaxSize()) {
+          writeInteger(out, table.getMaxSize(), 5, 0x20);
+        }
+
+        smallest = -1;
+      }
+
+      for (Map.Entry<String, String> header : headers) {
+        String name = header.getKey();
+        String value = header.getValue();
+        int exact = table.find(name, value, true);
+
+        if (exact > 0) {
+          writeInteger(out, exact, 7, 0x80);
+          continue;
+        }
+
+        int named = table.find(name, value, false);
+        boolean index = size(name, value) <= table.getMaxSize();
+
+        writeInteger(out, Math.max(named, 0), index ? 6 : 4, index ? 0x40 : 0);
+
+        if (named <= 0) {
+          writeString(out, name, huffman);
+        }
+
+        writeString(out, value, huffman);
+
+        if (index) {
+          table.add(name, value);
+        }
+      }
+
+      return out.toByteArray();
+    }
+  }
+
+  /**
+   * Decodes header blocks, which must be decoded in the order they arrive on a connection since
+   * they share one dynamic table.
+   */
+  public static class Decoder {
+
+    /** The dynamic table. */
+    private final Table table;
+
+    /** The largest table size the encoder may choose. */
+    private final int limit;
+
+    /** The block being decoded. */
+    private byte[] block;
+
+    /** The position in the block. */
+    private int position;
+
+    /** Where the block ends. */
+    private int end;
+
+    /**
+     * Initializes a decoder that allows the default table size.
+     */
+    public Decoder() {
+      this(TABLE_SIZE);
+    }
+
+    /**
+     * Initializes a decoder.
+     *
+     * @param limit the largest table size the encoder may choose, as sent in the settings
+     */
+    public Decoder(int limit) {
+      this.table = new Table(limit);
+      this.limit = limit;
+    }
+
+    /**
+     * Decodes a complete header block.
+     *
+     * @param bytes the block octets
+     * @param offset where the block starts
+     * @param length the number of block octets
+     * @return the header names and values in order
+     * @throws ProtocolException if the block is malformed
+     */
+    public List<Map.Entry<String, String>> decode(byte[] bytes, int offset, int length) throws ProtocolException {
+      List<Map.Entry<String, String>> headers = new ArrayList<>();
+      this.block = bytes;
+      this.position = offset;
+      this.end = offset + length;
+
+      while (position < end) {
+        int first = block[position] & 0xFF;
+
+        if ((first & 0x80) != 0) {
+          String[] entry = lookup(readInteger(7));
+          headers.add(Map.entry(entry[0], entry[1]));
+        }
+        else if ((first & 0xE0) == 0x20) {
+          if (!headers.isEmpty()) {
+            throw new ProtocolException("Table size update after a header field.");
+          }
+
+          int size = readInteger(5);
+
+          if (size > limit) {
+            throw new ProtocolException("Table size update exceeds the limit.");
+          }
+
+          table.resize(size);
+        }
+        else {
+          boolean index = (first & 0xC0) == 0x40;
+          int named = readInteger(index ? 6 : 4);
+          String name = named == 0 ? readString() : lookup(named)[0];
+          String value = readString();
+          headers.add(Map.entry(name, value));
+
+          if (index) {
+            table.add(name, value);
+          }
+        }
+      }
+
+      this.block = null;
+      return headers;
+    }
+
+    /**
+     * Returns the entry for an index into the static and dynamic tables.
+     *
+     * @param index the index from 1
+     * @return the name and value
+     * @throws ProtocolException if there is no such entry
+     */
+    private String[] lookup(int index) throws ProtocolException {
+      String[] entry = table.get(index);
+
+      if (entry == null) {
+        throw new ProtocolException("Invalid header table index " + index + ".");
+      }
+
+      return entry;
+    }
+
+    /**
+     * Reads an integer with a prefix of the given number of bits in the current octet.
+     *
+     * @param prefix the number of bits in the prefix
+     * @return the value
+     * @throws ProtocolException if the integer is truncated or too large
+     */
+    private int readInteger(int prefix) throws ProtocolException {
+      int max = (1 << prefix) - 1;
+      int value = block[position++] & max;
+
+      if (value < max) {
+        return value;
+      }
+
+      for (int shift = 0; shift <= 21; shift += 7) {
+        if (position >= end) {
+          throw new ProtocolException("Truncated header integer.");
+        }
+
+        int next = block[position++] & 0xFF;
+        value += (next & 0x7F) << shift;
+
+        if ((next & 0x80) == 0) {
+          return value;
+        }
+      }
+
+      throw new ProtocolException("Header integer too large.");
+    }
+
+    /**
+     * Reads a string literal.
+     *
+     * @return the string
+     * @throws ProtocolException if the string is truncated or badly coded
+     */
+    private String readString() throws ProtocolException {
+      if (position >= end) {
+        throw new ProtocolException("Truncated header string.");
+      }
+
+      boolean huffman = (block[position] & 0x80) != 0;
+      int length = readInteger(7);
+
+      if (length > end - position) {
+        throw new ProtocolException("Truncated header string.");
+      }
+
+      byte[] bytes = huffman ? huffmanDecode(block, position, length) : null;
+      String text = huffman ? new String(bytes, StandardCharsets.ISO_8859_1) :
+          new String(block, position, length, StandardCharsets.ISO_8859_1);
+      position += length;
+      return text;
+    }
+  }
+
+  /**
+   * The static table followed by a dynamic table of recently added entries, newest first.
+   */
+  private static class Table {
+
+    /** The dynamic entries, oldest first. */
+    private final List<String[]> entries;
+
+    /** The current maximum size in octets. */
+    private int maxSize;
+
+    /** The current size in octets. */
+    private int size;
+
+    /**
+     * Initializes an empty dynamic table.
+     *
+     * @param maxSize the maximum size in octets
+     */
+    public Table(int maxSize) {
+      this.entries = new ArrayList<>();
+      this.maxSize = maxSize;
+      this.size = 0;
+    }
+
+    /**
+     * Returns the maximum size.
+     *
+     * @return the maximum size in octets
+     */
+    public int getMaxSize() {
+      return maxSize;
+    }
+
+    /**
+     * Returns an entry by index, counting the static table first.
+     *
+     * @param index the index from 1
+     * @return the name and value, or {@code null} if there is no such entry
+     */
+    public String[] get(int index) {
+      if (index >= 1 && index <= STATIC.length) {
+        return STATIC[index - 1];
+      }
+
+      int dynamic = index - STATIC.length;
+
+      if (dynamic >= 1 && dynamic <= entries.size()) {
+        return entries.get(entries.size() - dynamic);
+      }
+
+      return null;
+    }
+
+    /**
+     * Finds the index of an entry, preferring the static table.
+     *
+     * @param name the header name
+     * @param value the header value
+     * @param exact whether the value must match as well as the name
+     * @return the index, or -1 if not found
+     */
+    public int find(String name, String value, boolean exact) {
+      for (int i = 0; i < STATIC.length; i++) {
+        if (STATIC[i][0].equals(name) && (!exact || STATIC[i][1].equals(value))) {
+          return i + 1;
+        }
+      }
+
+      for (int i = entries.size() - 1; i >= 0; i--) {
+        String[] entry = entries.get(i);
+
+        if (entry[0].equals(name) && (!exact || entry[1].equals(value))) {
+          return STATIC.length + entries.size() - i;
+        }
+      }
+
+      return -1;
+    }
+
+    /**
+     * Adds an entry, evicting the oldest entries to make room. An entry larger than the table
+     * empties it.
+     *
+     * @param name the header name
+     * @param value the header value
+     */
+    public void add(String name, String value) {
+      int added = size(name, value);
+      evict(maxSize - added);
+
+      if (added <= maxSize) {
+        entries.add(new String[] {name, value});
+        size += added;
+      }
+    }
+
+    /**
+     * Changes the maximum size, evicting entries that no longer fit.
+     *
+     * @param maxSize the new maximum size
+     */
+    public void resize(int maxSize) {
+      this.maxSize = maxSize;
+      evict(maxSize);
+    }
+
+    /**
+     * Evicts the oldest entries until the table is no larger than a size.
+     *
+     * @param target the size to reach
+     */
+    private void evict(int target) {
+      while (size > Math.max(target, 0) && !entries.isEmpty()) {
+        String[] oldest = entries.remove(0);
+        size -= size(oldest[0], oldest[1]);
+      }
+    }
+  }
+}
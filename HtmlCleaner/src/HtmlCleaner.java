@@ -44,8 +44,7 @@ public class HtmlCleaner {
    * @return text without any HTML entities
    */
   public static String stripEntities(String html) {
-    // TODO Fill in stripEntities(...) implementation.
-    throw new UnsupportedOperationException("Not yet implemented.");
+    return html.replaceAll("&[^&;\\s]+;", "");
   }
 
   /**
@@ -55,8 +54,7 @@ public class HtmlCleaner {
    * @return text without any HTML tags
    */
   public static String stripTags(String html) {
-    // TODO Fill in stripTags(...) implementation.
-    throw new UnsupportedOperationException("Not yet implemented.");
+    return html.replaceAll("(?s)<[^>]*>", "");
   }
 
   // THE FOLLOWING REPLACE WITH A SINGLE SPACE
@@ -68,8 +66,7 @@ public class HtmlCleaner {
    * @return text without any HTML comments
    */
   public static String stripComments(String html) {
-    // TODO Fill in stripComments(...) implementation.
-    throw new UnsupportedOperationException("Not yet implemented.");
+    return html.replaceAll("(?s)<!--.*?-->", " ");
   }
 
   /**
@@ -88,7 +85,7 @@ public class HtmlCleaner {
    * @return text without that HTML element
    */
   public static String stripElement(String html, String name) {
-    // TODO Fill in stripElement(...) implementation.
-    throw new UnsupportedOperationException("Not yet implemented.");
+    String regex = "(?is)<" + name + "\\b[^>]*>.*?</" + name + "\\s*>";
+    return html.replaceAll(regex, " ");
   }
 }
@@ -1,7 +1,13 @@
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.net.MalformedURLException;
+import java.net.Socket;
 import java.net.URL;
+import java.nio.file.NoSuchFileException;
 import java.util.List;
 import java.util.Map;
 
@@ -13,16 +19,20 @@ import java.util.Map;
  */
 public class HtmlFetcher {
 
+  /** The bytes of html asked for at first per character of text wanted by a prefix fetch. */
+  public static final int PREFIX_RATIO = 4;
+
   /**
    * Returns {@code true} if and only if there is a "Content-Type" header and the first value of
-   * that header starts with the value "text/html" (case-insensitive).
+   * that header starts with the value "text/html" (case-insensitive). The header name is also
+   * matched case-insensitively.
    *
    * @param headers the HTTP/1.1 headers to parse
    * @return {@code true} if the headers indicate the content type is HTML
    */
   public static boolean isHtml(Map<String, List<String>> headers) {
-    // TODO Fill in isHtml(...) implementation.
-    throw new UnsupportedOperationException("Not yet implemented.");
+    String type = HttpHeaders.getFirst(headers, "Content-Type");
+    return type != null && type.regionMatches(true, 0, "text/html", 0, "text/html".length());
   }
 
   /**
@@ -33,8 +43,13 @@ public class HtmlFetcher {
    * @return the HTTP status code or -1 if unable to parse for any reasons
    */
   public static int getStatusCode(Map<String, List<String>> headers) {
-    // TODO Fill in getStatusCode(...) implementation.
-    throw new UnsupportedOperationException("Not yet implemented.");
+    try {
+      String[] status = headers.get(null).get(0).split(" ", 3);
+      return Integer.parseInt(status[1]);
+    }
+    catch (NullPointerException | IndexOutOfBoundsException | NumberFormatException e) {
+      return -1;
+    }
   }
 
   /**
@@ -45,8 +60,8 @@ public class HtmlFetcher {
    * @return {@code true} if the headers indicate the content type is HTML
    */
   public static boolean isRedirect(Map<String, List<String>> headers) {
-    // TODO Fill in isRedirect(...) implementation.
-    throw new UnsupportedOperationException("Not yet implemented.");
+    int code = getStatusCode(headers);
+    return code >= 300 && code <= 399 && HttpHeaders.getFirst(headers, "Location") != null;
   }
 
   /**
@@ -70,8 +85,389 @@ public class HtmlFetcher {
    * @see #isRedirect(Map)
    */
   public static String fetch(URL url, int redirects) {
-    // TODO Fill in fetch(...) implementation. Must use sockets, NOT a URLConnection object!
-    throw new UnsupportedOperationException("Not yet implemented.");
+    return fetch(url, redirects, FetchContext.DEFAULT);
+  }
+
+  /**
+   * Fetches the resource at the URL the same way as {@link #fetch(URL, int)}, using the timeouts
+   * from the context. The overall deadline of the context covers every redirect.
+   *
+   * @param url the url to fetch
+   * @param redirects the number of times to follow redirects
+   * @param context the settings for each connection
+   * @return the html or {@code null} if unable to fetch the resource before the deadline or the
+   *   resource is not html
+   *
+   * @see #fetch(URL, int)
+   */
+  public static String fetch(URL url, int redirects, FetchContext context) {
+    return fetch(url, redirects, context, context.start());
+  }
+
+  /**
+   * Fetches the resource at the URL the same way as {@link #fetch(URL, int)}, using the timeouts
+   * from the context and the provided deadline for every redirect. Another thread may call
+   * {@link Deadline#cancel()} to abort the fetch, which closes the current socket.
+   *
+   * If the context has a {@link RedirectCache}, cached redirects are skipped without connecting,
+   * as long as that does not skip more redirects than allowed, and new redirects are remembered.
+   * If the context has a {@link RetryPolicy}, each request is retried or hedged as it decides.
+   *
+   * @param url the url to fetch
+   * @param redirects the number of times to follow redirects
+   * @param context the settings for each connection
+   * @param deadline the overall deadline for the fetch
+   * @return the html or {@code null} if unable to fetch the resource before the deadline, the
+   *   fetch was cancelled, or the resource is not html
+   *
+   * @see #fetch(URL, int)
+   */
+  public static String fetch(URL url, int redirects, FetchContext context, Deadline deadline) {
+    RedirectCache cache = context.getRedirectCache();
+    RedirectCache.Resolved resolved = cache == null ? null : cache.resolve(url, redirects);
+    URL target = resolved == null ? url : resolved.getUrl();
+    int remaining = resolved == null ? redirects : redirects - resolved.getHops();
+
+    RetryPolicy retries = context.getRetryPolicy();
+
+    try {
+      Map<String, List<String>> headers = retries == null ?
+          HttpsFetcher.fetchURL(target, context, deadline) :
+          retries.execute(target, deadline, attempt -> HttpsFetcher.fetchURL(target, context, attempt),
+              HtmlFetcher::getStatusCode);
+
+      if (getStatusCode(headers) == 200 && isHtml(headers)) {
+        return String.join("\n", headers.get("Content"));
+      }
+
+      if (isRedirect(headers)) {
+        URL location = new URL(target, HttpHeaders.getFirst(headers, "Location"));
+
+        if (cache != null) {
+          cache.record(target, location, getStatusCode(headers));
+        }
+
+        if (remaining > 0 && !deadline.isExpired()) {
+          return fetch(location, remaining - 1, context, deadline);
+        }
+      }
+    }
+    catch (IOException e) {
+      return null;
+    }
+
+    return null;
+  }
+
+  /**
+   * Fetches the resource at the URL the same way as {@link #fetch(URL, int)}, but streams the html
+   * through a {@link StreamingHtmlCleaner} into the sink instead of returning it. The raw html is
+   * never held in memory as a whole; only a buffer of the provided size and whatever the cleaner
+   * holds back while matching are kept at a time.
+   *
+   * The text appended to the sink is the same as calling {@link HtmlCleaner#stripHtml(String)} on
+   * the result of {@link #fetch(URL, int)}, except that chunked content is decoded. If the fetch
+   * fails partway through the content, some of the text may already have been appended.
+   *
+   * @param url the url to fetch
+   * @param redirects the number of times to follow redirects
+   * @param sink where to append the cleaned text
+   * @param size the number of bytes and characters to buffer at a time
+   * @return {@code true} if the html was fetched and cleaned into the sink
+   *
+   * @see #fetch(URL, int)
+   * @see StreamingHtmlCleaner
+   */
+  public static boolean fetchCleaned(URL url, int redirects, Appendable sink, int size) {
+    return fetchCleaned(url, redirects, sink, size, FetchContext.DEFAULT, FetchContext.DEFAULT.start());
+  }
+
+  /**
+   * Streams the cleaned html into the sink, using the timeouts from the context and the provided
+   * deadline for every redirect.
+   *
+   * If the context has a {@link ValidatorCache}, the request is made conditional on any validators
+   * stored for the URL. When the server answers "304 Not Modified", the stored cleaned text is
+   * appended to the sink instead, without transferring or cleaning the html again. Otherwise, if
+   * the response has an "ETag" or "Last-Modified" header, the cleaned text is stored for next time.
+   * In that case the text is appended to the sink once cleaning is complete rather than as it is
+   * produced.
+   *
+   * @param url the url to fetch
+   * @param redirects the number of times to follow redirects
+   * @param sink where to append the cleaned text
+   * @param size the number of bytes and characters to buffer at a time
+   * @param context the settings for each connection
+   * @param deadline the overall deadline for the fetch
+   * @return {@code true} if the html was fetched and cleaned into the sink
+   *
+   * @see #fetchCleaned(URL, int, Appendable, int)
+   */
+  public static boolean fetchCleaned(URL url, int redirects, Appendable sink, int size,
+      FetchContext context, Deadline deadline) {
+    RedirectCache cache = context.getRedirectCache();
+    RedirectCache.Resolved resolved = cache == null ? null : cache.resolve(url, redirects);
+    URL target = resolved == null ? url : resolved.getUrl();
+    int remaining = resolved == null ? redirects : redirects - resolved.getHops();
+
+    URL location = null;
+    ValidatorCache validators = context.getValidatorCache();
+    ValidatorCache.Entry cached = validators == null ? null : validators.get(target);
+
+    FetchMetrics.Trace trace = context.getMetrics().start(target);
+    int status = 0;
+
+    try (
+        Socket socket = HttpsFetcher.openConnection(target, context, deadline, trace);
+        PrintWriter request = new PrintWriter(socket.getOutputStream());
+        InputStream response = new BufferedInputStream(socket.getInputStream(), size);
+    ) {
+      HttpsFetcher.printGetRequest(request, target, true, cached == null ? Map.of() : cached.getConditions());
+      HttpsFetcher.awaitFirstByte(response, trace);
+      HttpHeaders headers = HttpHeaders.read(response);
+
+      if (headers == null) {
+        return false;
+      }
+
+      trace.lap(FetchMetrics.Phase.HEADERS);
+      status = headers.getStatusCode();
+
+      if (cached != null && headers.getStatusCode() == 304) {
+        return appendCached(target, cached, validators, sink);
+      }
+
+      if (headers.getStatusCode() == 200 && headers.isHtml()) {
+        InputStream content = headers.isChunked() ? new ChunkedInputStream(response) : response;
+        Reader reader = ContentDecoder.open(content, headers.getCharset(), size);
+
+        if (validators == null) {
+          StreamingHtmlCleaner.clean(reader, sink, true, size);
+          trace.lap(FetchMetrics.Phase.BODY);
+          return true;
+        }
+
+        String etag = headers.getETag();
+        String modified = headers.getLastModified();
+
+        if (etag == null && modified == null) {
+          validators.remove(target);
+          StreamingHtmlCleaner.clean(reader, sink, true, size);
+          trace.lap(FetchMetrics.Phase.BODY);
+          return true;
+        }
+
+        StringBuilder text = new StringBuilder();
+        StreamingHtmlCleaner.clean(reader, text, true, size);
+        trace.lap(FetchMetrics.Phase.BODY);
+        sink.append(text);
+        store(target, etag, modified, text, validators);
+        return true;
+      }
+
+      if (headers.isRedirect()) {
+        URL next = new URL(target, headers.getLocation());
+
+        if (cache != null) {
+          cache.record(target, next, headers.getStatusCode());
+        }
+
+        location = remaining > 0 ? next : null;
+      }
+    }
+    catch (IOException e) {
+      status = 0;
+      return false;
+    }
+    finally {
+      trace.finish(status);
+      deadline.release();
+    }
+
+    return location != null && !deadline.isExpired() &&
+        fetchCleaned(location, remaining - 1, sink, size, context, deadline);
+  }
+
+  /**
+   * Appends the stored cleaned text after a "304 Not Modified" response. If the text has gone
+   * missing since the validators were read, the entry is removed so the next fetch is not
+   * conditional.
+   *
+   * @param url the url that was fetched
+   * @param cached the stored entry for the url
+   * @param validators the cache the entry came from
+   * @param sink where to append the cleaned text
+   * @return {@code true} if the stored text was appended
+   * @throws IOException if unable to append to the sink or remove the entry
+   */
+  private static boolean appendCached(URL url, ValidatorCache.Entry cached, ValidatorCache validators,
+      Appendable sink) throws IOException {
+    String text;
+
+    try {
+      text = cached.getText();
+    }
+    catch (NoSuchFileException e) {
+      validators.remove(url);
+      return false;
+    }
+
+    sink.append(text);
+    return true;
+  }
+
+  /**
+   * Stores the validators and cleaned text for the next fetch. Failing to store the entry does not
+   * fail the fetch, since the text was already appended to the sink.
+   *
+   * @param url the url that was fetched
+   * @param etag the "ETag" header value, or {@code null}
+   * @param modified the "Last-Modified" header value, or {@code null}
+   * @param text the cleaned text
+   * @param validators where to store the entry
+   */
+  private static void store(URL url, String etag, String modified, CharSequence text,
+      ValidatorCache validators) {
+    try {
+      validators.put(url, etag, modified, text);
+    }
+    catch (IOException e) {
+      return;
+    }
+  }
+
+  /**
+   * Calls {@link #fetchCleaned(URL, int, Appendable, int)} with the default buffer size.
+   *
+   * @param url the url to fetch
+   * @param redirects the number of times to follow redirects
+   * @param sink where to append the cleaned text
+   * @return {@code true} if the html was fetched and cleaned into the sink
+   *
+   * @see #fetchCleaned(URL, int, Appendable, int)
+   */
+  public static boolean fetchCleaned(URL url, int redirects, Appendable sink) {
+    return fetchCleaned(url, redirects, sink, StreamingHtmlCleaner.DEFAULT_BUFFER);
+  }
+
+  /**
+   * Fetches only as much of the page as needed for the first characters of its cleaned text, such
+   * as for a preview or snippet, following 0 redirects.
+   *
+   * @param url the url to fetch
+   * @param maxChars the most characters of cleaned text wanted
+   * @return the cleaned text, cut to at most {@code maxChars} characters, or {@code null} if
+   *   unable to fetch the resource or the resource is not html
+   *
+   * @see #fetchPrefix(URL, int, int, FetchContext, Deadline)
+   */
+  public static String fetchPrefix(URL url, int maxChars) {
+    return fetchPrefix(url, 0, maxChars, FetchContext.DEFAULT, FetchContext.DEFAULT.start());
+  }
+
+  /**
+   * Fetches only as much of the page as needed for the first characters of its cleaned text. The
+   * result is the same as the start of {@link HtmlCleaner#stripHtml(String)} on the whole page,
+   * except that chunked content is decoded, but the time and bandwidth used depend on the size of
+   * the prefix rather than the size of the page.
+   *
+   * The page is requested in ranges with a {@link RangeInputStream}, starting with
+   * {@link #PREFIX_RATIO} bytes per character wanted, and cleaned as it arrives. Once enough text
+   * has been produced, no further ranges are requested. If the server ignores the "Range" header,
+   * the connection is closed as soon as enough text has been produced instead.
+   *
+   * @param url the url to fetch
+   * @param redirects the number of times to follow redirects
+   * @param maxChars the most characters of cleaned text wanted
+   * @param context the settings for each connection
+   * @param deadline the overall deadline for the fetch
+   * @return the cleaned text, cut to at most {@code maxChars} characters and shorter if a later
+   *   range fails, or {@code null} if unable to fetch the resource before the deadline or the
+   *   resource is not html
+   */
+  public static String fetchPrefix(URL url, int redirects, int maxChars, FetchContext context, Deadline deadline) {
+    RedirectCache cache = context.getRedirectCache();
+    RedirectCache.Resolved resolved = cache == null ? null : cache.resolve(url, redirects);
+    URL target = resolved == null ? url : resolved.getUrl();
+    int remaining = resolved == null ? redirects : redirects - resolved.getHops();
+
+    URL location = null;
+    FetchMetrics.Trace trace = context.getMetrics().start(target);
+    int status = 0;
+
+    try (RangeInputStream content = new RangeInputStream(target, (long) maxChars * PREFIX_RATIO, context, deadline)) {
+      HttpHeaders headers = content.getHeaders();
+      trace.lap(FetchMetrics.Phase.HEADERS);
+      status = headers.getStatusCode();
+
+      if ((status == 200 || status == 206) && headers.isHtml()) {
+        Reader reader = ContentDecoder.open(content, headers.getCharset(), StreamingHtmlCleaner.DEFAULT_BUFFER);
+        String text = cleanPrefix(reader, maxChars);
+        trace.lap(FetchMetrics.Phase.BODY);
+        return text;
+      }
+
+      if (headers.isRedirect()) {
+        URL next = new URL(target, headers.getLocation());
+
+        if (cache != null) {
+          cache.record(target, next, status);
+        }
+
+        location = remaining > 0 ? next : null;
+      }
+    }
+    catch (IOException e) {
+      status = 0;
+      return null;
+    }
+    finally {
+      trace.finish(status);
+      deadline.release();
+    }
+
+    return location != null && !deadline.isExpired() ?
+        fetchPrefix(location, remaining - 1, maxChars, context, deadline) : null;
+  }
+
+  /**
+   * Cleans html until enough text has been produced or the html ends, whichever comes first.
+   *
+   * @param html the html
+   * @param maxChars the most characters of cleaned text wanted
+   * @return the cleaned text, cut to at most {@code maxChars} characters without splitting a
+   *   surrogate pair, or the text cleaned so far if the html could not be read to the end
+   * @throws IOException if unable to read the html before any text was produced
+   */
+  private static String cleanPrefix(Reader html, int maxChars) throws IOException {
+    StringBuilder text = new StringBuilder();
+    StreamingHtmlCleaner cleaner = new StreamingHtmlCleaner(text, true);
+    char[] buffer = new char[Math.min(StreamingHtmlCleaner.DEFAULT_BUFFER, Math.max(maxChars, 64))];
+    int read = 0;
+
+    try {
+      while (text.length() < maxChars && (read = html.read(buffer)) >= 0) {
+        cleaner.append(buffer, 0, read);
+      }
+    }
+    catch (IOException e) {
+      // a later range failed, but the text cleaned from the earlier ones is still a prefix
+      if (text.length() == 0) {
+        throw e;
+      }
+    }
+
+    if (read < 0) {
+      cleaner.finish();
+    }
+
+    int end = Math.min(text.length(), maxChars);
+
+    if (end > 0 && end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+      end--;
+    }
+
+    return text.substring(0, end);
   }
 
   /**
@@ -0,0 +1,912 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * A variant of {@link PipelinedFetcher} that fetches many pages from the same web server over a
+ * single HTTP/2 connection, with each request on its own stream so responses arrive concurrently
+ * and in any order. Request headers are compressed with {@link Hpack}, and the flow control
+ * windows are sized for bulk downloads so the server rarely waits for window updates.
+ *
+ * Https connections negotiate "h2" during the TLS handshake, and servers that do not support it
+ * are fetched with {@link HttpsFetcher} instead. Plain http connections use h2c with prior
+ * knowledge, sending the HTTP/2 preface straight away, so they only work with servers known to
+ * speak HTTP/2 without TLS.
+ *
+ * @see PipelinedFetcher
+ */
+public class Http2Fetcher {
+
+  /** The application protocols offered during the TLS handshake, in order of preference. */
+  public static final List<String> PROTOCOLS = List.of("h2", "http/1.1");
+
+  /** The most streams open at once on one connection, unless the server allows fewer. */
+  public static final int MAX_STREAMS = 100;
+
+  /** The flow control window of each stream, so most pages arrive without a window update. */
+  public static final int STREAM_WINDOW = 16 * 1024 * 1024;
+
+  /** The flow control window of the whole connection, shared by every stream. */
+  public static final int CONNECTION_WINDOW = 64 * 1024 * 1024;
+
+  /** The largest frame payload the server may send. */
+  public static final int FRAME_SIZE = 64 * 1024;
+
+  /** The connection preface sent by clients. */
+  static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+  /** The flow control window before any settings or window updates. */
+  static final int DEFAULT_WINDOW = 65535;
+
+  /** The largest frame payload before any settings. */
+  static final int DEFAULT_FRAME_SIZE = 16384;
+
+  /** The frame type for content. */
+  static final int DATA = 0x0;
+
+  /** The frame type that starts a header block. */
+  static final int HEADERS = 0x1;
+
+  /** The frame type that cancels a stream. */
+  static final int RST_STREAM = 0x3;
+
+  /** The frame type for connection settings. */
+  static final int SETTINGS = 0x4;
+
+  /** The frame type for server push, which this client disables. */
+  static final int PUSH_PROMISE = 0x5;
+
+  /** The frame type for pings. */
+  static final int PING = 0x6;
+
+  /** The frame type that shuts down a connection. */
+  static final int GOAWAY = 0x7;
+
+  /** The frame type that opens a flow control window further. */
+  static final int WINDOW_UPDATE = 0x8;
+
+  /** The frame type that continues a header block. */
+  static final int CONTINUATION = 0x9;
+
+  /** The flag on the last frame of a stream. */
+  static final int END_STREAM = 0x1;
+
+  /** The flag acknowledging settings or a ping. */
+  static final int ACK = 0x1;
+
+  /** The flag on the last frame of a header block. */
+  static final int END_HEADERS = 0x4;
+
+  /** The flag on frames with padding. */
+  static final int PADDED = 0x8;
+
+  /** The flag on header frames with priority information. */
+  static final int PRIORITY = 0x20;
+
+  /** The setting for the largest HPACK dynamic table. */
+  static final int HEADER_TABLE_SIZE = 0x1;
+
+  /** The setting that enables server push. */
+  static final int ENABLE_PUSH = 0x2;
+
+  /** The setting for the most concurrent streams. */
+  static final int MAX_CONCURRENT_STREAMS = 0x3;
+
+  /** The setting for the initial flow control window of each stream. */
+  static final int INITIAL_WINDOW_SIZE = 0x4;
+
+  /** The setting for the largest frame payload. */
+  static final int MAX_FRAME_SIZE = 0x5;
+
+  /** The error code for a graceful shutdown. */
+  static final int NO_ERROR = 0x0;
+
+  /** The error code for a stream the server did not process, which is safe to send again. */
+  static final int REFUSED_STREAM = 0x7;
+
+  /**
+   * Calls {@link #fetchURLs(List, FetchContext)} with the default context.
+   *
+   * @param urls the urls to fetch
+   * @return the headers and content for each url, in the same order as the urls
+   * @throws IOException if unable to fetch the headers and content of a url
+   */
+  public static List<Map<String, List<String>>> fetchURLs(List<URL> urls) throws IOException {
+    return fetchURLs(urls, FetchContext.DEFAULT);
+  }
+
+  /**
+   * Fetches the headers and content for each of the specified URLs, using one HTTP/2 connection
+   * per web server with up to {@link #MAX_STREAMS} requests at a time. The results are in the same
+   * format as {@link PipelinedFetcher#fetchURLs(List)}, with a status line such as "HTTP/2 200".
+   *
+   * If the connection fails or the server shuts it down early, the requests that have not been
+   * answered are sent again on a new connection. If a new connection does not answer any requests
+   * at all, such as when the server does not support HTTP/2, the remaining urls are fetched one at
+   * a time with {@link HttpsFetcher#fetchURL(URL, FetchContext, Deadline)}.
+   *
+   * @param urls the urls to fetch
+   * @param context the settings for each connection
+   * @return the headers and content for each url, in the same order as the urls
+   * @throws IOException if unable to fetch the headers and content of a url
+   *
+   * @see PipelinedFetcher#fetchURLs(List)
+   */
+  public static List<Map<String, List<String>>> fetchURLs(List<URL> urls, FetchContext context) throws IOException {
+    Map<String, List<Integer>> origins = new LinkedHashMap<>();
+
+    for (int i = 0; i < urls.size(); i++) {
+      URL url = urls.get(i);
+      String origin = url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+      origins.computeIfAbsent(origin.toLowerCase(), o -> new ArrayList<>()).add(i);
+    }
+
+    List<Map<String, List<String>>> results = new ArrayList<>(Collections.nCopies(urls.size(), null));
+
+    for (List<Integer> indices : origins.values()) {
+      Deque<Integer> unanswered = new ArrayDeque<>(indices);
+
+      while (!unanswered.isEmpty()) {
+        if (multiplex(urls, unanswered, context, results) == 0) {
+          for (int index : unanswered) {
+            results.set(index, HttpsFetcher.fetchURL(urls.get(index), context, context.start()));
+          }
+
+          unanswered.clear();
+        }
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * Sends the unanswered requests on a single new connection and reads back as many responses as
+   * the server provides. Answered requests are removed from the queue.
+   *
+   * @param urls the urls being fetched
+   * @param unanswered the indices of the urls that have not been answered, in request order
+   * @param context the settings for the connection
+   * @param results where to store the headers and content for each answered url
+   * @return the number of requests answered on this connection
+   */
+  private static int multiplex(List<URL> urls, Deque<Integer> unanswered, FetchContext context,
+      List<Map<String, List<String>>> results) {
+    Deadline deadline = context.start();
+    Connection connection = null;
+
+    try (Socket socket = HttpsFetcher.openConnection(urls.get(unanswered.getFirst()), context, deadline,
+        FetchMetrics.Trace.NONE, PROTOCOLS)) {
+      if (socket instanceof SSLSocket && !"h2".equals(((SSLSocket) socket).getApplicationProtocol())) {
+        return 0;
+      }
+
+      connection = new Connection(socket, urls, unanswered, results);
+      connection.run();
+    }
+    catch (IOException | RuntimeException e) {
+      // unanswered requests will be sent again
+    }
+    finally {
+      deadline.release();
+    }
+
+    return connection == null ? 0 : connection.getAnswered();
+  }
+
+  /**
+   * Writes a header block as a HEADERS frame, followed by CONTINUATION frames if it does not fit.
+   *
+   * @param output where to write the frames
+   * @param stream the stream id
+   * @param block the encoded header block
+   * @param endStream whether the stream ends with these headers
+   * @param frameSize the largest frame payload the peer accepts
+   * @throws IOException if unable to write
+   */
+  static void writeHeaders(OutputStream output, int stream, byte[] block, boolean endStream, int frameSize) throws IOException {
+    int offset = 0;
+
+    do {
+      int length = Math.min(frameSize, block.length - offset);
+      boolean last = offset + length == block.length;
+      int flags = (last ? END_HEADERS : 0) | (offset == 0 && endStream ? END_STREAM : 0);
+
+      Frame.write(output, offset == 0 ? HEADERS : CONTINUATION, flags, stream, block, offset, length);
+      offset += length;
+    } while (offset < block.length);
+  }
+
+  /**
+   * Reads the rest of a header block that did not fit in one frame.
+   *
+   * @param input where to read the frames
+   * @param first the HEADERS frame that started the block
+   * @param maxSize the largest frame payload allowed
+   * @return the complete header block
+   * @throws IOException if unable to read or the block is interrupted by another frame
+   */
+  static byte[] readHeaderBlock(DataInputStream input, Frame first, int maxSize) throws IOException {
+    byte[] block = first.getFragment();
+
+    if (first.hasFlag(END_HEADERS)) {
+      return block;
+    }
+
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    buffer.write(block, 0, block.length);
+    Frame next;
+
+    do {
+      next = Frame.read(input, maxSize);
+
+      if (next == null) {
+        throw new EOFException("Connection closed inside a header block.");
+      }
+
+      if (next.getType() != CONTINUATION || next.getStream() != first.getStream()) {
+        throw new ProtocolException("Header block interrupted by another frame.");
+      }
+
+      buffer.write(next.getPayload(), 0, next.getPayload().length);
+    } while (!next.hasFlag(END_HEADERS));
+
+    return buffer.toByteArray();
+  }
+
+  /**
+   * Writes a SETTINGS frame.
+   *
+   * @param output where to write the frame
+   * @param settings the setting ids and values, in pairs
+   * @throws IOException if unable to write
+   */
+  static void writeSettings(OutputStream output, int... settings) throws IOException {
+    byte[] payload = new byte[settings.length / 2 * 6];
+
+    for (int i = 0; i + 1 < settings.length; i += 2) {
+      int at = i / 2 * 6;
+      payload[at] = (byte) (settings[i] >>> 8);
+      payload[at + 1] = (byte) settings[i];
+      writeInt(payload, at + 2, settings[i + 1]);
+    }
+
+    Frame.write(output, SETTINGS, 0, 0, payload, 0, payload.length);
+  }
+
+  /**
+   * Writes a frame whose payload is a single 32-bit integer, such as a window update, stream
+   * reset, or a GOAWAY without debug data.
+   *
+   * @param output where to write the frame
+   * @param type the frame type
+   * @param stream the stream id
+   * @param values the integers in the payload
+   * @throws IOException if unable to write
+   */
+  static void writeIntegers(OutputStream output, int type, int stream, int... values) throws IOException {
+    byte[] payload = new byte[values.length * 4];
+
+    for (int i = 0; i < values.length; i++) {
+      writeInt(payload, i * 4, values[i]);
+    }
+
+    Frame.write(output, type, 0, stream, payload, 0, payload.length);
+  }
+
+  /**
+   * Stores a 32-bit integer in network order.
+   *
+   * @param bytes where to store the integer
+   * @param offset where the integer starts
+   * @param value the integer
+   */
+  private static void writeInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+
+  /**
+   * Reads a 32-bit integer in network order.
+   *
+   * @param bytes where to read the integer
+   * @param offset where the integer starts
+   * @return the integer
+   */
+  static int readInt(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 |
+        (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+  }
+
+  /**
+   * A single HTTP/2 frame.
+   */
+  static class Frame {
+
+    /** The frame type. */
+    private final int type;
+
+    /** The frame flags. */
+    private final int flags;
+
+    /** The stream id, or 0 for the connection. */
+    private final int stream;
+
+    /** The frame payload. */
+    private final byte[] payload;
+
+    /**
+     * Initializes a frame.
+     *
+     * @param type the frame type
+     * @param flags the frame flags
+     * @param stream the stream id
+     * @param payload the payload
+     */
+    private Frame(int type, int flags, int stream, byte[] payload) {
+      this.type = type;
+      this.flags = flags;
+      this.stream = stream;
+      this.payload = payload;
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @param input where to read the frame
+     * @param maxSize the largest payload allowed
+     * @return the frame, or {@code null} if the connection closed between frames
+     * @throws IOException if unable to read a complete frame or the frame is too large
+     */
+    static Frame read(DataInputStream input, int maxSize) throws IOException {
+      int first = input.read();
+
+      if (first < 0) {
+        return null;
+      }
+
+      int length = first << 16 | input.readUnsignedShort();
+      int type = input.readUnsignedByte();
+      int flags = input.readUnsignedByte();
+      int stream = input.readInt() & 0x7FFFFFFF;
+
+      if (length > maxSize) {
+        throw new ProtocolException("Frame of " + length + " bytes exceeds the maximum size.");
+      }
+
+      byte[] payload = new byte[length];
+      input.readFully(payload);
+      return new Frame(type, flags, stream, payload);
+    }
+
+    /**
+     * Writes a frame.
+     *
+     * @param output where to write the frame
+     * @param type the frame type
+     * @param flags the frame flags
+     * @param stream the stream id
+     * @param payload the payload bytes
+     * @param offset where the payload starts
+     * @param length the payload length
+     * @throws IOException if unable to write
+     */
+    static void write(OutputStream output, int type, int flags, int stream, byte[] payload, int offset,
+        int length) throws IOException {
+      byte[] header = {
+          (byte) (length >>> 16), (byte) (length >>> 8), (byte) length, (byte) type, (byte) flags,
+          (byte) (stream >>> 24), (byte) (stream >>> 16), (byte) (stream >>> 8), (byte) stream
+      };
+
+      output.write(header);
+      output.write(payload, offset, length);
+    }
+
+    /**
+     * Returns the frame type.
+     *
+     * @return the type
+     */
+    int getType() {
+      return type;
+    }
+
+    /**
+     * Returns the stream id.
+     *
+     * @return the stream id, or 0 for the connection
+     */
+    int getStream() {
+      return stream;
+    }
+
+    /**
+     * Returns the payload, including any padding.
+     *
+     * @return the payload
+     */
+    byte[] getPayload() {
+      return payload;
+    }
+
+    /**
+     * Determines whether a flag is set.
+     *
+     * @param flag the flag
+     * @return {@code true} if the flag is set
+     */
+    boolean hasFlag(int flag) {
+      return (flags & flag) != 0;
+    }
+
+    /**
+     * Returns the content of a DATA frame or the header block fragment of a HEADERS frame, without
+     * any padding or priority information.
+     *
+     * @return the content
+     * @throws ProtocolException if the padding is longer than the payload
+     */
+    byte[] getFragment() throws ProtocolException {
+      int start = 0;
+      int end = payload.length;
+
+      if (hasFlag(PADDED)) {
+        if (payload.length == 0) {
+          throw new ProtocolException("Padded frame without a pad length.");
+        }
+
+        start = 1;
+        end -= payload[0] & 0xFF;
+      }
+
+      if (type == HEADERS && hasFlag(PRIORITY)) {
+        start += 5;
+      }
+
+      if (end < start) {
+        throw new ProtocolException("Frame padding exceeds the payload.");
+      }
+
+      return start == 0 && end == payload.length ? payload : Arrays.copyOfRange(payload, start, end);
+    }
+  }
+
+  /**
+   * A response being received on one stream.
+   */
+  private static class Stream {
+
+    /** The index of the url being fetched. */
+    private final int index;
+
+    /** The status code, or -1 until the final headers arrive. */
+    private int status;
+
+    /** The header fields of the final response. */
+    private List<Map.Entry<String, String>> fields;
+
+    /** The content received so far. */
+    private final ByteArrayOutputStream body;
+
+    /** The content bytes received since the last window update. */
+    private int unacknowledged;
+
+    /**
+     * Initializes a stream.
+     *
+     * @param index the index of the url being fetched
+     */
+    public Stream(int index) {
+      this.index = index;
+      this.status = -1;
+      this.fields = List.of();
+      this.body = new ByteArrayOutputStream();
+      this.unacknowledged = 0;
+    }
+  }
+
+  /**
+   * One HTTP/2 connection and the streams open on it.
+   */
+  private static class Connection {
+
+    /** Reads frames from the server. */
+    private final DataInputStream input;
+
+    /** Writes frames to the server. */
+    private final OutputStream output;
+
+    /** Compresses request headers. */
+    private final Hpack.Encoder encoder;
+
+    /** Decompresses response headers. */
+    private final Hpack.Decoder decoder;
+
+    /** The urls being fetched. */
+    private final List<URL> urls;
+
+    /** The indices of the urls that have not been answered. */
+    private final Deque<Integer> unanswered;
+
+    /** Where to store the headers and content for each answered url. */
+    private final List<Map<String, List<String>>> results;
+
+    /** The indices of the urls not yet requested on this connection, in request order. */
+    private final Deque<Integer> pending;
+
+    /** The open streams by id. */
+    private final Map<Integer, Stream> streams;
+
+    /** The id of the next stream. */
+    private int next;
+
+    /** The most streams the server allows open at once. */
+    private int maxStreams;
+
+    /** The largest frame payload the server accepts. */
+    private int frameSize;
+
+    /** Whether the server is shutting down the connection. */
+    private boolean closing;
+
+    /** The content bytes received on any stream since the last connection window update. */
+    private int unacknowledged;
+
+    /** The number of requests answered. */
+    private int answered;
+
+    /**
+     * Initializes a connection over a connected socket.
+     *
+     * @param socket the connected socket
+     * @param urls the urls being fetched
+     * @param unanswered the indices of the urls that have not been answered, in request order
+     * @param results where to store the headers and content for each answered url
+     * @throws IOException if unable to use the socket
+     */
+    public Connection(Socket socket, List<URL> urls, Deque<Integer> unanswered,
+        List<Map<String, List<String>>> results) throws IOException {
+      this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), FRAME_SIZE));
+      this.output = new BufferedOutputStream(socket.getOutputStream());
+      this.encoder = new Hpack.Encoder(true);
+      this.decoder = new Hpack.Decoder();
+      this.urls = urls;
+      this.unanswered = unanswered;
+      this.results = results;
+      this.pending = new ArrayDeque<>(unanswered);
+      this.streams = new HashMap<>();
+      this.next = 1;
+      this.maxStreams = MAX_STREAMS;
+      this.frameSize = DEFAULT_FRAME_SIZE;
+      this.closing = false;
+      this.unacknowledged = 0;
+      this.answered = 0;
+    }
+
+    /**
+     * Returns the number of requests answered.
+     *
+     * @return the number of requests answered
+     */
+    public int getAnswered() {
+      return answered;
+    }
+
+    /**
+     * Sends the preface and requests, then reads frames until every request on this connection is
+     * answered or the server shuts the connection down. Finishes by telling the server the
+     * connection is no longer needed.
+     *
+     * @throws IOException if unable to read or write, or the server breaks the protocol
+     */
+    public void run() throws IOException {
+      output.write(PREFACE);
+      writeSettings(output, ENABLE_PUSH, 0, INITIAL_WINDOW_SIZE, STREAM_WINDOW, MAX_FRAME_SIZE, FRAME_SIZE);
+      writeIntegers(output, WINDOW_UPDATE, 0, CONNECTION_WINDOW - DEFAULT_WINDOW);
+
+      while (true) {
+        while (!closing && !pending.isEmpty() && streams.size() < maxStreams) {
+          open(pending.removeFirst());
+        }
+
+        output.flush();
+
+        if (streams.isEmpty()) {
+          break;
+        }
+
+        Frame frame = Frame.read(input, FRAME_SIZE);
+
+        if (frame == null) {
+          throw new EOFException("Connection closed with streams open.");
+        }
+
+        handle(frame);
+      }
+
+      // the last stream the server started, which is none since push is disabled
+      writeIntegers(output, GOAWAY, 0, 0, NO_ERROR);
+      output.flush();
+    }
+
+    /**
+     * Opens a stream requesting a url.
+     *
+     * @param index the index of the url
+     * @throws IOException if unable to write
+     */
+    private void open(int index) throws IOException {
+      URL url = urls.get(index);
+      String authority = url.getPort() < 0 ? url.getHost() : url.getHost() + ":" + url.getPort();
+      String path = url.getFile().isEmpty() ? "/" : url.getFile();
+
+      byte[] block = encoder.encode(List.of(
+          Map.entry(":method", "GET"),
+          Map.entry(":scheme", url.getProtocol().toLowerCase()),
+          Map.entry(":authority", authority),
+          Map.entry(":path", path)));
+
+      writeHeaders(output, next, block, true, frameSize);
+      streams.put(next, new Stream(index));
+      next += 2;
+    }
+
+    /**
+     * Handles a frame from the server.
+     *
+     * @param frame the frame
+     * @throws IOException if unable to respond or the frame breaks the protocol
+     */
+    private void handle(Frame frame) throws IOException {
+      switch (frame.getType()) {
+        case DATA:
+          data(frame);
+          break;
+        case HEADERS:
+          headers(frame);
+          break;
+        case RST_STREAM:
+          reset(frame);
+          break;
+        case SETTINGS:
+          settings(frame);
+          break;
+        case PUSH_PROMISE:
+          throw new ProtocolException("Server push was not enabled.");
+        case PING:
+          if (!frame.hasFlag(ACK)) {
+            Frame.write(output, PING, ACK, 0, frame.getPayload(), 0, frame.getPayload().length);
+          }
+          break;
+        case GOAWAY:
+          goaway(frame);
+          break;
+        case CONTINUATION:
+          throw new ProtocolException("CONTINUATION frame outside a header block.");
+        default:
+          // priority, window updates for sending, and unknown frames do not matter to a reader
+          break;
+      }
+    }
+
+    /**
+     * Adds content to a stream, and opens the flow control windows once half is used.
+     *
+     * @param frame the DATA frame
+     * @throws IOException if unable to write a window update or the frame is malformed
+     */
+    private void data(Frame frame) throws IOException {
+      int length = frame.getPayload().length;
+      Stream stream = streams.get(frame.getStream());
+      unacknowledged += length;
+
+      if (unacknowledged >= CONNECTION_WINDOW / 2) {
+        writeIntegers(output, WINDOW_UPDATE, 0, unacknowledged);
+        unacknowledged = 0;
+      }
+
+      if (stream == null) {
+        return;
+      }
+
+      byte[] content = frame.getFragment();
+      stream.body.write(content, 0, content.length);
+
+      if (frame.hasFlag(END_STREAM)) {
+        complete(frame.getStream());
+        return;
+      }
+
+      stream.unacknowledged += length;
+
+      if (stream.unacknowledged >= STREAM_WINDOW / 2) {
+        writeIntegers(output, WINDOW_UPDATE, frame.getStream(), stream.unacknowledged);
+        stream.unacknowledged = 0;
+      }
+    }
+
+    /**
+     * Decodes a header block. Interim responses and trailers are decoded to keep the dynamic table
+     * in step, but otherwise ignored.
+     *
+     * @param frame the HEADERS frame
+     * @throws IOException if unable to read the rest of the block or it is malformed
+     */
+    private void headers(Frame frame) throws IOException {
+      byte[] block = readHeaderBlock(input, frame, FRAME_SIZE);
+      List<Map.Entry<String, String>> fields = decoder.decode(block, 0, block.length);
+      Stream stream = streams.get(frame.getStream());
+
+      if (stream == null) {
+        return;
+      }
+
+      if (stream.status < 0) {
+        int status = getStatus(fields);
+
+        if (status >= 200) {
+          stream.status = status;
+          stream.fields = fields;
+        }
+      }
+
+      if (frame.hasFlag(END_STREAM)) {
+        complete(frame.getStream());
+      }
+    }
+
+    /**
+     * Returns the status code from the ":status" pseudo-header.
+     *
+     * @param fields the header fields
+     * @return the status code
+     * @throws ProtocolException if the status is missing or invalid
+     */
+    private static int getStatus(List<Map.Entry<String, String>> fields) throws ProtocolException {
+      for (Map.Entry<String, String> field : fields) {
+        if (field.getKey().equals(":status")) {
+          try {
+            return Integer.parseInt(field.getValue());
+          }
+          catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid status " + field.getValue() + ".");
+          }
+        }
+      }
+
+      throw new ProtocolException("Response headers without a status.");
+    }
+
+    /**
+     * Removes a stream reset by the server. A refused stream was not processed, so it is sent again
+     * once another stream finishes. Other requests are left unanswered for a new connection.
+     *
+     * @param frame the RST_STREAM frame
+     */
+    private void reset(Frame frame) {
+      Stream stream = streams.remove(frame.getStream());
+      boolean refused = frame.getPayload().length >= 4 && readInt(frame.getPayload(), 0) == REFUSED_STREAM;
+
+      if (stream != null && refused && !streams.isEmpty()) {
+        maxStreams = streams.size();
+        pending.addFirst(stream.index);
+      }
+    }
+
+    /**
+     * Applies the server settings and acknowledges them.
+     *
+     * @param frame the SETTINGS frame
+     * @throws IOException if unable to write the acknowledgement or the settings are malformed
+     */
+    private void settings(Frame frame) throws IOException {
+      if (frame.hasFlag(ACK)) {
+        return;
+      }
+
+      byte[] payload = frame.getPayload();
+
+      if (payload.length % 6 != 0) {
+        throw new ProtocolException("Malformed SETTINGS frame.");
+      }
+
+      for (int i = 0; i < payload.length; i += 6) {
+        int id = (payload[i] & 0xFF) << 8 | (payload[i + 1] & 0xFF);
+        long value = readInt(payload, i + 2) & 0xFFFFFFFFL;
+
+        if (id == HEADER_TABLE_SIZE) {
+          encoder.setMaxTableSize((int) Math.min(value, Hpack.TABLE_SIZE));
+        }
+        else if (id == MAX_CONCURRENT_STREAMS) {
+          maxStreams = (int) Math.max(1, Math.min(value, MAX_STREAMS));
+        }
+        else if (id == MAX_FRAME_SIZE) {
+          frameSize = (int) Math.min(Math.max(value, DEFAULT_FRAME_SIZE), FRAME_SIZE);
+        }
+      }
+
+      Frame.write(output, SETTINGS, ACK, 0, new byte[0], 0, 0);
+    }
+
+    /**
+     * Stops opening streams once the server shuts down the connection. Streams after the last one
+     * the server will process are dropped, leaving them unanswered for a new connection.
+     *
+     * @param frame the GOAWAY frame
+     * @throws ProtocolException if the frame is malformed
+     */
+    private void goaway(Frame frame) throws ProtocolException {
+      if (frame.getPayload().length < 8) {
+        throw new ProtocolException("Malformed GOAWAY frame.");
+      }
+
+      int last = readInt(frame.getPayload(), 0) & 0x7FFFFFFF;
+      closing = true;
+
+      for (Iterator<Integer> ids = streams.keySet().iterator(); ids.hasNext(); ) {
+        if (ids.next() > last) {
+          ids.remove();
+        }
+      }
+    }
+
+    /**
+     * Stores the response of a finished stream in the same format as {@link PipelinedFetcher}.
+     *
+     * @param id the stream id
+     * @throws IOException if the stream ended before its headers or a header is malformed
+     */
+    private void complete(int id) throws IOException {
+      Stream stream = streams.remove(id);
+
+      if (stream.status < 0) {
+        throw new ProtocolException("Stream ended without a response.");
+      }
+
+      StringBuilder lines = new StringBuilder("HTTP/2 ").append(stream.status).append("\r\n");
+
+      for (Map.Entry<String, String> field : stream.fields) {
+        String name = field.getKey();
+        String value = field.getValue();
+
+        if (name.startsWith(":")) {
+          continue;
+        }
+
+        if (value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0) {
+          throw new ProtocolException("Line break in header " + name + ".");
+        }
+
+        lines.append(name).append(": ").append(value).append("\r\n");
+      }
+
+      byte[] head = lines.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+      HttpHeaders headers = HttpHeaders.parse(head, 0, head.length);
+
+      results.set(stream.index, PipelinedFetcher.toMap(headers, stream.body.toByteArray()));
+      unanswered.remove(stream.index);
+      answered++;
+    }
+  }
+}
@@ -0,0 +1,598 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The status line and header fields of an HTTP/1.1 response, parsed directly from the raw response
+ * bytes without regular expressions or splitting each line into new strings. Common header names
+ * are interned, and all lookups ignore the case of the header name.
+ *
+ * @see HttpsFetcher#getHeaderFields(java.io.BufferedReader)
+ */
+public class HttpHeaders {
+
+  /** Header names that are reused instead of creating a new string for every response. */
+  private static final String[] COMMON = {
+      "Accept-Ranges", "Age", "Cache-Control", "Connection", "Content-Encoding",
+      "Content-Language", "Content-Length", "Content-Range", "Content-Type", "Date", "ETag",
+      "Expires", "Keep-Alive", "Last-Modified", "Location", "Retry-After", "Server", "Set-Cookie",
+      "Strict-Transport-Security", "Transfer-Encoding", "Vary", "X-Content-Type-Options",
+      "X-Frame-Options", "X-Powered-By"
+  };
+
+  /** Orders header names ignoring case, with the status line ({@code null} key) first. */
+  public static final Comparator<String> ORDER = Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER);
+
+  /** The status line, such as "HTTP/1.1 200 OK". */
+  private final String status;
+
+  /** The status code or -1 if the status line could not be parsed. */
+  private final int code;
+
+  /** The header names in the order they appeared. */
+  private String[] names;
+
+  /** The header values in the order they appeared. */
+  private String[] values;
+
+  /** The number of header fields. */
+  private int size;
+
+  /**
+   * Initializes an empty set of header fields for the provided status line.
+   *
+   * @param status the status line
+   * @param code the status code
+   */
+  private HttpHeaders(String status, int code) {
+    this.status = status;
+    this.code = code;
+    this.names = new String[16];
+    this.values = new String[16];
+    this.size = 0;
+  }
+
+  /**
+   * Parses the status line and header fields from the raw bytes of a response. Parsing stops at the
+   * first blank line or at the end of the range, whichever comes first.
+   *
+   * @param bytes the raw response bytes
+   * @param offset where the status line starts
+   * @param length the number of bytes available
+   * @return the parsed headers
+   */
+  public static HttpHeaders parse(byte[] bytes, int offset, int length) {
+    int limit = offset + length;
+    int end = lineEnd(bytes, offset, limit);
+    int next = end < limit ? end + 1 : limit;
+    end = trimEnd(bytes, offset, end);
+
+    HttpHeaders headers = new HttpHeaders(
+        new String(bytes, offset, end - offset, StandardCharsets.ISO_8859_1),
+        parseCode(bytes, offset, end));
+
+    int start = next;
+
+    while (start < limit) {
+      end = lineEnd(bytes, start, limit);
+      next = end < limit ? end + 1 : limit;
+      end = trimEnd(bytes, start, end);
+
+      if (end == start) {
+        break;
+      }
+
+      int colon = start;
+      while (colon < end && bytes[colon] != ':') {
+        colon++;
+      }
+
+      if (colon < end) {
+        int value = colon + 1;
+        while (value < end && (bytes[value] == ' ' || bytes[value] == '\t')) {
+          value++;
+        }
+
+        headers.add(intern(bytes, start, trimEnd(bytes, start, colon)),
+            new String(bytes, value, end - value, StandardCharsets.ISO_8859_1));
+      }
+
+      start = next;
+    }
+
+    return headers;
+  }
+
+  /**
+   * Parses the status line and header fields from all of the provided bytes.
+   *
+   * @param bytes the raw response bytes
+   * @return the parsed headers
+   *
+   * @see #parse(byte[], int, int)
+   */
+  public static HttpHeaders parse(byte[] bytes) {
+    return parse(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Reads the status line and header fields from a stream, leaving the stream positioned at the
+   * start of the content. The stream should be buffered, since it is read one byte at a time so
+   * that no content is consumed.
+   *
+   * @param response the stream of the response
+   * @return the parsed headers, or {@code null} if the stream ended before any bytes were read
+   * @throws IOException if unable to read, the stream ended inside the headers, or the headers are
+   *   larger than {@link HttpsFetcher#MAX_HEADERS}
+   */
+  public static HttpHeaders read(InputStream response) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+    int blank = 0;
+    int next;
+
+    while ((next = response.read()) >= 0) {
+      if (buffer.size() >= HttpsFetcher.MAX_HEADERS) {
+        throw new IOException("Response headers are too large.");
+      }
+
+      buffer.write(next);
+
+      if (next == '\n') {
+        if (++blank == 2) {
+          byte[] bytes = buffer.toByteArray();
+          return parse(bytes, 0, bytes.length);
+        }
+      }
+      else if (next != '\r') {
+        blank = 0;
+      }
+    }
+
+    if (buffer.size() == 0) {
+      return null;
+    }
+
+    throw new EOFException("Connection closed while reading headers.");
+  }
+
+  /**
+   * Finds where the content starts after the header block, which ends with a blank line.
+   *
+   * @param bytes the raw response bytes
+   * @param offset where the status line starts
+   * @param length the number of bytes available
+   * @return the index of the first content byte, or -1 if the header block is not complete
+   */
+  public static int findContent(byte[] bytes, int offset, int length) {
+    int limit = offset + length;
+    int blank = 0;
+
+    for (int i = offset; i < limit; i++) {
+      if (bytes[i] == '\n') {
+        if (++blank == 2) {
+          return i + 1;
+        }
+      }
+      else if (bytes[i] != '\r') {
+        blank = 0;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Adds a header field.
+   *
+   * @param name the header name
+   * @param value the header value
+   */
+  private void add(String name, String value) {
+    if (size == names.length) {
+      names = Arrays.copyOf(names, size * 2);
+      values = Arrays.copyOf(values, size * 2);
+    }
+
+    names[size] = name;
+    values[size] = value;
+    size++;
+  }
+
+  /**
+   * Returns the status line, such as "HTTP/1.1 200 OK".
+   *
+   * @return the status line
+   */
+  public String getStatusLine() {
+    return status;
+  }
+
+  /**
+   * Returns the status code.
+   *
+   * @return the status code or -1 if unable to parse
+   */
+  public int getStatusCode() {
+    return code;
+  }
+
+  /**
+   * Returns the first value of a header, ignoring the case of the name.
+   *
+   * @param name the header name
+   * @return the first value or {@code null} if there is no such header
+   */
+  public String get(String name) {
+    for (int i = 0; i < size; i++) {
+      if (names[i] == name || names[i].equalsIgnoreCase(name)) {
+        return values[i];
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns all of the values of a header, ignoring the case of the name.
+   *
+   * @param name the header name
+   * @return the values in the order they appeared, which may be empty
+   */
+  public List<String> getAll(String name) {
+    List<String> found = new ArrayList<>();
+
+    for (int i = 0; i < size; i++) {
+      if (names[i] == name || names[i].equalsIgnoreCase(name)) {
+        found.add(values[i]);
+      }
+    }
+
+    return found;
+  }
+
+  /**
+   * Returns the media type from the "Content-Type" header without any parameters, in lowercase.
+   *
+   * @return the media type, such as "text/html", or {@code null} if there is no content type
+   */
+  public String getContentType() {
+    String type = get("Content-Type");
+
+    if (type == null) {
+      return null;
+    }
+
+    int semicolon = type.indexOf(';');
+    return (semicolon < 0 ? type : type.substring(0, semicolon)).strip().toLowerCase();
+  }
+
+  /**
+   * Returns the charset parameter of the "Content-Type" header.
+   *
+   * @return the charset name, or {@code null} if not specified
+   */
+  public String getCharset() {
+    String type = get("Content-Type");
+
+    if (type == null) {
+      return null;
+    }
+
+    String[] parameters = type.split(";");
+
+    // the first part is the media type itself
+    for (int i = 1; i < parameters.length; i++) {
+      int equals = parameters[i].indexOf('=');
+
+      if (equals < 0 || !parameters[i].substring(0, equals).strip().equalsIgnoreCase("charset")) {
+        continue;
+      }
+
+      String charset = parameters[i].substring(equals + 1).strip();
+
+      if (charset.length() >= 2 && charset.startsWith("\"") && charset.endsWith("\"")) {
+        charset = charset.substring(1, charset.length() - 1);
+      }
+
+      return charset.isEmpty() ? null : charset;
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the value of the "Content-Length" header.
+   *
+   * @return the content length, or -1 if not specified or invalid
+   */
+  public long getContentLength() {
+    String length = get("Content-Length");
+
+    if (length == null) {
+      return -1;
+    }
+
+    try {
+      return Long.parseLong(length.strip());
+    }
+    catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Returns the value of the "Location" header.
+   *
+   * @return the location, or {@code null} if not specified
+   */
+  public String getLocation() {
+    return get("Location");
+  }
+
+  /**
+   * Returns the value of the "ETag" header.
+   *
+   * @return the entity tag, or {@code null} if not specified
+   */
+  public String getETag() {
+    return get("ETag");
+  }
+
+  /**
+   * Returns the value of the "Last-Modified" header.
+   *
+   * @return the last modified date, or {@code null} if not specified
+   */
+  public String getLastModified() {
+    return get("Last-Modified");
+  }
+
+  /**
+   * Returns whether the content type is HTML, using the same rules as
+   * {@link HtmlFetcher#isHtml(Map)}.
+   *
+   * @return {@code true} if the "Content-Type" header starts with "text/html" (case-insensitive)
+   *
+   * @see HtmlFetcher#isHtml(Map)
+   */
+  public boolean isHtml() {
+    String type = get("Content-Type");
+    return type != null && type.regionMatches(true, 0, "text/html", 0, "text/html".length());
+  }
+
+  /**
+   * Returns whether the status code is a redirect with a location.
+   *
+   * @return {@code true} if the status code is 3xx and there is a "Location" header
+   *
+   * @see HtmlFetcher#isRedirect(Map)
+   */
+  public boolean isRedirect() {
+    return code >= 300 && code <= 399 && getLocation() != null;
+  }
+
+  /**
+   * Returns whether the content uses chunked transfer encoding.
+   *
+   * @return {@code true} if the "Transfer-Encoding" header includes "chunked"
+   */
+  public boolean isChunked() {
+    String encoding = get("Transfer-Encoding");
+    return encoding != null && indexOfIgnoreCase(encoding, "chunked") >= 0;
+  }
+
+  /**
+   * Returns whether the response has no content regardless of its headers.
+   *
+   * @return {@code true} for 1xx, 204 and 304 responses
+   */
+  public boolean isEmpty() {
+    return (code >= 100 && code < 200) || code == 204 || code == 304;
+  }
+
+  /**
+   * Returns the number of header fields, not counting the status line.
+   *
+   * @return the number of header fields
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns an unmodifiable view of the header names, in the order they appeared.
+   *
+   * @return the header names
+   */
+  public List<String> names() {
+    return Collections.unmodifiableList(Arrays.asList(names).subList(0, size));
+  }
+
+  /**
+   * Converts these headers into the map format used by {@link HttpsFetcher}, with the status line
+   * under the {@code null} key. The map ignores the case of header names.
+   *
+   * @return a map of header fields to a list of header values
+   */
+  public Map<String, List<String>> toMap() {
+    Map<String, List<String>> map = new TreeMap<>(ORDER);
+    map.put(null, List.of(status));
+
+    for (int i = 0; i < size; i++) {
+      map.computeIfAbsent(names[i], name -> new ArrayList<>()).add(values[i]);
+    }
+
+    return map;
+  }
+
+  /**
+   * Returns the first value of a header in a map, ignoring the case of the name. The map may come
+   * from {@link HttpsFetcher} or elsewhere, such as a {@link java.net.URLConnection}.
+   *
+   * @param headers the map of header fields to a list of header values
+   * @param name the header name
+   * @return the first value or {@code null} if there is no such header or it has no values
+   */
+  public static String getFirst(Map<String, List<String>> headers, String name) {
+    List<String> found = headers.get(name);
+
+    if (found == null) {
+      for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+        if (name.equalsIgnoreCase(entry.getKey())) {
+          found = entry.getValue();
+          break;
+        }
+      }
+    }
+
+    return found == null || found.isEmpty() ? null : found.get(0);
+  }
+
+  /**
+   * Converts these headers back into the raw bytes of a response header block, ending with the
+   * blank line. Parsing the result with {@link #parse(byte[])} gives back the same headers.
+   *
+   * @return the status line and header fields as ISO-8859-1 bytes
+   */
+  public byte[] toBytes() {
+    StringBuilder block = new StringBuilder(status.length() + size * 32);
+    block.append(status).append("\r\n");
+
+    for (int i = 0; i < size; i++) {
+      block.append(names[i]).append(": ").append(values[i]).append("\r\n");
+    }
+
+    return block.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  @Override
+  public String toString() {
+    return toMap().toString();
+  }
+
+  /**
+   * Returns the canonical string for a header name, reusing the common names.
+   *
+   * @param bytes the raw response bytes
+   * @param start the start of the name
+   * @param end the end of the name (exclusive)
+   * @return the header name
+   */
+  private static String intern(byte[] bytes, int start, int end) {
+    int length = end - start;
+
+    for (String common : COMMON) {
+      if (common.length() == length && matches(bytes, start, common)) {
+        return common;
+      }
+    }
+
+    return new String(bytes, start, length, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Compares ASCII bytes to a string, ignoring case.
+   *
+   * @param bytes the raw response bytes
+   * @param start where to start comparing
+   * @param text the text to compare against
+   * @return {@code true} if the bytes match the text
+   */
+  private static boolean matches(byte[] bytes, int start, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      int a = bytes[start + i];
+      int b = text.charAt(i);
+
+      if (a != b && ((a | 0x20) != (b | 0x20) || (b | 0x20) < 'a' || (b | 0x20) > 'z')) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Parses the status code from the status line.
+   *
+   * @param bytes the raw response bytes
+   * @param start the start of the status line
+   * @param end the end of the status line (exclusive)
+   * @return the status code or -1 if unable to parse
+   */
+  private static int parseCode(byte[] bytes, int start, int end) {
+    int space = start;
+    while (space < end && bytes[space] != ' ') {
+      space++;
+    }
+
+    int code = 0;
+    int digits = 0;
+
+    for (int i = space + 1; i < end && bytes[i] != ' '; i++) {
+      if (bytes[i] < '0' || bytes[i] > '9' || ++digits > 3) {
+        return -1;
+      }
+
+      code = code * 10 + (bytes[i] - '0');
+    }
+
+    return digits == 3 ? code : -1;
+  }
+
+  /**
+   * Finds the line feed that ends a line.
+   *
+   * @param bytes the raw response bytes
+   * @param start the start of the line
+   * @param limit the end of the available bytes
+   * @return the index of the line feed, or the limit if there is none
+   */
+  private static int lineEnd(byte[] bytes, int start, int limit) {
+    int end = start;
+    while (end < limit && bytes[end] != '\n') {
+      end++;
+    }
+    return end;
+  }
+
+  /**
+   * Moves the end of a range back past any trailing whitespace, including carriage returns.
+   *
+   * @param bytes the raw response bytes
+   * @param start the start of the range
+   * @param end the end of the range (exclusive)
+   * @return the new end of the range
+   */
+  private static int trimEnd(byte[] bytes, int start, int end) {
+    while (end > start && (bytes[end - 1] == '\r' || bytes[end - 1] == ' ' || bytes[end - 1] == '\t')) {
+      end--;
+    }
+    return end;
+  }
+
+  /**
+   * Finds text inside another string, ignoring case.
+   *
+   * @param text the text to search
+   * @param target the text to find
+   * @return the index of the target or -1 if not found
+   */
+  private static int indexOfIgnoreCase(String text, String target) {
+    for (int i = 0; i + target.length() <= text.length(); i++) {
+      if (text.regionMatches(true, i, target, 0, target.length())) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+}
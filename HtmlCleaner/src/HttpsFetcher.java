@@ -1,19 +1,39 @@
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 import javax.net.SocketFactory;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
 /**
@@ -22,9 +42,15 @@ import javax.net.ssl.SSLSocketFactory;
  */
 public class HttpsFetcher {
 
+  /** The largest header block accepted from a response. */
+  public static final int MAX_HEADERS = 64 * 1024;
+
+  /** The most bytes moved from a socket channel to a file at a time. */
+  private static final long TRANSFER_SIZE = 1 << 20;
+
   /**
    * Fetches the headers and content for the specified URL. The content is placed as a list of all
-   * the lines fetched under the "Content" key.
+   * the lines fetched under the "Content" key, decoded with the charset the response declares.
    *
    * @param url the url to fetch
    * @return a map with the headers and content
@@ -34,17 +60,330 @@ public class HttpsFetcher {
     try (
         Socket socket = openConnection(url);
         PrintWriter request = new PrintWriter(socket.getOutputStream());
-        InputStreamReader input = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
-        BufferedReader response = new BufferedReader(input);
+        InputStream response = new BufferedInputStream(socket.getInputStream());
     ) {
       printGetRequest(request, url);
 
-      Map<String, List<String>> headers = getHeaderFields(response);
-      List<String> content = getContent(response);
-      headers.put("Content", content);
+      HttpHeaders headers = readHeaders(response);
+      Map<String, List<String>> results = headers.toMap();
+      results.put("Content", getContent(response, headers));
+
+      return results;
+    }
+  }
+
+  /**
+   * Fetches the headers and content for the specified URL the same way as {@link #fetchURL(URL)},
+   * but using the timeouts from the context. The deadline may be shared by several fetches, such
+   * as when following redirects.
+   *
+   * If the context has a {@link ResponseStore}, a stored response is returned without connecting.
+   * Otherwise the response is read using its framing headers, so chunked content is decoded, and
+   * then stored for next time.
+   *
+   * @param url the url to fetch
+   * @param context the settings for the connection
+   * @param deadline the overall deadline, which closes the socket when it expires
+   * @return a map with the headers and content
+   * @throws IOException if unable to fetch headers and content before a timeout or the deadline
+   *
+   * @see #fetchURL(URL)
+   */
+  public static Map<String, List<String>> fetchURL(URL url, FetchContext context, Deadline deadline) throws IOException {
+    ResponseStore responses = context.getResponseStore();
 
+    if (responses != null) {
+      return fetchStored(url, context, deadline, responses);
+    }
+
+    FetchMetrics.Trace trace = context.getMetrics().start(url);
+    int status = 0;
+
+    try (
+        Socket socket = openConnection(url, context, deadline, trace);
+        PrintWriter request = new PrintWriter(socket.getOutputStream());
+        InputStream response = new BufferedInputStream(socket.getInputStream());
+    ) {
+      printGetRequest(request, url);
+      awaitFirstByte(response, trace);
+
+      HttpHeaders headers = readHeaders(response);
+      Map<String, List<String>> results = headers.toMap();
+      trace.lap(FetchMetrics.Phase.HEADERS);
+
+      results.put("Content", getContent(response, headers));
+      trace.lap(FetchMetrics.Phase.BODY);
+
+      status = headers.getStatusCode();
+      return results;
+    }
+    finally {
+      trace.finish(status);
+      deadline.release();
+    }
+  }
+
+  /**
+   * Returns the stored response for the URL, or fetches and stores it.
+   *
+   * @param url the url to fetch
+   * @param context the settings for the connection
+   * @param deadline the overall deadline, which closes the socket when it expires
+   * @param responses the store of raw responses
+   * @return a map with the headers and content
+   * @throws IOException if unable to fetch headers and content before a timeout or the deadline
+   */
+  private static Map<String, List<String>> fetchStored(URL url, FetchContext context, Deadline deadline,
+      ResponseStore responses) throws IOException {
+    ResponseStore.Response stored = responses.get(url);
+
+    if (stored != null) {
+      try {
+        return stored.toMap();
+      }
+      finally {
+        deadline.release();
+      }
+    }
+
+    FetchMetrics.Trace trace = context.getMetrics().start(url);
+    int status = 0;
+
+    try (
+        Socket socket = openConnection(url, context, deadline, trace);
+        PrintWriter request = new PrintWriter(socket.getOutputStream());
+        InputStream response = new BufferedInputStream(socket.getInputStream());
+    ) {
+      printGetRequest(request, url);
+      awaitFirstByte(response, trace);
+
+      HttpHeaders headers = HttpHeaders.read(response);
+
+      while (headers != null && headers.getStatusCode() >= 100 && headers.getStatusCode() < 200) {
+        headers = HttpHeaders.read(response);
+      }
+
+      if (headers == null) {
+        throw new EOFException("Connection closed before a response.");
+      }
+
+      trace.lap(FetchMetrics.Phase.HEADERS);
+      byte[] body = PipelinedFetcher.readBody(headers, response);
+      trace.lap(FetchMetrics.Phase.BODY);
+
+      responses.put(url, headers, body);
+      status = headers.getStatusCode();
+      return PipelinedFetcher.toMap(headers, body);
+    }
+    finally {
+      trace.finish(status);
+      deadline.release();
+    }
+  }
+
+  /**
+   * Downloads the content of the URL straight to a file, without decoding it into characters, so
+   * the file holds exactly the bytes sent including every line ending. Chunked content is decoded.
+   * The content is written for any status code, so the caller can decide what to keep.
+   *
+   * Once the headers are read, plain http content is moved from the socket channel to the file
+   * with {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}, so it never passes
+   * through a byte array. Those reads are limited by the deadline rather than the read timeout.
+   * Https content is copied through a buffer, since it must be decrypted first.
+   *
+   * The content is first written to a temporary file in the same directory, which is moved into
+   * place once the download completes, so an earlier copy of the file survives a failed download.
+   *
+   * @param url the url to fetch
+   * @param file where to write the content, which is replaced only once the download completes
+   *   and left untouched if it fails
+   * @param context the settings for the connection
+   * @param deadline the overall deadline, which closes the socket when it expires
+   * @return the headers of the response
+   * @throws IOException if unable to fetch the complete content before a timeout or the deadline,
+   *   or unable to write the file
+   *
+   * @see #fetchURL(URL, FetchContext, Deadline)
+   */
+  public static HttpHeaders download(URL url, Path file, FetchContext context, Deadline deadline) throws IOException {
+    Path partial;
+
+    try {
+      partial = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName() + ".", ".part");
+    }
+    catch (IOException e) {
+      deadline.release();
+      throw e;
+    }
+
+    FetchMetrics.Trace trace = context.getMetrics().start(url);
+    int status = 0;
+    boolean complete = false;
+
+    try (
+        Socket socket = openConnection(url, context, deadline, trace, true, List.of());
+        PrintWriter request = new PrintWriter(socket.getOutputStream());
+        FileChannel output = FileChannel.open(partial, StandardOpenOption.WRITE);
+    ) {
+      printGetRequest(request, url);
+      trace.mark();
+
+      InputStream input = socket.getInputStream();
+      byte[] buffer = new byte[8192];
+      int filled = 0;
+      int start = -1;
+      HttpHeaders headers = null;
+
+      // read until the end of a final header block, skipping any interim responses
+      while (headers == null || (headers.getStatusCode() >= 100 && headers.getStatusCode() < 200)) {
+        if (headers != null) {
+          System.arraycopy(buffer, start, buffer, 0, filled - start);
+          filled -= start;
+        }
+
+        while ((start = HttpHeaders.findContent(buffer, 0, filled)) < 0) {
+          if (filled == buffer.length) {
+            if (buffer.length >= MAX_HEADERS) {
+              throw new IOException("Response headers are too large.");
+            }
+
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+          }
+
+          int read = input.read(buffer, filled, buffer.length - filled);
+
+          if (read < 0) {
+            throw new EOFException("Connection closed while reading headers.");
+          }
+
+          if (filled == 0 && headers == null) {
+            trace.lap(FetchMetrics.Phase.FIRST_BYTE);
+          }
+
+          filled += read;
+        }
+
+        headers = HttpHeaders.parse(buffer, 0, start);
+      }
+
+      trace.lap(FetchMetrics.Phase.HEADERS);
+      ByteBuffer buffered = ByteBuffer.wrap(buffer, start, filled - start);
+      long length = headers.getContentLength();
+
+      if (headers.isChunked()) {
+        InputStream content = new SequenceInputStream(new ByteArrayInputStream(buffer, start, filled - start), input);
+        new ChunkedInputStream(content).transferTo(Channels.newOutputStream(output));
+      }
+      else if (!headers.isEmpty()) {
+        long limit = length < 0 ? Long.MAX_VALUE : length;
+        buffered.limit(buffered.position() + (int) Math.min(limit, buffered.remaining()));
+
+        while (buffered.hasRemaining()) {
+          output.write(buffered);
+        }
+
+        long copied = output.position();
+        // a layered tls socket still reports the channel of the encrypted connection underneath
+        copied += socket instanceof SSLSocket ?
+            transfer(input, output, limit - copied) :
+            transfer(socket.getChannel(), output, copied, limit - copied);
+
+        if (length >= 0 && copied < length) {
+          throw new EOFException("Connection closed while reading content.");
+        }
+      }
+
+      trace.lap(FetchMetrics.Phase.BODY);
+      status = headers.getStatusCode();
+      complete = true;
       return headers;
     }
+    finally {
+      trace.finish(status);
+      deadline.release();
+
+      if (complete) {
+        replace(partial, file);
+      }
+      else {
+        Files.deleteIfExists(partial);
+      }
+    }
+  }
+
+  /**
+   * Moves a finished download over the file it replaces, atomically where the file system allows.
+   * The download is deleted if it cannot be moved.
+   *
+   * @param partial the finished download
+   * @param file the file to replace
+   * @throws IOException if unable to move the download into place
+   */
+  private static void replace(Path partial, Path file) throws IOException {
+    try {
+      Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (AtomicMoveNotSupportedException e) {
+      Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+    finally {
+      Files.deleteIfExists(partial);
+    }
+  }
+
+  /**
+   * Moves bytes from a socket channel to a file until the limit or the end of the stream.
+   *
+   * @param input the socket channel
+   * @param output the file
+   * @param position where to write in the file
+   * @param limit the maximum number of bytes to move
+   * @return the number of bytes moved
+   * @throws IOException if unable to read or write
+   */
+  private static long transfer(ReadableByteChannel input, FileChannel output, long position, long limit) throws IOException {
+    long moved = 0;
+
+    while (moved < limit) {
+      // a blocking channel only transfers nothing at the end of the stream
+      long count = output.transferFrom(input, position + moved, Math.min(limit - moved, TRANSFER_SIZE));
+
+      if (count == 0) {
+        break;
+      }
+
+      moved += count;
+    }
+
+    return moved;
+  }
+
+  /**
+   * Copies bytes from a stream to a file until the limit or the end of the stream.
+   *
+   * @param input the stream
+   * @param output the file
+   * @param limit the maximum number of bytes to copy
+   * @return the number of bytes copied
+   * @throws IOException if unable to read or write
+   */
+  private static long transfer(InputStream input, FileChannel output, long limit) throws IOException {
+    byte[] bytes = new byte[(int) Math.min(TRANSFER_SIZE, 16384)];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    long copied = 0;
+    int read;
+
+    while (copied < limit && (read = input.read(bytes, 0, (int) Math.min(bytes.length, limit - copied))) >= 0) {
+      buffer.clear().limit(read);
+
+      while (buffer.hasRemaining()) {
+        output.write(buffer);
+      }
+
+      copied += read;
+    }
+
+    return copied;
   }
 
   /**
@@ -85,6 +424,171 @@ public class HttpsFetcher {
         SocketFactory.getDefault().createSocket(host, port);
   }
 
+  /**
+   * Uses a {@link Socket} to open a connection to the web server associated with the provided URL,
+   * applying the timeouts and socket options from the context. Supports HTTP and HTTPS connections.
+   * HTTPS connections use the shared TLS context, so repeat hosts can resume their sessions, and
+   * the handshake is completed before returning. The socket is attached to the deadline, so it is
+   * closed if the deadline expires or the fetch is cancelled.
+   *
+   * @param url the url to connect
+   * @param context the settings for the connection
+   * @param deadline the overall deadline for the fetch
+   * @return a socket connection for that url
+   * @throws UnknownHostException if unable to resolve the host
+   * @throws IOException if unable to connect before the timeout or deadline
+   *
+   * @see #openConnection(URL)
+   */
+  public static Socket openConnection(URL url, FetchContext context, Deadline deadline) throws UnknownHostException, IOException {
+    return openConnection(url, context, deadline, FetchMetrics.Trace.NONE);
+  }
+
+  /**
+   * Opens a connection the same way as {@link #openConnection(URL, FetchContext, Deadline)}, timing
+   * the DNS, connect, and TLS handshake phases into the trace.
+   *
+   * @param url the url to connect
+   * @param context the settings for the connection
+   * @param deadline the overall deadline for the fetch
+   * @param trace times the phases of the request
+   * @return a socket connection for that url
+   * @throws UnknownHostException if unable to resolve the host
+   * @throws IOException if unable to connect before the timeout or deadline
+   *
+   * @see FetchMetrics
+   */
+  public static Socket openConnection(URL url, FetchContext context, Deadline deadline,
+      FetchMetrics.Trace trace) throws UnknownHostException, IOException {
+    return openConnection(url, context, deadline, trace, false, List.of());
+  }
+
+  /**
+   * Opens a connection the same way as {@link #openConnection(URL, FetchContext, Deadline,
+   * FetchMetrics.Trace)}, offering application protocols such as "h2" during the TLS handshake.
+   * The protocol chosen by the server is available from {@link SSLSocket#getApplicationProtocol()}
+   * on the returned socket. Plain http connections do not negotiate a protocol.
+   *
+   * @param url the url to connect
+   * @param context the settings for the connection
+   * @param deadline the overall deadline for the fetch
+   * @param trace times the phases of the request
+   * @param protocols the application protocols to offer, in order of preference
+   * @return a socket connection for that url
+   * @throws UnknownHostException if unable to resolve the host
+   * @throws IOException if unable to connect before the timeout or deadline
+   */
+  public static Socket openConnection(URL url, FetchContext context, Deadline deadline,
+      FetchMetrics.Trace trace, List<String> protocols) throws UnknownHostException, IOException {
+    return openConnection(url, context, deadline, trace, false, protocols);
+  }
+
+  /**
+   * Opens a connection, optionally backed by a {@link SocketChannel} so plain http content can be
+   * moved with channel operations.
+   *
+   * @param url the url to connect
+   * @param context the settings for the connection
+   * @param deadline the overall deadline for the fetch
+   * @param trace times the phases of the request
+   * @param channel whether to create the socket from a channel
+   * @param protocols the application protocols to offer during the TLS handshake, if any
+   * @return a socket connection for that url
+   * @throws UnknownHostException if unable to resolve the host
+   * @throws IOException if unable to connect before the timeout or deadline
+   */
+  private static Socket openConnection(URL url, FetchContext context, Deadline deadline,
+      FetchMetrics.Trace trace, boolean channel, List<String> protocols) throws UnknownHostException, IOException {
+    String protocol = url.getProtocol();
+    String host = url.getHost();
+
+    boolean https = protocol != null && protocol.equalsIgnoreCase("https");
+    int defaultPort = https ? 443 : 80;
+    int port = url.getPort() < 0 ? defaultPort : url.getPort();
+
+    Socket socket = channel ? SocketChannel.open().socket() : SocketFactory.getDefault().createSocket();
+
+    try {
+      socket.setTcpNoDelay(context.isTcpNoDelay());
+
+      if (context.getReceiveBufferSize() > 0) {
+        socket.setReceiveBufferSize(context.getReceiveBufferSize());
+      }
+
+      deadline.attach(socket);
+      trace.mark();
+      InetAddress address = context.getResolver().resolve(host);
+      trace.lap(FetchMetrics.Phase.DNS);
+
+      socket.connect(new InetSocketAddress(address, port), deadline.timeout(context.getConnectTimeout()));
+      socket.setSoTimeout(deadline.timeout(context.getReadTimeout()));
+      trace.lap(FetchMetrics.Phase.CONNECT);
+
+      if (https) {
+        SSLSocketFactory factory = context.getSslContext().getSocketFactory();
+        SSLSocket secure = (SSLSocket) factory.createSocket(socket, host, port, true);
+        socket = secure;
+        deadline.attach(secure);
+
+        SSLParameters parameters = secure.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+
+        if (!protocols.isEmpty()) {
+          parameters.setApplicationProtocols(protocols.toArray(new String[0]));
+        }
+
+        secure.setSSLParameters(parameters);
+
+        long start = System.currentTimeMillis();
+        secure.startHandshake();
+        context.getHandshakeStatistics().record(secure.getSession(), start);
+        trace.lap(FetchMetrics.Phase.TLS);
+      }
+
+      return socket;
+    }
+    catch (IOException | RuntimeException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Waits for the first byte of the response without consuming it, and ends the first byte phase
+   * of the trace. Does nothing if the trace is not active, since the headers are read right after.
+   *
+   * @param response the buffered response, which must support marks
+   * @param trace times the phases of the request
+   * @throws IOException if unable to read
+   */
+  public static void awaitFirstByte(InputStream response, FetchMetrics.Trace trace) throws IOException {
+    if (trace.isActive()) {
+      trace.mark();
+      response.mark(1);
+      response.read();
+      response.reset();
+      trace.lap(FetchMetrics.Phase.FIRST_BYTE);
+    }
+  }
+
+  /**
+   * Waits for the first character of the response without consuming it, and ends the first byte
+   * phase of the trace. Does nothing if the trace is not active.
+   *
+   * @param response the buffered response
+   * @param trace times the phases of the request
+   * @throws IOException if unable to read
+   */
+  public static void awaitFirstByte(BufferedReader response, FetchMetrics.Trace trace) throws IOException {
+    if (trace.isActive()) {
+      trace.mark();
+      response.mark(1);
+      response.read();
+      response.reset();
+      trace.lap(FetchMetrics.Phase.FIRST_BYTE);
+    }
+  }
+
   /**
    * Writes a simple HTTP GET request to the provided socket writer.
    *
@@ -93,12 +597,44 @@ public class HttpsFetcher {
    * @throws IOException from {@link PrintWriter#printf(String, Object...)}
    */
   public static void printGetRequest(PrintWriter writer, URL url) throws IOException {
+    printGetRequest(writer, url, true);
+  }
+
+  /**
+   * Writes a simple HTTP GET request to the provided socket writer, optionally asking the server
+   * to keep the connection open for further requests.
+   *
+   * @param writer a writer created from a socket connection
+   * @param url the url to fetch via the socket connection
+   * @param close whether to ask the server to close the connection after responding
+   * @throws IOException from {@link PrintWriter#printf(String, Object...)}
+   */
+  public static void printGetRequest(PrintWriter writer, URL url, boolean close) throws IOException {
+    printGetRequest(writer, url, close, Map.of());
+  }
+
+  /**
+   * Writes a simple HTTP GET request to the provided socket writer with additional header fields,
+   * such as the validators for a conditional request.
+   *
+   * @param writer a writer created from a socket connection
+   * @param url the url to fetch via the socket connection
+   * @param close whether to ask the server to close the connection after responding
+   * @param headers additional header names and values to send
+   * @throws IOException from {@link PrintWriter#printf(String, Object...)}
+   */
+  public static void printGetRequest(PrintWriter writer, URL url, boolean close, Map<String, String> headers) throws IOException {
     String host = url.getHost();
     String resource = url.getFile().isEmpty() ? "/" : url.getFile();
 
     writer.printf("GET %s HTTP/1.1\r\n", resource);
     writer.printf("Host: %s\r\n", host);
-    writer.printf("Connection: close\r\n");
+    writer.printf("Connection: %s\r\n", close ? "close" : "keep-alive");
+
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      writer.printf("%s: %s\r\n", header.getKey(), header.getValue());
+    }
+
     writer.printf("\r\n");
     writer.flush();
   }
@@ -108,28 +644,68 @@ public class HttpsFetcher {
    * socket reader has not yet been used, otherwise this method will return unpredictable results.
    *
    * @param response a reader created from a socket connection
-   * @return a map of header fields to a list of header values
+   * @return a map of header fields to a list of header values, which ignores the case of the header
+   *   names
    * @throws IOException from {@link BufferedReader#readLine()}
+   * @throws EOFException if the connection was closed before the status line
    *
    * @see URLConnection#getHeaderFields()
    */
   public static Map<String, List<String>> getHeaderFields(BufferedReader response) throws IOException {
-    Map<String, List<String>> results = new HashMap<>();
+    Map<String, List<String>> results = new TreeMap<>(HttpHeaders.ORDER);
 
     String line = response.readLine();
+
+    if (line == null) {
+      throw new EOFException("Connection closed before a response.");
+    }
+
     results.put(null, List.of(line));
 
     while ((line = response.readLine()) != null && !line.isBlank()) {
-      String[] split = line.split(":\\s+", 2);
-      assert split.length == 2;
+      int colon = line.indexOf(':');
 
-      results.putIfAbsent(split[0], new ArrayList<>());
-      results.get(split[0]).add(split[1]);
+      if (colon > 0) {
+        String name = line.substring(0, colon).strip();
+        results.computeIfAbsent(name, key -> new ArrayList<>()).add(line.substring(colon + 1).strip());
+      }
     }
 
     return results;
   }
 
+  /**
+   * Reads the status line and header fields from a buffered stream of a socket connection.
+   *
+   * @param response the buffered stream created from a socket connection
+   * @return the headers
+   * @throws IOException if unable to read the headers
+   * @throws EOFException if the connection was closed before the status line
+   */
+  private static HttpHeaders readHeaders(InputStream response) throws IOException {
+    HttpHeaders headers = HttpHeaders.read(response);
+
+    if (headers == null) {
+      throw new EOFException("Connection closed before a response.");
+    }
+
+    return headers;
+  }
+
+  /**
+   * Gets the content lines from a stream positioned after the headers, decoded with the charset
+   * resolved by {@link ContentDecoder}.
+   *
+   * @param response the stream created from a socket connection
+   * @param headers the headers of the response
+   * @return a list of lines read from the stream
+   * @throws IOException if unable to read the content
+   */
+  public static List<String> getContent(InputStream response, HttpHeaders headers) throws IOException {
+    Reader decoder = ContentDecoder.open(response, headers.getCharset(), StreamingHtmlCleaner.DEFAULT_BUFFER);
+    return getContent(new BufferedReader(decoder));
+  }
+
   /**
    * Gets the content from a socket. Whether this output includes headers depends how the socket
    * connection has already been used.
@@ -139,6 +715,11 @@ public class HttpsFetcher {
    * @throws IOException from {@link BufferedReader#lines()}
    */
   public static List<String> getContent(BufferedReader response) throws IOException {
-    return response.lines().collect(Collectors.toList());
+    try {
+      return response.lines().collect(Collectors.toList());
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
   }
 }
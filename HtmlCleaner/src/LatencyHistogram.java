@@ -0,0 +1,233 @@
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records latencies into log-linear buckets, the same idea as an HDR histogram. Every power of two
+ * is split into {@link #SUB_BUCKETS} equal buckets, so any recorded value is known to within about
+ * six percent no matter how large it is, using a fixed few kilobytes per histogram.
+ *
+ * Recording is a single atomic increment plus two lock-free updates, so any number of threads may
+ * record at once. Reading percentiles while recording gives an approximate but consistent answer.
+ *
+ * @see FetchMetrics
+ */
+public class LatencyHistogram {
+
+  /** The number of buckets each power of two is split into, which must be a power of two. */
+  public static final int SUB_BUCKETS = 16;
+
+  /** The largest value recorded exactly, in nanoseconds; larger values are clamped (about 18 minutes). */
+  public static final long MAX_VALUE = (1L << 40) - 1;
+
+  /** The number of bits used for the position within a power of two. */
+  private static final int SUB_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+  /** The number of buckets needed to cover every value up to the maximum. */
+  private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+  /** The number of values recorded in each bucket. */
+  private final AtomicLongArray counts;
+
+  /** The total number of values recorded. */
+  private final LongAdder count;
+
+  /** The sum of every value recorded, in nanoseconds. */
+  private final LongAdder sum;
+
+  /** The largest value recorded, in nanoseconds. */
+  private final AtomicLong max;
+
+  /**
+   * Initializes an empty histogram.
+   */
+  public LatencyHistogram() {
+    this.counts = new AtomicLongArray(BUCKETS);
+    this.count = new LongAdder();
+    this.sum = new LongAdder();
+    this.max = new AtomicLong();
+  }
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos the latency in nanoseconds; negative values are recorded as 0
+   */
+  public void record(long nanos) {
+    long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+    counts.incrementAndGet(index(value));
+    count.increment();
+    sum.add(value);
+
+    long current = max.get();
+
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * Records a latency.
+   *
+   * @param latency the latency
+   */
+  public void record(Duration latency) {
+    record(latency.toNanos());
+  }
+
+  /**
+   * Returns the number of values recorded.
+   *
+   * @return the count
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Returns the sum of every value recorded.
+   *
+   * @return the sum in nanoseconds
+   */
+  public long getSum() {
+    return sum.sum();
+  }
+
+  /**
+   * Returns the largest value recorded.
+   *
+   * @return the maximum in nanoseconds, or 0 if empty
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the mean of every value recorded.
+   *
+   * @return the mean in nanoseconds, or 0 if empty
+   */
+  public double getMean() {
+    long total = getCount();
+    return total == 0 ? 0 : getSum() / (double) total;
+  }
+
+  /**
+   * Returns the value at a percentile, as the upper end of the bucket holding it, so the answer
+   * is never below the true value by more than the bucket width.
+   *
+   * @param percentile the percentile from 0 to 100
+   * @return the value in nanoseconds, or 0 if empty
+   */
+  public long getValueAtPercentile(double percentile) {
+    long total = 0;
+
+    for (int i = 0; i < BUCKETS; i++) {
+      total += counts.get(i);
+    }
+
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * total));
+    long seen = 0;
+
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+
+      if (seen >= rank) {
+        return Math.min(highest(i), getMax());
+      }
+    }
+
+    return getMax();
+  }
+
+  /**
+   * Returns how many recorded values are at or below a value. Values in the bucket holding the
+   * limit are counted if that bucket lies entirely at or below it.
+   *
+   * @param nanos the limit in nanoseconds
+   * @return the number of values
+   */
+  public long getCountAtOrBelow(long nanos) {
+    if (nanos < 0) {
+      return 0;
+    }
+
+    int last = index(Math.min(nanos, MAX_VALUE));
+
+    if (highest(last) > nanos) {
+      last--;
+    }
+
+    long total = 0;
+
+    for (int i = 0; i <= last; i++) {
+      total += counts.get(i);
+    }
+
+    return total;
+  }
+
+  /**
+   * Returns a copy of the histogram that no longer changes.
+   *
+   * @return the copy
+   */
+  public LatencyHistogram copy() {
+    LatencyHistogram copy = new LatencyHistogram();
+
+    for (int i = 0; i < BUCKETS; i++) {
+      long value = counts.get(i);
+      copy.counts.set(i, value);
+      copy.count.add(value);
+    }
+
+    copy.sum.add(getSum());
+    copy.max.set(getMax());
+    return copy;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d, mean=%.3fms, p50=%.3fms, p99=%.3fms, max=%.3fms", getCount(),
+        getMean() / 1e6, getValueAtPercentile(50) / 1e6, getValueAtPercentile(99) / 1e6, getMax() / 1e6);
+  }
+
+  /**
+   * Returns the bucket holding a value. Values below {@link #SUB_BUCKETS} have their own bucket,
+   * and every larger power of two is split into {@link #SUB_BUCKETS} buckets.
+   *
+   * @param value the non-negative value
+   * @return the bucket
+   */
+  private static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int position = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BITS + 1) * SUB_BUCKETS + position;
+  }
+
+  /**
+   * Returns the largest value held by a bucket.
+   *
+   * @param index the bucket
+   * @return the largest value
+   */
+  private static long highest(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+
+    int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+    int position = index % SUB_BUCKETS;
+    long lowest = (1L << exponent) + ((long) position << (exponent - SUB_BITS));
+    return lowest + (1L << (exponent - SUB_BITS)) - 1;
+  }
+}
@@ -0,0 +1,174 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * A first-in first-out queue of strings packed into byte arrays, so that millions of queued URLs
+ * take a few large arrays instead of millions of objects. Each string is stored as UTF-8 bytes
+ * after a variable-length size prefix. Blocks start small and double in size, so a queue holding a
+ * single URL stays small too.
+ */
+public class PackedUrlQueue {
+
+  /** The size of the first block. */
+  public static final int FIRST_BLOCK = 64;
+
+  /** The largest size blocks grow to. */
+  public static final int MAX_BLOCK = 16 * 1024;
+
+  /** The blocks from oldest to newest. */
+  private final ArrayDeque<byte[]> blocks;
+
+  /** Where the next entry is read from in the oldest block. */
+  private int read;
+
+  /** Where the next entry is written in the newest block. */
+  private int write;
+
+  /** The number of queued entries. */
+  private int size;
+
+  /** The number of bytes in every block. */
+  private long bytes;
+
+  /**
+   * Initializes an empty queue.
+   */
+  public PackedUrlQueue() {
+    this.blocks = new ArrayDeque<>();
+    this.read = 0;
+    this.write = 0;
+    this.size = 0;
+    this.bytes = 0;
+  }
+
+  /**
+   * Adds a string to the end of the queue.
+   *
+   * @param value the string to add
+   */
+  public void add(String value) {
+    byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+    int needed = varintSize(encoded.length + 1) + encoded.length;
+    byte[] block = blocks.peekLast();
+
+    if (block == null || block.length - write < needed) {
+      int length = block == null ? FIRST_BLOCK : Math.min(block.length * 2, MAX_BLOCK);
+      block = new byte[Math.max(length, needed)];
+      blocks.addLast(block);
+      bytes += block.length;
+      write = 0;
+    }
+
+    write = putVarint(block, write, encoded.length + 1);
+    System.arraycopy(encoded, 0, block, write, encoded.length);
+    write += encoded.length;
+    size++;
+  }
+
+  /**
+   * Removes and returns the string at the front of the queue.
+   *
+   * @return the oldest string, or {@code null} if the queue is empty
+   */
+  public String poll() {
+    if (size == 0) {
+      return null;
+    }
+
+    byte[] block = blocks.peekFirst();
+
+    // prefixes are never zero, so a zero (or the end of the array) marks the end of a block
+    if (read >= block.length || block[read] == 0) {
+      blocks.removeFirst();
+      bytes -= block.length;
+      block = blocks.peekFirst();
+      read = 0;
+    }
+
+    int length = 0;
+    int shift = 0;
+    byte next;
+
+    do {
+      next = block[read++];
+      length |= (next & 0x7F) << shift;
+      shift += 7;
+    } while (next < 0);
+
+    length--;
+    String value = new String(block, read, length, StandardCharsets.UTF_8);
+    read += length;
+    size--;
+
+    if (size == 0) {
+      blocks.clear();
+      bytes = 0;
+      read = 0;
+      write = 0;
+    }
+
+    return value;
+  }
+
+  /**
+   * Returns the number of queued strings.
+   *
+   * @return the number of strings
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns whether the queue is empty.
+   *
+   * @return {@code true} if there are no queued strings
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the number of bytes allocated for blocks.
+   *
+   * @return the number of bytes
+   */
+  public long bytes() {
+    return bytes;
+  }
+
+  /**
+   * Writes a variable-length unsigned integer, seven bits at a time.
+   *
+   * @param block where to write
+   * @param offset where to start
+   * @param value the positive value
+   * @return the offset after the value
+   */
+  private static int putVarint(byte[] block, int offset, int value) {
+    while ((value & ~0x7F) != 0) {
+      block[offset++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+
+    block[offset++] = (byte) value;
+    return offset;
+  }
+
+  /**
+   * Returns how many bytes a variable-length integer takes.
+   *
+   * @param value the positive value
+   * @return the number of bytes
+   */
+  private static int varintSize(int value) {
+    int size = 1;
+
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      size++;
+    }
+
+    return size;
+  }
+}
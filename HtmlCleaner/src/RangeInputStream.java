@@ -0,0 +1,250 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the content of a web page one range of bytes at a time, only asking for the next range
+ * once the previous one has been read. Each range is twice as large as the one before, so a
+ * reader that stops early transfers roughly as much as it read, and one that reads everything
+ * needs only a logarithmic number of requests. Each range is fetched on a new connection.
+ *
+ * Servers that ignore the "Range" header send the whole page in the first response instead. That
+ * is read as it arrives, so a reader that stops early and closes this stream only transfers what
+ * it read plus whatever was already in flight.
+ *
+ * Later ranges are made conditional on the "ETag" of the first response if it is a strong one, so
+ * a page that changes between ranges fails instead of mixing the old and new content. A weak tag
+ * cannot be used that way, so ranges of a page with one are not checked.
+ */
+public class RangeInputStream extends InputStream {
+
+  /** The smallest first range. */
+  public static final int MIN_WINDOW = StreamingHtmlCleaner.DEFAULT_BUFFER;
+
+  /** The url to fetch. */
+  private final URL url;
+
+  /** The settings for each connection. */
+  private final FetchContext context;
+
+  /** The overall deadline for every range. */
+  private final Deadline deadline;
+
+  /** The headers of the first response. */
+  private final HttpHeaders headers;
+
+  /** Whether the first response was a single range of the content. */
+  private final boolean ranged;
+
+  /** The connection of the current response. */
+  private Socket socket;
+
+  /** The content of the current response. */
+  private InputStream body;
+
+  /** The bytes left in the current response, or -1 to read until the end of the response. */
+  private long remaining;
+
+  /** The number of bytes read so far. */
+  private long position;
+
+  /** Where the current range ends (exclusive). */
+  private long end;
+
+  /** The total length of the content, or -1 if unknown. */
+  private long length;
+
+  /** The size of the current range. */
+  private long window;
+
+  /**
+   * Requests the first range of a page. The response may be a redirect, an error, or the whole
+   * page; check {@link #getHeaders()} before reading.
+   *
+   * @param url the url to fetch
+   * @param window the size of the first range, at least {@link #MIN_WINDOW}
+   * @param context the settings for each connection
+   * @param deadline the overall deadline for every range
+   * @throws IOException if unable to fetch the headers of the first response
+   */
+  public RangeInputStream(URL url, long window, FetchContext context, Deadline deadline) throws IOException {
+    this.url = url;
+    this.context = context;
+    this.deadline = deadline;
+    this.window = Math.max(window, MIN_WINDOW);
+    this.position = 0;
+    this.length = -1;
+    this.headers = request(null);
+    this.ranged = headers.getStatusCode() == 206;
+
+    if (!ranged) {
+      end = -1;
+      remaining = headers.isChunked() ? -1 : headers.getContentLength();
+      body = headers.isChunked() ? new ChunkedInputStream(body) : body;
+    }
+  }
+
+  /**
+   * Returns the headers of the first response.
+   *
+   * @return the headers
+   */
+  public HttpHeaders getHeaders() {
+    return headers;
+  }
+
+  /**
+   * Returns whether the server is sending the content in ranges.
+   *
+   * @return {@code true} if the first response was "206 Partial Content"
+   */
+  public boolean isRanged() {
+    return ranged;
+  }
+
+  /**
+   * Returns the number of content bytes read so far.
+   *
+   * @return the number of bytes
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int count) throws IOException {
+    if (count == 0) {
+      return 0;
+    }
+
+    while (true) {
+      int read = remaining == 0 ? -1 : body.read(bytes, offset, remaining < 0 ? count : (int) Math.min(count, remaining));
+
+      if (read >= 0) {
+        position += read;
+        remaining -= remaining > 0 ? read : 0;
+        return read;
+      }
+
+      if (remaining > 0) {
+        throw new EOFException("Connection closed before the end of the content.");
+      }
+
+      if (!ranged || position < end || (length >= 0 && position >= length)) {
+        return -1;
+      }
+
+      window = Math.min(window * 2, Integer.MAX_VALUE);
+
+      if (request(headers.getETag()) == null) {
+        return -1;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (socket != null) {
+      socket.close();
+    }
+  }
+
+  /**
+   * Requests the next range, starting where the previous one ended.
+   *
+   * @param etag the entity tag the content must still have if strong, or {@code null}
+   * @return the headers of the response, or {@code null} if past the end of the content
+   * @throws IOException if unable to fetch the range, or the server sent something else
+   */
+  private HttpHeaders request(String etag) throws IOException {
+    close();
+
+    Map<String, String> fields = new LinkedHashMap<>();
+    fields.put("Range", "bytes=" + position + "-" + (position + window - 1));
+
+    // RFC 9110 only allows a strong entity tag here, and a server treats a weak one as a mismatch
+    if (etag != null && !etag.startsWith("W/")) {
+      fields.put("If-Range", etag);
+    }
+
+    socket = HttpsFetcher.openConnection(url, context, deadline, FetchMetrics.Trace.NONE);
+    HttpsFetcher.printGetRequest(new PrintWriter(socket.getOutputStream()), url, true, fields);
+
+    InputStream input = new BufferedInputStream(socket.getInputStream());
+    HttpHeaders response = HttpHeaders.read(input);
+
+    if (response == null) {
+      throw new EOFException("Connection closed before a response.");
+    }
+
+    body = input;
+    remaining = response.getContentLength();
+
+    if (response.getStatusCode() == 416 && position > 0) {
+      return null;
+    }
+
+    if (response.getStatusCode() != 206) {
+      if (position > 0) {
+        throw new ProtocolException("Expected part of the content but got " + response.getStatusLine());
+      }
+
+      return response;
+    }
+
+    parseRange(response.get("Content-Range"));
+
+    if (response.isChunked()) {
+      body = new ChunkedInputStream(input);
+      remaining = -1;
+    }
+
+    return response;
+  }
+
+  /**
+   * Checks a "Content-Range" header such as "bytes 0-1023/4096" against the range requested, and
+   * records where the range ends and the total length if known. A server may send less than was
+   * requested, in which case the next range starts where this one ends.
+   *
+   * @param range the header value
+   * @throws ProtocolException if the range is missing or not the one requested
+   */
+  private void parseRange(String range) throws ProtocolException {
+    try {
+      String[] parts = range.trim().substring("bytes ".length()).split("[-/]");
+      long start = Long.parseLong(parts[0].trim());
+      long last = Long.parseLong(parts[1].trim());
+
+      if (start != position || last < start) {
+        throw new ProtocolException("Unexpected content range: " + range);
+      }
+
+      end = last + 1;
+
+      if (!parts[2].trim().equals("*")) {
+        length = Long.parseLong(parts[2].trim());
+      }
+      else if (end < position + window) {
+        // without a total, a range shorter than requested is the end of the content
+        length = end;
+      }
+    }
+    catch (NullPointerException | IndexOutOfBoundsException | NumberFormatException e) {
+      throw new ProtocolException("Invalid content range: " + range);
+    }
+  }
+}
@@ -0,0 +1,379 @@
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers redirects so that later fetches can go straight to the final location instead of
+ * following each hop over the network. Permanent redirects (301 and 308) are kept until evicted,
+ * and temporary redirects (302, 303, and 307) only for a short time-to-live.
+ *
+ * Following a chain of cached redirects compresses it, so that every URL along the way points
+ * straight at the end of the chain. Each entry remembers how many hops it replaces, so a fetch
+ * never skips more redirects than it was allowed to follow. Redirects that would form a loop are
+ * never cached.
+ *
+ * The cache is bounded. Once full, entries that have not been used since the last sweep are
+ * evicted, similar to the clock algorithm.
+ *
+ * @see HtmlFetcher#fetch(URL, int, FetchContext, Deadline)
+ */
+public class RedirectCache {
+
+  /** The default maximum number of entries. */
+  public static final int CAPACITY = 100000;
+
+  /** The default time to keep temporary redirects. */
+  public static final Duration TEMPORARY_TTL = Duration.ofMinutes(1);
+
+  /** The longest chain that will be followed through the cache. */
+  public static final int MAX_CHAIN = 20;
+
+  /** The cached redirects keyed by source url. */
+  private final ConcurrentHashMap<String, Entry> cache;
+
+  /** The maximum number of entries. */
+  private final int capacity;
+
+  /** The time to keep temporary redirects in nanoseconds. */
+  private final long temporary;
+
+  /**
+   * Initializes a cache with the default capacity and time-to-live.
+   */
+  public RedirectCache() {
+    this(CAPACITY, TEMPORARY_TTL);
+  }
+
+  /**
+   * Initializes a cache.
+   *
+   * @param capacity the maximum number of entries
+   * @param temporary how long to keep temporary redirects, or zero to never cache them
+   */
+  public RedirectCache(int capacity, Duration temporary) {
+    if (capacity < 1 || temporary.isNegative()) {
+      throw new IllegalArgumentException("Capacity must be positive and durations may not be negative.");
+    }
+
+    this.cache = new ConcurrentHashMap<>();
+    this.capacity = capacity;
+    this.temporary = temporary.toNanos();
+  }
+
+  /**
+   * Returns whether a status code is a redirect that may be cached.
+   *
+   * @param code the HTTP status code
+   * @return {@code true} for 301, 302, 303, 307, and 308
+   */
+  public static boolean isCacheable(int code) {
+    return isPermanent(code) || code == 302 || code == 303 || code == 307;
+  }
+
+  /**
+   * Returns whether a status code is a permanent redirect.
+   *
+   * @param code the HTTP status code
+   * @return {@code true} for 301 and 308
+   */
+  public static boolean isPermanent(int code) {
+    return code == 301 || code == 308;
+  }
+
+  /**
+   * Remembers a redirect. Nothing is cached if the status code is not a cacheable redirect, or if
+   * the target already leads back to the source through the cache.
+   *
+   * @param source the url that was fetched
+   * @param target the absolute url of the "Location" header
+   * @param code the HTTP status code of the response
+   * @return {@code true} if the redirect was cached
+   */
+  public boolean record(URL source, URL target, int code) {
+    if (!isCacheable(code) || (!isPermanent(code) && temporary == 0)) {
+      return false;
+    }
+
+    String from = key(source);
+    String to = key(target);
+
+    if (from.equals(to) || leadsTo(to, from)) {
+      cache.remove(from);
+      return false;
+    }
+
+    long expires = isPermanent(code) ? Long.MAX_VALUE : System.nanoTime() + temporary;
+
+    if (cache.size() >= capacity && !cache.containsKey(from)) {
+      evict();
+    }
+
+    cache.put(from, new Entry(to, 1, expires));
+    return true;
+  }
+
+  /**
+   * Follows cached redirects from the url, skipping at most the provided number of hops, and
+   * compresses the chain that was followed.
+   *
+   * @param url the url about to be fetched
+   * @param redirects the number of redirects the fetch may still follow
+   * @return where to fetch instead and how many redirects that skips
+   */
+  public Resolved resolve(URL url, int redirects) {
+    String start = key(url);
+    List<String> keys = new ArrayList<>();
+    List<Entry> entries = new ArrayList<>();
+    Set<String> seen = new HashSet<>();
+    long now = System.nanoTime();
+
+    String current = start;
+    int hops = 0;
+    seen.add(current);
+
+    while (keys.size() < MAX_CHAIN) {
+      Entry entry = cache.get(current);
+
+      if (entry == null) {
+        break;
+      }
+
+      if (entry.isExpired(now)) {
+        cache.remove(current, entry);
+        break;
+      }
+
+      if (hops + entry.hops > redirects) {
+        break;
+      }
+
+      if (!seen.add(entry.target)) {
+        // a loop slipped in through concurrent updates, so forget the whole chain
+        keys.forEach(cache::remove);
+        cache.remove(current);
+        return new Resolved(url, 0);
+      }
+
+      entry.used = true;
+      keys.add(current);
+      entries.add(entry);
+      hops += entry.hops;
+      current = entry.target;
+    }
+
+    compress(keys, entries, current);
+
+    if (hops == 0) {
+      return new Resolved(url, 0);
+    }
+
+    try {
+      return new Resolved(new URL(current), hops);
+    }
+    catch (MalformedURLException e) {
+      cache.remove(start);
+      return new Resolved(url, 0);
+    }
+  }
+
+  /**
+   * Removes the cached redirect from a url, if any.
+   *
+   * @param url the source url
+   */
+  public void invalidate(URL url) {
+    cache.remove(key(url));
+  }
+
+  /**
+   * Returns the number of cached redirects.
+   *
+   * @return the number of entries
+   */
+  public int size() {
+    return cache.size();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("redirects=%d, capacity=%d", size(), capacity);
+  }
+
+  /**
+   * Points every url along a followed chain straight at the end of the chain. Each new entry
+   * expires when the first of the entries it replaces would have expired.
+   *
+   * @param keys the source urls along the chain
+   * @param entries the entries followed from each source url
+   * @param end the end of the chain
+   */
+  private void compress(List<String> keys, List<Entry> entries, String end) {
+    int hops = 0;
+    long expires = Long.MAX_VALUE;
+
+    for (int i = keys.size() - 1; i >= 0; i--) {
+      Entry entry = entries.get(i);
+      hops += entry.hops;
+      expires = Math.min(expires, entry.expires);
+
+      if (!entry.target.equals(end)) {
+        Entry compressed = new Entry(end, hops, expires);
+        compressed.used = true;
+        cache.replace(keys.get(i), entry, compressed);
+      }
+    }
+  }
+
+  /**
+   * Returns whether following the cache from one url reaches another.
+   *
+   * @param from where to start
+   * @param to the url to look for
+   * @return {@code true} if the url is reached within {@link #MAX_CHAIN} hops
+   */
+  private boolean leadsTo(String from, String to) {
+    String current = from;
+    long now = System.nanoTime();
+
+    for (int i = 0; i < MAX_CHAIN; i++) {
+      Entry entry = cache.get(current);
+
+      if (entry == null || entry.isExpired(now)) {
+        return false;
+      }
+
+      if (entry.target.equals(to)) {
+        return true;
+      }
+
+      current = entry.target;
+    }
+
+    return false;
+  }
+
+  /**
+   * Makes room by removing expired entries and entries not used since the last sweep, clearing
+   * the used flag of the rest. Falls back to removing any entry if every entry was used.
+   */
+  private void evict() {
+    long now = System.nanoTime();
+    int target = capacity - Math.max(1, capacity / 10);
+
+    for (int pass = 0; pass < 2 && cache.size() > target; pass++) {
+      Iterator<Entry> iterator = cache.values().iterator();
+
+      while (iterator.hasNext() && cache.size() > target) {
+        Entry entry = iterator.next();
+
+        if (entry.isExpired(now) || !entry.used) {
+          iterator.remove();
+        }
+        else {
+          entry.used = false;
+        }
+      }
+    }
+  }
+
+  /**
+   * Normalizes a url into a cache key, ignoring the fragment.
+   *
+   * @param url the url
+   * @return the cache key
+   */
+  private static String key(URL url) {
+    String external = url.toExternalForm();
+    int fragment = external.indexOf('#');
+    return fragment < 0 ? external : external.substring(0, fragment);
+  }
+
+  /**
+   * Where to fetch after following cached redirects.
+   */
+  public static class Resolved {
+
+    /** The url to fetch. */
+    private final URL url;
+
+    /** The number of redirects skipped. */
+    private final int hops;
+
+    /**
+     * Initializes the result.
+     *
+     * @param url the url to fetch
+     * @param hops the number of redirects skipped
+     */
+    private Resolved(URL url, int hops) {
+      this.url = url;
+      this.hops = hops;
+    }
+
+    /**
+     * Returns the url to fetch.
+     *
+     * @return the url
+     */
+    public URL getUrl() {
+      return url;
+    }
+
+    /**
+     * Returns the number of redirects skipped, which should be taken off the remaining redirects.
+     *
+     * @return the number of hops
+     */
+    public int getHops() {
+      return hops;
+    }
+  }
+
+  /**
+   * A cached redirect.
+   */
+  private static class Entry {
+
+    /** Where the redirect leads. */
+    private final String target;
+
+    /** The number of redirects this entry replaces. */
+    private final int hops;
+
+    /** When the entry expires in nanoseconds, or {@link Long#MAX_VALUE} if permanent. */
+    private final long expires;
+
+    /** Whether the entry was used since the last eviction sweep. */
+    private volatile boolean used;
+
+    /**
+     * Initializes an entry.
+     *
+     * @param target where the redirect leads
+     * @param hops the number of redirects this entry replaces
+     * @param expires when the entry expires, or {@link Long#MAX_VALUE} if permanent
+     */
+    public Entry(String target, int hops, long expires) {
+      this.target = target;
+      this.hops = hops;
+      this.expires = expires;
+      this.used = false;
+    }
+
+    /**
+     * Returns whether the entry has expired.
+     *
+     * @param now the current time in nanoseconds
+     * @return {@code true} if the entry may no longer be used
+     */
+    public boolean isExpired(long now) {
+      return expires != Long.MAX_VALUE && now - expires >= 0;
+    }
+  }
+}
@@ -0,0 +1,983 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stores raw responses in a small number of large, memory-mapped segment files instead of one file
+ * per page. Responses are appended to the newest segment, and an off-heap hash table maps the
+ * 64-bit hash of each URL to the segment, offset, and length of its latest record. Reads return
+ * slices of the mapped segments without copying the content onto the heap.
+ *
+ * Replacing or removing a response leaves its old record behind as garbage. When a segment fills
+ * up, older segments that are mostly garbage are compacted by copying their live records forward
+ * and deleting the file. If the store grows past its size limit, the oldest segments are evicted
+ * whole. The index is rebuilt by scanning the segments when the store is opened, so nothing else
+ * needs to be written to disk.
+ *
+ * Each record is forced to disk before its type is written, and a record without a type is never
+ * scanned, so a crash or power loss can lose the latest records but never expose a partial one.
+ *
+ * Two URLs with the same 64-bit hash replace each other. Since every record includes its URL, a
+ * lookup never returns the response for a different URL.
+ *
+ * @see HttpsFetcher#fetchURL(URL, FetchContext, Deadline)
+ */
+public class ResponseStore implements Closeable {
+
+  /** The default segment size. */
+  public static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  /** The default size limit for all segments together. */
+  public static final long MAX_BYTES = 16L * 1024 * 1024 * 1024;
+
+  /** Segments with less than this fraction of live data are compacted. */
+  public static final double COMPACT_RATIO = 0.5;
+
+  /** Marks the start of a response record. */
+  private static final int RECORD = 0x52455350;
+
+  /** Marks the start of a removal record. */
+  private static final int REMOVED = 0x44454c45;
+
+  /** The size of the fixed fields of a record. */
+  private static final int FIXED = 4 + 4 + 8 + 4 + 4 + 4;
+
+  /** The name prefix of segment files. */
+  private static final String PREFIX = "segment-";
+
+  /** The name suffix of segment files. */
+  private static final String SUFFIX = ".dat";
+
+  /** The directory with the segment files. */
+  private final Path directory;
+
+  /** The capacity of new segments. */
+  private final int segmentSize;
+
+  /** The size limit for all segments together. */
+  private final long maxBytes;
+
+  /** The segments from oldest to newest by id. */
+  private final TreeMap<Integer, Segment> segments;
+
+  /** Maps url hashes to record locations, stored off-heap. */
+  private final OffHeapIndex index;
+
+  /** Guards the index and segments; reads may happen concurrently. */
+  private final ReentrantReadWriteLock lock;
+
+  /** The segment new records are appended to. */
+  private Segment active;
+
+  /** Whether records are currently being copied forward, to avoid compacting recursively. */
+  private boolean compacting;
+
+  /**
+   * Opens the store in the directory with the default segment size and limit.
+   *
+   * @param directory the directory with the segment files, created if necessary
+   * @throws IOException if unable to open or scan the segments
+   */
+  public ResponseStore(Path directory) throws IOException {
+    this(directory, SEGMENT_SIZE, MAX_BYTES);
+  }
+
+  /**
+   * Opens the store in the directory, rebuilding the index from any existing segments.
+   *
+   * @param directory the directory with the segment files, created if necessary
+   * @param segmentSize the capacity of new segments in bytes
+   * @param maxBytes the size limit for all segments together
+   * @throws IOException if unable to open or scan the segments
+   */
+  public ResponseStore(Path directory, int segmentSize, long maxBytes) throws IOException {
+    if (segmentSize < 1024 || maxBytes < segmentSize) {
+      throw new IllegalArgumentException("Segments must be at least 1 KiB and fit within the limit.");
+    }
+
+    this.directory = Files.createDirectories(directory);
+    this.segmentSize = segmentSize;
+    this.maxBytes = maxBytes;
+    this.segments = new TreeMap<>();
+    this.index = new OffHeapIndex(1024);
+    this.lock = new ReentrantReadWriteLock();
+    this.compacting = false;
+
+    List<Path> files;
+
+    try (Stream<Path> listing = Files.list(this.directory)) {
+      files = listing.filter(path -> {
+        String name = path.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+      }).collect(Collectors.toList());
+    }
+
+    for (Path file : files) {
+      String name = file.getFileName().toString();
+      int id = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+      segments.put(id, new Segment(id, file, 0));
+    }
+
+    for (Segment segment : segments.values()) {
+      scan(segment);
+    }
+
+    this.active = segments.isEmpty() ? create(0, segmentSize) : segments.lastEntry().getValue();
+  }
+
+  /**
+   * Returns the stored response for the URL.
+   *
+   * @param url the url
+   * @return the stored response or {@code null} if there is none
+   */
+  public Response get(URL url) {
+    String key = url.toExternalForm();
+    long hash = hash(key);
+
+    lock.readLock().lock();
+
+    try {
+      int slot = index.find(hash);
+
+      if (slot < 0) {
+        return null;
+      }
+
+      Segment segment = segments.get(index.segment(slot));
+      ByteBuffer record = segment.slice(index.offset(slot), index.length(slot));
+      Response response = new Response(record);
+      return response.url.equals(key) ? response : null;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Stores a response for the URL, replacing any previous one.
+   *
+   * @param url the url
+   * @param headers the response headers
+   * @param body the response content
+   * @throws IOException if unable to create a new segment
+   */
+  public void put(URL url, HttpHeaders headers, byte[] body) throws IOException {
+    byte[] key = url.toExternalForm().getBytes(StandardCharsets.UTF_8);
+    byte[] block = headers.toBytes();
+    long hash = hash(url.toExternalForm());
+
+    lock.writeLock().lock();
+
+    try {
+      append(RECORD, hash, key, block, ByteBuffer.wrap(body));
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes the response for the URL, if any.
+   *
+   * @param url the url
+   * @return {@code true} if a response was removed
+   * @throws IOException if unable to create a new segment
+   */
+  public boolean remove(URL url) throws IOException {
+    long hash = hash(url.toExternalForm());
+
+    lock.writeLock().lock();
+
+    try {
+      if (index.find(hash) < 0) {
+        return false;
+      }
+
+      byte[] key = url.toExternalForm().getBytes(StandardCharsets.UTF_8);
+      append(REMOVED, hash, key, new byte[0], ByteBuffer.allocate(0));
+      return true;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of stored responses.
+   *
+   * @return the number of responses
+   */
+  public int size() {
+    lock.readLock().lock();
+
+    try {
+      return index.size();
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of segment files.
+   *
+   * @return the number of segments
+   */
+  public int segments() {
+    lock.readLock().lock();
+
+    try {
+      return segments.size();
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the total size of the segment files.
+   *
+   * @return the number of bytes on disk
+   */
+  public long bytes() {
+    lock.readLock().lock();
+
+    try {
+      return bytesOnDisk();
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Compacts every segment other than the newest one that is mostly garbage.
+   *
+   * @throws IOException if unable to copy records or delete segments
+   */
+  public void compact() throws IOException {
+    lock.writeLock().lock();
+
+    try {
+      compactSegments();
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Writes any changes in the segments to disk.
+   */
+  public void flush() {
+    lock.writeLock().lock();
+
+    try {
+      for (Segment segment : segments.values()) {
+        segment.map.force();
+      }
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Flushes the segments to disk.
+   */
+  @Override
+  public void close() {
+    flush();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("responses=%d, segments=%d, bytes=%d", size(), segments(), bytes());
+  }
+
+  /**
+   * Returns the 64-bit hash of a URL, which is never 0.
+   *
+   * @param url the url as a string
+   * @return the hash
+   */
+  public static long hash(String url) {
+    long hash = 0xcbf29ce484222325L;
+
+    for (int i = 0; i < url.length(); i++) {
+      hash ^= url.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+
+    // finalizer from MurmurHash3 so nearby urls spread across the table
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+
+    return hash == 0 ? 1 : hash;
+  }
+
+  /**
+   * Appends a record to the active segment and updates the index. Must hold the write lock.
+   *
+   * @param type the record type
+   * @param hash the url hash
+   * @param key the url bytes
+   * @param block the header bytes
+   * @param body the content, which is consumed
+   * @throws IOException if unable to create a new segment
+   */
+  private void append(int type, long hash, byte[] key, byte[] block, ByteBuffer body) throws IOException {
+    int length = FIXED + key.length + block.length + body.remaining();
+    int offset = reserve(length);
+
+    ByteBuffer out = active.map.duplicate();
+    out.position(offset);
+    out.putInt(0).putInt(length).putLong(hash);
+    out.putInt(key.length).put(key);
+    out.putInt(block.length).put(block);
+    out.putInt(body.remaining()).put(body);
+
+    commit(offset, length, type);
+    active.position = offset + length;
+
+    apply(type, hash, active, offset, length);
+  }
+
+  /**
+   * Copies a record unchanged to the active segment without updating the index, which is left to
+   * the caller. Must hold the write lock.
+   *
+   * @param record the whole record, which is consumed
+   * @return the offset of the copy in the active segment
+   * @throws IOException if unable to create a new segment
+   */
+  private int copy(ByteBuffer record) throws IOException {
+    int length = record.remaining();
+    int type = record.getInt();
+    int offset = reserve(length);
+
+    ByteBuffer out = active.map.duplicate();
+    out.position(offset);
+    out.putInt(0).put(record);
+
+    commit(offset, length, type);
+    active.position = offset + length;
+    return offset;
+  }
+
+  /**
+   * Forces a record written to the active segment to disk and only then writes its type, so a
+   * record cut short by a crash is never scanned. Stores to a mapped file may otherwise reach the
+   * disk in any order. Must hold the write lock.
+   *
+   * @param offset the offset of the record
+   * @param length the record length
+   * @param type the record type
+   */
+  private void commit(int offset, int length, int type) {
+    active.map.force(offset, length);
+    active.map.putInt(offset, type);
+  }
+
+  /**
+   * Rolls to a new active segment if the record does not fit in the current one.
+   *
+   * @param length the record length
+   * @return the offset for the record in the active segment
+   * @throws IOException if unable to create a new segment
+   */
+  private int reserve(int length) throws IOException {
+    // compacting after a roll may fill part of the new segment, so check again
+    while (active.capacity - active.position < length) {
+      roll(length);
+    }
+
+    return active.position;
+  }
+
+  /**
+   * Updates the index and live byte counts for a new record.
+   *
+   * @param type the record type
+   * @param hash the url hash
+   * @param segment the segment with the record
+   * @param offset the record offset
+   * @param length the record length
+   */
+  private void apply(int type, long hash, Segment segment, int offset, int length) {
+    int slot = index.find(hash);
+
+    if (slot >= 0) {
+      segments.get(index.segment(slot)).live -= index.length(slot);
+    }
+
+    if (type == RECORD) {
+      index.put(hash, segment.id, offset, length);
+      segment.live += length;
+    }
+    else {
+      segment.removed += length;
+
+      if (slot >= 0) {
+        index.remove(slot);
+      }
+    }
+  }
+
+  /**
+   * Starts a new active segment, then evicts and compacts older segments as needed.
+   *
+   * @param length the length of the record that did not fit
+   * @throws IOException if unable to create, copy, or delete segments
+   */
+  private void roll(int length) throws IOException {
+    active = create(active.id + 1, Math.max(segmentSize, length));
+
+    if (!compacting) {
+      evict();
+      compactSegments();
+    }
+  }
+
+  /**
+   * Evicts the oldest segments while the store is over its size limit.
+   *
+   * @throws IOException if unable to delete a segment
+   */
+  private void evict() throws IOException {
+    while (bytesOnDisk() > maxBytes && segments.size() > 1) {
+      Segment oldest = segments.firstEntry().getValue();
+      forEachRecord(oldest, (type, hash, offset, length) -> {
+        int slot = index.find(hash);
+
+        if (slot >= 0 && index.segment(slot) == oldest.id && index.offset(slot) == offset) {
+          index.remove(slot);
+        }
+      });
+
+      delete(oldest);
+    }
+  }
+
+  /**
+   * Copies the live records of mostly-garbage segments forward and deletes them. Removal records
+   * are copied too unless the segment is the oldest, so that removed responses in even older
+   * segments do not come back when the index is rebuilt, but only while the url has no newer
+   * response that the copy would hide. Removal records count as live data until their segment is
+   * the oldest, so they are not copied forward over and over. Garbage is measured against what
+   * has been written rather than the capacity, so the records just copied into a partly filled
+   * segment are never compacted again straight away.
+   *
+   * @throws IOException if unable to copy records or delete segments
+   */
+  private void compactSegments() throws IOException {
+    compacting = true;
+
+    try {
+      for (Segment segment : new ArrayList<>(segments.values())) {
+        boolean oldest = segment.id == segments.firstKey();
+        long kept = oldest ? segment.live : segment.live + segment.removed;
+
+        if (segment == active || kept >= segment.position * COMPACT_RATIO) {
+          continue;
+        }
+
+        List<int[]> copies = new ArrayList<>();
+
+        forEachRecord(segment, (type, hash, offset, length) -> {
+          int slot = index.find(hash);
+          boolean live = type == RECORD && slot >= 0 &&
+              index.segment(slot) == segment.id && index.offset(slot) == offset;
+
+          if (live || (type == REMOVED && !oldest && slot < 0)) {
+            copies.add(new int[] {offset, length});
+          }
+        });
+
+        // copies only move index entries, so a copied removal can never hide a newer response
+        for (int[] copy : copies) {
+          ByteBuffer record = segment.slice(copy[0], copy[1]);
+          int type = record.getInt(0);
+          long hash = record.getLong(8);
+          int offset = copy(record);
+
+          if (type == RECORD) {
+            index.put(hash, active.id, offset, copy[1]);
+            active.live += copy[1];
+          }
+          else {
+            active.removed += copy[1];
+          }
+        }
+
+        delete(segment);
+      }
+    }
+    finally {
+      compacting = false;
+    }
+  }
+
+  /**
+   * Returns the total capacity of every segment.
+   *
+   * @return the number of bytes on disk
+   */
+  private long bytesOnDisk() {
+    long total = 0;
+
+    for (Segment segment : segments.values()) {
+      total += segment.capacity;
+    }
+
+    return total;
+  }
+
+  /**
+   * Creates and maps a new segment file.
+   *
+   * @param id the segment id
+   * @param capacity the segment capacity in bytes
+   * @return the new segment
+   * @throws IOException if unable to create the file
+   */
+  private Segment create(int id, int capacity) throws IOException {
+    Path file = directory.resolve(String.format("%s%08d%s", PREFIX, id, SUFFIX));
+    Segment segment = new Segment(id, file, capacity);
+    segments.put(id, segment);
+    return segment;
+  }
+
+  /**
+   * Deletes a segment file. The mapping stays valid for any responses still being read.
+   *
+   * @param segment the segment to delete
+   * @throws IOException if unable to delete the file
+   */
+  private void delete(Segment segment) throws IOException {
+    segments.remove(segment.id);
+    Files.deleteIfExists(segment.file);
+  }
+
+  /**
+   * Adds the records of a segment to the index while opening the store.
+   *
+   * @param segment the segment to scan
+   */
+  private void scan(Segment segment) {
+    forEachRecord(segment, (type, hash, offset, length) -> {
+      apply(type, hash, segment, offset, length);
+      segment.position = offset + length;
+    });
+  }
+
+  /**
+   * Calls the visitor for every complete record in a segment, in order.
+   *
+   * @param segment the segment
+   * @param visitor called for each record
+   */
+  private static void forEachRecord(Segment segment, RecordVisitor visitor) {
+    ByteBuffer in = segment.map.duplicate();
+    int offset = 0;
+
+    while (offset + FIXED <= segment.capacity) {
+      in.position(offset);
+      int type = in.getInt();
+      int length = in.getInt();
+
+      if ((type != RECORD && type != REMOVED) || length < FIXED || length > segment.capacity - offset) {
+        break;
+      }
+
+      visitor.visit(type, in.getLong(), offset, length);
+      offset += length;
+    }
+  }
+
+  /**
+   * Called for each record in a segment.
+   */
+  @FunctionalInterface
+  private interface RecordVisitor {
+
+    /**
+     * Visits a record.
+     *
+     * @param type the record type
+     * @param hash the url hash
+     * @param offset the record offset
+     * @param length the record length
+     */
+    void visit(int type, long hash, int offset, int length);
+  }
+
+  /**
+   * A stored response, backed by the mapped segment.
+   */
+  public static class Response {
+
+    /** The url of the response. */
+    private final String url;
+
+    /** The raw header bytes. */
+    private final ByteBuffer block;
+
+    /** The content bytes. */
+    private final ByteBuffer body;
+
+    /**
+     * Reads a response from a record.
+     *
+     * @param record the record, positioned at its start
+     */
+    private Response(ByteBuffer record) {
+      record.position(record.position() + 16);
+
+      byte[] key = new byte[record.getInt()];
+      record.get(key);
+      this.url = new String(key, StandardCharsets.UTF_8);
+
+      int headers = record.getInt();
+      this.block = record.slice().limit(headers);
+      record.position(record.position() + headers);
+
+      int content = record.getInt();
+      this.body = record.slice().limit(content).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the url of the response.
+     *
+     * @return the url
+     */
+    public String getUrl() {
+      return url;
+    }
+
+    /**
+     * Parses and returns the stored headers.
+     *
+     * @return the headers
+     */
+    public HttpHeaders getHeaders() {
+      byte[] bytes = new byte[block.remaining()];
+      block.duplicate().get(bytes);
+      return HttpHeaders.parse(bytes);
+    }
+
+    /**
+     * Returns a read-only view of the content in the mapped segment.
+     *
+     * @return the content
+     */
+    public ByteBuffer getBody() {
+      return body.duplicate();
+    }
+
+    /**
+     * Copies the content onto the heap.
+     *
+     * @return the content bytes
+     */
+    public byte[] getBodyBytes() {
+      byte[] bytes = new byte[body.remaining()];
+      body.duplicate().get(bytes);
+      return bytes;
+    }
+
+    /**
+     * Converts the response into the map format used by {@link HttpsFetcher#fetchURL(URL)}.
+     *
+     * @return a map with the headers and content
+     * @throws IOException if unable to split the content into lines
+     */
+    public Map<String, List<String>> toMap() throws IOException {
+      return PipelinedFetcher.toMap(getHeaders(), getBodyBytes());
+    }
+  }
+
+  /**
+   * One segment file and its mapping.
+   */
+  private static class Segment {
+
+    /** The segment id, which also orders segments from oldest to newest. */
+    private final int id;
+
+    /** The segment file. */
+    private final Path file;
+
+    /** The mapping of the entire file. */
+    private final MappedByteBuffer map;
+
+    /** The size of the file. */
+    private final int capacity;
+
+    /** Where the next record is appended. */
+    private int position;
+
+    /** The number of bytes used by records still in the index. */
+    private long live;
+
+    /** The number of bytes used by removal records. */
+    private long removed;
+
+    /**
+     * Opens and maps a segment file, creating it with the provided capacity if necessary.
+     *
+     * @param id the segment id
+     * @param file the segment file
+     * @param capacity the capacity for a new file, or 0 to use the existing file size
+     * @throws IOException if unable to open or map the file
+     */
+    public Segment(int id, Path file, int capacity) throws IOException {
+      this.id = id;
+      this.file = file;
+
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        long size = capacity > 0 ? capacity : channel.size();
+
+        if (size > Integer.MAX_VALUE) {
+          throw new IOException("Segment is too large to map: " + file);
+        }
+
+        this.capacity = (int) size;
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+
+      this.position = 0;
+      this.live = 0;
+      this.removed = 0;
+    }
+
+    /**
+     * Returns a view of part of the segment.
+     *
+     * @param offset the start of the view
+     * @param length the length of the view
+     * @return the view, positioned at 0
+     */
+    public ByteBuffer slice(int offset, int length) {
+      ByteBuffer view = map.duplicate();
+      view.position(offset).limit(offset + length);
+      return view.slice();
+    }
+  }
+
+  /**
+   * An open-addressing hash table with linear probing kept in a direct buffer, so that millions of
+   * entries do not become millions of heap objects. Each slot holds the url hash (0 when empty),
+   * the segment id, the record offset, and the record length.
+   */
+  private static class OffHeapIndex {
+
+    /** The size of one slot in bytes. */
+    private static final int SLOT = 8 + 4 + 4 + 4;
+
+    /** The slots. */
+    private ByteBuffer table;
+
+    /** The number of slots minus one; the number of slots is a power of two. */
+    private int mask;
+
+    /** The number of used slots. */
+    private int size;
+
+    /**
+     * Initializes an empty index.
+     *
+     * @param slots the initial number of slots, which must be a power of two
+     */
+    public OffHeapIndex(int slots) {
+      this.table = ByteBuffer.allocateDirect(slots * SLOT);
+      this.mask = slots - 1;
+      this.size = 0;
+    }
+
+    /**
+     * Returns the slot with the hash.
+     *
+     * @param hash the url hash
+     * @return the slot or -1 if not found
+     */
+    public int find(long hash) {
+      for (int slot = home(hash); ; slot = (slot + 1) & mask) {
+        long found = table.getLong(slot * SLOT);
+
+        if (found == hash) {
+          return slot;
+        }
+
+        if (found == 0) {
+          return -1;
+        }
+      }
+    }
+
+    /**
+     * Adds or replaces the location for a hash.
+     *
+     * @param hash the url hash
+     * @param segment the segment id
+     * @param offset the record offset
+     * @param length the record length
+     */
+    public void put(long hash, int segment, int offset, int length) {
+      if ((size + 1) * 10L > (mask + 1) * 7L) {
+        resize();
+      }
+
+      int slot = home(hash);
+
+      while (true) {
+        long found = table.getLong(slot * SLOT);
+
+        if (found == 0 || found == hash) {
+          if (found == 0) {
+            size++;
+          }
+
+          table.putLong(slot * SLOT, hash);
+          table.putInt(slot * SLOT + 8, segment);
+          table.putInt(slot * SLOT + 12, offset);
+          table.putInt(slot * SLOT + 16, length);
+          return;
+        }
+
+        slot = (slot + 1) & mask;
+      }
+    }
+
+    /**
+     * Empties a slot, shifting later entries of the same probe sequence back so that lookups
+     * never stop early and no tombstones are needed.
+     *
+     * @param slot the slot to empty
+     */
+    public void remove(int slot) {
+      int hole = slot;
+      int next = slot;
+
+      while (true) {
+        next = (next + 1) & mask;
+        long hash = table.getLong(next * SLOT);
+
+        if (hash == 0) {
+          break;
+        }
+
+        int home = home(hash);
+        boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+
+        if (!stays) {
+          copy(next, hole);
+          hole = next;
+        }
+      }
+
+      table.putLong(hole * SLOT, 0);
+      size--;
+    }
+
+    /**
+     * Returns the segment id in a slot.
+     *
+     * @param slot the slot
+     * @return the segment id
+     */
+    public int segment(int slot) {
+      return table.getInt(slot * SLOT + 8);
+    }
+
+    /**
+     * Returns the record offset in a slot.
+     *
+     * @param slot the slot
+     * @return the record offset
+     */
+    public int offset(int slot) {
+      return table.getInt(slot * SLOT + 12);
+    }
+
+    /**
+     * Returns the record length in a slot.
+     *
+     * @param slot the slot
+     * @return the record length
+     */
+    public int length(int slot) {
+      return table.getInt(slot * SLOT + 16);
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Returns the first slot to probe for a hash.
+     *
+     * @param hash the url hash
+     * @return the home slot
+     */
+    private int home(long hash) {
+      return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Copies one slot over another.
+     *
+     * @param from the source slot
+     * @param to the target slot
+     */
+    private void copy(int from, int to) {
+      for (int i = 0; i < SLOT; i += 4) {
+        table.putInt(to * SLOT + i, table.getInt(from * SLOT + i));
+      }
+    }
+
+    /**
+     * Doubles the number of slots.
+     */
+    private void resize() {
+      ByteBuffer old = table;
+      int slots = (mask + 1) * 2;
+
+      table = ByteBuffer.allocateDirect(slots * SLOT);
+      mask = slots - 1;
+      size = 0;
+
+      for (int slot = 0; slot < old.capacity() / SLOT; slot++) {
+        long hash = old.getLong(slot * SLOT);
+
+        if (hash != 0) {
+          put(hash, old.getInt(slot * SLOT + 8), old.getInt(slot * SLOT + 12), old.getInt(slot * SLOT + 16));
+        }
+      }
+    }
+  }
+}
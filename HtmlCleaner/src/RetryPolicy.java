@@ -0,0 +1,489 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+import javax.net.ssl.SSLException;
+
+/**
+ * Decides when a failed request is tried again, and optionally hedges slow requests. Only GET
+ * requests are made, which are idempotent, so a request may always be repeated safely.
+ *
+ * A request is retried if it fails with an error that may be temporary, such as a timeout or a
+ * reset connection, or if the server answers with a status that asks to try again later (408,
+ * 429, 502, 503, or 504). Unknown hosts and TLS errors are not retried. Retries wait with
+ * exponential backoff and full jitter, so many clients failing at once do not retry in lockstep,
+ * and never wait past the deadline of the fetch.
+ *
+ * Each host has a retry budget, so a host that is down does not get several times the usual
+ * traffic. The budget starts with {@link #BURST} retries and earns a fraction of a retry for every
+ * request, up to that limit.
+ *
+ * With hedging enabled, a request to a host with enough history that has not finished by the 95th
+ * percentile of its recent latencies is sent a second time, and whichever answers first is kept.
+ * The loser is cancelled. Hedged requests are paid for from the same retry budget.
+ *
+ * A policy may be used by any number of threads, and copies of a {@link FetchContext} share the
+ * same policy and its budgets.
+ */
+public class RetryPolicy {
+
+  /** The default maximum number of attempts per request, including the first. */
+  public static final int ATTEMPTS = 3;
+
+  /** The default backoff before the first retry, which doubles for each retry after. */
+  public static final Duration BACKOFF = Duration.ofMillis(100);
+
+  /** The default maximum backoff. */
+  public static final Duration MAX_BACKOFF = Duration.ofSeconds(2);
+
+  /** The default fraction of a retry earned by every request to a host. */
+  public static final double BUDGET = 0.2;
+
+  /** The most retries a host may save up in its budget. */
+  public static final int BURST = 10;
+
+  /** The maximum number of hosts tracked; the least recently used hosts are forgotten first. */
+  public static final int MAX_HOSTS = 10000;
+
+  /** The number of recent latencies kept per host for hedging. */
+  public static final int SAMPLES = 64;
+
+  /** The number of latencies a host needs before its requests are hedged. */
+  public static final int MIN_SAMPLES = 16;
+
+  /** A policy that never retries or hedges. */
+  public static final RetryPolicy NONE = new RetryPolicy(1, BACKOFF, MAX_BACKOFF, 0, false);
+
+  /** The status codes that ask to try again later. */
+  private static final Set<Integer> RETRY_STATUS = Set.of(408, 429, 502, 503, 504);
+
+  /** Runs the attempts of hedged requests. */
+  private static final ExecutorService HEDGES = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "fetch-hedge");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * A single attempt at a request.
+   *
+   * @param <T> the type of result
+   */
+  @FunctionalInterface
+  public interface Attempt<T> {
+
+    /**
+     * Makes the request once.
+     *
+     * @param deadline the deadline for this attempt
+     * @return the result
+     * @throws IOException if the attempt failed
+     */
+    T run(Deadline deadline) throws IOException;
+  }
+
+  /** The maximum number of attempts per request. */
+  private final int attempts;
+
+  /** The backoff before the first retry in nanoseconds. */
+  private final long backoff;
+
+  /** The maximum backoff in nanoseconds. */
+  private final long maxBackoff;
+
+  /** The fraction of a retry earned by every request, in thousandths. */
+  private final long budget;
+
+  /** Whether to hedge slow requests. */
+  private final boolean hedging;
+
+  /** The state of each host, in least recently used order. */
+  private final Map<String, Host> hosts;
+
+  /** The number of retries made. */
+  private final LongAdder retries;
+
+  /** The number of hedged requests sent. */
+  private final LongAdder hedges;
+
+  /** The number of hedged requests that finished first. */
+  private final LongAdder wins;
+
+  /**
+   * Initializes a policy with the default settings and without hedging.
+   */
+  public RetryPolicy() {
+    this(ATTEMPTS, BACKOFF, MAX_BACKOFF, BUDGET, false);
+  }
+
+  /**
+   * Initializes a policy.
+   *
+   * @param attempts the maximum number of attempts per request, including the first
+   * @param backoff the backoff before the first retry, which doubles for each retry after
+   * @param maxBackoff the maximum backoff
+   * @param budget the fraction of a retry earned by every request to a host
+   * @param hedging whether to hedge slow requests
+   */
+  public RetryPolicy(int attempts, Duration backoff, Duration maxBackoff, double budget, boolean hedging) {
+    if (attempts < 1) {
+      throw new IllegalArgumentException("At least one attempt is required.");
+    }
+
+    if (backoff.isNegative() || maxBackoff.isNegative() || budget < 0) {
+      throw new IllegalArgumentException("Backoff and budget may not be negative.");
+    }
+
+    this.attempts = attempts;
+    this.backoff = backoff.toNanos();
+    this.maxBackoff = maxBackoff.toNanos();
+    this.budget = Math.round(budget * 1000);
+    this.hedging = hedging;
+    this.retries = new LongAdder();
+    this.hedges = new LongAdder();
+    this.wins = new LongAdder();
+
+    this.hosts = new LinkedHashMap<>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Host> eldest) {
+        return size() > MAX_HOSTS;
+      }
+    };
+  }
+
+  /**
+   * Makes a request, retrying and hedging according to this policy.
+   *
+   * @param <T> the type of result
+   * @param url the url requested, which identifies the host
+   * @param deadline the overall deadline, which limits every attempt and backoff
+   * @param attempt makes a single attempt
+   * @param status returns the status code of a result
+   * @return the result of the last attempt
+   * @throws IOException if the last attempt failed, or if interrupted
+   */
+  public <T> T execute(URL url, Deadline deadline, Attempt<T> attempt, ToIntFunction<T> status) throws IOException {
+    Host host = host(url);
+    host.deposit(budget);
+
+    for (int tries = 1; ; tries++) {
+      T result = null;
+      IOException failure = null;
+
+      try {
+        result = hedging ? hedged(host, deadline, attempt) : timed(host, deadline, attempt);
+      }
+      catch (IOException e) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw e;
+        }
+
+        failure = e;
+      }
+
+      boolean retry = failure == null ? RETRY_STATUS.contains(status.applyAsInt(result)) : isRetryable(failure);
+
+      if (!retry || tries >= attempts || deadline.isExpired() || !host.withdraw() || !pause(deadline, tries)) {
+        if (failure != null) {
+          throw failure;
+        }
+
+        return result;
+      }
+
+      retries.increment();
+    }
+  }
+
+  /**
+   * Returns whether a failure may be temporary.
+   *
+   * @param failure the failure
+   * @return {@code true} if trying again may succeed
+   */
+  public static boolean isRetryable(IOException failure) {
+    return !(failure instanceof UnknownHostException || failure instanceof SSLException ||
+        failure instanceof MalformedURLException);
+  }
+
+  /**
+   * Returns the maximum number of attempts per request.
+   *
+   * @return the number of attempts, including the first
+   */
+  public int getAttempts() {
+    return attempts;
+  }
+
+  /**
+   * Returns whether slow requests are hedged.
+   *
+   * @return {@code true} if hedging
+   */
+  public boolean isHedging() {
+    return hedging;
+  }
+
+  /**
+   * Returns the number of retries made.
+   *
+   * @return the number of retries
+   */
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  /**
+   * Returns the number of hedged requests sent.
+   *
+   * @return the number of hedged requests
+   */
+  public long getHedges() {
+    return hedges.sum();
+  }
+
+  /**
+   * Returns the number of hedged requests that finished before the request they hedged.
+   *
+   * @return the number of wins
+   */
+  public long getHedgeWins() {
+    return wins.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("attempts=%d, hedging=%b, retries=%d, hedges=%d, wins=%d",
+        attempts, hedging, getRetries(), getHedges(), getHedgeWins());
+  }
+
+  /**
+   * Waits with exponential backoff and full jitter before a retry.
+   *
+   * @param deadline the overall deadline
+   * @param tries the number of attempts made so far
+   * @return {@code true} if there is time left to retry
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  private boolean pause(Deadline deadline, int tries) throws InterruptedIOException {
+    long limit = Math.min(maxBackoff, backoff << Math.min(tries - 1, 30));
+    long delay = limit <= 0 ? 0 : ThreadLocalRandom.current().nextLong(limit + 1);
+
+    try {
+      return deadline.pause(Duration.ofNanos(delay));
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to retry.");
+    }
+  }
+
+  /**
+   * Makes a single attempt, remembering its latency if it completes.
+   *
+   * @param <T> the type of result
+   * @param host the host requested
+   * @param deadline the deadline for the attempt
+   * @param attempt makes the attempt
+   * @return the result
+   * @throws IOException if the attempt failed
+   */
+  private static <T> T timed(Host host, Deadline deadline, Attempt<T> attempt) throws IOException {
+    long start = System.nanoTime();
+    T result = attempt.run(deadline);
+    host.sample(System.nanoTime() - start);
+    return result;
+  }
+
+  /**
+   * Makes an attempt, and a second one if the first is slower than usual for the host. The first
+   * attempt to succeed is kept; if one fails, the other is waited for.
+   *
+   * @param <T> the type of result
+   * @param host the host requested
+   * @param deadline the overall deadline
+   * @param attempt makes each attempt
+   * @return the result
+   * @throws IOException if every attempt failed, or if interrupted
+   */
+  private <T> T hedged(Host host, Deadline deadline, Attempt<T> attempt) throws IOException {
+    long delay = host.percentile(95);
+
+    if (delay < 0) {
+      return timed(host, deadline, attempt);
+    }
+
+    CompletionService<T> done = new ExecutorCompletionService<>(HEDGES);
+    Map<Future<T>, Deadline> running = new IdentityHashMap<>();
+
+    Deadline primary = deadline.fork();
+    running.put(done.submit(() -> timed(host, primary, attempt)), primary);
+
+    try {
+      Future<T> finished = done.poll(delay, TimeUnit.NANOSECONDS);
+      Deadline hedge = null;
+
+      if (finished == null && !deadline.isExpired() && host.withdraw()) {
+        hedges.increment();
+        hedge = deadline.fork();
+        Deadline second = hedge;
+        running.put(done.submit(() -> timed(host, second, attempt)), second);
+      }
+
+      for (int remaining = running.size(); ; remaining--) {
+        if (finished == null) {
+          finished = done.take();
+        }
+
+        try {
+          T result = finished.get();
+
+          if (running.get(finished) == hedge) {
+            wins.increment();
+          }
+
+          return result;
+        }
+        catch (ExecutionException e) {
+          if (remaining == 1) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+          }
+        }
+
+        finished = null;
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a hedged request.");
+    }
+    finally {
+      // cancel whichever attempt is still running, closing its socket
+      for (Map.Entry<Future<T>, Deadline> entry : running.entrySet()) {
+        if (!entry.getKey().isDone()) {
+          entry.getValue().cancel();
+        }
+
+        entry.getValue().release();
+      }
+    }
+  }
+
+  /**
+   * Returns the state of the host of a url.
+   *
+   * @param url the url
+   * @return the state of its host
+   */
+  private Host host(URL url) {
+    String name = url.getHost().toLowerCase(Locale.ROOT);
+
+    synchronized (hosts) {
+      return hosts.computeIfAbsent(name, key -> new Host());
+    }
+  }
+
+  /**
+   * The retry budget and recent latencies of a host.
+   */
+  private static class Host {
+
+    /** The retries available, in thousandths. */
+    private final AtomicLong tokens;
+
+    /** The most recent latencies in nanoseconds, used as a ring. */
+    private final long[] samples;
+
+    /** The total number of latencies sampled. */
+    private long sampled;
+
+    /**
+     * Initializes a host with a full budget and no latencies.
+     */
+    public Host() {
+      this.tokens = new AtomicLong(BURST * 1000L);
+      this.samples = new long[SAMPLES];
+      this.sampled = 0;
+    }
+
+    /**
+     * Earns part of a retry for a request.
+     *
+     * @param amount the fraction of a retry, in thousandths
+     */
+    public void deposit(long amount) {
+      tokens.accumulateAndGet(amount, (current, added) -> Math.min(BURST * 1000L, current + added));
+    }
+
+    /**
+     * Spends one retry from the budget.
+     *
+     * @return {@code true} if a retry was available
+     */
+    public boolean withdraw() {
+      long current = tokens.get();
+
+      while (current >= 1000) {
+        if (tokens.compareAndSet(current, current - 1000)) {
+          return true;
+        }
+
+        current = tokens.get();
+      }
+
+      return false;
+    }
+
+    /**
+     * Remembers the latency of a completed attempt.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public synchronized void sample(long nanos) {
+      samples[(int) (sampled++ % SAMPLES)] = nanos;
+    }
+
+    /**
+     * Returns a percentile of the recent latencies.
+     *
+     * @param percentile the percentile from 0 to 100
+     * @return the latency in nanoseconds, or -1 if there are too few latencies
+     */
+    public long percentile(double percentile) {
+      long[] sorted;
+
+      synchronized (this) {
+        if (sampled < MIN_SAMPLES) {
+          return -1;
+        }
+
+        sorted = Arrays.copyOf(samples, (int) Math.min(sampled, SAMPLES));
+      }
+
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+  }
+}
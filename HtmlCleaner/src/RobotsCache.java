@@ -0,0 +1,435 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches and caches the robots.txt rules of each host, so checking whether a url may be crawled
+ * only goes to the network the first time a host is seen. Once cached, {@link #isAllowed(URL)}
+ * is a map lookup and a match against compiled patterns, without locking.
+ *
+ * Rules are kept for a time-to-live, and rules that have expired keep being used while they are
+ * fetched again in the background. Following RFC 9309, a missing robots.txt file (a 4xx status)
+ * allows everything, and an unreachable one (a 5xx status, 429, or a network error) disallows
+ * everything for the shorter error time-to-live.
+ *
+ * @see RobotsRules
+ */
+public class RobotsCache {
+
+  /** The default time to keep rules. */
+  public static final Duration TTL = Duration.ofHours(24);
+
+  /** The default time to keep rules after failing to reach the robots.txt file. */
+  public static final Duration ERROR_TTL = Duration.ofMinutes(5);
+
+  /** The maximum number of redirects to follow for a robots.txt file. */
+  public static final int REDIRECTS = 5;
+
+  /** The maximum number of bytes of a robots.txt file that are parsed. */
+  public static final int MAX_SIZE = 500 * 1024;
+
+  /** Refreshes expired rules in the background, shared by every cache. */
+  private static final ExecutorService REFRESHER;
+
+  static {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), runnable -> {
+          Thread thread = new Thread(runnable, "robots-refresh");
+          thread.setDaemon(true);
+          return thread;
+        });
+
+    executor.allowCoreThreadTimeOut(true);
+    REFRESHER = executor;
+  }
+
+  /** The cached rules keyed by protocol, host, and port, which may still be in progress. */
+  private final ConcurrentHashMap<String, CompletableFuture<Entry>> cache;
+
+  /** The product token of the crawler. */
+  private final String agent;
+
+  /** The settings used to fetch robots.txt files. */
+  private final FetchContext context;
+
+  /** The time to keep rules in nanoseconds. */
+  private final long ttl;
+
+  /** The time to keep rules after an error in nanoseconds. */
+  private final long errorTtl;
+
+  /** The number of robots.txt files fetched, including refreshes. */
+  private final AtomicInteger fetches;
+
+  /**
+   * Initializes a cache with the default time-to-live values.
+   *
+   * @param agent the product token of the crawler, which is also sent as the user agent
+   * @param context the settings used to fetch robots.txt files
+   */
+  public RobotsCache(String agent, FetchContext context) {
+    this(agent, context, TTL, ERROR_TTL);
+  }
+
+  /**
+   * Initializes a cache.
+   *
+   * @param agent the product token of the crawler, which is also sent as the user agent
+   * @param context the settings used to fetch robots.txt files
+   * @param ttl how long to keep rules
+   * @param errorTtl how long to keep rules after failing to reach the robots.txt file
+   */
+  public RobotsCache(String agent, FetchContext context, Duration ttl, Duration errorTtl) {
+    if (agent.isBlank() || ttl.isNegative() || errorTtl.isNegative()) {
+      throw new IllegalArgumentException("The agent may not be blank and durations may not be negative.");
+    }
+
+    this.cache = new ConcurrentHashMap<>();
+    this.agent = agent;
+    this.context = Objects.requireNonNull(context);
+    this.ttl = ttl.toNanos();
+    this.errorTtl = errorTtl.toNanos();
+    this.fetches = new AtomicInteger();
+  }
+
+  /**
+   * Returns whether the crawler may fetch a url, fetching the robots.txt file of its host first
+   * if it was never fetched.
+   *
+   * @param url the url to check
+   * @return {@code true} if the url may be fetched
+   */
+  public boolean isAllowed(URL url) {
+    return getRules(url).isAllowed(url.getFile());
+  }
+
+  /**
+   * Returns the rules for the host of a url, fetching the robots.txt file if it was never
+   * fetched. Concurrent calls for the same uncached host wait for a single fetch.
+   *
+   * @param url any url on the host
+   * @return the rules for the host
+   */
+  public RobotsRules getRules(URL url) {
+    String key = key(url);
+
+    while (true) {
+      CompletableFuture<Entry> future = cache.get(key);
+
+      if (future == null) {
+        CompletableFuture<Entry> created = new CompletableFuture<>();
+        future = cache.putIfAbsent(key, created);
+
+        if (future == null) {
+          try {
+            created.complete(load(key));
+          }
+          catch (RuntimeException e) {
+            cache.remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+          }
+
+          return created.join().rules;
+        }
+      }
+
+      Entry entry;
+
+      try {
+        entry = future.join();
+      }
+      catch (CompletionException e) {
+        cache.remove(key, future);
+        continue;
+      }
+
+      if (entry.isExpired(System.nanoTime())) {
+        refresh(key, future, entry);
+      }
+
+      return entry.rules;
+    }
+  }
+
+  /**
+   * Returns the crawl delay requested for the host of a url, fetching the robots.txt file first
+   * if it was never fetched.
+   *
+   * @param url any url on the host
+   * @return the requested delay, or {@code null} if none
+   */
+  public Duration getCrawlDelay(URL url) {
+    return getRules(url).getCrawlDelay();
+  }
+
+  /**
+   * Removes the cached rules for the host of a url, so they are fetched again next time.
+   *
+   * @param url any url on the host
+   */
+  public void invalidate(URL url) {
+    cache.remove(key(url));
+  }
+
+  /**
+   * Returns the number of hosts with cached rules.
+   *
+   * @return the number of hosts
+   */
+  public int size() {
+    return cache.size();
+  }
+
+  /**
+   * Returns the number of robots.txt files fetched, including refreshes.
+   *
+   * @return the number of fetches
+   */
+  public int getFetches() {
+    return fetches.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("hosts=%d, fetches=%d", size(), getFetches());
+  }
+
+  /**
+   * Fetches the robots.txt file of the host again in the background, continuing to use the old
+   * rules until done. Only one refresh per entry is started. If the robots.txt file cannot be
+   * reached, rules that were fetched successfully are kept for the error time-to-live instead.
+   *
+   * @param key the protocol, host, and port
+   * @param current the cached future for the host
+   * @param entry the current entry
+   */
+  private void refresh(String key, CompletableFuture<Entry> current, Entry entry) {
+    if (!entry.refreshing.compareAndSet(false, true)) {
+      return;
+    }
+
+    REFRESHER.execute(() -> {
+      Entry fresh;
+
+      try {
+        fresh = load(key);
+      }
+      catch (RuntimeException e) {
+        // lets a later lookup try again instead of keeping the stale rules for good
+        entry.refreshing.set(false);
+        throw e;
+      }
+
+      if (fresh.error && !entry.error) {
+        fresh = new Entry(entry.rules, System.nanoTime() + errorTtl, false);
+      }
+
+      cache.replace(key, current, CompletableFuture.completedFuture(fresh));
+    });
+  }
+
+  /**
+   * Fetches and parses the robots.txt file of a host.
+   *
+   * @param key the protocol, host, and port
+   * @return the new cache entry
+   */
+  private Entry load(String key) {
+    fetches.incrementAndGet();
+    long now = System.nanoTime();
+    Deadline deadline = context.start();
+
+    try {
+      URL url = new URL(key + "/robots.txt");
+
+      for (int redirects = 0; redirects <= REDIRECTS; redirects++) {
+        Response response = fetch(url, deadline);
+        int code = response.headers.getStatusCode();
+
+        if (code >= 200 && code < 300) {
+          String text = new String(response.body, StandardCharsets.UTF_8);
+          return new Entry(RobotsRules.parse(text, agent), now + ttl, false);
+        }
+
+        if (response.headers.isRedirect() && response.headers.getLocation() != null) {
+          url = new URL(url, response.headers.getLocation());
+          continue;
+        }
+
+        if (code >= 400 && code < 500 && code != 429) {
+          return new Entry(RobotsRules.ALLOW_ALL, now + ttl, false);
+        }
+
+        break;
+      }
+    }
+    catch (IOException e) {
+      // treated the same as a server error below
+    }
+
+    return new Entry(RobotsRules.DISALLOW_ALL, now + errorTtl, true);
+  }
+
+  /**
+   * Fetches a single url without following redirects.
+   *
+   * @param url the url to fetch
+   * @param deadline the overall deadline for every redirect
+   * @return the headers and body
+   * @throws IOException if unable to fetch the response
+   */
+  private Response fetch(URL url, Deadline deadline) throws IOException {
+    try (
+        Socket socket = HttpsFetcher.openConnection(url, context, deadline);
+        PrintWriter request = new PrintWriter(socket.getOutputStream());
+        InputStream input = new BufferedInputStream(socket.getInputStream());
+    ) {
+      HttpsFetcher.printGetRequest(request, url, true, Map.of("User-Agent", agent));
+      HttpHeaders headers = HttpHeaders.read(input);
+
+      while (headers != null && headers.getStatusCode() >= 100 && headers.getStatusCode() < 200) {
+        headers = HttpHeaders.read(input);
+      }
+
+      if (headers == null) {
+        throw new IOException("Connection closed before a response.");
+      }
+
+      return new Response(headers, readBody(headers, input));
+    }
+    finally {
+      deadline.release();
+    }
+  }
+
+  /**
+   * Reads at most {@link #MAX_SIZE} bytes of a response body, leaving the rest unread so it is
+   * dropped with the connection.
+   *
+   * @param headers the response headers
+   * @param input the response after the headers
+   * @return the start of the body
+   * @throws IOException if unable to read the body or it ends before its length
+   */
+  private static byte[] readBody(HttpHeaders headers, InputStream input) throws IOException {
+    if (headers.isEmpty()) {
+      return new byte[0];
+    }
+
+    if (headers.isChunked()) {
+      return new ChunkedInputStream(input).readNBytes(MAX_SIZE);
+    }
+
+    long length = headers.getContentLength();
+    int limit = length >= 0 && length < MAX_SIZE ? (int) length : MAX_SIZE;
+    byte[] body = input.readNBytes(limit);
+
+    if (length >= 0 && body.length < limit) {
+      throw new EOFException("Connection closed while reading content.");
+    }
+
+    return body;
+  }
+
+  /**
+   * Returns the cache key for the host of a url, including the protocol and port.
+   *
+   * @param url the url
+   * @return the protocol, host, and port
+   * @throws IllegalArgumentException if the url is not http or https
+   */
+  private static String key(URL url) {
+    String protocol = url.getProtocol().toLowerCase(Locale.ROOT);
+
+    if (!protocol.equals("http") && !protocol.equals("https")) {
+      throw new IllegalArgumentException("Only http and https urls have robots.txt files: " + url);
+    }
+
+    int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+    return protocol + "://" + url.getHost().toLowerCase(Locale.ROOT) + ":" + port;
+  }
+
+  /**
+   * A fetched response.
+   */
+  private static class Response {
+
+    /** The response headers. */
+    private final HttpHeaders headers;
+
+    /** The response body. */
+    private final byte[] body;
+
+    /**
+     * Initializes a response.
+     *
+     * @param headers the response headers
+     * @param body the response body
+     */
+    public Response(HttpHeaders headers, byte[] body) {
+      this.headers = headers;
+      this.body = body;
+    }
+  }
+
+  /**
+   * The rules of one host.
+   */
+  private static class Entry {
+
+    /** The rules for the host. */
+    private final RobotsRules rules;
+
+    /** When the entry expires in nanoseconds. */
+    private final long expires;
+
+    /** Whether the robots.txt file could not be reached. */
+    private final boolean error;
+
+    /** Whether a refresh has been started. */
+    private final AtomicBoolean refreshing;
+
+    /**
+     * Initializes a new entry.
+     *
+     * @param rules the rules for the host
+     * @param expires when the entry expires in nanoseconds
+     * @param error whether the robots.txt file could not be reached
+     */
+    public Entry(RobotsRules rules, long expires, boolean error) {
+      this.rules = rules;
+      this.expires = expires;
+      this.error = error;
+      this.refreshing = new AtomicBoolean();
+    }
+
+    /**
+     * Returns whether the entry has expired.
+     *
+     * @param now the current time in nanoseconds
+     * @return {@code true} if the entry should be fetched again
+     */
+    public boolean isExpired(long now) {
+      return now - expires >= 0;
+    }
+  }
+}
@@ -0,0 +1,373 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The rules from a robots.txt file that apply to one crawler, compiled for fast matching. Rules
+ * are immutable once parsed, so any number of threads may check paths without locking.
+ *
+ * Parsing follows RFC 9309. The groups naming the crawler are used if there are any, otherwise
+ * the groups for "*". Patterns may use {@code *} to match any characters and may end with
+ * {@code $} to match the end of the path. The longest matching pattern decides, and allow wins
+ * when an allow and a disallow pattern of the same length both match.
+ *
+ * @see RobotsCache
+ */
+public class RobotsRules {
+
+  /** Rules that allow every path, used when there is no robots.txt file. */
+  public static final RobotsRules ALLOW_ALL = new RobotsRules(new Rule[0], null);
+
+  /** Rules that disallow every path, used when the robots.txt file is unreachable. */
+  public static final RobotsRules DISALLOW_ALL = new RobotsRules(
+      new Rule[] { new Rule("/", false) }, null);
+
+  /** The rules from longest to shortest pattern, so the first match decides. */
+  private final Rule[] rules;
+
+  /** The requested delay between fetches, or {@code null} if none. */
+  private final Duration crawlDelay;
+
+  /**
+   * Initializes the rules.
+   *
+   * @param rules the rules from longest to shortest pattern
+   * @param crawlDelay the requested delay between fetches, or {@code null} if none
+   */
+  private RobotsRules(Rule[] rules, Duration crawlDelay) {
+    this.rules = rules;
+    this.crawlDelay = crawlDelay;
+  }
+
+  /**
+   * Parses the rules of a robots.txt file that apply to a crawler.
+   *
+   * @param text the contents of the robots.txt file
+   * @param agent the product token of the crawler, such as "HtmlCleaner"
+   * @return the compiled rules
+   */
+  public static RobotsRules parse(String text, String agent) {
+    String token = agent.toLowerCase(Locale.ROOT);
+    List<Rule> named = new ArrayList<>();
+    List<Rule> any = new ArrayList<>();
+    Duration namedDelay = null;
+    Duration anyDelay = null;
+    boolean foundNamed = false;
+
+    // whether the current group applies to the crawler by name or through "*"
+    boolean isNamed = false;
+    boolean isAny = false;
+    boolean inAgents = false;
+
+    try (BufferedReader reader = new BufferedReader(new StringReader(text))) {
+      String line;
+
+      while ((line = reader.readLine()) != null) {
+        int comment = line.indexOf('#');
+        line = comment < 0 ? line : line.substring(0, comment);
+
+        int colon = line.indexOf(':');
+
+        if (colon < 0) {
+          continue;
+        }
+
+        String key = line.substring(0, colon).strip().toLowerCase(Locale.ROOT);
+        String value = line.substring(colon + 1).strip();
+
+        if (key.equals("user-agent")) {
+          if (!inAgents) {
+            isNamed = false;
+            isAny = false;
+            inAgents = true;
+          }
+
+          String name = value.toLowerCase(Locale.ROOT);
+          int version = name.indexOf('/');
+          name = version < 0 ? name : name.substring(0, version).strip();
+
+          if (name.equals("*")) {
+            isAny = true;
+          }
+          else if (!name.isEmpty() && name.equals(token)) {
+            isNamed = true;
+            foundNamed = true;
+          }
+
+          continue;
+        }
+
+        inAgents = false;
+
+        switch (key) {
+          case "allow":
+          case "disallow":
+            if (!value.isEmpty()) {
+              Rule rule = new Rule(value, key.equals("allow"));
+
+              if (isNamed) {
+                named.add(rule);
+              }
+
+              if (isAny) {
+                any.add(rule);
+              }
+            }
+            break;
+
+          case "crawl-delay":
+            Duration delay = parseDelay(value);
+
+            if (delay != null && isNamed) {
+              namedDelay = delay;
+            }
+
+            if (delay != null && isAny) {
+              anyDelay = delay;
+            }
+            break;
+
+          default:
+            break;
+        }
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    List<Rule> chosen = foundNamed ? named : any;
+    Rule[] sorted = chosen.toArray(new Rule[0]);
+    Arrays.sort(sorted);
+    return new RobotsRules(sorted, foundNamed ? namedDelay : anyDelay);
+  }
+
+  /**
+   * Returns whether a path may be fetched. The robots.txt file itself is always allowed.
+   *
+   * @param path the path and query of the url, such as from {@link java.net.URL#getFile()}
+   * @return {@code true} if the path may be fetched
+   */
+  public boolean isAllowed(String path) {
+    if (rules.length == 0) {
+      return true;
+    }
+
+    String normalized = normalize(path.isEmpty() ? "/" : path);
+
+    if (normalized.equals("/robots.txt")) {
+      return true;
+    }
+
+    for (Rule rule : rules) {
+      if (rule.matches(normalized)) {
+        return rule.allow;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the delay between fetches requested by the "Crawl-delay" line, which is not part of
+   * the standard but is still widely used.
+   *
+   * @return the requested delay, or {@code null} if none
+   */
+  public Duration getCrawlDelay() {
+    return crawlDelay;
+  }
+
+  /**
+   * Returns the number of allow and disallow rules that apply.
+   *
+   * @return the number of rules
+   */
+  public int size() {
+    return rules.length;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("rules=%d, delay=%s", rules.length, crawlDelay);
+  }
+
+  /**
+   * Parses a crawl delay in seconds, which may have a fraction.
+   *
+   * @param value the value of the line
+   * @return the delay, or {@code null} if not a valid non-negative number
+   */
+  private static Duration parseDelay(String value) {
+    try {
+      double seconds = Double.parseDouble(value);
+
+      if (seconds >= 0 && seconds <= Integer.MAX_VALUE) {
+        return Duration.ofMillis(Math.round(seconds * 1000));
+      }
+    }
+    catch (NumberFormatException e) {
+      return null;
+    }
+
+    return null;
+  }
+
+  /**
+   * Normalizes the percent-encoding of a path or pattern, so that both compare the same way.
+   * Characters outside of printable ASCII are encoded as UTF-8, and existing escapes use uppercase
+   * hexadecimal digits. Paths that need no changes are returned as-is.
+   *
+   * @param path the path or pattern
+   * @return the normalized text
+   */
+  private static String normalize(String path) {
+    int i = 0;
+
+    while (i < path.length()) {
+      char c = path.charAt(i);
+
+      if (c <= ' ' || c >= 0x7F || (c == '%' && i + 2 < path.length() &&
+          (Character.isLowerCase(path.charAt(i + 1)) || Character.isLowerCase(path.charAt(i + 2))))) {
+        break;
+      }
+
+      i++;
+    }
+
+    if (i == path.length()) {
+      return path;
+    }
+
+    StringBuilder builder = new StringBuilder(path.length() + 16);
+    builder.append(path, 0, i);
+
+    for (byte b : path.substring(i).getBytes(StandardCharsets.UTF_8)) {
+      int c = b & 0xFF;
+
+      if (c <= ' ' || c >= 0x7F) {
+        builder.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+            .append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+      }
+      else {
+        builder.append((char) c);
+      }
+    }
+
+    // uppercase the hexadecimal digits of existing escapes
+    for (int j = i; j < builder.length() - 2; j++) {
+      if (builder.charAt(j) == '%' && Character.digit(builder.charAt(j + 1), 16) >= 0 &&
+          Character.digit(builder.charAt(j + 2), 16) >= 0) {
+        builder.setCharAt(j + 1, Character.toUpperCase(builder.charAt(j + 1)));
+        builder.setCharAt(j + 2, Character.toUpperCase(builder.charAt(j + 2)));
+        j += 2;
+      }
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * An allow or disallow pattern compiled into the literal parts between wildcards.
+   */
+  private static class Rule implements Comparable<Rule> {
+
+    /** The literal parts between wildcards, where the first part must start the path. */
+    private final String[] parts;
+
+    /** Whether the pattern ends with "$", so the last part must end the path. */
+    private final boolean anchored;
+
+    /** Whether the pattern is a plain prefix without wildcards. */
+    private final boolean prefix;
+
+    /** Whether matching paths are allowed. */
+    private final boolean allow;
+
+    /** The length of the pattern, where longer patterns take precedence. */
+    private final int length;
+
+    /**
+     * Compiles a pattern.
+     *
+     * @param pattern the pattern from the robots.txt file
+     * @param allow whether matching paths are allowed
+     */
+    public Rule(String pattern, boolean allow) {
+      String normalized = normalize(pattern);
+      this.length = normalized.length();
+      this.anchored = normalized.endsWith("$");
+      this.allow = allow;
+
+      if (anchored) {
+        normalized = normalized.substring(0, normalized.length() - 1);
+      }
+
+      // consecutive wildcards are the same as one, so drop the empty parts between them
+      String[] split = normalized.split("\\*", -1);
+      List<String> kept = new ArrayList<>(split.length);
+
+      for (int i = 0; i < split.length; i++) {
+        if (i == 0 || i == split.length - 1 || !split[i].isEmpty()) {
+          kept.add(split[i]);
+        }
+      }
+
+      this.parts = kept.toArray(new String[0]);
+      this.prefix = parts.length == 1 && !anchored;
+    }
+
+    /**
+     * Returns whether a normalized path matches the pattern. Wildcards are matched greedily
+     * from the left, which is enough when "*" is the only wildcard.
+     *
+     * @param path the normalized path
+     * @return {@code true} if the pattern matches
+     */
+    public boolean matches(String path) {
+      if (prefix) {
+        return path.startsWith(parts[0]);
+      }
+
+      if (!path.startsWith(parts[0])) {
+        return false;
+      }
+
+      if (parts.length == 1) {
+        return path.length() == parts[0].length();
+      }
+
+      int position = parts[0].length();
+      int last = parts.length - 1;
+
+      for (int i = 1; i < last; i++) {
+        int found = path.indexOf(parts[i], position);
+
+        if (found < 0) {
+          return false;
+        }
+
+        position = found + parts[i].length();
+      }
+
+      if (anchored) {
+        return path.length() - parts[last].length() >= position && path.endsWith(parts[last]);
+      }
+
+      return path.indexOf(parts[last], position) >= 0;
+    }
+
+    @Override
+    public int compareTo(Rule other) {
+      int compare = Integer.compare(other.length, length);
+      return compare != 0 ? compare : Boolean.compare(other.allow, allow);
+    }
+  }
+}
@@ -0,0 +1,244 @@
+import java.io.IOException;
+
+/**
+ * Computes a 64-bit SimHash fingerprint of text as it is appended, so the fingerprint of a page
+ * can be computed while {@link StreamingHtmlCleaner} produces its text instead of in another pass.
+ * Pages that differ in only a few places, such as the same article with different ads, have
+ * fingerprints that differ in only a few bits.
+ *
+ * Text is split into lowercase words of letters and digits, and every run of {@link #SHINGLE}
+ * consecutive words is hashed. Each bit of the fingerprint is set if more of those hashes have
+ * that bit set than not. Words are hashed character by character, so no strings are created.
+ *
+ * Appended text may also be forwarded to another sink, so a cleaner can write to both at once.
+ *
+ * @see SimHashIndex
+ */
+public class SimHash implements Appendable {
+
+  /** The number of consecutive words hashed together. */
+  public static final int SHINGLE = 3;
+
+  /** Where to forward appended text, or {@code null} if not forwarded. */
+  private final Appendable sink;
+
+  /** How many more shingles set each bit than leave it clear. */
+  private final int[] counts;
+
+  /** The hashes of the most recent words, as a ring buffer. */
+  private final long[] words;
+
+  /** The total number of words seen. */
+  private long total;
+
+  /** The hash of the word being read. */
+  private long word;
+
+  /** Whether a word is being read. */
+  private boolean inWord;
+
+  /**
+   * Initializes an empty fingerprint that does not forward text.
+   */
+  public SimHash() {
+    this(null);
+  }
+
+  /**
+   * Initializes an empty fingerprint that forwards appended text to a sink.
+   *
+   * @param sink where to forward appended text, or {@code null} if not forwarded
+   */
+  public SimHash(Appendable sink) {
+    this.sink = sink;
+    this.counts = new int[Long.SIZE];
+    this.words = new long[SHINGLE];
+    this.total = 0;
+    this.word = 0;
+    this.inWord = false;
+  }
+
+  /**
+   * Returns the fingerprint of some text.
+   *
+   * @param text the text
+   * @return the fingerprint
+   */
+  public static long of(CharSequence text) {
+    SimHash hash = new SimHash();
+
+    for (int i = 0; i < text.length(); i++) {
+      hash.accept(text.charAt(i));
+    }
+
+    return hash.fingerprint();
+  }
+
+  /**
+   * Returns the number of bits that differ between two fingerprints.
+   *
+   * @param first the first fingerprint
+   * @param second the second fingerprint
+   * @return the Hamming distance from 0 to 64
+   */
+  public static int distance(long first, long second) {
+    return Long.bitCount(first ^ second);
+  }
+
+  @Override
+  public SimHash append(char c) throws IOException {
+    accept(c);
+
+    if (sink != null) {
+      sink.append(c);
+    }
+
+    return this;
+  }
+
+  @Override
+  public SimHash append(CharSequence text) throws IOException {
+    return append(text, 0, text.length());
+  }
+
+  @Override
+  public SimHash append(CharSequence text, int start, int end) throws IOException {
+    for (int i = start; i < end; i++) {
+      accept(text.charAt(i));
+    }
+
+    if (sink != null) {
+      sink.append(text, start, end);
+    }
+
+    return this;
+  }
+
+  /**
+   * Returns the fingerprint of the text appended so far. More text may be appended afterwards.
+   * Text with fewer words than a shingle is hashed as a single shorter shingle, and text without
+   * any words has a fingerprint of 0.
+   *
+   * @return the fingerprint
+   */
+  public long fingerprint() {
+    long seen = total + (inWord ? 1 : 0);
+
+    if (seen == 0) {
+      return 0;
+    }
+
+    int[] result = counts;
+
+    if (seen < SHINGLE) {
+      result = counts.clone();
+      long shingle = shingle(seen, inWord ? finish(word) : 0);
+      add(result, shingle);
+    }
+    else if (inWord) {
+      result = counts.clone();
+      add(result, shingle(SHINGLE, finish(word)));
+    }
+
+    long fingerprint = 0;
+
+    for (int bit = 0; bit < Long.SIZE; bit++) {
+      if (result[bit] > 0) {
+        fingerprint |= 1L << bit;
+      }
+    }
+
+    return fingerprint;
+  }
+
+  /**
+   * Returns the number of words seen so far.
+   *
+   * @return the number of words
+   */
+  public long words() {
+    return total + (inWord ? 1 : 0);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%016x", fingerprint());
+  }
+
+  /**
+   * Updates the current word with a character, ending the word on any other character.
+   *
+   * @param c the character
+   */
+  private void accept(char c) {
+    if (Character.isLetterOrDigit(c)) {
+      if (!inWord) {
+        inWord = true;
+        word = 0xcbf29ce484222325L;
+      }
+
+      word ^= Character.toLowerCase(c);
+      word *= 0x100000001b3L;
+    }
+    else if (inWord) {
+      inWord = false;
+      words[(int) (total % SHINGLE)] = finish(word);
+      total++;
+
+      if (total >= SHINGLE) {
+        add(counts, shingle(SHINGLE, 0));
+      }
+    }
+  }
+
+  /**
+   * Combines the most recent completed words, and optionally one unfinished word, into a shingle
+   * hash. Each word is rotated by its position so that word order matters.
+   *
+   * @param count the number of words to combine, including the unfinished word
+   * @param unfinished the hash of the unfinished word, or 0 if the shingle only has completed words
+   * @return the shingle hash
+   */
+  private long shingle(long count, long unfinished) {
+    long hash = 0;
+    int position = 0;
+    long completed = unfinished == 0 ? count : count - 1;
+
+    for (long i = total - completed; i < total; i++) {
+      hash ^= Long.rotateLeft(words[(int) (i % SHINGLE)], 21 * position++);
+    }
+
+    if (unfinished != 0) {
+      hash ^= Long.rotateLeft(unfinished, 21 * position);
+    }
+
+    return finish(hash);
+  }
+
+  /**
+   * Mixes the bits of a hash, using the finalizer from MurmurHash3.
+   *
+   * @param hash the hash
+   * @return the mixed hash, which is never 0
+   */
+  private static long finish(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash == 0 ? 1 : hash;
+  }
+
+  /**
+   * Adds a shingle hash to the bit counts.
+   *
+   * @param counts the bit counts
+   * @param hash the shingle hash
+   */
+  private static void add(int[] counts, long hash) {
+    for (int bit = 0; bit < Long.SIZE; bit++) {
+      counts[bit] += ((hash >>> bit) & 1) == 0 ? -1 : 1;
+    }
+  }
+}
@@ -0,0 +1,223 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds documents whose {@link SimHash} fingerprints are within a small Hamming distance of each
+ * other without comparing against every document. Each fingerprint is split into one more band
+ * than the maximum distance, so two fingerprints within that distance must agree on at least one
+ * whole band. Only documents sharing a band with the query are compared.
+ *
+ * The index may be used by any number of threads. Buckets are small immutable lists replaced on
+ * every change, so lookups never lock.
+ *
+ * @param <T> the type used to identify documents, such as a {@link java.net.URL}
+ */
+public class SimHashIndex<T> {
+
+  /** The default maximum Hamming distance for near-duplicates. */
+  public static final int DISTANCE = 3;
+
+  /** The documents sharing each band value, keyed by band number and value. */
+  private final ConcurrentHashMap<Long, List<Entry<T>>> buckets;
+
+  /** The maximum Hamming distance for near-duplicates. */
+  private final int distance;
+
+  /** The first bit of each band, followed by 64. */
+  private final int[] starts;
+
+  /** The number of documents added. */
+  private final AtomicInteger size;
+
+  /**
+   * Initializes an empty index with the default distance.
+   */
+  public SimHashIndex() {
+    this(DISTANCE);
+  }
+
+  /**
+   * Initializes an empty index. Larger distances mean narrower bands, so more documents share a
+   * band and lookups compare more fingerprints.
+   *
+   * @param distance the maximum Hamming distance for near-duplicates, from 0 to 15
+   */
+  public SimHashIndex(int distance) {
+    if (distance < 0 || distance > 15) {
+      throw new IllegalArgumentException("Distance must be between 0 and 15.");
+    }
+
+    int bands = distance + 1;
+    this.buckets = new ConcurrentHashMap<>();
+    this.distance = distance;
+    this.starts = new int[bands + 1];
+    this.size = new AtomicInteger();
+
+    for (int band = 0; band <= bands; band++) {
+      starts[band] = band * Long.SIZE / bands;
+    }
+  }
+
+  /**
+   * Adds a document to the index.
+   *
+   * @param fingerprint the fingerprint of the document
+   * @param id identifies the document
+   */
+  public void add(long fingerprint, T id) {
+    Entry<T> entry = new Entry<>(fingerprint, id);
+
+    for (int band = 0; band < starts.length - 1; band++) {
+      buckets.compute(key(fingerprint, band), (key, bucket) -> {
+        List<Entry<T>> updated = new ArrayList<>(bucket == null ? 1 : bucket.size() + 1);
+
+        if (bucket != null) {
+          updated.addAll(bucket);
+        }
+
+        updated.add(entry);
+        return Collections.unmodifiableList(updated);
+      });
+    }
+
+    size.incrementAndGet();
+  }
+
+  /**
+   * Returns a document within the maximum distance of a fingerprint, if any.
+   *
+   * @param fingerprint the fingerprint to look for
+   * @return the closest document found, or {@code null} if none are close enough
+   */
+  public T find(long fingerprint) {
+    T closest = null;
+    int best = distance + 1;
+
+    for (int band = 0; band < starts.length - 1; band++) {
+      List<Entry<T>> bucket = buckets.get(key(fingerprint, band));
+
+      if (bucket == null) {
+        continue;
+      }
+
+      for (Entry<T> entry : bucket) {
+        int found = SimHash.distance(fingerprint, entry.fingerprint);
+
+        if (found < best) {
+          best = found;
+          closest = entry.id;
+
+          if (found == 0) {
+            return closest;
+          }
+        }
+      }
+    }
+
+    return closest;
+  }
+
+  /**
+   * Returns every document within the maximum distance of a fingerprint.
+   *
+   * @param fingerprint the fingerprint to look for
+   * @return the documents found, in no particular order
+   */
+  public List<T> findAll(long fingerprint) {
+    Set<Entry<T>> seen = new HashSet<>();
+    List<T> found = new ArrayList<>();
+
+    for (int band = 0; band < starts.length - 1; band++) {
+      List<Entry<T>> bucket = buckets.get(key(fingerprint, band));
+
+      if (bucket == null) {
+        continue;
+      }
+
+      for (Entry<T> entry : bucket) {
+        if (SimHash.distance(fingerprint, entry.fingerprint) <= distance && seen.add(entry)) {
+          found.add(entry.id);
+        }
+      }
+    }
+
+    return found;
+  }
+
+  /**
+   * Returns a near-duplicate of a document if one was already added, and otherwise adds the
+   * document. Two near-duplicates added at the same moment by different threads may both be added.
+   *
+   * @param fingerprint the fingerprint of the document
+   * @param id identifies the document
+   * @return the near-duplicate found, or {@code null} if the document was added
+   */
+  public T addIfAbsent(long fingerprint, T id) {
+    T found = find(fingerprint);
+
+    if (found == null) {
+      add(fingerprint, id);
+    }
+
+    return found;
+  }
+
+  /**
+   * Returns the number of documents added.
+   *
+   * @return the number of documents
+   */
+  public int size() {
+    return size.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("documents=%d, buckets=%d, distance=%d", size(), buckets.size(), distance);
+  }
+
+  /**
+   * Returns the bucket key for one band of a fingerprint.
+   *
+   * @param fingerprint the fingerprint
+   * @param band the band number
+   * @return the band number and the bits of that band
+   */
+  private Long key(long fingerprint, int band) {
+    int width = starts[band + 1] - starts[band];
+    long bits = width == Long.SIZE ? fingerprint : (fingerprint >>> starts[band]) & ((1L << width) - 1);
+
+    // with two or more bands each is at most 32 bits wide, leaving room for the band number
+    return width == Long.SIZE ? bits : (bits << 4) | band;
+  }
+
+  /**
+   * A document in the index.
+   *
+   * @param <T> the type used to identify documents
+   */
+  private static class Entry<T> {
+
+    /** The fingerprint of the document. */
+    private final long fingerprint;
+
+    /** Identifies the document. */
+    private final T id;
+
+    /**
+     * Initializes an entry.
+     *
+     * @param fingerprint the fingerprint of the document
+     * @param id identifies the document
+     */
+    public Entry(long fingerprint, T id) {
+      this.fingerprint = fingerprint;
+      this.id = id;
+    }
+  }
+}
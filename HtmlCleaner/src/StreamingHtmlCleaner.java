@@ -0,0 +1,648 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Pattern;
+
+/**
+ * Cleans HTML into plain text as it arrives, producing exactly the same output as
+ * {@link HtmlCleaner#stripHtml(String)} without ever holding the entire page in memory. Each of
+ * the passes performed by {@link HtmlCleaner} is a stage here, and every stage forwards its output
+ * character by character to the next stage.
+ *
+ * A stage only holds on to text while it could still be part of something being removed, such as
+ * an unfinished tag, comment, or block element. That text is released as soon as the match
+ * succeeds or fails, so memory use is bounded by the largest of those constructs rather than by
+ * the size of the page. A construct still unfinished after {@link #MAX_PENDING} characters is
+ * treated as never finished, and its text is released unchanged just as
+ * {@link HtmlCleaner#stripHtml(String)} leaves an unclosed comment, tag, or element in place.
+ * Only a construct that does finish after that many characters is cleaned differently.
+ *
+ * @see HtmlCleaner#stripHtml(String)
+ */
+public class StreamingHtmlCleaner implements Appendable {
+
+  /** The default number of characters to read at a time. */
+  public static final int DEFAULT_BUFFER = 8192;
+
+  /** The most characters a stage holds back before giving up on the construct being matched. */
+  public static final int MAX_PENDING = 1024 * 1024;
+
+  /** The block elements removed by {@link HtmlCleaner#stripBlockElements(String)}, in order. */
+  private static final String[] ELEMENTS = {"head", "style", "script", "noscript", "svg"};
+
+  /** Matches a word boundary after a letter, to decide how non-ASCII characters count. */
+  private static final Pattern WORD_BOUNDARY = Pattern.compile("a\\b");
+
+  /** The first stage, which receives all of the input. */
+  private final Stage first;
+
+  /** Whether {@link #finish()} has been called. */
+  private boolean finished;
+
+  /**
+   * Initializes a cleaner that appends the cleaned text to the sink.
+   *
+   * @param sink where to append the cleaned text
+   */
+  public StreamingHtmlCleaner(Appendable sink) {
+    this(sink, false);
+  }
+
+  /**
+   * Initializes a cleaner that appends the cleaned text to the sink. If requested, line
+   * terminators in the input are first normalized the same way joining the lines from
+   * {@link java.io.BufferedReader#lines()} with a newline would, which is how
+   * {@link HtmlFetcher#fetch(java.net.URL, int)} produces its html.
+   *
+   * @param sink where to append the cleaned text
+   * @param lines whether to normalize line terminators before cleaning
+   */
+  public StreamingHtmlCleaner(Appendable sink, boolean lines) {
+    Stage stage = new EntityStage(sink);
+    stage = new TagStage(stage);
+
+    for (int i = ELEMENTS.length - 1; i >= 0; i--) {
+      stage = new ElementStage(stage, ELEMENTS[i]);
+    }
+
+    stage = new CommentStage(stage);
+
+    this.first = lines ? new LineStage(stage) : stage;
+    this.finished = false;
+  }
+
+  @Override
+  public StreamingHtmlCleaner append(char c) throws IOException {
+    if (finished) {
+      throw new IllegalStateException("Cleaner has already finished.");
+    }
+
+    first.accept(c);
+    return this;
+  }
+
+  @Override
+  public StreamingHtmlCleaner append(CharSequence text) throws IOException {
+    return append(text, 0, text.length());
+  }
+
+  @Override
+  public StreamingHtmlCleaner append(CharSequence text, int start, int end) throws IOException {
+    for (int i = start; i < end; i++) {
+      append(text.charAt(i));
+    }
+
+    return this;
+  }
+
+  /**
+   * Appends characters from an array.
+   *
+   * @param chars the characters to append
+   * @param offset the first character to append
+   * @param length the number of characters to append
+   * @return this cleaner
+   * @throws IOException if unable to append to the sink
+   */
+  public StreamingHtmlCleaner append(char[] chars, int offset, int length) throws IOException {
+    for (int i = offset; i < offset + length; i++) {
+      append(chars[i]);
+    }
+
+    return this;
+  }
+
+  /**
+   * Signals the end of the html, releasing any text that was held back because it might have been
+   * removed. No further text may be appended afterwards.
+   *
+   * @throws IOException if unable to append to the sink
+   */
+  public void finish() throws IOException {
+    if (!finished) {
+      finished = true;
+      first.finish();
+    }
+  }
+
+  /**
+   * Cleans all of the html from the reader into the sink, reading a limited number of characters
+   * at a time.
+   *
+   * @param html the reader of html
+   * @param sink where to append the cleaned text
+   * @param lines whether to normalize line terminators before cleaning
+   * @param size the number of characters to read at a time
+   * @throws IOException if unable to read or append
+   *
+   * @see #StreamingHtmlCleaner(Appendable, boolean)
+   */
+  public static void clean(Reader html, Appendable sink, boolean lines, int size) throws IOException {
+    StreamingHtmlCleaner cleaner = new StreamingHtmlCleaner(sink, lines);
+    char[] buffer = new char[size];
+    int read;
+
+    while ((read = html.read(buffer)) >= 0) {
+      cleaner.append(buffer, 0, read);
+    }
+
+    cleaner.finish();
+  }
+
+  /**
+   * Cleans the html in one call. Mostly useful for comparing against
+   * {@link HtmlCleaner#stripHtml(String)}.
+   *
+   * @param html the html to clean
+   * @return the cleaned text
+   */
+  public static String stripHtml(String html) {
+    StringBuilder text = new StringBuilder(html.length());
+
+    try {
+      new StreamingHtmlCleaner(text).append(html).finish();
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+
+    return text.toString();
+  }
+
+  /**
+   * Returns whether the character matches the {@code \s} character class of a regular expression.
+   *
+   * @param c the character to test
+   * @return {@code true} if the character is whitespace
+   */
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  /**
+   * Returns whether the character matches the {@code \w} character class of a regular expression.
+   *
+   * @param c the character to test
+   * @return {@code true} if the character is a word character
+   */
+  private static boolean isWord(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+  }
+
+  /**
+   * Returns whether there is no word boundary between a letter and the code point, the same way
+   * the {@code \b} of a regular expression decides. Which non-ASCII characters count as part of
+   * a word depends on the version of Java, so those are left to the regular expression itself.
+   *
+   * @param point the code point following a letter
+   * @return {@code true} if the code point continues the word
+   */
+  private static boolean continuesWord(int point) {
+    if (point < 128) {
+      return isWord((char) point);
+    }
+
+    return !WORD_BOUNDARY.matcher(new StringBuilder(3).append('a').appendCodePoint(point)).lookingAt();
+  }
+
+  /**
+   * Compares a character to a lowercase ASCII letter, ignoring case the same way a case-insensitive
+   * regular expression does by default.
+   *
+   * @param c the character to test
+   * @param lower the lowercase letter
+   * @return {@code true} if the character matches the letter
+   */
+  private static boolean matches(char c, char lower) {
+    return c == lower || (c < 128 && Character.toLowerCase(c) == lower);
+  }
+
+  /**
+   * A single pass of the cleaner, which forwards its output to the next pass or the sink.
+   */
+  private abstract static class Stage {
+
+    /** The next stage, or {@code null} if this is the last stage. */
+    private final Stage next;
+
+    /** Where the last stage sends its output. */
+    private final Appendable sink;
+
+    /** The text held back while it might still be removed. */
+    protected final StringBuilder pending;
+
+    /**
+     * Initializes a stage that sends its output to the next stage.
+     *
+     * @param next the next stage
+     */
+    public Stage(Stage next) {
+      this.next = next;
+      this.sink = null;
+      this.pending = new StringBuilder();
+    }
+
+    /**
+     * Initializes the last stage, which sends its output to the sink.
+     *
+     * @param sink where to append the cleaned text
+     */
+    public Stage(Appendable sink) {
+      this.next = null;
+      this.sink = sink;
+      this.pending = new StringBuilder();
+    }
+
+    /**
+     * Processes the next character of input, releasing the held back text unchanged if it grows
+     * past {@link #MAX_PENDING} characters.
+     *
+     * @param c the next character
+     * @throws IOException if unable to send output
+     */
+    public void accept(char c) throws IOException {
+      process(c);
+
+      if (pending.length() > MAX_PENDING) {
+        release();
+        reset();
+      }
+    }
+
+    /**
+     * Processes the next character of input.
+     *
+     * @param c the next character
+     * @throws IOException if unable to send output
+     */
+    protected abstract void process(char c) throws IOException;
+
+    /**
+     * Sends a character to the next stage.
+     *
+     * @param c the character to send
+     * @throws IOException if unable to send output
+     */
+    protected void emit(char c) throws IOException {
+      if (next != null) {
+        next.accept(c);
+      }
+      else {
+        sink.append(c);
+      }
+    }
+
+    /**
+     * Sends the held back text unchanged, because it was not a match after all.
+     *
+     * @throws IOException if unable to send output
+     */
+    protected void release() throws IOException {
+      for (int i = 0; i < pending.length(); i++) {
+        emit(pending.charAt(i));
+      }
+
+      pending.setLength(0);
+    }
+
+    /**
+     * Sends the first held back character unchanged and processes the rest again, since a match
+     * may start at any of them.
+     *
+     * @throws IOException if unable to send output
+     */
+    protected void retry() throws IOException {
+      String text = pending.toString();
+      pending.setLength(0);
+      reset();
+      emit(text.charAt(0));
+
+      for (int i = 1; i < text.length(); i++) {
+        accept(text.charAt(i));
+      }
+    }
+
+    /**
+     * Resets any matching state after the held back text is discarded or released.
+     */
+    protected void reset() {
+      return;
+    }
+
+    /**
+     * Releases any held back text and finishes the next stage. Nothing can match once the input
+     * ends, since every match requires a closing sequence.
+     *
+     * @throws IOException if unable to send output
+     */
+    public void finish() throws IOException {
+      release();
+      reset();
+
+      if (next != null) {
+        next.finish();
+      }
+    }
+  }
+
+  /**
+   * Normalizes line terminators to a single newline and drops the final terminator.
+   */
+  private static class LineStage extends Stage {
+
+    /** Whether a newline should be sent before the next character. */
+    private boolean newline;
+
+    /** Whether the last character was a carriage return. */
+    private boolean carriage;
+
+    /**
+     * Initializes the stage.
+     *
+     * @param next the next stage
+     */
+    public LineStage(Stage next) {
+      super(next);
+    }
+
+    @Override
+    protected void process(char c) throws IOException {
+      if (c == '\n' && carriage) {
+        carriage = false;
+        return;
+      }
+
+      if (newline) {
+        emit('\n');
+        newline = false;
+      }
+
+      carriage = c == '\r';
+
+      if (c == '\n' || c == '\r') {
+        newline = true;
+      }
+      else {
+        emit(c);
+      }
+    }
+
+    @Override
+    protected void reset() {
+      newline = false;
+      carriage = false;
+    }
+  }
+
+  /**
+   * Replaces comments with a single space, like {@link HtmlCleaner#stripComments(String)}.
+   */
+  private static class CommentStage extends Stage {
+
+    /** How a comment starts. */
+    private static final String OPEN = "<!--";
+
+    /**
+     * Initializes the stage.
+     *
+     * @param next the next stage
+     */
+    public CommentStage(Stage next) {
+      super(next);
+    }
+
+    @Override
+    protected void process(char c) throws IOException {
+      int length = pending.length();
+
+      if (length == 0) {
+        if (c == '<') {
+          pending.append(c);
+        }
+        else {
+          emit(c);
+        }
+        return;
+      }
+
+      pending.append(c);
+
+      if (length < OPEN.length()) {
+        if (c != OPEN.charAt(length)) {
+          retry();
+        }
+        return;
+      }
+
+      // the closing sequence may not overlap the opening sequence
+      if (c == '>' && length + 1 >= OPEN.length() + 3 &&
+          pending.charAt(length - 1) == '-' && pending.charAt(length - 2) == '-') {
+        pending.setLength(0);
+        emit(' ');
+      }
+    }
+  }
+
+  /**
+   * Replaces a block element and everything inside it with a single space, like
+   * {@link HtmlCleaner#stripElement(String, String)}.
+   */
+  private static class ElementStage extends Stage {
+
+    /** Matching "&lt;" and the element name. */
+    private static final int NAME = 0;
+
+    /** Checking for a word boundary after the element name. */
+    private static final int BOUNDARY = 1;
+
+    /** Skipping attributes until the end of the opening tag. */
+    private static final int ATTRIBUTES = 2;
+
+    /** Looking for the closing tag. */
+    private static final int CONTENT = 3;
+
+    /** The lowercase element name. */
+    private final String name;
+
+    /** What is currently being matched. */
+    private int state;
+
+    /**
+     * How much of the closing tag has been matched: 0 for nothing, 1 for "&lt;", 2 for "&lt;/",
+     * then each character of the name, and finally any whitespace before "&gt;".
+     */
+    private int closing;
+
+    /**
+     * Initializes the stage.
+     *
+     * @param next the next stage
+     * @param name the lowercase name of the element to remove
+     */
+    public ElementStage(Stage next, String name) {
+      super(next);
+      this.name = name;
+      this.state = NAME;
+      this.closing = 0;
+    }
+
+    @Override
+    protected void process(char c) throws IOException {
+      int length = pending.length();
+
+      if (length == 0) {
+        if (c == '<') {
+          pending.append(c);
+        }
+        else {
+          emit(c);
+        }
+        return;
+      }
+
+      pending.append(c);
+
+      switch (state) {
+        case NAME:
+          if (!matches(c, name.charAt(length - 1))) {
+            retry();
+          }
+          else if (length == name.length()) {
+            state = BOUNDARY;
+          }
+          break;
+
+        case BOUNDARY:
+          // wait for the rest of a surrogate pair before deciding
+          if (Character.isHighSurrogate(c) && length == name.length() + 1) {
+            break;
+          }
+
+          if (continuesWord(Character.codePointAt(pending, name.length() + 1))) {
+            retry();
+          }
+          else {
+            state = c == '>' ? CONTENT : ATTRIBUTES;
+          }
+          break;
+
+        case ATTRIBUTES:
+          if (c == '>') {
+            state = CONTENT;
+          }
+          break;
+
+        default:
+          close(c);
+          break;
+      }
+    }
+
+    /**
+     * Advances the search for the closing tag.
+     *
+     * @param c the next character of content
+     * @throws IOException if unable to send output
+     */
+    private void close(char c) throws IOException {
+      int end = 2 + name.length();
+
+      if (closing == 0) {
+        closing = c == '<' ? 1 : 0;
+      }
+      else if (closing == 1) {
+        closing = c == '/' ? 2 : (c == '<' ? 1 : 0);
+      }
+      else if (closing < end) {
+        closing = matches(c, name.charAt(closing - 2)) ? closing + 1 : (c == '<' ? 1 : 0);
+      }
+      else if (c == '>') {
+        pending.setLength(0);
+        reset();
+        emit(' ');
+      }
+      else if (!isSpace(c)) {
+        closing = c == '<' ? 1 : 0;
+      }
+    }
+
+    @Override
+    protected void reset() {
+      state = NAME;
+      closing = 0;
+    }
+  }
+
+  /**
+   * Removes tags, like {@link HtmlCleaner#stripTags(String)}.
+   */
+  private static class TagStage extends Stage {
+
+    /**
+     * Initializes the stage.
+     *
+     * @param next the next stage
+     */
+    public TagStage(Stage next) {
+      super(next);
+    }
+
+    @Override
+    protected void process(char c) throws IOException {
+      if (pending.length() == 0) {
+        if (c == '<') {
+          pending.append(c);
+        }
+        else {
+          emit(c);
+        }
+      }
+      else if (c == '>') {
+        pending.setLength(0);
+      }
+      else {
+        pending.append(c);
+      }
+    }
+  }
+
+  /**
+   * Removes entities, like {@link HtmlCleaner#stripEntities(String)}.
+   */
+  private static class EntityStage extends Stage {
+
+    /**
+     * Initializes the stage.
+     *
+     * @param sink where to append the cleaned text
+     */
+    public EntityStage(Appendable sink) {
+      super(sink);
+    }
+
+    @Override
+    protected void process(char c) throws IOException {
+      if (pending.length() == 0) {
+        if (c == '&') {
+          pending.append(c);
+        }
+        else {
+          emit(c);
+        }
+      }
+      else if (c == ';' && pending.length() > 1) {
+        pending.setLength(0);
+      }
+      else if (c == '&') {
+        release();
+        pending.append(c);
+      }
+      else if (c == ';' || isSpace(c)) {
+        release();
+        emit(c);
+      }
+      else {
+        pending.append(c);
+      }
+    }
+  }
+}
@@ -0,0 +1,798 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stores cleaned text in a small number of append-only segment files instead of one file per
+ * page. Documents are numbered in the order they are added and collected into blocks of about
+ * {@link #BLOCK_SIZE} bytes, each compressed on its own with a fast {@link Deflater} level, so
+ * similar pages compress well together while a single document only needs one block decompressed.
+ *
+ * The index is a handful of primitive arrays rather than objects: the offset of each document
+ * within its block, and the segment, position, and sizes of each block. The block of a document is
+ * found by binary search over the first document of each block. Every block also records the
+ * offsets of its documents uncompressed in its header, so the index is rebuilt by reading only the
+ * headers when the store is opened.
+ *
+ * Documents are read from memory-mapped segments, and {@link #scan(int, Visitor)} decompresses
+ * each block only once for all of its documents. Documents in the block being filled are kept on
+ * the heap until the block is full or the store is flushed.
+ *
+ * @see HtmlCleaner#stripHtml(String)
+ * @see ResponseStore
+ */
+public class TextStore implements Closeable {
+
+  /** The default uncompressed size of a block. */
+  public static final int BLOCK_SIZE = 64 * 1024;
+
+  /** The default size at which a segment is closed and a new one started. */
+  public static final long SEGMENT_SIZE = 256L * 1024 * 1024;
+
+  /** The default compression level, favoring speed over size. */
+  public static final int LEVEL = Deflater.BEST_SPEED;
+
+  /** Marks the start of a block. */
+  private static final int BLOCK = 0x54585442;
+
+  /** The size of the fixed fields of a block header. */
+  private static final int HEADER = 4 + 4 + 4 + 4 + 4;
+
+  /** The name prefix of segment files. */
+  private static final String PREFIX = "text-";
+
+  /** The name suffix of segment files. */
+  private static final String SUFFIX = ".seg";
+
+  /** The directory with the segment files. */
+  private final Path directory;
+
+  /** The uncompressed size at which a block is compressed and written. */
+  private final int blockSize;
+
+  /** The size at which a segment is closed. */
+  private final long segmentSize;
+
+  /** Compresses blocks, used only while holding the write lock. */
+  private final Deflater deflater;
+
+  /** The segments from oldest to newest by id. */
+  private final TreeMap<Integer, Segment> segments;
+
+  /** Guards the index and segments; reads may happen concurrently. */
+  private final ReentrantReadWriteLock lock;
+
+  /** The number of blocks decompressed, for checking how well reads share blocks. */
+  private final LongAdder inflated;
+
+  /** The offset of each document within its uncompressed block. */
+  private int[] offsets;
+
+  /** The number of documents. */
+  private int size;
+
+  /** The first document of each block. */
+  private int[] firstDocs;
+
+  /** The segment id of each block. */
+  private int[] blockSegments;
+
+  /** The position of the header of each block in its segment. */
+  private long[] positions;
+
+  /** The uncompressed size of each block. */
+  private int[] rawSizes;
+
+  /** The compressed size of each block. */
+  private int[] packedSizes;
+
+  /** The number of blocks written. */
+  private int blocks;
+
+  /** The uncompressed bytes of the block being filled. */
+  private byte[] pending;
+
+  /** The number of bytes in the block being filled. */
+  private int pendingLength;
+
+  /** The first document of the block being filled. */
+  private int pendingFirst;
+
+  /** The segment new blocks are appended to. */
+  private Segment active;
+
+  /**
+   * Opens the store in the directory with the default block size, segment size, and level.
+   *
+   * @param directory the directory with the segment files, created if necessary
+   * @throws IOException if unable to open or scan the segments
+   */
+  public TextStore(Path directory) throws IOException {
+    this(directory, BLOCK_SIZE, SEGMENT_SIZE, LEVEL);
+  }
+
+  /**
+   * Opens the store in the directory, rebuilding the index from any existing segments. A block cut
+   * short at the end of the newest segment, such as by a crash while writing, is discarded.
+   *
+   * @param directory the directory with the segment files, created if necessary
+   * @param blockSize the uncompressed size at which a block is compressed and written
+   * @param segmentSize the size at which a segment is closed and a new one started
+   * @param level the {@link Deflater} compression level
+   * @throws IOException if unable to open or scan the segments, or a segment is corrupt
+   */
+  public TextStore(Path directory, int blockSize, long segmentSize, int level) throws IOException {
+    if (blockSize < 1024 || segmentSize < blockSize || level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Blocks must be at least 1 KiB and fit within a segment.");
+    }
+
+    this.directory = Files.createDirectories(directory);
+    this.blockSize = blockSize;
+    this.segmentSize = segmentSize;
+    this.deflater = new Deflater(level, true);
+    this.segments = new TreeMap<>();
+    this.lock = new ReentrantReadWriteLock();
+    this.inflated = new LongAdder();
+    this.offsets = new int[1024];
+    this.size = 0;
+    this.firstDocs = new int[64];
+    this.blockSegments = new int[64];
+    this.positions = new long[64];
+    this.rawSizes = new int[64];
+    this.packedSizes = new int[64];
+    this.blocks = 0;
+    this.pending = new byte[blockSize];
+    this.pendingLength = 0;
+    this.pendingFirst = 0;
+
+    List<Path> files;
+
+    try (Stream<Path> listing = Files.list(this.directory)) {
+      files = listing.filter(path -> {
+        String name = path.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+      }).collect(Collectors.toList());
+    }
+
+    for (Path file : files) {
+      String name = file.getFileName().toString();
+      int id = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+      segments.put(id, new Segment(id, file));
+    }
+
+    for (Segment segment : segments.values()) {
+      scanHeaders(segment, segment.id == segments.lastKey());
+    }
+
+    this.pendingFirst = size;
+    this.active = segments.isEmpty() ? create(0) : segments.lastEntry().getValue();
+  }
+
+  /**
+   * Adds a document to the store.
+   *
+   * @param text the cleaned text
+   * @return the id of the document, one more than the previous id
+   * @throws IOException if unable to write a full block
+   */
+  public int add(CharSequence text) throws IOException {
+    byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+
+    lock.writeLock().lock();
+
+    try {
+      if (pendingLength > 0 && pendingLength + bytes.length > blockSize) {
+        seal();
+      }
+
+      if (pendingLength + bytes.length > pending.length) {
+        pending = Arrays.copyOf(pending, pendingLength + bytes.length);
+      }
+
+      if (size == offsets.length) {
+        offsets = Arrays.copyOf(offsets, size * 2);
+      }
+
+      System.arraycopy(bytes, 0, pending, pendingLength, bytes.length);
+      offsets[size] = pendingLength;
+      pendingLength += bytes.length;
+      size++;
+
+      if (pendingLength >= blockSize) {
+        seal();
+      }
+
+      return size - 1;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the text of a document, decompressing only its block.
+   *
+   * @param id the document id
+   * @return the text
+   * @throws IOException if unable to read or decompress the block
+   * @throws IndexOutOfBoundsException if there is no document with the id
+   */
+  public String get(int id) throws IOException {
+    lock.readLock().lock();
+
+    try {
+      Objects.checkIndex(id, size);
+      int block = findBlock(id);
+
+      if (block == blocks) {
+        return new String(pending, offsets[id], end(id, block) - offsets[id], StandardCharsets.UTF_8);
+      }
+
+      byte[] raw = inflate(block);
+      return new String(raw, offsets[id], end(id, block) - offsets[id], StandardCharsets.UTF_8);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Calls {@link #scan(int, Visitor)} from the first document.
+   *
+   * @param visitor called for each document
+   * @throws IOException if unable to read a block or the visitor fails
+   */
+  public void scan(Visitor visitor) throws IOException {
+    scan(0, visitor);
+  }
+
+  /**
+   * Visits every document in order starting from an id, such as to rebuild an index. Each block
+   * is decompressed once for all of its documents. The lock is only held while a block is read, so
+   * documents may be added during the scan; those added before it reaches the end are visited too.
+   *
+   * @param from the first document id to visit
+   * @param visitor called for each document
+   * @throws IOException if unable to read a block or the visitor fails
+   */
+  public void scan(int from, Visitor visitor) throws IOException {
+    int id = Math.max(from, 0);
+
+    while (true) {
+      byte[] raw;
+      int first;
+      int last;
+      int[] starts;
+
+      lock.readLock().lock();
+
+      try {
+        if (id >= size) {
+          return;
+        }
+
+        int block = findBlock(id);
+        first = id;
+        last = block == blocks ? size : next(block);
+        raw = block == blocks ? Arrays.copyOf(pending, pendingLength) : inflate(block);
+        starts = Arrays.copyOfRange(offsets, first, last);
+      }
+      finally {
+        lock.readLock().unlock();
+      }
+
+      for (int i = 0; i < starts.length; i++) {
+        int end = i + 1 < starts.length ? starts[i + 1] : raw.length;
+        visitor.visit(first + i, new String(raw, starts[i], end - starts[i], StandardCharsets.UTF_8));
+      }
+
+      id = last;
+    }
+  }
+
+  /**
+   * Returns the number of documents.
+   *
+   * @return the number of documents
+   */
+  public int size() {
+    lock.readLock().lock();
+
+    try {
+      return size;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of blocks written, not counting the block being filled.
+   *
+   * @return the number of blocks
+   */
+  public int blocks() {
+    lock.readLock().lock();
+
+    try {
+      return blocks;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of segment files.
+   *
+   * @return the number of segments
+   */
+  public int segments() {
+    lock.readLock().lock();
+
+    try {
+      return segments.size();
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the total size of the segment files.
+   *
+   * @return the number of bytes on disk
+   */
+  public long bytes() {
+    lock.readLock().lock();
+
+    try {
+      long total = 0;
+
+      for (Segment segment : segments.values()) {
+        total += segment.length;
+      }
+
+      return total;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of blocks decompressed since the store was opened.
+   *
+   * @return the number of blocks decompressed
+   */
+  public long getBlocksInflated() {
+    return inflated.sum();
+  }
+
+  /**
+   * Writes the block being filled, even if it is not full, and forces the segments to disk.
+   *
+   * @throws IOException if unable to write
+   */
+  public void flush() throws IOException {
+    lock.writeLock().lock();
+
+    try {
+      if (size > pendingFirst) {
+        seal();
+      }
+
+      active.channel().force(false);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Flushes the store and releases its files.
+   *
+   * @throws IOException if unable to write
+   */
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+
+    try {
+      flush();
+
+      for (Segment segment : segments.values()) {
+        segment.close();
+      }
+
+      deflater.end();
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("documents=%d, blocks=%d, segments=%d, bytes=%d", size(), blocks(), segments(), bytes());
+  }
+
+  /**
+   * Compresses the block being filled and appends it to the active segment, starting a new segment
+   * first if it would grow too large. Must hold the write lock.
+   *
+   * @throws IOException if unable to write
+   */
+  private void seal() throws IOException {
+    int first = pendingFirst;
+    int count = size - first;
+
+    deflater.reset();
+    deflater.setInput(pending, 0, pendingLength);
+    deflater.finish();
+
+    byte[] packed = new byte[Math.max(64, pendingLength + pendingLength / 16 + 64)];
+    int packedLength = 0;
+
+    while (!deflater.finished()) {
+      if (packedLength == packed.length) {
+        packed = Arrays.copyOf(packed, packed.length * 2);
+      }
+
+      packedLength += deflater.deflate(packed, packedLength, packed.length - packedLength);
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(packed, 0, packedLength);
+
+    ByteBuffer block = ByteBuffer.allocate(HEADER + count * 4 + packedLength);
+    block.putInt(BLOCK).putInt(count).putInt(pendingLength).putInt(packedLength).putInt((int) crc.getValue());
+
+    for (int i = first; i < size; i++) {
+      block.putInt(offsets[i]);
+    }
+
+    block.put(packed, 0, packedLength).flip();
+
+    if (active.length > 0 && active.length + block.remaining() > segmentSize) {
+      active.channel().force(false);
+      active = create(active.id + 1);
+    }
+
+    long position = active.length;
+    FileChannel channel = active.channel();
+
+    while (block.hasRemaining()) {
+      channel.write(block, position + block.position());
+    }
+
+    active.length = position + block.limit();
+    record(first, active.id, position, pendingLength, packedLength);
+    pendingLength = 0;
+    pendingFirst = size;
+  }
+
+  /**
+   * Adds a block to the index arrays.
+   *
+   * @param first the first document of the block
+   * @param segment the segment id
+   * @param position the position of the block header
+   * @param rawSize the uncompressed size
+   * @param packedSize the compressed size
+   */
+  private void record(int first, int segment, long position, int rawSize, int packedSize) {
+    if (blocks == firstDocs.length) {
+      int grown = blocks * 2;
+      firstDocs = Arrays.copyOf(firstDocs, grown);
+      blockSegments = Arrays.copyOf(blockSegments, grown);
+      positions = Arrays.copyOf(positions, grown);
+      rawSizes = Arrays.copyOf(rawSizes, grown);
+      packedSizes = Arrays.copyOf(packedSizes, grown);
+    }
+
+    firstDocs[blocks] = first;
+    blockSegments[blocks] = segment;
+    positions[blocks] = position;
+    rawSizes[blocks] = rawSize;
+    packedSizes[blocks] = packedSize;
+    blocks++;
+  }
+
+  /**
+   * Returns the first document after a written block.
+   *
+   * @param block the block
+   * @return the first document id of the next block
+   */
+  private int next(int block) {
+    return block + 1 < blocks ? firstDocs[block + 1] : pendingFirst;
+  }
+
+  /**
+   * Finds the block of a document by binary search over the first document of each block.
+   *
+   * @param id the document id
+   * @return the block, or the number of written blocks if the document is in the block being filled
+   */
+  private int findBlock(int id) {
+    if (id >= pendingFirst) {
+      return blocks;
+    }
+
+    int found = Arrays.binarySearch(firstDocs, 0, blocks, id);
+    return found >= 0 ? found : -found - 2;
+  }
+
+  /**
+   * Returns where a document ends within its uncompressed block.
+   *
+   * @param id the document id
+   * @param block the block of the document
+   * @return the end offset (exclusive)
+   */
+  private int end(int id, int block) {
+    if (block == blocks) {
+      return id + 1 < size ? offsets[id + 1] : pendingLength;
+    }
+
+    return id + 1 < next(block) ? offsets[id + 1] : rawSizes[block];
+  }
+
+  /**
+   * Decompresses a written block from its mapped segment.
+   *
+   * @param block the block
+   * @return the uncompressed bytes
+   * @throws IOException if the block is corrupt
+   */
+  private byte[] inflate(int block) throws IOException {
+    Segment segment = segments.get(blockSegments[block]);
+    int count = next(block) - firstDocs[block];
+    long start = positions[block] + HEADER + count * 4L;
+    ByteBuffer packed = segment.view(start, packedSizes[block]);
+
+    CRC32 crc = new CRC32();
+    crc.update(packed.duplicate());
+
+    if ((int) crc.getValue() != segment.view(positions[block] + 16, 4).getInt()) {
+      throw new IOException("Corrupt block " + block + " in " + segment.file);
+    }
+
+    Inflater inflater = new Inflater(true);
+    byte[] raw = new byte[rawSizes[block]];
+
+    try {
+      inflater.setInput(packed);
+      int length = 0;
+
+      while (length < raw.length && !inflater.finished()) {
+        int read = inflater.inflate(raw, length, raw.length - length);
+
+        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+
+        length += read;
+      }
+
+      if (length != raw.length) {
+        throw new IOException("Block " + block + " in " + segment.file + " is too short.");
+      }
+    }
+    catch (DataFormatException e) {
+      throw new IOException("Corrupt block " + block + " in " + segment.file, e);
+    }
+    finally {
+      inflater.end();
+    }
+
+    inflated.increment();
+    return raw;
+  }
+
+  /**
+   * Creates a new segment file.
+   *
+   * @param id the segment id
+   * @return the new segment
+   * @throws IOException if unable to create the file
+   */
+  private Segment create(int id) throws IOException {
+    Path file = directory.resolve(String.format("%s%08d%s", PREFIX, id, SUFFIX));
+    Segment segment = new Segment(id, file);
+    segments.put(id, segment);
+    return segment;
+  }
+
+  /**
+   * Adds the blocks of a segment to the index while opening the store, reading only the headers.
+   * A block cut short at the end of the newest segment is truncated away.
+   *
+   * @param segment the segment to scan
+   * @param newest whether this is the newest segment, the only one that may be cut short
+   * @throws IOException if unable to read the segment, or an older segment is corrupt
+   */
+  private void scanHeaders(Segment segment, boolean newest) throws IOException {
+    FileChannel channel = segment.channel();
+    long length = channel.size();
+    long position = 0;
+    ByteBuffer header = ByteBuffer.allocate(HEADER);
+
+    while (position < length) {
+      header.clear();
+      boolean complete = position + HEADER <= length && channel.read(header, position) == HEADER;
+      header.flip();
+
+      int count = complete ? header.getInt(4) : -1;
+      int rawSize = complete ? header.getInt(8) : -1;
+      int packedSize = complete ? header.getInt(12) : -1;
+      long end = position + HEADER + count * 4L + packedSize;
+
+      complete = complete && header.getInt(0) == BLOCK && count >= 0 && rawSize >= 0 && packedSize >= 0 && end <= length;
+      ByteBuffer starts = complete ? ByteBuffer.allocate(count * 4) : null;
+
+      if (complete) {
+        while (starts.hasRemaining() && channel.read(starts, position + HEADER + starts.position()) > 0) {
+          continue;
+        }
+
+        starts.flip();
+      }
+
+      // only the last block can be torn, so it is the only one worth checking in full
+      if (complete && end == length) {
+        ByteBuffer packed = ByteBuffer.allocate(packedSize);
+
+        while (packed.hasRemaining() && channel.read(packed, end - packedSize + packed.position()) > 0) {
+          continue;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(packed.flip());
+        complete = (int) crc.getValue() == header.getInt(16);
+      }
+
+      if (!complete) {
+        if (!newest) {
+          throw new IOException("Corrupt block at " + position + " in " + segment.file);
+        }
+
+        channel.truncate(position);
+        break;
+      }
+
+      int first = size;
+
+      for (int i = 0; i < count; i++) {
+        if (size == offsets.length) {
+          offsets = Arrays.copyOf(offsets, size * 2);
+        }
+
+        offsets[size++] = starts.getInt();
+      }
+
+      record(first, segment.id, position, rawSize, packedSize);
+      position = end;
+    }
+
+    segment.length = position;
+  }
+
+  /**
+   * Visits documents during a scan.
+   */
+  @FunctionalInterface
+  public interface Visitor {
+
+    /**
+     * Visits a document.
+     *
+     * @param id the document id
+     * @param text the text
+     * @throws IOException if unable to process the document
+     */
+    void visit(int id, String text) throws IOException;
+  }
+
+  /**
+   * One segment file, open for appending and mapped for reading.
+   */
+  private static class Segment {
+
+    /** The segment id, which also orders segments from oldest to newest. */
+    private final int id;
+
+    /** The segment file. */
+    private final Path file;
+
+    /** The channel for appending, or {@code null} until needed or after closing. */
+    private FileChannel channel;
+
+    /** The mapping for reading, remapped as the file grows. */
+    private MappedByteBuffer map;
+
+    /** The number of bytes of complete blocks. */
+    private long length;
+
+    /**
+     * Opens a segment file, creating it if necessary.
+     *
+     * @param id the segment id
+     * @param file the segment file
+     * @throws IOException if unable to open the file
+     */
+    public Segment(int id, Path file) throws IOException {
+      this.id = id;
+      this.file = file;
+      this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      this.map = null;
+      this.length = 0;
+    }
+
+    /**
+     * Returns the channel of the segment, reopening it if it was closed.
+     *
+     * @return the channel
+     * @throws IOException if unable to open the file
+     */
+    public synchronized FileChannel channel() throws IOException {
+      if (channel == null || !channel.isOpen()) {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      }
+
+      return channel;
+    }
+
+    /**
+     * Returns a read-only view of part of the segment, mapping more of the file if it has grown.
+     *
+     * @param offset the start of the view
+     * @param size the length of the view
+     * @return the view, positioned at 0
+     * @throws IOException if unable to map the file
+     */
+    public synchronized ByteBuffer view(long offset, int size) throws IOException {
+      if (offset + size > Integer.MAX_VALUE) {
+        throw new IOException("Segment is too large to map: " + file);
+      }
+
+      if (map == null || map.capacity() < offset + size) {
+        map = channel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+      }
+
+      ByteBuffer view = map.duplicate();
+      view.position((int) offset).limit((int) offset + size);
+      return view.slice();
+    }
+
+    /**
+     * Closes the channel. The mapping stays valid.
+     *
+     * @throws IOException if unable to close the channel
+     */
+    public synchronized void close() throws IOException {
+      if (channel != null) {
+        channel.close();
+      }
+    }
+  }
+}
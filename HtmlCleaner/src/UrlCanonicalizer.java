@@ -0,0 +1,181 @@
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+
+/**
+ * Converts URLs into a canonical form, so that different spellings of the same URL are only
+ * fetched once. The protocol and host are lowercased, default ports are removed, fragments are
+ * stripped, "." and ".." path segments are resolved, an empty path becomes "/", and percent-escapes
+ * use uppercase hexadecimal digits with escaped unreserved characters decoded.
+ *
+ * @see VisitedUrlSet
+ */
+public class UrlCanonicalizer {
+
+  /**
+   * Returns the canonical form of a url.
+   *
+   * @param url the url
+   * @return the canonical url as a string
+   */
+  public static String canonicalize(URL url) {
+    String protocol = url.getProtocol().toLowerCase(Locale.ROOT);
+    String host = url.getHost().toLowerCase(Locale.ROOT);
+    int port = url.getPort() == url.getDefaultPort() ? -1 : url.getPort();
+
+    if (host.endsWith(".")) {
+      host = host.substring(0, host.length() - 1);
+    }
+
+    StringBuilder builder = new StringBuilder(protocol.length() + host.length() + url.getFile().length() + 8);
+    builder.append(protocol).append("://");
+
+    if (url.getUserInfo() != null) {
+      builder.append(url.getUserInfo()).append('@');
+    }
+
+    builder.append(host);
+
+    if (port >= 0) {
+      builder.append(':').append(port);
+    }
+
+    String path = removeDotSegments(normalizeEscapes(url.getPath()));
+    builder.append(path.isEmpty() ? "/" : path);
+
+    if (url.getQuery() != null) {
+      builder.append('?').append(normalizeEscapes(url.getQuery()));
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * Returns the canonical form of a url.
+   *
+   * @param url the url as a string
+   * @return the canonical url as a string
+   * @throws MalformedURLException if the url is not valid
+   */
+  public static String canonicalize(String url) throws MalformedURLException {
+    return canonicalize(new URL(url));
+  }
+
+  /**
+   * Removes "." and ".." segments from a path, following RFC 3986 section 5.2.4. A ".." segment
+   * above the root is dropped.
+   *
+   * @param path the path, which may be empty
+   * @return the path without dot segments
+   */
+  public static String removeDotSegments(String path) {
+    if (path.indexOf('.') < 0) {
+      return path;
+    }
+
+    StringBuilder output = new StringBuilder(path.length());
+    int i = 0;
+
+    while (i < path.length()) {
+      if (path.startsWith("../", i)) {
+        i += 3;
+      }
+      else if (path.startsWith("./", i)) {
+        i += 2;
+      }
+      else if (path.startsWith("/./", i)) {
+        i += 2;
+      }
+      else if (path.startsWith("/.", i) && i + 2 == path.length()) {
+        output.append('/');
+        i += 2;
+      }
+      else if (path.startsWith("/../", i)) {
+        removeLastSegment(output);
+        i += 3;
+      }
+      else if (path.startsWith("/..", i) && i + 3 == path.length()) {
+        removeLastSegment(output);
+        output.append('/');
+        i += 3;
+      }
+      else if ((path.startsWith(".", i) && i + 1 == path.length()) ||
+          (path.startsWith("..", i) && i + 2 == path.length())) {
+        i = path.length();
+      }
+      else {
+        int end = path.indexOf('/', i + 1);
+        end = end < 0 ? path.length() : end;
+        output.append(path, i, end);
+        i = end;
+      }
+    }
+
+    return output.toString();
+  }
+
+  /**
+   * Removes the last segment and its preceding slash from a path being built.
+   *
+   * @param output the path being built
+   */
+  private static void removeLastSegment(StringBuilder output) {
+    int slash = output.lastIndexOf("/");
+    output.setLength(Math.max(slash, 0));
+  }
+
+  /**
+   * Uppercases the hexadecimal digits of percent-escapes and decodes escaped unreserved
+   * characters, which are letters, digits, "-", ".", "_", and "~".
+   *
+   * @param text the path or query
+   * @return the normalized text, or the same text if nothing changed
+   */
+  private static String normalizeEscapes(String text) {
+    int percent = text.indexOf('%');
+
+    if (percent < 0) {
+      return text;
+    }
+
+    StringBuilder builder = new StringBuilder(text.length());
+    builder.append(text, 0, percent);
+
+    for (int i = percent; i < text.length(); i++) {
+      char c = text.charAt(i);
+      int high = i + 2 < text.length() ? Character.digit(text.charAt(i + 1), 16) : -1;
+      int low = high >= 0 ? Character.digit(text.charAt(i + 2), 16) : -1;
+
+      if (c != '%' || low < 0) {
+        builder.append(c);
+        continue;
+      }
+
+      char decoded = (char) (high * 16 + low);
+
+      if (isUnreserved(decoded)) {
+        builder.append(decoded);
+      }
+      else {
+        builder.append('%')
+            .append(Character.toUpperCase(text.charAt(i + 1)))
+            .append(Character.toUpperCase(text.charAt(i + 2)));
+      }
+
+      i += 2;
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * Returns whether a character is unreserved, and so never needs to be escaped.
+   *
+   * @param c the character
+   * @return {@code true} for ascii letters, digits, "-", ".", "_", and "~"
+   */
+  private static boolean isUnreserved(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+        c == '-' || c == '.' || c == '_' || c == '~';
+  }
+}
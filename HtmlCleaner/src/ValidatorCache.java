@@ -0,0 +1,337 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Stores the "ETag" and "Last-Modified" validators and the cleaned text of fetched pages on disk,
+ * so that a later fetch of the same URL can send a conditional request and reuse the stored text
+ * if the server answers "304 Not Modified".
+ *
+ * Each URL is stored as a properties file named after the SHA-256 hash of the URL, holding the
+ * validators and the name of a UTF-8 text file with the cleaned text. Every version of the text
+ * gets a new file, which is completely written before the properties file naming it is moved into
+ * place, so readers never see validators paired with partially written or newer text.
+ *
+ * @see HtmlFetcher#fetchCleaned(URL, int, Appendable, int, FetchContext, Deadline)
+ */
+public class ValidatorCache {
+
+  /** The file extension for the validators. */
+  private static final String META = ".properties";
+
+  /** The file extension for the cleaned text. */
+  private static final String TEXT = ".txt";
+
+  /** Used to convert hashes into file names. */
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /** The directory where entries are stored. */
+  private final Path directory;
+
+  /**
+   * Initializes a cache stored in the provided directory, creating it if necessary.
+   *
+   * @param directory the directory to store entries
+   * @throws IOException if unable to create the directory
+   */
+  public ValidatorCache(Path directory) throws IOException {
+    this.directory = Files.createDirectories(directory);
+  }
+
+  /**
+   * Returns the stored entry for the URL, if any.
+   *
+   * @param url the url that was fetched
+   * @return the stored entry or {@code null} if there is none or it cannot be read
+   */
+  public Entry get(URL url) {
+    Path meta = directory.resolve(name(url) + META);
+
+    if (!Files.isRegularFile(meta)) {
+      return null;
+    }
+
+    Properties properties = load(meta);
+
+    if (properties == null || !url.toExternalForm().equals(properties.getProperty("url"))) {
+      return null;
+    }
+
+    Path text = text(properties);
+
+    if (text == null || !Files.isRegularFile(text)) {
+      return null;
+    }
+
+    Entry entry = new Entry(properties.getProperty("etag"), properties.getProperty("modified"), text);
+    return entry.isEmpty() ? null : entry;
+  }
+
+  /**
+   * Stores the validators and cleaned text for the URL, replacing any previous entry. Nothing is
+   * stored if there are no validators.
+   *
+   * @param url the url that was fetched
+   * @param etag the "ETag" header value, or {@code null}
+   * @param modified the "Last-Modified" header value, or {@code null}
+   * @param text the cleaned text
+   * @return {@code true} if the entry was stored
+   * @throws IOException if unable to write the entry
+   */
+  public boolean put(URL url, String etag, String modified, CharSequence text) throws IOException {
+    if (etag == null && modified == null) {
+      remove(url);
+      return false;
+    }
+
+    String name = name(url);
+    Properties properties = new Properties();
+    properties.setProperty("url", url.toExternalForm());
+
+    if (etag != null) {
+      properties.setProperty("etag", etag);
+    }
+
+    if (modified != null) {
+      properties.setProperty("modified", modified);
+    }
+
+    Path meta = directory.resolve(name + META);
+    Path textFile = Files.createTempFile(directory, name, TEXT);
+    Path metaTemp = Files.createTempFile(directory, name, ".tmp");
+    boolean stored = false;
+
+    try {
+      Files.writeString(textFile, text, StandardCharsets.UTF_8);
+      properties.setProperty("text", textFile.getFileName().toString());
+
+      try (Writer writer = Files.newBufferedWriter(metaTemp, StandardCharsets.UTF_8)) {
+        properties.store(writer, null);
+      }
+
+      Properties previous = load(meta);
+
+      // the validators go last, and only ever name text that is completely written
+      move(metaTemp, meta);
+      stored = true;
+
+      Path replaced = previous == null ? null : text(previous);
+
+      if (replaced != null) {
+        Files.deleteIfExists(replaced);
+      }
+
+      return true;
+    }
+    finally {
+      if (!stored) {
+        Files.deleteIfExists(textFile);
+      }
+
+      Files.deleteIfExists(metaTemp);
+    }
+  }
+
+  /**
+   * Removes the stored entry for the URL, if any.
+   *
+   * @param url the url that was fetched
+   * @throws IOException if unable to delete the entry
+   */
+  public void remove(URL url) throws IOException {
+    Path meta = directory.resolve(name(url) + META);
+    Properties properties = load(meta);
+    Files.deleteIfExists(meta);
+
+    Path text = properties == null ? null : text(properties);
+
+    if (text != null) {
+      Files.deleteIfExists(text);
+    }
+  }
+
+  /**
+   * Returns the directory where entries are stored.
+   *
+   * @return the cache directory
+   */
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Reads a properties file.
+   *
+   * @param meta the properties file
+   * @return the properties, or {@code null} if the file is missing or cannot be read
+   */
+  private static Properties load(Path meta) {
+    Properties properties = new Properties();
+
+    try (Reader reader = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+      properties.load(reader);
+      return properties;
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the text file named by the properties of an entry.
+   *
+   * @param properties the properties of the entry
+   * @return the text file in the cache directory, or {@code null} if none is named
+   */
+  private Path text(Properties properties) {
+    String name = properties.getProperty("text");
+
+    if (name == null || !name.endsWith(TEXT) || name.contains("/") || name.contains("\\")) {
+      return null;
+    }
+
+    return directory.resolve(name);
+  }
+
+  /**
+   * Moves a file into place, atomically if supported.
+   *
+   * @param source the temporary file
+   * @param target the final location
+   * @throws IOException if unable to move the file
+   */
+  private static void move(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Returns the file name (without extension) used for a URL.
+   *
+   * @param url the url
+   * @return the hex-encoded SHA-256 hash of the url
+   */
+  private static String name(URL url) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] hash = digest.digest(url.toExternalForm().getBytes(StandardCharsets.UTF_8));
+      char[] name = new char[hash.length * 2];
+
+      for (int i = 0; i < hash.length; i++) {
+        name[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+        name[i * 2 + 1] = HEX[hash[i] & 0xF];
+      }
+
+      return new String(name);
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available.", e);
+    }
+  }
+
+  /**
+   * The validators and cleaned text stored for one URL.
+   */
+  public static class Entry {
+
+    /** The "ETag" header value, or {@code null}. */
+    private final String etag;
+
+    /** The "Last-Modified" header value, or {@code null}. */
+    private final String modified;
+
+    /** The file with the cleaned text. */
+    private final Path text;
+
+    /**
+     * Initializes an entry.
+     *
+     * @param etag the "ETag" header value, or {@code null}
+     * @param modified the "Last-Modified" header value, or {@code null}
+     * @param text the file with the cleaned text
+     */
+    private Entry(String etag, String modified, Path text) {
+      this.etag = etag;
+      this.modified = modified;
+      this.text = text;
+    }
+
+    /**
+     * Returns whether there are no validators.
+     *
+     * @return {@code true} if a conditional request is not possible
+     */
+    public boolean isEmpty() {
+      return etag == null && modified == null;
+    }
+
+    /**
+     * Returns the "ETag" header value.
+     *
+     * @return the entity tag, or {@code null}
+     */
+    public String getETag() {
+      return etag;
+    }
+
+    /**
+     * Returns the "Last-Modified" header value.
+     *
+     * @return the last modified date, or {@code null}
+     */
+    public String getLastModified() {
+      return modified;
+    }
+
+    /**
+     * Returns the request headers that make a GET request conditional on these validators.
+     *
+     * @return the "If-None-Match" and "If-Modified-Since" headers
+     */
+    public Map<String, String> getConditions() {
+      Map<String, String> conditions = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+      if (etag != null) {
+        conditions.put("If-None-Match", etag);
+      }
+
+      if (modified != null) {
+        conditions.put("If-Modified-Since", modified);
+      }
+
+      return conditions;
+    }
+
+    /**
+     * Reads the stored cleaned text.
+     *
+     * @return the cleaned text
+     * @throws NoSuchFileException if the entry was removed or replaced since it was looked up
+     * @throws IOException if unable to read the text
+     */
+    public String getText() throws IOException {
+      return Files.readString(text, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("etag=%s, modified=%s", etag, modified);
+    }
+  }
+}
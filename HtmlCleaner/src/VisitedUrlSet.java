@@ -0,0 +1,417 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers which URLs were already visited using at most a few dozen bytes per URL instead of a
+ * {@code String} per URL. URLs are canonicalized first (see {@link UrlCanonicalizer}), so
+ * different spellings of the same URL count as one.
+ *
+ * Each URL is reduced to a 64-bit hash. A Bloom filter in a primitive array answers most checks
+ * for unseen URLs without locking, and an exact set of the hashes confirms every possible hit, so
+ * the filter never causes a false positive. The exact set is split into stripes with their own
+ * locks, so threads adding different URLs rarely wait on each other. Two different URLs only
+ * collide if their 64-bit hashes are equal, which is unlikely even for billions of URLs.
+ *
+ * The set can be saved to and loaded from a file, so a crawl can resume where it stopped.
+ */
+public class VisitedUrlSet {
+
+  /** The default number of URLs the Bloom filter is sized for. */
+  public static final int EXPECTED = 1000000;
+
+  /** The default false positive probability of the Bloom filter at the expected size. */
+  public static final double FALSE_POSITIVES = 0.01;
+
+  /** Identifies files written by {@link #save(Path)}. */
+  private static final int MAGIC = 0x56555253;
+
+  /** The number of stripes in the exact set, which must be a power of two. */
+  private static final int STRIPES = 64;
+
+  /** The initial capacity of each stripe, which must be a power of two. */
+  private static final int STRIPE_CAPACITY = 64;
+
+  /** The bits of the Bloom filter. */
+  private final AtomicLongArray bits;
+
+  /** The number of bits in the Bloom filter. */
+  private final long bitCount;
+
+  /** The number of bits set for each URL. */
+  private final int hashes;
+
+  /** The number of URLs the Bloom filter was sized for. */
+  private final int expected;
+
+  /** The false positive probability the Bloom filter was sized for. */
+  private final double falsePositives;
+
+  /** The exact set of hashes, split by the high bits of the hash. */
+  private final Stripe[] stripes;
+
+  /**
+   * Initializes an empty set sized for the default number of URLs.
+   */
+  public VisitedUrlSet() {
+    this(EXPECTED, FALSE_POSITIVES);
+  }
+
+  /**
+   * Initializes an empty set. Adding more than the expected number of URLs is allowed; the Bloom
+   * filter then lets more checks through to the exact set, but answers stay correct.
+   *
+   * @param expected the number of URLs to size the Bloom filter for
+   * @param falsePositives the false positive probability of the Bloom filter at that size
+   */
+  public VisitedUrlSet(int expected, double falsePositives) {
+    if (expected < 1 || !(falsePositives > 0 && falsePositives < 1)) {
+      throw new IllegalArgumentException("Expected size must be positive and probability between 0 and 1.");
+    }
+
+    double optimal = -expected * Math.log(falsePositives) / (Math.log(2) * Math.log(2));
+    long words = Math.max(1, ((long) Math.ceil(optimal) + 63) / 64);
+
+    if (words > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The Bloom filter would be too large.");
+    }
+
+    this.bits = new AtomicLongArray((int) words);
+    this.bitCount = words * 64;
+    this.hashes = Math.max(1, (int) Math.round(bitCount / (double) expected * Math.log(2)));
+    this.expected = expected;
+    this.falsePositives = falsePositives;
+    this.stripes = new Stripe[STRIPES];
+
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * Adds a url to the set.
+   *
+   * @param url the url
+   * @return {@code true} if the url was not already in the set
+   */
+  public boolean add(URL url) {
+    return addHash(hash(url));
+  }
+
+  /**
+   * Returns whether a url is in the set. Most urls that were never added are answered by the
+   * Bloom filter alone, without locking.
+   *
+   * @param url the url
+   * @return {@code true} if the url or another spelling of it was added
+   */
+  public boolean contains(URL url) {
+    return containsHash(hash(url));
+  }
+
+  /**
+   * Returns the number of urls in the set.
+   *
+   * @return the number of urls
+   */
+  public long size() {
+    long size = 0;
+
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size;
+      }
+    }
+
+    return size;
+  }
+
+  /**
+   * Returns the approximate number of bytes used by the Bloom filter and exact set.
+   *
+   * @return the number of bytes
+   */
+  public long bytes() {
+    long bytes = (long) bits.length() * Long.BYTES;
+
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        bytes += (long) stripe.table.length * Long.BYTES;
+      }
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Writes the set to a file, replacing it atomically where supported. Only the hashes are
+   * written; the Bloom filter is rebuilt when loaded. Urls added while saving may or may not be
+   * included.
+   *
+   * @param path the file to write
+   * @throws IOException if unable to write the file
+   */
+  public void save(Path path) throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+
+    try {
+      try (
+          OutputStream output = Files.newOutputStream(temp);
+          DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output));
+      ) {
+        data.writeInt(MAGIC);
+        data.writeInt(expected);
+        data.writeDouble(falsePositives);
+
+        for (Stripe stripe : stripes) {
+          long[] copy;
+          int size;
+
+          synchronized (stripe) {
+            copy = stripe.table.clone();
+            size = stripe.size;
+          }
+
+          data.writeInt(size);
+
+          for (long hash : copy) {
+            if (hash != 0) {
+              data.writeLong(hash);
+            }
+          }
+        }
+      }
+
+      try {
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Reads a set written by {@link #save(Path)}.
+   *
+   * @param path the file to read
+   * @return the set
+   * @throws IOException if unable to read the file or it is not a saved set
+   */
+  public static VisitedUrlSet load(Path path) throws IOException {
+    try (
+        InputStream input = Files.newInputStream(path);
+        DataInputStream data = new DataInputStream(new BufferedInputStream(input));
+    ) {
+      if (data.readInt() != MAGIC) {
+        throw new IOException("Not a visited url set: " + path);
+      }
+
+      int expected = data.readInt();
+      double falsePositives = data.readDouble();
+      VisitedUrlSet set;
+
+      try {
+        set = new VisitedUrlSet(expected, falsePositives);
+      }
+      catch (IllegalArgumentException e) {
+        throw new IOException("Invalid visited url set: " + path, e);
+      }
+
+      for (int i = 0; i < STRIPES; i++) {
+        int size = data.readInt();
+
+        for (int j = 0; j < size; j++) {
+          set.addHash(data.readLong());
+        }
+      }
+
+      return set;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("urls=%d, bytes=%d, hashes=%d", size(), bytes(), hashes);
+  }
+
+  /**
+   * Adds a hash to the Bloom filter and exact set. The Bloom filter bits are set first, so a
+   * check that finds the hash in the exact set always passes the filter too.
+   *
+   * @param hash the url hash, which is never 0
+   * @return {@code true} if the hash was not already in the set
+   */
+  private boolean addHash(long hash) {
+    Stripe stripe = stripes[(int) (hash >>> 58) & (STRIPES - 1)];
+
+    synchronized (stripe) {
+      if (stripe.contains(hash)) {
+        return false;
+      }
+
+      setBits(hash);
+      stripe.add(hash);
+      return true;
+    }
+  }
+
+  /**
+   * Returns whether a hash is in the set, checking the Bloom filter first.
+   *
+   * @param hash the url hash, which is never 0
+   * @return {@code true} if the hash is in the exact set
+   */
+  private boolean containsHash(long hash) {
+    if (!testBits(hash)) {
+      return false;
+    }
+
+    Stripe stripe = stripes[(int) (hash >>> 58) & (STRIPES - 1)];
+
+    synchronized (stripe) {
+      return stripe.contains(hash);
+    }
+  }
+
+  /**
+   * Sets the Bloom filter bits for a hash, deriving each bit position from two halves of the hash.
+   *
+   * @param hash the url hash
+   */
+  private void setBits(long hash) {
+    long first = hash;
+    long second = Long.rotateLeft(hash, 32) | 1;
+
+    for (int i = 0; i < hashes; i++) {
+      long bit = Long.remainderUnsigned(first + i * second, bitCount);
+      int word = (int) (bit >>> 6);
+      long mask = 1L << bit;
+      long old = bits.get(word);
+
+      while ((old & mask) == 0 && !bits.weakCompareAndSetVolatile(word, old, old | mask)) {
+        old = bits.get(word);
+      }
+    }
+  }
+
+  /**
+   * Returns whether every Bloom filter bit for a hash is set.
+   *
+   * @param hash the url hash
+   * @return {@code false} if the hash was definitely never added
+   */
+  private boolean testBits(long hash) {
+    long first = hash;
+    long second = Long.rotateLeft(hash, 32) | 1;
+
+    for (int i = 0; i < hashes; i++) {
+      long bit = Long.remainderUnsigned(first + i * second, bitCount);
+
+      if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the hash of the canonical form of a url.
+   *
+   * @param url the url
+   * @return the hash, which is never 0
+   */
+  private static long hash(URL url) {
+    return ResponseStore.hash(UrlCanonicalizer.canonicalize(url));
+  }
+
+  /**
+   * An open-addressing hash set of non-zero longs, guarded by its own monitor.
+   */
+  private static class Stripe {
+
+    /** The hashes, where 0 marks an empty slot. */
+    private long[] table;
+
+    /** The number of hashes. */
+    private int size;
+
+    /**
+     * Initializes an empty stripe.
+     */
+    public Stripe() {
+      this.table = new long[STRIPE_CAPACITY];
+      this.size = 0;
+    }
+
+    /**
+     * Returns whether the stripe contains a hash.
+     *
+     * @param hash the hash
+     * @return {@code true} if found
+     */
+    public boolean contains(long hash) {
+      int mask = table.length - 1;
+
+      for (int i = (int) hash & mask; table[i] != 0; i = (i + 1) & mask) {
+        if (table[i] == hash) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    /**
+     * Adds a hash that is not yet in the stripe, growing the table past three quarters full.
+     *
+     * @param hash the hash
+     */
+    public void add(long hash) {
+      if ((size + 1) * 4 > table.length * 3) {
+        long[] old = table;
+        table = new long[old.length * 2];
+
+        for (long value : old) {
+          if (value != 0) {
+            insert(value);
+          }
+        }
+      }
+
+      insert(hash);
+      size++;
+    }
+
+    /**
+     * Places a hash in the first empty slot of its probe sequence.
+     *
+     * @param hash the hash
+     */
+    private void insert(long hash) {
+      int mask = table.length - 1;
+      int i = (int) hash & mask;
+
+      while (table[i] != 0) {
+        i = (i + 1) & mask;
+      }
+
+      table[i] = hash;
+    }
+  }
+}
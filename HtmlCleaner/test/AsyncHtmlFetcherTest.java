@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests the {@link AsyncHtmlFetcher} class against a small local web server, making sure the
+ * results match the semantics of {@link HtmlFetcher#fetch(URL, int)}.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+@TestInstance(Lifecycle.PER_CLASS)
+public class AsyncHtmlFetcherTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+  /** The local web server. */
+  private MockServer server;
+
+  /** The fetcher being tested. */
+  private AsyncHtmlFetcher fetcher;
+
+  /** The expected html for the hello page. */
+  private String hello;
+
+  /**
+   * Starts the local web server and fetcher. The "/one" and "/two" paths redirect to "/two" and
+   * "/hello.html" respectively, "/loop" redirects to itself, "/text" returns plain text, "/huge"
+   * returns html too large to buffer, and everything else returns 404.
+   *
+   * @throws IOException if unable to start the server or fetcher
+   */
+  @BeforeAll
+  public void setup() throws IOException {
+    hello = String.join("\n", Files.readAllLines(Path.of("test", "hello.html"), StandardCharsets.UTF_8));
+    server = new MockServer(null, false)
+        .route("/hello.html", MockServer.Response.file(Path.of("test", "hello.html")))
+        .route("/one", MockServer.Response.redirect(301, "/two"))
+        .route("/two", MockServer.Response.redirect(302, "/hello.html"))
+        .route("/loop", MockServer.Response.redirect(301, "/loop"))
+        .route("/text", MockServer.Response.of(200, "text/plain", "hello"))
+        .route("/huge", MockServer.Response.of(200, "text/html", new byte[AsyncHtmlFetcher.MAX_RESPONSE]));
+    fetcher = new AsyncHtmlFetcher();
+  }
+
+  /**
+   * Stops the local web server and fetcher.
+   *
+   * @throws IOException if unable to close the server
+   */
+  @AfterAll
+  public void teardown() throws IOException {
+    fetcher.close();
+    server.close();
+  }
+
+  /**
+   * Returns the local URL for the path.
+   *
+   * @param path the path to fetch
+   * @return the local URL
+   * @throws IOException if unable to create the URL
+   */
+  private URL local(String path) throws IOException {
+    return server.url(path);
+  }
+
+  /**
+   * Tests that a valid page is fetched.
+   */
+  @Test
+  @Order(1)
+  public void testValidHtml() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      String html = fetcher.fetch(local("/hello.html")).get();
+      Assertions.assertEquals(hello, html);
+    });
+  }
+
+  /**
+   * Tests that pages that do not have valid HTML result in a null value.
+   *
+   * @param path the path to fetch
+   */
+  @ParameterizedTest
+  @ValueSource(strings = {"/text", "/nowhere", "/one", "/huge"})
+  @Order(2)
+  public void testNotValidHtml(String path) {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      Assertions.assertNull(fetcher.fetch(local(path)).get());
+    });
+  }
+
+  /**
+   * Tests that redirects are only followed within the redirect limit, exactly like
+   * {@link HtmlFetcher#fetch(URL, int)}.
+   *
+   * @param redirects the number of redirects to try
+   */
+  @ParameterizedTest
+  @ValueSource(ints = {-1, 0, 1, 2, 3})
+  @Order(3)
+  public void testRedirects(int redirects) {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      String expected = HtmlFetcher.fetch(local("/one"), redirects);
+      String actual = fetcher.fetch(local("/one"), redirects).get();
+      Assertions.assertEquals(expected, actual);
+      Assertions.assertEquals(redirects >= 2 ? hello : null, actual);
+    });
+  }
+
+  /**
+   * Tests that a redirect loop eventually gives up.
+   */
+  @Test
+  @Order(4)
+  public void testLoop() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      Assertions.assertNull(fetcher.fetch(local("/loop"), 5).get());
+    });
+  }
+
+  /**
+   * Tests many concurrent fetches over the same few selector threads.
+   */
+  @Test
+  @Order(5)
+  public void testConcurrent() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      List<CompletableFuture<String>> futures = new ArrayList<>();
+
+      for (int i = 0; i < 500; i++) {
+        futures.add(fetcher.fetch(local(i % 2 == 0 ? "/hello.html" : "/one"), 2));
+      }
+
+      for (CompletableFuture<String> future : futures) {
+        Assertions.assertEquals(hello, future.get());
+      }
+    });
+  }
+
+  /**
+   * Tests that a server that accepts connections but never responds is given up on once the read
+   * timeout or the deadline passes, closing the connection.
+   *
+   * @throws IOException if unable to start the silent server
+   */
+  @Test
+  @Order(6)
+  public void testTimeout() throws IOException {
+    FetchContext idle = FetchContext.DEFAULT.withReadTimeout(Duration.ofMillis(300));
+    FetchContext hurried = FetchContext.DEFAULT.withReadTimeout(Duration.ZERO).withDeadline(Duration.ofMillis(300));
+
+    try (
+        ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        AsyncHtmlFetcher timed = new AsyncHtmlFetcher(1, idle);
+        AsyncHtmlFetcher limited = new AsyncHtmlFetcher(1, hurried);
+    ) {
+      URL url = new URL("http", "localhost", silent.getLocalPort(), "/hello.html");
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        for (AsyncHtmlFetcher fetcher : List.of(timed, limited)) {
+          long start = System.nanoTime();
+          CompletableFuture<String> future = fetcher.fetch(url);
+
+          try (Socket socket = silent.accept()) {
+            Assertions.assertNull(future.get());
+            Assertions.assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 300);
+
+            // only returns once the fetcher has closed its end of the connection
+            String request = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            Assertions.assertTrue(request.startsWith("GET /hello.html"), request);
+          }
+        }
+
+        // the fetcher still works for servers that do respond
+        Assertions.assertEquals(hello, timed.fetch(local("/hello.html")).get());
+      });
+    }
+  }
+}
@@ -0,0 +1,303 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Measures how many characters per second each cleaner engine processes and how many bytes it
+ * allocates per character, over the html test fixtures and pages from {@link CleanerFuzzer}. The
+ * results are compared to a baseline file, and a run fails if throughput drops or allocation rises
+ * by more than a threshold. Engines missing from the baseline are recorded on their first run.
+ * Run it directly to check or update a baseline:
+ *
+ * <pre>
+ * java CleanerBenchmark [baseline file] [threshold] [update]
+ * </pre>
+ *
+ * Throughput depends on the machine and how busy it is, so a baseline is only meaningful on the
+ * machine that recorded it, and the threshold should allow for the variation seen between a few
+ * runs there. Allocation barely varies between runs.
+ */
+public class CleanerBenchmark {
+
+  /** The default baseline file. */
+  public static final Path BASELINE = Path.of("cleaner-baseline.properties");
+
+  /** The default fraction throughput may drop or allocation may rise before a run fails. */
+  public static final double THRESHOLD = 0.25;
+
+  /** The number of times the corpus is cleaned before measuring, so the engine is compiled. */
+  public static final int WARMUP = 20;
+
+  /** The default number of times the corpus is cleaned, keeping the fastest. */
+  public static final int ROUNDS = 10;
+
+  /** The number of generated pages added to the corpus. */
+  public static final int PAGES = 50;
+
+  /** The number of fuzzer cases joined into each generated page. */
+  public static final int CASES_PER_PAGE = 100;
+
+  /** The suffix of the throughput keys in the baseline file. */
+  private static final String THROUGHPUT = ".throughput";
+
+  /** The suffix of the allocation keys in the baseline file. */
+  private static final String ALLOCATION = ".allocation";
+
+  /**
+   * Returns the engines measured: the reference followed by every optimized engine.
+   *
+   * @return the engines by name
+   */
+  public static Map<String, CleanerFuzzer.Engine> engines() {
+    Map<String, CleanerFuzzer.Engine> engines = new LinkedHashMap<>();
+    engines.put("reference", CleanerFuzzer.reference());
+    engines.putAll(CleanerFuzzer.engines());
+    return engines;
+  }
+
+  /**
+   * Returns the html fixtures in a directory followed by pages joined from fuzzer cases.
+   *
+   * @param fixtures the directory of html fixtures
+   * @param pages the number of generated pages
+   * @return the corpus
+   * @throws IOException if unable to read the fixtures
+   */
+  public static List<String> corpus(Path fixtures, int pages) throws IOException {
+    List<String> corpus = new ArrayList<>();
+
+    try (DirectoryStream<Path> listing = Files.newDirectoryStream(fixtures, "*.html")) {
+      for (Path path : listing) {
+        corpus.add(Files.readString(path, StandardCharsets.UTF_8));
+      }
+    }
+
+    for (int page = 0; page < pages; page++) {
+      StringBuilder html = new StringBuilder();
+
+      for (int i = 0; i < CASES_PER_PAGE; i++) {
+        html.append(CleanerFuzzer.generate(CleanerFuzzer.SEED, page * CASES_PER_PAGE + i));
+      }
+
+      corpus.add(html.toString());
+    }
+
+    return corpus;
+  }
+
+  /**
+   * Cleans the corpus a few times to warm up, then several more times, keeping the fastest round.
+   *
+   * @param engine the engine to measure
+   * @param corpus the html to clean
+   * @param rounds the number of measured rounds
+   * @return the result of the fastest round
+   * @throws IOException if the engine is unable to clean
+   */
+  public static Result run(CleanerFuzzer.Engine engine, List<String> corpus, int rounds) throws IOException {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    Result best = null;
+
+    for (int round = -WARMUP; round < rounds; round++) {
+      long characters = 0;
+      long produced = 0;
+      long allocated = threads.getThreadAllocatedBytes(thread);
+      long start = System.nanoTime();
+
+      for (String html : corpus) {
+        characters += html.length();
+        produced += engine.clean(html).length();
+      }
+
+      long elapsed = System.nanoTime() - start;
+      allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+      if (round >= 0 && (best == null || elapsed < best.elapsed)) {
+        best = new Result(characters, produced, elapsed, allocated);
+      }
+    }
+
+    return best;
+  }
+
+  /**
+   * Compares a result to the baseline, describing every regression beyond the threshold.
+   *
+   * @param baseline the baseline
+   * @param name the name of the engine
+   * @param result the result
+   * @param threshold the fraction throughput may drop or allocation may rise
+   * @return a description of each regression, or an empty list if there are none
+   */
+  public static List<String> compare(Properties baseline, String name, Result result, double threshold) {
+    List<String> regressions = new ArrayList<>();
+    String throughput = baseline.getProperty(name + THROUGHPUT);
+    String allocation = baseline.getProperty(name + ALLOCATION);
+
+    if (throughput != null && result.getThroughput() < Double.parseDouble(throughput) * (1 - threshold)) {
+      regressions.add(String.format("%s throughput dropped from %s to %.0f characters/sec",
+          name, throughput, result.getThroughput()));
+    }
+
+    if (allocation != null && result.getAllocation() > Double.parseDouble(allocation) * (1 + threshold)) {
+      regressions.add(String.format("%s allocation rose from %s to %.2f bytes/character",
+          name, allocation, result.getAllocation()));
+    }
+
+    return regressions;
+  }
+
+  /**
+   * Compares results to the baseline file and records any engine the file is missing. If asked
+   * to update, every result replaces its baseline instead and nothing counts as a regression.
+   *
+   * @param file the baseline file, which need not exist yet
+   * @param results the results by engine name
+   * @param threshold the fraction throughput may drop or allocation may rise
+   * @param update whether to replace the baseline with these results
+   * @return a description of each regression, or an empty list if there are none
+   * @throws IOException if unable to read or write the baseline file
+   */
+  public static List<String> check(Path file, Map<String, Result> results, double threshold, boolean update)
+      throws IOException {
+    Properties baseline = new Properties();
+
+    if (Files.exists(file)) {
+      try (InputStream in = Files.newInputStream(file)) {
+        baseline.load(in);
+      }
+    }
+
+    List<String> regressions = new ArrayList<>();
+    boolean changed = false;
+
+    for (Map.Entry<String, Result> entry : results.entrySet()) {
+      String name = entry.getKey();
+      Result result = entry.getValue();
+
+      if (update || !baseline.containsKey(name + THROUGHPUT) || !baseline.containsKey(name + ALLOCATION)) {
+        baseline.setProperty(name + THROUGHPUT, String.format(Locale.ROOT, "%.0f", result.getThroughput()));
+        baseline.setProperty(name + ALLOCATION, String.format(Locale.ROOT, "%.2f", result.getAllocation()));
+        changed = true;
+      }
+      else {
+        regressions.addAll(compare(baseline, name, result, threshold));
+      }
+    }
+
+    if (changed) {
+      try (OutputStream out = Files.newOutputStream(file)) {
+        baseline.store(out, "Cleaner throughput in characters/sec and allocation in bytes/character");
+      }
+    }
+
+    return regressions;
+  }
+
+  /**
+   * Measures every engine over the fixtures and generated pages and checks the baseline, exiting
+   * with a failure status if anything regressed.
+   *
+   * @param args the baseline file, threshold, and "update" to replace the baseline, all optional
+   * @throws IOException if unable to read the fixtures or the baseline
+   */
+  public static void main(String[] args) throws IOException {
+    Path file = args.length > 0 ? Path.of(args[0]) : BASELINE;
+    double threshold = args.length > 1 ? Double.parseDouble(args[1]) : THRESHOLD;
+    boolean update = args.length > 2 && args[2].equals("update");
+
+    List<String> corpus = corpus(Path.of("test"), PAGES);
+    Map<String, Result> results = new LinkedHashMap<>();
+
+    for (Map.Entry<String, CleanerFuzzer.Engine> engine : engines().entrySet()) {
+      Result result = run(engine.getValue(), corpus, ROUNDS);
+      results.put(engine.getKey(), result);
+      System.out.printf("%-16s %s%n", engine.getKey(), result);
+    }
+
+    List<String> regressions = check(file, results, threshold, update);
+    regressions.forEach(System.out::println);
+
+    if (!regressions.isEmpty()) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * The outcome of a benchmark run.
+   */
+  public static class Result {
+
+    /** The number of characters of html cleaned. */
+    private final long characters;
+
+    /** The number of characters of text produced. */
+    private final long produced;
+
+    /** How long the run took in nanoseconds. */
+    private final long elapsed;
+
+    /** The number of bytes allocated by the cleaning thread. */
+    private final long allocated;
+
+    /**
+     * Initializes a result.
+     *
+     * @param characters the number of characters of html cleaned
+     * @param produced the number of characters of text produced
+     * @param elapsed how long the run took in nanoseconds
+     * @param allocated the number of bytes allocated by the cleaning thread
+     */
+    private Result(long characters, long produced, long elapsed, long allocated) {
+      this.characters = characters;
+      this.produced = produced;
+      this.elapsed = elapsed;
+      this.allocated = allocated;
+    }
+
+    /**
+     * Returns the number of characters of html cleaned.
+     *
+     * @return the number of characters
+     */
+    public long getCharacters() {
+      return characters;
+    }
+
+    /**
+     * Returns the number of characters of html cleaned per second.
+     *
+     * @return the throughput
+     */
+    public double getThroughput() {
+      return characters / (elapsed / 1e9);
+    }
+
+    /**
+     * Returns the number of bytes allocated per character of html cleaned.
+     *
+     * @return the allocation
+     */
+    public double getAllocation() {
+      return (double) allocated / characters;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("characters=%d, text=%d, characters/sec=%.0f, bytes/character=%.2f",
+          characters, produced, getThroughput(), getAllocation());
+    }
+  }
+}
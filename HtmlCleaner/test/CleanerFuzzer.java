@@ -0,0 +1,491 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates random html from a small grammar and checks that every optimized cleaner produces
+ * exactly the same text as the reference regular expressions in {@link HtmlCleaner}, applied
+ * method by method. The grammar favors the constructs the cleaners disagree on most easily:
+ * unfinished tags and comments, block elements with odd closing tags, entities without
+ * semicolons, mixed case, and characters that change length or case oddly.
+ *
+ * Each case is generated from the seed and its index alone, so a failure can be reproduced
+ * without running the cases before it. A mismatch is shrunk to a minimal input that still
+ * disagrees before it is reported. Run it directly to fuzz for longer:
+ *
+ * <pre>
+ * java CleanerFuzzer [seed] [cases]
+ * </pre>
+ *
+ * @see HtmlCleanerStripTest
+ * @see StreamingHtmlCleanerTest
+ */
+public class CleanerFuzzer {
+
+  /** The default seed. */
+  public static final long SEED = 0x5eed;
+
+  /** The default number of cases. */
+  public static final int CASES = 5000;
+
+  /** The deepest nesting of generated elements. */
+  public static final int DEPTH = 4;
+
+  /** The element names generated, including names that only start like removed elements. */
+  private static final String[] ELEMENTS = {
+      "head", "style", "script", "noscript", "svg", "p", "b", "a", "title", "scripts", "scriptx",
+      "styles", "svgs", "nos"
+  };
+
+  /** The entity names generated, including ones the entity pattern does not match. */
+  private static final String[] ENTITIES = {
+      "amp", "lt", "ndash", "#8211", "#x2013", "", " ", "a b", "a&b", "copy", "x\n"
+  };
+
+  /** Text fragments, including characters whose case mapping is unusual. */
+  private static final String[] TEXT = {
+      "hello", "world", " ", "\n", "\r\n", "\t", ">", ";", "&", "-", "--", "!", "/", "=", "\"", "'",
+      "café", "日本語", "😀", "\uD835\uDC00", "\u0301", "İ", "ı", "ſ", "K", "SCRIPT", "Style", "x"
+  };
+
+  /**
+   * Cleans html into text.
+   */
+  @FunctionalInterface
+  public interface Engine {
+
+    /**
+     * Cleans the html.
+     *
+     * @param html the html
+     * @return the text
+     * @throws IOException if unable to clean
+     */
+    String clean(String html) throws IOException;
+  }
+
+  /**
+   * Returns the reference engine, which applies each method of {@link HtmlCleaner} in turn.
+   *
+   * @return the reference engine
+   */
+  public static Engine reference() {
+    return HtmlCleaner::stripHtml;
+  }
+
+  /**
+   * Returns the optimized engines by name.
+   *
+   * @return the engines to compare against the reference
+   */
+  public static Map<String, Engine> engines() {
+    Map<String, Engine> engines = new LinkedHashMap<>();
+    engines.put("streaming", StreamingHtmlCleaner::stripHtml);
+
+    // the same cleaner fed a few characters at a time, so every construct is split across reads
+    engines.put("streaming-split", html -> {
+      StringBuilder text = new StringBuilder();
+      StreamingHtmlCleaner.clean(new StringReader(html), text, false, 1 + Math.floorMod(html.hashCode(), 7));
+      return text.toString();
+    });
+
+    return engines;
+  }
+
+  /**
+   * Generates the html for one case.
+   *
+   * @param seed the seed
+   * @param index the case number
+   * @return the html
+   */
+  public static String generate(long seed, int index) {
+    Random random = new Random(seed * 0x9E3779B97F4A7C15L + index);
+    StringBuilder html = new StringBuilder();
+    int nodes = 1 + random.nextInt(12);
+
+    for (int i = 0; i < nodes; i++) {
+      node(random, html, random.nextInt(DEPTH + 1));
+    }
+
+    return html.toString();
+  }
+
+  /**
+   * Generates a random node.
+   *
+   * @param random the source of randomness
+   * @param html where to append the node
+   * @param depth how much deeper elements may nest
+   */
+  private static void node(Random random, StringBuilder html, int depth) {
+    int kind = random.nextInt(depth > 0 ? 10 : 7);
+
+    switch (kind) {
+      case 0:
+      case 1:
+        text(random, html);
+        break;
+      case 2:
+        entity(random, html);
+        break;
+      case 3:
+        tag(random, html, pick(random, ELEMENTS), random.nextBoolean());
+        break;
+      case 4:
+        comment(random, html);
+        break;
+      case 5:
+        // a stray fragment of markup
+        html.append(pick(random, new String[] {"<", "</", "<!", "<!-", "<!--", "-->", "<<", "< b>", ">"}));
+        break;
+      case 6:
+        html.append(pick(random, TEXT));
+        break;
+      default:
+        element(random, html, depth - 1);
+        break;
+    }
+  }
+
+  /**
+   * Generates a few text fragments.
+   *
+   * @param random the source of randomness
+   * @param html where to append the text
+   */
+  private static void text(Random random, StringBuilder html) {
+    int fragments = 1 + random.nextInt(4);
+
+    for (int i = 0; i < fragments; i++) {
+      html.append(pick(random, TEXT));
+    }
+  }
+
+  /**
+   * Generates an entity, which may be missing its semicolon.
+   *
+   * @param random the source of randomness
+   * @param html where to append the entity
+   */
+  private static void entity(Random random, StringBuilder html) {
+    html.append(random.nextInt(8) == 0 ? "&&" : "&").append(pick(random, ENTITIES));
+
+    if (random.nextInt(5) > 0) {
+      html.append(';');
+    }
+  }
+
+  /**
+   * Generates an opening or closing tag with random attributes, which may be unfinished.
+   *
+   * @param random the source of randomness
+   * @param html where to append the tag
+   * @param name the element name
+   * @param closing whether to generate a closing tag
+   */
+  private static void tag(Random random, StringBuilder html, String name, boolean closing) {
+    html.append(closing ? "</" : "<");
+
+    if (closing && random.nextInt(8) == 0) {
+      html.append(' ');
+    }
+
+    html.append(mixCase(random, name));
+
+    int attributes = closing ? 0 : random.nextInt(3);
+
+    for (int i = 0; i < attributes; i++) {
+      html.append(pick(random, new String[] {" ", "\n", "\t"}));
+      html.append(pick(random, new String[] {"id", "class", "type", "x"}));
+
+      if (random.nextBoolean()) {
+        html.append("=\"").append(pick(random, new String[] {"a", "b c", "text/css", "&amp;", "<"})).append('"');
+      }
+    }
+
+    if (random.nextInt(4) == 0) {
+      html.append(pick(random, new String[] {" ", "\n", "\t", " /", "x"}));
+    }
+
+    if (random.nextInt(12) > 0) {
+      html.append('>');
+    }
+  }
+
+  /**
+   * Generates a comment, which may be empty, unusual, or unfinished.
+   *
+   * @param random the source of randomness
+   * @param html where to append the comment
+   */
+  private static void comment(Random random, StringBuilder html) {
+    html.append("<!--");
+
+    if (random.nextInt(4) == 0) {
+      html.append(pick(random, new String[] {">", "->", "-", "--", "<!--"}));
+    }
+    else {
+      text(random, html);
+    }
+
+    if (random.nextInt(10) > 0) {
+      html.append(pick(random, new String[] {"-->", "-->", "--->", "--!>", "- ->"}));
+    }
+  }
+
+  /**
+   * Generates an element with random children, whose closing tag may be odd or missing.
+   *
+   * @param random the source of randomness
+   * @param html where to append the element
+   * @param depth how much deeper elements may nest
+   */
+  private static void element(Random random, StringBuilder html, int depth) {
+    String name = pick(random, ELEMENTS);
+    tag(random, html, name, false);
+
+    int children = random.nextInt(4);
+
+    for (int i = 0; i < children; i++) {
+      node(random, html, Math.max(depth, 0));
+    }
+
+    if (random.nextInt(10) > 0) {
+      tag(random, html, random.nextInt(6) == 0 ? pick(random, ELEMENTS) : name, true);
+    }
+  }
+
+  /**
+   * Returns a random element of an array.
+   *
+   * @param random the source of randomness
+   * @param choices the choices
+   * @return the chosen element
+   */
+  private static String pick(Random random, String[] choices) {
+    return choices[random.nextInt(choices.length)];
+  }
+
+  /**
+   * Randomly changes the case of each letter.
+   *
+   * @param random the source of randomness
+   * @param name the name
+   * @return the name in mixed case
+   */
+  private static String mixCase(Random random, String name) {
+    if (random.nextInt(3) > 0) {
+      return name;
+    }
+
+    StringBuilder mixed = new StringBuilder(name.length());
+
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      mixed.append(random.nextBoolean() ? Character.toUpperCase(c) : c);
+    }
+
+    return mixed.toString();
+  }
+
+  /**
+   * Runs cases through every engine and returns the first disagreement with the reference, shrunk
+   * to a minimal input.
+   *
+   * @param seed the seed
+   * @param cases the number of cases
+   * @param engines the engines to compare against the reference
+   * @return the first mismatch, or {@code null} if every engine agreed on every case
+   */
+  public static Mismatch fuzz(long seed, int cases, Map<String, Engine> engines) {
+    Engine reference = reference();
+
+    for (int index = 0; index < cases; index++) {
+      String html = generate(seed, index);
+
+      for (Map.Entry<String, Engine> engine : engines.entrySet()) {
+        if (!agrees(reference, engine.getValue(), html)) {
+          String shrunk = shrink(html, reference, engine.getValue());
+          return new Mismatch(engine.getKey(), seed, index, html, shrunk,
+              clean(reference, shrunk), clean(engine.getValue(), shrunk));
+        }
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Removes as much of the html as possible while the engines still disagree, first in large
+   * pieces and then in smaller ones down to single characters. The result is minimal in that
+   * removing any one character makes the engines agree.
+   *
+   * @param html html the engines disagree on
+   * @param reference the reference engine
+   * @param engine the engine that disagrees
+   * @return the smallest html found that the engines still disagree on
+   */
+  public static String shrink(String html, Engine reference, Engine engine) {
+    String current = html;
+    int chunk = Math.max(1, current.length() / 2);
+
+    while (true) {
+      boolean removed = false;
+      int start = 0;
+
+      while (start < current.length()) {
+        int end = Math.min(current.length(), start + chunk);
+
+        // never split a surrogate pair, which would only find mismatches in broken text
+        if (end < current.length() && Character.isLowSurrogate(current.charAt(end))) {
+          end++;
+        }
+
+        String candidate = current.substring(0, start) + current.substring(end);
+
+        if (!agrees(reference, engine, candidate)) {
+          current = candidate;
+          removed = true;
+        }
+        else {
+          start = end;
+        }
+      }
+
+      if (!removed) {
+        if (chunk == 1) {
+          return current;
+        }
+
+        chunk /= 2;
+      }
+    }
+  }
+
+  /**
+   * Returns whether two engines produce the same text, counting a failure in either one as a
+   * disagreement unless both fail.
+   *
+   * @param reference the reference engine
+   * @param engine the other engine
+   * @param html the html
+   * @return {@code true} if the engines agree
+   */
+  private static boolean agrees(Engine reference, Engine engine, String html) {
+    return clean(reference, html).equals(clean(engine, html));
+  }
+
+  /**
+   * Cleans html, describing any failure instead of throwing it.
+   *
+   * @param engine the engine
+   * @param html the html
+   * @return the text, or a description of the failure
+   */
+  private static String clean(Engine engine, String html) {
+    try {
+      return engine.clean(html);
+    }
+    catch (IOException | RuntimeException e) {
+      return "failed: " + e;
+    }
+  }
+
+  /**
+   * Fuzzes every engine and prints the first mismatch, if any.
+   *
+   * @param args the seed and number of cases, both optional
+   */
+  public static void main(String[] args) {
+    long seed = args.length > 0 ? Long.parseLong(args[0]) : SEED;
+    int cases = args.length > 1 ? Integer.parseInt(args[1]) : CASES;
+    Mismatch mismatch = fuzz(seed, cases, engines());
+    System.out.println(mismatch == null ? "No mismatches in " + cases + " cases." : mismatch);
+  }
+
+  /**
+   * A case an engine disagrees with the reference on.
+   */
+  public static class Mismatch {
+
+    /** The name of the engine. */
+    private final String engine;
+
+    /** The seed. */
+    private final long seed;
+
+    /** The case number. */
+    private final int index;
+
+    /** The generated html. */
+    private final String original;
+
+    /** The shrunk html. */
+    private final String html;
+
+    /** The reference text for the shrunk html. */
+    private final String expected;
+
+    /** The engine text for the shrunk html. */
+    private final String actual;
+
+    /**
+     * Initializes a mismatch.
+     *
+     * @param engine the name of the engine
+     * @param seed the seed
+     * @param index the case number
+     * @param original the generated html
+     * @param html the shrunk html
+     * @param expected the reference text for the shrunk html
+     * @param actual the engine text for the shrunk html
+     */
+    private Mismatch(String engine, long seed, int index, String original, String html, String expected,
+        String actual) {
+      this.engine = engine;
+      this.seed = seed;
+      this.index = index;
+      this.original = original;
+      this.html = html;
+      this.expected = expected;
+      this.actual = actual;
+    }
+
+    /**
+     * Returns the name of the engine that disagreed.
+     *
+     * @return the engine name
+     */
+    public String getEngine() {
+      return engine;
+    }
+
+    /**
+     * Returns the html as generated, before shrinking.
+     *
+     * @return the generated html
+     */
+    public String getOriginal() {
+      return original;
+    }
+
+    /**
+     * Returns the smallest html found that the engine still disagrees on.
+     *
+     * @return the shrunk html
+     */
+    public String getHtml() {
+      return html;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Engine %s disagrees on case %d of seed %d (shrunk from %d to %d characters):",
+          engine, index, seed, original.length(), html.length()) +
+          String.format(HtmlCleanerStripTest.format, html, expected, actual);
+    }
+  }
+}
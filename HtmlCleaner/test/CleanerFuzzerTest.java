@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that every optimized cleaner agrees with the reference on generated html, that
+ * disagreements shrink to minimal cases, and that the {@link CleanerBenchmark} baseline catches
+ * regressions. Set the {@code cleaner.baseline} system property to a baseline file to also gate
+ * the real measurements against it.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class CleanerFuzzerTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+  /** A temporary directory for baseline files. */
+  @TempDir
+  public Path directory;
+
+  /**
+   * Tests that the same seed and case number always generate the same html.
+   */
+  @Test
+  @Order(1)
+  public void testGenerate() {
+    for (int i = 0; i < 100; i++) {
+      Assertions.assertEquals(CleanerFuzzer.generate(CleanerFuzzer.SEED, i), CleanerFuzzer.generate(CleanerFuzzer.SEED, i));
+    }
+
+    Assertions.assertNotEquals(CleanerFuzzer.generate(1, 0), CleanerFuzzer.generate(2, 0));
+  }
+
+  /**
+   * Tests that every optimized engine agrees with the reference on every generated case.
+   */
+  @Test
+  @Order(2)
+  public void testEngines() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      CleanerFuzzer.Mismatch mismatch = CleanerFuzzer.fuzz(CleanerFuzzer.SEED, CleanerFuzzer.CASES, CleanerFuzzer.engines());
+      Assertions.assertNull(mismatch, () -> String.valueOf(mismatch));
+    });
+  }
+
+  /**
+   * Tests that a mismatch from an engine that forgets to remove entities shrinks to a single
+   * entity, and that removing any one character from it makes the engines agree.
+   */
+  @Test
+  @Order(3)
+  public void testShrink() {
+    CleanerFuzzer.Engine broken = html -> HtmlCleaner.stripTags(HtmlCleaner.stripBlockElements(html));
+    Map<String, CleanerFuzzer.Engine> engines = Map.of("broken", broken);
+
+    CleanerFuzzer.Mismatch mismatch = CleanerFuzzer.fuzz(CleanerFuzzer.SEED, CleanerFuzzer.CASES, engines);
+    Assertions.assertNotNull(mismatch);
+    Assertions.assertEquals("broken", mismatch.getEngine());
+
+    String html = mismatch.getHtml();
+    Assertions.assertTrue(html.matches("&[^&;\\s];"), mismatch::toString);
+    Assertions.assertTrue(html.length() < mismatch.getOriginal().length(), mismatch::toString);
+
+    for (int i = 0; i < html.length(); i++) {
+      String smaller = html.substring(0, i) + html.substring(i + 1);
+      Assertions.assertEquals(CleanerFuzzer.shrink(smaller, CleanerFuzzer.reference(), broken), smaller);
+    }
+  }
+
+  /**
+   * Tests that the first run records a baseline, the same results pass against it, and results
+   * far worse than the baseline fail until the baseline is updated.
+   *
+   * @throws IOException if unable to read or write the baseline
+   */
+  @Test
+  @Order(4)
+  public void testBaseline() throws IOException {
+    Path file = directory.resolve("baseline.properties");
+    List<String> corpus = CleanerBenchmark.corpus(Path.of("test"), 5);
+    CleanerBenchmark.Result result = CleanerBenchmark.run(StreamingHtmlCleaner::stripHtml, corpus, 2);
+    Map<String, CleanerBenchmark.Result> results = Map.of("streaming", result);
+
+    Assertions.assertTrue(result.getCharacters() > 0);
+    Assertions.assertTrue(result.getThroughput() > 0);
+    Assertions.assertTrue(result.getAllocation() > 0);
+
+    Assertions.assertEquals(List.of(), CleanerBenchmark.check(file, results, CleanerBenchmark.THRESHOLD, false));
+    Assertions.assertTrue(Files.exists(file));
+    Assertions.assertEquals(List.of(), CleanerBenchmark.check(file, results, CleanerBenchmark.THRESHOLD, false));
+
+    // pretend the engine used to be ten times faster and allocate a tenth as much
+    Properties better = new Properties();
+    better.setProperty("streaming.throughput", String.format(Locale.ROOT, "%.0f", result.getThroughput() * 10));
+    better.setProperty("streaming.allocation", String.format(Locale.ROOT, "%.2f", result.getAllocation() / 10));
+
+    try (OutputStream out = Files.newOutputStream(file)) {
+      better.store(out, null);
+    }
+
+    List<String> regressions = CleanerBenchmark.check(file, results, CleanerBenchmark.THRESHOLD, false);
+    Assertions.assertEquals(2, regressions.size(), regressions::toString);
+    Assertions.assertTrue(regressions.get(0).contains("throughput"), regressions::toString);
+    Assertions.assertTrue(regressions.get(1).contains("allocation"), regressions::toString);
+
+    Assertions.assertEquals(List.of(), CleanerBenchmark.check(file, results, CleanerBenchmark.THRESHOLD, true));
+    Assertions.assertEquals(List.of(), CleanerBenchmark.check(file, results, CleanerBenchmark.THRESHOLD, false));
+  }
+
+  /**
+   * Tests every engine against the baseline file named by the {@code cleaner.baseline} system
+   * property, recording the engines it is missing.
+   *
+   * @throws IOException if unable to read or write the baseline
+   */
+  @Test
+  @Order(5)
+  @EnabledIfSystemProperty(named = "cleaner.baseline", matches = ".+")
+  public void testRegression() throws IOException {
+    List<String> corpus = CleanerBenchmark.corpus(Path.of("test"), CleanerBenchmark.PAGES);
+    Map<String, CleanerBenchmark.Result> results = new LinkedHashMap<>();
+
+    for (Map.Entry<String, CleanerFuzzer.Engine> engine : CleanerBenchmark.engines().entrySet()) {
+      results.put(engine.getKey(), CleanerBenchmark.run(engine.getValue(), corpus, CleanerBenchmark.ROUNDS));
+    }
+
+    Path file = Path.of(System.getProperty("cleaner.baseline"));
+    List<String> regressions = CleanerBenchmark.check(file, results, CleanerBenchmark.THRESHOLD, false);
+    Assertions.assertEquals(List.of(), regressions, () -> results.toString());
+  }
+}
@@ -0,0 +1,212 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests how {@link ContentDecoder} resolves and decodes the charset of content, both on its own
+ * and through the fetchers against a {@link MockServer}.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class ContentDecoderTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+  /** Text that needs more than ASCII, including a character outside the basic plane. */
+  private static final String TEXT = "<p>café “quoted” 日本語 😀</p>";
+
+  /** The windows-1252 charset. */
+  private static final Charset WINDOWS = Charset.forName("windows-1252");
+
+  /** The Shift_JIS charset. */
+  private static final Charset SHIFT_JIS = Charset.forName("Shift_JIS");
+
+  /**
+   * Reads everything from a reader the given number of characters at a time.
+   *
+   * @param reader the reader
+   * @param size the number of characters to request at a time
+   * @return the characters read
+   * @throws IOException if unable to read
+   */
+  private static String readAll(Reader reader, int size) throws IOException {
+    StringBuilder text = new StringBuilder();
+    char[] buffer = new char[size];
+    int read;
+
+    while ((read = reader.read(buffer, 0, size)) >= 0) {
+      text.append(buffer, 0, read);
+    }
+
+    return text.toString();
+  }
+
+  /**
+   * Decodes bytes through a stream the given number of bytes and characters at a time.
+   *
+   * @param bytes the content
+   * @param declared the declared charset
+   * @param size the buffer size
+   * @return the decoded content
+   * @throws IOException if unable to read
+   */
+  private static String stream(byte[] bytes, String declared, int size) throws IOException {
+    try (Reader reader = ContentDecoder.open(new ByteArrayInputStream(bytes), declared, size)) {
+      return readAll(reader, size);
+    }
+  }
+
+  /**
+   * Returns the bytes with some bytes placed in front.
+   *
+   * @param prefix the bytes to place first
+   * @param bytes the remaining bytes
+   * @return the combined bytes
+   */
+  private static byte[] join(int[] prefix, byte[] bytes) {
+    byte[] joined = new byte[prefix.length + bytes.length];
+
+    for (int i = 0; i < prefix.length; i++) {
+      joined[i] = (byte) prefix[i];
+    }
+
+    System.arraycopy(bytes, 0, joined, prefix.length, bytes.length);
+    return joined;
+  }
+
+  /**
+   * Tests that the header is preferred, then the byte order mark, then a meta tag.
+   */
+  @Test
+  @Order(1)
+  public void testDetect() {
+    byte[] meta = "<html><head><meta charset=\"Shift_JIS\">".getBytes(StandardCharsets.US_ASCII);
+    byte[] equiv = "<META HTTP-EQUIV='Content-Type' CONTENT='text/html; charset=euc-jp'>".getBytes(StandardCharsets.US_ASCII);
+    byte[] plain = "<p>hello</p>".getBytes(StandardCharsets.US_ASCII);
+    byte[] bom = join(new int[] {0xEF, 0xBB, 0xBF}, meta);
+
+    Assertions.assertEquals(WINDOWS, ContentDecoder.detect("\"windows-1252\"", meta, 0, meta.length));
+    Assertions.assertEquals(StandardCharsets.UTF_8, ContentDecoder.detect(null, bom, 0, bom.length));
+    Assertions.assertEquals(SHIFT_JIS, ContentDecoder.detect(null, meta, 0, meta.length));
+    Assertions.assertEquals(Charset.forName("EUC-JP"), ContentDecoder.detect(null, equiv, 0, equiv.length));
+    Assertions.assertEquals(StandardCharsets.UTF_8, ContentDecoder.detect(null, plain, 0, plain.length));
+    Assertions.assertEquals(SHIFT_JIS, ContentDecoder.detect("no-such-charset", meta, 0, meta.length));
+
+    // latin-1 labels mean windows-1252, and a meta tag beyond the sniffed bytes is ignored
+    Assertions.assertEquals(WINDOWS, ContentDecoder.lookup("ISO-8859-1"));
+    byte[] late = join(new int[ContentDecoder.SNIFF], meta);
+    Assertions.assertEquals(ContentDecoder.DEFAULT, ContentDecoder.detect(null, late, 0, late.length));
+  }
+
+  /**
+   * Tests decoding complete content in several charsets, with and without byte order marks.
+   *
+   * @throws IOException if unable to read
+   */
+  @Test
+  @Order(2)
+  public void testDecode() throws IOException {
+    String latin = "<p>café “quoted”</p>";
+    byte[] windows = latin.getBytes(WINDOWS);
+    Assertions.assertEquals(latin, ContentDecoder.decode(windows, 0, windows.length, "iso-8859-1"));
+    Assertions.assertEquals(latin, stream(windows, "windows-1252", 64));
+
+    String japanese = "<meta charset=shift_jis><p>日本語</p>";
+    byte[] sjis = japanese.getBytes(SHIFT_JIS);
+    Assertions.assertEquals(japanese, ContentDecoder.decode(sjis, 0, sjis.length, null));
+    Assertions.assertEquals(japanese, stream(sjis, null, 64));
+
+    byte[] utf8 = join(new int[] {0xEF, 0xBB, 0xBF}, TEXT.getBytes(StandardCharsets.UTF_8));
+    Assertions.assertEquals(TEXT, ContentDecoder.decode(utf8, 0, utf8.length, null));
+    Assertions.assertEquals(TEXT, stream(utf8, "utf-8", 64));
+
+    byte[] utf16 = join(new int[] {0xFF, 0xFE}, TEXT.getBytes(StandardCharsets.UTF_16LE));
+    Assertions.assertEquals(TEXT, ContentDecoder.decode(utf16, 0, utf16.length, null));
+    Assertions.assertEquals(TEXT, stream(utf16, "utf-16", 64));
+
+    byte[] ascii = "<p>plain</p>\r\n".getBytes(StandardCharsets.US_ASCII);
+    Assertions.assertEquals("plain</p>\r\n", ContentDecoder.decode(ascii, 3, ascii.length - 3, null));
+  }
+
+  /**
+   * Tests that the reader gives the same characters as decoding at once, however the bytes and
+   * characters are split, including surrogate pairs read one character at a time and malformed
+   * bytes at the end.
+   *
+   * @throws IOException if unable to read
+   */
+  @Test
+  @Order(3)
+  public void testStream() throws IOException {
+    StringBuilder mixed = new StringBuilder();
+    Random random = new Random(7);
+
+    for (int i = 0; i < 2000; i++) {
+      mixed.append(random.nextInt(4) == 0 ? TEXT : "plain ascii text\n");
+    }
+
+    String expected = mixed.toString();
+    byte[] bytes = expected.getBytes(StandardCharsets.UTF_8);
+
+    for (int size : new int[] {1, 2, 3, 7, 64, 8192}) {
+      try (Reader reader = new ContentDecoder(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8, size)) {
+        Assertions.assertEquals(expected, readAll(reader, size), "size " + size);
+      }
+    }
+
+    try (Reader reader = new ContentDecoder(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8, 64)) {
+      StringBuilder single = new StringBuilder();
+      int next;
+
+      while ((next = reader.read()) >= 0) {
+        single.append((char) next);
+      }
+
+      Assertions.assertEquals(expected, single.toString());
+    }
+
+    byte[] truncated = "abé".getBytes(StandardCharsets.UTF_8);
+    InputStream cut = new ByteArrayInputStream(truncated, 0, truncated.length - 1);
+    Assertions.assertEquals("ab�", readAll(new ContentDecoder(cut, StandardCharsets.UTF_8, 64), 16));
+  }
+
+  /**
+   * Tests that pages in other charsets are decoded correctly by every fetcher.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(4)
+  public void testFetch() throws IOException {
+    String html = "<html><head><meta charset=\"shift_jis\"></head><body><p>日本語</p></body></html>";
+    String latin = "<p>café “quoted”</p>";
+    FetchContext context = FetchContext.DEFAULT;
+
+    try (MockServer server = new MockServer()) {
+      server.route("/sniffed", MockServer.Response.of(200, "text/html", html.getBytes(SHIFT_JIS)))
+          .route("/latin", MockServer.Response.of(200, "text/html; charset=ISO-8859-1", latin.getBytes(WINDOWS)));
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Assertions.assertEquals(html, HtmlFetcher.fetch(server.url("/sniffed"), 0, context));
+        Assertions.assertEquals(latin, HtmlFetcher.fetch(server.url("/latin"), 0, context));
+        Assertions.assertEquals(latin, String.join("\n",
+            PipelinedFetcher.fetchURLs(List.of(server.url("/latin"))).get(0).get("Content")));
+
+        StringBuilder text = new StringBuilder();
+        Assertions.assertTrue(HtmlFetcher.fetchCleaned(server.url("/sniffed"), 0, text, 16, context, context.start()));
+        Assertions.assertEquals(HtmlCleaner.stripHtml(html), text.toString());
+      });
+    }
+  }
+}
@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests the {@link PackedUrlQueue} and the politeness of the {@link CrawlScheduler}.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class CrawlSchedulerTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  /**
+   * Tests that the packed queue keeps its order across blocks, for short, long, and non-ascii
+   * strings, and releases its blocks once empty.
+   */
+  @Test
+  @Order(1)
+  public void testPackedQueue() {
+    PackedUrlQueue queue = new PackedUrlQueue();
+    List<String> expected = new ArrayList<>();
+    String longest = "/long/".repeat(5000);
+
+    for (int i = 0; i < 10000; i++) {
+      String value = i % 1000 == 0 ? longest + i : i % 7 == 0 ? "/café/中/" + i : "/page/" + i;
+      expected.add(value);
+      queue.add(value);
+
+      if (i % 3 == 0) {
+        Assertions.assertEquals(expected.remove(0), queue.poll());
+      }
+    }
+
+    Assertions.assertEquals(expected.size(), queue.size());
+    Assertions.assertTrue(queue.bytes() < 2 * 1024 * 1024, () -> Long.toString(queue.bytes()));
+
+    for (String value : expected) {
+      Assertions.assertEquals(value, queue.poll());
+    }
+
+    Assertions.assertTrue(queue.isEmpty());
+    Assertions.assertNull(queue.poll());
+    Assertions.assertEquals(0, queue.bytes());
+
+    queue.add("");
+    Assertions.assertEquals("", queue.poll());
+  }
+
+  /**
+   * Tests that hosts are interleaved, that a host is never handed out twice at once, and that
+   * the frontier reports when it is drained.
+   */
+  @Test
+  @Order(2)
+  public void testInterleave() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      CrawlScheduler scheduler = new CrawlScheduler(2, Duration.ZERO);
+      Assertions.assertFalse(scheduler.add(new URL("ftp://example.com/file")));
+
+      for (int i = 0; i < 3; i++) {
+        Assertions.assertTrue(scheduler.add(new URL("https://a.example.com/" + i)));
+        Assertions.assertTrue(scheduler.add(new URL("https://B.example.com:443/" + i + "?q")));
+      }
+
+      Assertions.assertEquals(6, scheduler.size());
+      Assertions.assertEquals(2, scheduler.hosts());
+
+      for (int i = 0; i < 3; i++) {
+        URL first = scheduler.take();
+        URL second = scheduler.take();
+
+        Assertions.assertEquals(new URL("https://a.example.com/" + i), first);
+        Assertions.assertEquals(new URL("https://b.example.com/" + i + "?q"), second);
+        Assertions.assertEquals(2, scheduler.active());
+
+        scheduler.done(first);
+        scheduler.done(second);
+      }
+
+      Assertions.assertNull(scheduler.take());
+      Assertions.assertThrows(IllegalStateException.class, () -> scheduler.done(new URL("https://a.example.com/")));
+    });
+  }
+
+  /**
+   * Tests that fetches from the same host are spaced by the delay, including a per-host delay,
+   * while other hosts are not held up.
+   */
+  @Test
+  @Order(3)
+  public void testDelay() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      CrawlScheduler scheduler = new CrawlScheduler(4, Duration.ofMillis(200));
+      URL slow = new URL("http://slow.example.com/");
+      scheduler.setDelay(slow, Duration.ofMillis(400));
+
+      for (int i = 0; i < 3; i++) {
+        scheduler.add(new URL("http://fast.example.com/" + i));
+        scheduler.add(new URL(slow, "/" + i));
+      }
+
+      Map<String, List<Long>> times = new ConcurrentHashMap<>();
+      long start = System.nanoTime();
+      URL url;
+
+      while ((url = scheduler.take()) != null) {
+        times.computeIfAbsent(url.getHost(), host -> new ArrayList<>()).add(System.nanoTime() - start);
+        scheduler.done(url);
+      }
+
+      assertSpaced(times.get("fast.example.com"), Duration.ofMillis(200));
+      assertSpaced(times.get("slow.example.com"), Duration.ofMillis(400));
+      Assertions.assertTrue(times.get("fast.example.com").get(2) < Duration.ofMillis(800).toNanos());
+    });
+  }
+
+  /**
+   * Tests that the concurrency cap holds and that every url is crawled.
+   *
+   * @throws IOException if unable to start the local server
+   */
+  @Test
+  @Order(4)
+  public void testCrawl() throws IOException {
+    try (MockServer server = new MockServer()) {
+      for (int i = 0; i < 30; i++) {
+        server.route("/" + i, page("/" + i));
+      }
+
+      server.route("/extra", page("/extra"));
+
+      // loopback reached through several names counts as several hosts
+      int port = server.getPort();
+      List<String> names = List.of("localhost", "127.0.0.1", "LOCALHOST");
+      CrawlScheduler scheduler = new CrawlScheduler(2, Duration.ZERO);
+      Map<URL, String> results = new ConcurrentHashMap<>();
+
+      for (int i = 0; i < 30; i++) {
+        scheduler.add(new URL("http", names.get(i % names.size()), port, "/" + i));
+      }
+
+      Assertions.assertEquals(2, scheduler.hosts());
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        scheduler.crawl(FetchContext.DEFAULT, 0, (url, html) -> {
+          results.put(url, html);
+
+          if (url.getPath().equals("/0")) {
+            try {
+              scheduler.add(new URL(url, "/extra"));
+            }
+            catch (IOException e) {
+              Assertions.fail(e);
+            }
+          }
+        });
+      });
+
+      Assertions.assertEquals(31, results.size());
+      Assertions.assertEquals("<p>/extra</p>", results.get(new URL("http", "localhost", port, "/extra")));
+      Assertions.assertTrue(server.getMostActive() <= 2, () -> Integer.toString(server.getMostActive()));
+      Assertions.assertEquals(0, scheduler.active());
+    }
+  }
+
+  /**
+   * Returns a page naming its path, answered after a short delay so concurrent requests overlap.
+   *
+   * @param path the path
+   * @return the response
+   */
+  private static MockServer.Response page(String path) {
+    return MockServer.Response.of(200, "text/html", "<p>" + path + "</p>").withLatency(Duration.ofMillis(20));
+  }
+
+  /**
+   * Asserts that consecutive times are at least a minimum apart.
+   *
+   * @param times the times in nanoseconds
+   * @param minimum the minimum spacing
+   */
+  private static void assertSpaced(List<Long> times, Duration minimum) {
+    Assertions.assertEquals(3, times.size());
+
+    for (int i = 1; i < times.size(); i++) {
+      long spacing = times.get(i) - times.get(i - 1);
+      Assertions.assertTrue(spacing >= minimum.toNanos(), () -> times.toString());
+    }
+  }
+}
@@ -0,0 +1,193 @@
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests the timeouts from {@link FetchContext} and the overall {@link Deadline} against a local web
+ * server that stalls in different ways.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+@TestInstance(Lifecycle.PER_CLASS)
+public class DeadlineTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+  /** The local web server. */
+  private MockServer server;
+
+  /**
+   * Starts the local web server. The "/tarpit" path never responds, "/drip" sends one byte of
+   * content every 50 milliseconds, "/hop/n" waits 200 milliseconds before redirecting to
+   * "/hop/n-1", and "/hop/0" waits as long before returning a small page.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @BeforeAll
+  public void setup() throws IOException {
+    server = new MockServer()
+        .route("/tarpit", MockServer.Response.html("").withLatency(Duration.ofDays(1)))
+        .route("/drip", MockServer.Response.of(200, "text/html", "x".repeat(1000)).withBandwidth(20));
+
+    for (int hops = 0; hops <= 4; hops++) {
+      MockServer.Response response = hops > 0 ?
+          MockServer.Response.redirect(302, "/hop/" + (hops - 1)) : MockServer.Response.of(200, "text/html", "<p>done</p>");
+      server.route("/hop/" + hops, response.withLatency(Duration.ofMillis(200)));
+    }
+  }
+
+  /**
+   * Stops the local web server.
+   *
+   * @throws IOException if unable to close the server
+   */
+  @AfterAll
+  public void teardown() throws IOException {
+    server.close();
+  }
+
+  /**
+   * Returns the local URL for the path.
+   *
+   * @param path the path to fetch
+   * @return the local URL
+   * @throws IOException if unable to create the URL
+   */
+  private URL local(String path) throws IOException {
+    return server.url(path);
+  }
+
+  /**
+   * Tests that the read timeout stops a fetch from a server that never responds.
+   */
+  @Test
+  @Order(1)
+  public void testReadTimeout() {
+    FetchContext context = FetchContext.DEFAULT
+        .withReadTimeout(Duration.ofMillis(200))
+        .withDeadline(Duration.ZERO);
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      Assertions.assertNull(HtmlFetcher.fetch(local("/tarpit"), 0, context));
+    });
+  }
+
+  /**
+   * Tests that the deadline stops a fetch from a server that keeps every read under the read
+   * timeout.
+   */
+  @Test
+  @Order(2)
+  public void testDrip() {
+    FetchContext context = FetchContext.DEFAULT
+        .withReadTimeout(Duration.ofSeconds(1))
+        .withDeadline(Duration.ofMillis(500));
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      Assertions.assertNull(HtmlFetcher.fetch(local("/drip"), 0, context));
+      Assertions.assertFalse(HtmlFetcher.fetchCleaned(local("/drip"), 0, new StringBuilder(), 16, context, context.start()));
+    });
+  }
+
+  /**
+   * Tests that the deadline covers every redirect rather than each one separately.
+   */
+  @Test
+  @Order(3)
+  public void testRedirects() {
+    FetchContext context = FetchContext.DEFAULT.withDeadline(Duration.ofMillis(500));
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      Assertions.assertNull(HtmlFetcher.fetch(local("/hop/4"), 4, context));
+      Assertions.assertEquals("<p>done</p>", HtmlFetcher.fetch(local("/hop/4"), 4, context.withDeadline(Duration.ofSeconds(4))));
+    });
+  }
+
+  /**
+   * Tests that cancelling a fetch closes the socket and returns right away.
+   */
+  @Test
+  @Order(4)
+  public void testCancel() {
+    FetchContext context = FetchContext.DEFAULT
+        .withReadTimeout(Duration.ZERO)
+        .withDeadline(Duration.ZERO);
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      Deadline deadline = context.start();
+      URL url = local("/tarpit");
+      CompletableFuture<String> result = CompletableFuture.supplyAsync(() -> HtmlFetcher.fetch(url, 0, context, deadline));
+
+      Thread.sleep(200);
+      Assertions.assertFalse(result.isDone());
+
+      deadline.cancel();
+      Assertions.assertNull(result.get());
+      Assertions.assertTrue(deadline.isExpired());
+    });
+  }
+
+  /**
+   * Tests the socket timeouts computed from the deadline.
+   *
+   * @throws IOException if the deadline has expired
+   */
+  @Test
+  @Order(5)
+  public void testTimeouts() throws IOException {
+    Assertions.assertEquals(0, new Deadline(Duration.ZERO).timeout(Duration.ZERO));
+    Assertions.assertEquals(100, new Deadline(Duration.ZERO).timeout(Duration.ofMillis(100)));
+    Assertions.assertTrue(new Deadline(Duration.ofSeconds(10)).timeout(Duration.ZERO) <= 10000);
+    Assertions.assertEquals(100, new Deadline(Duration.ofSeconds(10)).timeout(Duration.ofMillis(100)));
+
+    Assertions.assertThrows(IllegalArgumentException.class, () -> FetchContext.DEFAULT.withReadTimeout(Duration.ofSeconds(-1)));
+  }
+
+  /**
+   * Tests that forked deadlines are cancelled with their parent, and that pausing stops early when
+   * the deadline is cancelled or would expire.
+   */
+  @Test
+  @Order(6)
+  public void testFork() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      Deadline parent = new Deadline(Duration.ZERO);
+      Deadline fork = parent.fork();
+      Deadline other = parent.fork();
+
+      other.cancel();
+      Assertions.assertTrue(other.isExpired());
+      Assertions.assertFalse(parent.isExpired());
+      Assertions.assertTrue(parent.pause(Duration.ofMillis(10)));
+
+      CompletableFuture.runAsync(() -> {
+        try {
+          Thread.sleep(100);
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+
+        parent.cancel();
+      });
+
+      Assertions.assertFalse(fork.pause(Duration.ofSeconds(30)));
+      Assertions.assertTrue(fork.isExpired());
+      Assertions.assertTrue(parent.fork().isExpired());
+
+      long start = System.nanoTime();
+      Assertions.assertFalse(new Deadline(Duration.ofSeconds(1)).pause(Duration.ofSeconds(2)));
+      Assertions.assertTrue(System.nanoTime() - start < Duration.ofMillis(500).toNanos());
+    });
+  }
+}
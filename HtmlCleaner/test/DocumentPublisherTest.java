@@ -0,0 +1,299 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests that the {@link DocumentPublisher} only fetches pages from a {@link MockServer} as its
+ * subscriber asks for them, and follows the reactive streams rules for signals.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class DocumentPublisherTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+  /** How long the server waits before answering each page. */
+  private static final Duration LATENCY = Duration.ofMillis(200);
+
+  /** How long to wait when checking that nothing happens. */
+  private static final Duration QUIET = Duration.ofMillis(400);
+
+  /**
+   * Records the signals it receives, and only requests documents when told to.
+   */
+  private static class Recorder implements Flow.Subscriber<CleanedDocument> {
+
+    /** The subscription, once subscribed. */
+    private final AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+
+    /** The documents received. */
+    private final BlockingQueue<CleanedDocument> documents = new LinkedBlockingQueue<>();
+
+    /** The error received, if any. */
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    /** Released by a terminal signal. */
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      Assertions.assertTrue(this.subscription.compareAndSet(null, subscription));
+    }
+
+    @Override
+    public void onNext(CleanedDocument document) {
+      Assertions.assertEquals(1, terminated.getCount());
+      documents.add(document);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error.set(throwable);
+      terminated.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      terminated.countDown();
+    }
+
+    /**
+     * Requests more documents.
+     *
+     * @param n the number of documents
+     */
+    public void request(long n) {
+      subscription.get().request(n);
+    }
+
+    /**
+     * Waits for the next document.
+     *
+     * @return the document
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public CleanedDocument next() throws InterruptedException {
+      CleanedDocument document = documents.poll(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+      Assertions.assertNotNull(document, "No document arrived.");
+      return document;
+    }
+
+    /**
+     * Returns whether a terminal signal arrives in time.
+     *
+     * @param wait how long to wait
+     * @return {@code true} if the subscriber completed or failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTerminated(Duration wait) throws InterruptedException {
+      return terminated.await(wait.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Returns the content of a page.
+   *
+   * @param index the page number
+   * @return the content
+   */
+  private static String page(int index) {
+    return "<html><body><p>page " + index + "</p></body></html>";
+  }
+
+  /**
+   * Adds slow routes for a number of pages to the server.
+   *
+   * @param server the server
+   * @param count the number of pages
+   * @return the server
+   */
+  private static MockServer pages(MockServer server, int count) {
+    for (int i = 0; i < count; i++) {
+      server.route("/page/" + i, MockServer.Response.html(page(i)).withLatency(LATENCY));
+    }
+
+    return server;
+  }
+
+  /**
+   * Returns the url of a page.
+   *
+   * @param server the server
+   * @param index the page number
+   * @return the url
+   */
+  private static URL url(MockServer server, int index) {
+    try {
+      return server.url("/page/" + index);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Tests that nothing is fetched or taken from the stream without demand, and that each request
+   * only fetches as many pages as were asked for.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(1)
+  public void testDemand() throws IOException {
+    try (MockServer server = pages(new MockServer(), 10)) {
+      AtomicInteger taken = new AtomicInteger();
+      Stream<URL> urls = IntStream.range(0, 10).peek(i -> taken.incrementAndGet()).mapToObj(i -> url(server, i));
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Recorder recorder = new Recorder();
+        new DocumentPublisher(urls, FetchContext.DEFAULT, 0).subscribe(recorder);
+
+        Thread.sleep(QUIET.toMillis());
+        Assertions.assertEquals(0, taken.get());
+        Assertions.assertEquals(0, server.getRequests());
+
+        recorder.request(3);
+        Set<String> texts = new HashSet<>();
+
+        for (int i = 0; i < 3; i++) {
+          texts.add(recorder.next().getText());
+        }
+
+        // one more url is looked at to notice whether the stream ended, but not fetched
+        Thread.sleep(QUIET.toMillis());
+        Assertions.assertEquals(3, server.getRequests());
+        Assertions.assertEquals(4, taken.get());
+        Assertions.assertTrue(recorder.documents.isEmpty());
+
+        recorder.request(Long.MAX_VALUE);
+
+        for (int i = 3; i < 10; i++) {
+          texts.add(recorder.next().getText());
+        }
+
+        Assertions.assertTrue(recorder.awaitTerminated(TIMEOUT));
+        Assertions.assertNull(recorder.error.get());
+
+        Set<String> expected = IntStream.range(0, 10).mapToObj(i -> HtmlCleaner.stripHtml(page(i)))
+            .collect(Collectors.toSet());
+        Assertions.assertEquals(expected, texts);
+      });
+    }
+  }
+
+  /**
+   * Tests that a slow subscriber asking for one document at a time never has more than one page
+   * fetched ahead and is completed once it has every document without asking for more, and that
+   * unbounded demand is still limited by the parallelism.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(2)
+  public void testBounded() throws IOException {
+    try (MockServer server = pages(new MockServer(), 12)) {
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Recorder slow = new Recorder();
+        Stream<URL> urls = IntStream.range(0, 6).mapToObj(i -> url(server, i));
+        new DocumentPublisher(urls, FetchContext.DEFAULT, 0).subscribe(slow);
+
+        for (int i = 0; i < 6; i++) {
+          slow.request(1);
+          slow.next();
+          Assertions.assertEquals(i + 1, server.getRequests());
+          Thread.sleep(50);
+        }
+
+        // completes without further demand once every requested document is delivered
+        Assertions.assertTrue(slow.awaitTerminated(TIMEOUT));
+        Assertions.assertNull(slow.error.get());
+
+        Recorder eager = new Recorder();
+        List<URL> limited = IntStream.range(0, 12).mapToObj(i -> url(server, i)).collect(Collectors.toList());
+        ExecutorService executor = Executors.newCachedThreadPool();
+
+        try {
+          new DocumentPublisher(limited.stream(), FetchContext.DEFAULT, 0, 3, executor).subscribe(eager);
+
+          long start = System.nanoTime();
+          eager.request(Long.MAX_VALUE);
+          Assertions.assertTrue(eager.awaitTerminated(TIMEOUT));
+          Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+          Assertions.assertEquals(12, eager.documents.size());
+          Assertions.assertTrue(elapsed.compareTo(LATENCY.multipliedBy(4)) >= 0, "Too many fetches at once: " + elapsed);
+        }
+        finally {
+          executor.shutdownNow();
+        }
+      });
+    }
+  }
+
+  /**
+   * Tests that pages that are not html are skipped without using up demand, that cancelling stops
+   * every signal, and that a second subscriber or a request for nothing is an error.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(3)
+  public void testSignals() throws IOException {
+    try (MockServer server = pages(new MockServer(), 4)) {
+      server.route("/text", MockServer.Response.of(200, "text/plain", "not html"));
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Recorder recorder = new Recorder();
+        Stream<URL> urls = Stream.of(server.url("/text"), server.url("/missing"), url(server, 0));
+        DocumentPublisher publisher = new DocumentPublisher(urls, FetchContext.DEFAULT, 0);
+        publisher.subscribe(recorder);
+
+        recorder.request(2);
+        Assertions.assertEquals(url(server, 0), recorder.next().getUrl());
+        Assertions.assertTrue(recorder.awaitTerminated(TIMEOUT));
+        Assertions.assertNull(recorder.error.get());
+
+        Recorder second = new Recorder();
+        publisher.subscribe(second);
+        Assertions.assertTrue(second.awaitTerminated(Duration.ZERO));
+        Assertions.assertTrue(second.error.get() instanceof IllegalStateException);
+
+        Recorder cancelled = new Recorder();
+        new DocumentPublisher(Stream.generate(() -> url(server, 1)), FetchContext.DEFAULT, 0).subscribe(cancelled);
+        cancelled.request(2);
+        cancelled.subscription.get().cancel();
+        Assertions.assertFalse(cancelled.awaitTerminated(QUIET));
+        Assertions.assertTrue(cancelled.documents.isEmpty());
+        Assertions.assertTrue(server.getRequests("/page/1") <= 2);
+
+        Recorder invalid = new Recorder();
+        new DocumentPublisher(Stream.of(url(server, 2)), FetchContext.DEFAULT, 0).subscribe(invalid);
+        invalid.request(0);
+        Assertions.assertTrue(invalid.awaitTerminated(TIMEOUT));
+        Assertions.assertTrue(invalid.error.get() instanceof IllegalArgumentException);
+        Assertions.assertEquals(0, server.getRequests("/page/2"));
+      });
+    }
+  }
+}
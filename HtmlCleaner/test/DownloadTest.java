@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that {@link HttpsFetcher#download(java.net.URL, Path, FetchContext, Deadline)} writes the
+ * exact bytes sent by a {@link MockServer} to disk.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class DownloadTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+  /** Text with every kind of line ending, which must survive unchanged. */
+  private static final byte[] TEXT = "<p>one</p>\r\n<p>two</p>\n<p>three</p>\r<p>four é</p>\n\n"
+      .getBytes(StandardCharsets.UTF_8);
+
+  /** Bytes that are not valid text in any charset. */
+  private static final byte[] BINARY = new byte[3 * 1024 * 1024 + 17];
+
+  static {
+    new Random(42).nextBytes(BINARY);
+  }
+
+  /** Holds the downloaded files. */
+  @TempDir
+  public Path folder;
+
+  /**
+   * Adds the routes used by every test.
+   *
+   * @param server the server
+   * @return the server
+   */
+  private static MockServer site(MockServer server) {
+    return server.route("/text.html", MockServer.Response.of(200, "text/html", TEXT))
+        .route("/binary", MockServer.Response.of(200, "application/octet-stream", BINARY))
+        .route("/chunked", MockServer.Response.of(200, "application/octet-stream", BINARY).withChunks(5000))
+        .route("/redirect", MockServer.Response.redirect(302, "/text.html"))
+        .route("/missing", MockServer.Response.of(404, "text/html", TEXT));
+  }
+
+  /**
+   * Tests downloading over plain http, where the content moves through the socket channel.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(1)
+  public void testHttp() throws IOException {
+    try (MockServer server = site(new MockServer())) {
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Path file = folder.resolve("text.html");
+        HttpHeaders headers = HttpsFetcher.download(server.url("/text.html"), file, FetchContext.DEFAULT, FetchContext.DEFAULT.start());
+        Assertions.assertEquals(200, headers.getStatusCode());
+        Assertions.assertArrayEquals(TEXT, Files.readAllBytes(file));
+
+        file = folder.resolve("binary");
+        headers = HttpsFetcher.download(server.url("/binary"), file, FetchContext.DEFAULT, FetchContext.DEFAULT.start());
+        Assertions.assertEquals(BINARY.length, headers.getContentLength());
+        Assertions.assertArrayEquals(BINARY, Files.readAllBytes(file));
+      });
+    }
+  }
+
+  /**
+   * Tests downloading chunked content, which is written without the chunk framing.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(2)
+  public void testChunked() throws IOException {
+    try (MockServer server = site(new MockServer())) {
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Path file = folder.resolve("chunked");
+        HttpHeaders headers = HttpsFetcher.download(server.url("/chunked"), file, FetchContext.DEFAULT, FetchContext.DEFAULT.start());
+        Assertions.assertTrue(headers.isChunked());
+        Assertions.assertArrayEquals(BINARY, Files.readAllBytes(file));
+      });
+    }
+  }
+
+  /**
+   * Tests downloading over https, where the content is copied after decryption.
+   *
+   * @throws IOException if unable to start the server
+   * @throws GeneralSecurityException if unable to load the certificate
+   */
+  @Test
+  @Order(3)
+  public void testHttps() throws IOException, GeneralSecurityException {
+    try (MockServer server = site(new MockServer(MockServer.selfSigned(), false))) {
+      FetchContext trusting = FetchContext.DEFAULT.withSslContext(MockServer.selfSigned());
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Path file = folder.resolve("secure");
+        HttpsFetcher.download(server.url("/binary"), file, trusting, trusting.start());
+        Assertions.assertArrayEquals(BINARY, Files.readAllBytes(file));
+
+        HttpsFetcher.download(server.url("/chunked"), file, trusting, trusting.start());
+        Assertions.assertArrayEquals(BINARY, Files.readAllBytes(file));
+      });
+    }
+  }
+
+  /**
+   * Tests that other status codes are returned with their content, redirects are not followed,
+   * and a failed download leaves any earlier copy of the file untouched and nothing else behind.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(4)
+  public void testStatus() throws IOException {
+    try (MockServer server = site(new MockServer())) {
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Path file = folder.resolve("status");
+        HttpHeaders headers = HttpsFetcher.download(server.url("/missing"), file, FetchContext.DEFAULT, FetchContext.DEFAULT.start());
+        Assertions.assertEquals(404, headers.getStatusCode());
+        Assertions.assertArrayEquals(TEXT, Files.readAllBytes(file));
+
+        headers = HttpsFetcher.download(server.url("/redirect"), file, FetchContext.DEFAULT, FetchContext.DEFAULT.start());
+        Assertions.assertTrue(headers.isRedirect());
+        Assertions.assertEquals(1, server.getRequests("/redirect"));
+        Assertions.assertEquals(0, server.getRequests("/text.html"));
+
+        FetchContext hurried = FetchContext.DEFAULT.withDeadline(Duration.ofMillis(300));
+        server.route("/slow", MockServer.Response.of(200, "application/octet-stream", BINARY).withBandwidth(100000));
+        Path fresh = folder.resolve("fresh");
+        Assertions.assertThrows(IOException.class,
+            () -> HttpsFetcher.download(server.url("/slow"), fresh, hurried, hurried.start()));
+        Assertions.assertFalse(Files.exists(fresh));
+
+        // neither a stalled download nor a refused connection may touch the earlier copy
+        HttpsFetcher.download(server.url("/text.html"), file, FetchContext.DEFAULT, FetchContext.DEFAULT.start());
+        Assertions.assertThrows(IOException.class,
+            () -> HttpsFetcher.download(server.url("/slow"), file, hurried, hurried.start()));
+        Assertions.assertArrayEquals(TEXT, Files.readAllBytes(file));
+
+        URL refused;
+
+        try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+          refused = new URL("http", "localhost", closed.getLocalPort(), "/text.html");
+        }
+
+        Assertions.assertThrows(IOException.class,
+            () -> HttpsFetcher.download(refused, file, FetchContext.DEFAULT, FetchContext.DEFAULT.start()));
+        Assertions.assertArrayEquals(TEXT, Files.readAllBytes(file));
+
+        try (Stream<Path> listing = Files.list(folder)) {
+          Assertions.assertEquals(List.of(file), listing.collect(Collectors.toList()));
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how many fetches per second {@link HtmlFetcher#fetch(URL, int, FetchContext)} completes
+ * with several threads, and the latency of each fetch, against a {@link MockServer} serving the
+ * test fixtures. Run it directly for a report on plain http and https:
+ *
+ * <pre>
+ * java FetchBenchmark [threads] [fetches] [latency in milliseconds]
+ * </pre>
+ */
+public class FetchBenchmark {
+
+  /** The default number of threads. */
+  public static final int THREADS = 16;
+
+  /** The default number of fetches measured. */
+  public static final int FETCHES = 5000;
+
+  /**
+   * Fetches the urls in turn from several threads until the total number of fetches is reached.
+   *
+   * @param urls the urls to fetch
+   * @param context the settings for each fetch
+   * @param threads the number of threads
+   * @param fetches the total number of fetches
+   * @return the result
+   * @throws InterruptedException if interrupted while waiting for the threads
+   */
+  public static Result run(List<URL> urls, FetchContext context, int threads, int fetches) throws InterruptedException {
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    LatencyHistogram latencies = new LatencyHistogram();
+    LongAdder failures = new LongAdder();
+    AtomicInteger next = new AtomicInteger();
+    List<Future<?>> running = new ArrayList<>();
+
+    long start = System.nanoTime();
+
+    try {
+      for (int i = 0; i < threads; i++) {
+        running.add(workers.submit(() -> {
+          for (int n = next.getAndIncrement(); n < fetches; n = next.getAndIncrement()) {
+            long began = System.nanoTime();
+            String html = HtmlFetcher.fetch(urls.get(n % urls.size()), 1, context);
+            latencies.record(System.nanoTime() - began);
+
+            if (html == null) {
+              failures.increment();
+            }
+          }
+        }));
+      }
+
+      for (Future<?> thread : running) {
+        thread.get();
+      }
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    finally {
+      workers.shutdownNow();
+    }
+
+    return new Result(fetches, failures.sum(), System.nanoTime() - start, latencies);
+  }
+
+  /**
+   * Runs the benchmark against plain http and https, printing a report for each.
+   *
+   * @param args the number of threads, fetches, and server latency in milliseconds, all optional
+   * @throws IOException if unable to start the servers
+   * @throws GeneralSecurityException if unable to load the test certificate
+   * @throws InterruptedException if interrupted while running
+   */
+  public static void main(String[] args) throws IOException, GeneralSecurityException, InterruptedException {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : THREADS;
+    int fetches = args.length > 1 ? Integer.parseInt(args[1]) : FETCHES;
+    Duration latency = Duration.ofMillis(args.length > 2 ? Long.parseLong(args[2]) : 0);
+
+    for (boolean https : new boolean[] {false, true}) {
+      try (MockServer server = new MockServer(https ? MockServer.selfSigned() : null, true)) {
+        server.fixtures(Path.of("test"));
+        server.route("/slow.html", MockServer.Response.html("<p>slow</p>").withLatency(latency));
+        server.route("/redirect", MockServer.Response.redirect(302, "/hello.html"));
+
+        List<URL> urls = List.of(server.url("/hello.html"), server.url("/pangrams.html"),
+            server.url("/yellowthroat.html"), server.url("/slow.html"), server.url("/redirect"));
+        FetchContext context = https ? FetchContext.DEFAULT.withSslContext(MockServer.selfSigned()) : FetchContext.DEFAULT;
+
+        run(urls, context, threads, Math.max(1, fetches / 10));
+        Result result = run(urls, context, threads, fetches);
+        System.out.printf("%-5s threads=%d %s%n", https ? "https" : "http", threads, result);
+      }
+    }
+  }
+
+  /**
+   * The outcome of a benchmark run.
+   */
+  public static class Result {
+
+    /** The number of fetches made. */
+    private final long fetches;
+
+    /** The number of fetches that returned no html. */
+    private final long failures;
+
+    /** How long the run took in nanoseconds. */
+    private final long elapsed;
+
+    /** The latency of every fetch. */
+    private final LatencyHistogram latencies;
+
+    /**
+     * Initializes a result.
+     *
+     * @param fetches the number of fetches made
+     * @param failures the number of fetches that returned no html
+     * @param elapsed how long the run took in nanoseconds
+     * @param latencies the latency of every fetch
+     */
+    private Result(long fetches, long failures, long elapsed, LatencyHistogram latencies) {
+      this.fetches = fetches;
+      this.failures = failures;
+      this.elapsed = elapsed;
+      this.latencies = latencies;
+    }
+
+    /**
+     * Returns the number of fetches made.
+     *
+     * @return the number of fetches
+     */
+    public long getFetches() {
+      return fetches;
+    }
+
+    /**
+     * Returns the number of fetches that returned no html.
+     *
+     * @return the number of failures
+     */
+    public long getFailures() {
+      return failures;
+    }
+
+    /**
+     * Returns the number of fetches completed per second.
+     *
+     * @return the throughput
+     */
+    public double getThroughput() {
+      return fetches / (elapsed / 1e9);
+    }
+
+    /**
+     * Returns the latency of every fetch.
+     *
+     * @return the latencies
+     */
+    public LatencyHistogram getLatencies() {
+      return latencies;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("fetches=%d, failures=%d, fetches/sec=%.0f, p50=%.2fms, p90=%.2fms, p99=%.2fms, p99.9=%.2fms, max=%.2fms",
+          fetches, failures, getThroughput(), latencies.getValueAtPercentile(50) / 1e6,
+          latencies.getValueAtPercentile(90) / 1e6, latencies.getValueAtPercentile(99) / 1e6,
+          latencies.getValueAtPercentile(99.9) / 1e6, latencies.getMax() / 1e6);
+    }
+  }
+}
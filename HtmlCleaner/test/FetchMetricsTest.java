@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests the {@link LatencyHistogram} and the phase timings recorded by {@link FetchMetrics}.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class FetchMetricsTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  /** How long the local server waits before each response in milliseconds. */
+  private static final long DELAY = 50;
+
+  /**
+   * Starts a local server that redirects "/old" to "/new", which answers with html, each after a
+   * short delay.
+   *
+   * @return the server
+   * @throws IOException if unable to start the server
+   */
+  private static MockServer serve() throws IOException {
+    Duration delay = Duration.ofMillis(DELAY);
+    return new MockServer()
+        .route("/old", MockServer.Response.redirect(301, "/new").withLatency(delay))
+        .route("/new", MockServer.Response.of(200, "text/html", "<p>hello</p>").withLatency(delay));
+  }
+
+  /**
+   * Tests that percentiles are accurate to within the bucket width, and that bucket counts add up.
+   */
+  @Test
+  @Order(1)
+  public void testHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Random random = new Random(1);
+    long[] values = new long[100000];
+
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (long) Math.exp(random.nextDouble() * 25);
+      histogram.record(values[i]);
+    }
+
+    Arrays.sort(values);
+
+    for (double percentile : new double[] {1, 10, 50, 90, 99, 99.9}) {
+      long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+      long found = histogram.getValueAtPercentile(percentile);
+      Assertions.assertTrue(found >= exact && found <= exact * 1.07 + 1, () -> percentile + ": " + exact + " " + found);
+    }
+
+    Assertions.assertEquals(values.length, histogram.getCount());
+    Assertions.assertEquals(values[values.length - 1], histogram.getMax());
+    Assertions.assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100));
+    Assertions.assertEquals(values.length, histogram.getCountAtOrBelow(Long.MAX_VALUE));
+    Assertions.assertEquals(0, histogram.getCountAtOrBelow(-1));
+
+    long previous = 0;
+
+    for (long limit = 1; limit < values[values.length - 1]; limit *= 3) {
+      long count = histogram.getCountAtOrBelow(limit);
+      Assertions.assertTrue(count >= previous);
+      previous = count;
+    }
+
+    LatencyHistogram copy = histogram.copy();
+    histogram.record(Duration.ofHours(1));
+    Assertions.assertEquals(values.length, copy.getCount());
+    Assertions.assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+  }
+
+  /**
+   * Tests that each phase of a fetch and its redirect is recorded by host and status class, and
+   * exported in the Prometheus format.
+   *
+   * @throws IOException if unable to start the local server
+   */
+  @Test
+  @Order(2)
+  public void testPhases() throws IOException {
+    FetchMetrics metrics = new FetchMetrics(true);
+    FetchMetrics disabled = new FetchMetrics(false);
+
+    try (MockServer server = serve()) {
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        URL url = server.url("/old");
+        Assertions.assertEquals("<p>hello</p>", HtmlFetcher.fetch(url, 1, FetchContext.DEFAULT.withMetrics(metrics)));
+        Assertions.assertTrue(HtmlFetcher.fetchCleaned(url, 1, new StringBuilder(), 64,
+            FetchContext.DEFAULT.withMetrics(metrics), FetchContext.DEFAULT.start()));
+        Assertions.assertNotNull(HtmlFetcher.fetch(url, 1, FetchContext.DEFAULT.withMetrics(disabled)));
+        Assertions.assertNull(HtmlFetcher.fetch(new URL("http", "localhost", 1, "/"), 0, FetchContext.DEFAULT.withMetrics(metrics)));
+      });
+    }
+
+    for (FetchMetrics.Phase phase : List.of(FetchMetrics.Phase.DNS, FetchMetrics.Phase.CONNECT,
+        FetchMetrics.Phase.FIRST_BYTE, FetchMetrics.Phase.HEADERS, FetchMetrics.Phase.BODY)) {
+      LatencyHistogram histogram = metrics.getHistogram(phase, "localhost", "2xx");
+      Assertions.assertNotNull(histogram, phase::toString);
+      Assertions.assertEquals(2, histogram.getCount(), phase::toString);
+    }
+
+    long first = metrics.getHistogram(FetchMetrics.Phase.FIRST_BYTE, "localhost", "2xx").getMax();
+    long redirect = metrics.getHistogram(FetchMetrics.Phase.REDIRECT, "localhost", "3xx").getMax();
+    Assertions.assertTrue(first >= Duration.ofMillis(DELAY).toNanos() * 9 / 10, () -> Long.toString(first));
+    Assertions.assertTrue(redirect >= Duration.ofMillis(DELAY).toNanos() * 9 / 10, () -> Long.toString(redirect));
+
+    Assertions.assertNull(metrics.getHistogram(FetchMetrics.Phase.TLS, "localhost", "2xx"));
+    // only fetching into a string reads the empty body of the redirect
+    Assertions.assertEquals(1, metrics.getHistogram(FetchMetrics.Phase.BODY, "localhost", "3xx").getCount());
+    Assertions.assertEquals(1, metrics.getHistogram(FetchMetrics.Phase.DNS, "localhost", "error").getCount());
+    Assertions.assertTrue(disabled.snapshot().isEmpty());
+
+    String exported = metrics.toPrometheus();
+    Assertions.assertTrue(exported.contains("# TYPE fetch_phase_duration_seconds histogram\n"), exported);
+    Assertions.assertTrue(exported.contains(
+        "fetch_phase_duration_seconds_count{phase=\"first_byte\",host=\"localhost\",status=\"2xx\"} 2\n"), exported);
+    Assertions.assertTrue(exported.contains(
+        "fetch_phase_duration_seconds_bucket{phase=\"redirect\",host=\"localhost\",status=\"3xx\",le=\"0.01\"} 0\n"), exported);
+    Assertions.assertTrue(exported.contains(
+        "fetch_phase_duration_seconds_bucket{phase=\"redirect\",host=\"localhost\",status=\"3xx\",le=\"+Inf\"} 2\n"), exported);
+  }
+
+  /**
+   * Tests that hosts past the limit share the "other" histograms.
+   */
+  @Test
+  @Order(3)
+  public void testHostLimit() {
+    FetchMetrics metrics = new FetchMetrics(true, 2);
+
+    for (int i = 0; i < 5; i++) {
+      metrics.record(FetchMetrics.Phase.CONNECT, "host" + i, 200, 1000);
+    }
+
+    List<String> hosts = metrics.snapshot().stream().map(FetchMetrics.Series::getHost).collect(Collectors.toList());
+    Assertions.assertEquals(List.of("host0", "host1", "other"), hosts);
+    Assertions.assertEquals(3, metrics.getHistogram(FetchMetrics.Phase.CONNECT, "other", "2xx").getCount());
+  }
+
+  /**
+   * Tests that phases are committed as flight recorder events while a recording is running, even
+   * when histograms are disabled.
+   *
+   * @throws IOException if unable to start the local server or read the recording
+   */
+  @Test
+  @Order(4)
+  public void testFlightRecorder() throws IOException {
+    Path file = Files.createTempFile("fetch", ".jfr");
+
+    try (
+        MockServer server = serve();
+        Recording recording = new Recording();
+    ) {
+      recording.enable("htmlcleaner.FetchPhase").withThreshold(Duration.ZERO);
+      recording.start();
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        URL url = server.url("/new");
+        Assertions.assertNotNull(HtmlFetcher.fetch(url, 0, FetchContext.DEFAULT.withMetrics(new FetchMetrics(false))));
+      });
+
+      recording.stop();
+      recording.dump(file);
+
+      List<String> phases = RecordingFile.readAllEvents(file).stream()
+          .filter(event -> event.getEventType().getName().equals("htmlcleaner.FetchPhase"))
+          .filter(event -> event.getInt("status") == 200)
+          .map((RecordedEvent event) -> event.getString("phase"))
+          .collect(Collectors.toList());
+
+      Assertions.assertEquals(List.of("dns", "connect", "first_byte", "headers", "body"), phases);
+    }
+    finally {
+      Files.deleteIfExists(file);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests the stages, backpressure, and statistics of the {@link FetchPipeline}.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class FetchPipelineTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  /**
+   * Starts a local server that answers "/page/0" to "/page/99" with html naming the requested
+   * path. Every other path gets a 404 response.
+   *
+   * @return the server
+   * @throws IOException if unable to start the server
+   */
+  private static MockServer serve() throws IOException {
+    MockServer server = new MockServer();
+
+    for (int i = 0; i < 100; i++) {
+      String path = "/page/" + i;
+      server.route(path, MockServer.Response.of(200, "text/html", "<p>page " + path + "</p><script>x</script>"));
+    }
+
+    return server;
+  }
+
+  /**
+   * Tests that every page reaches the sink cleaned, and that failures are counted.
+   *
+   * @throws IOException if unable to start the local server
+   */
+  @Test
+  @Order(1)
+  public void testPipeline() throws IOException {
+    Map<String, String> results = new ConcurrentHashMap<>();
+
+    try (MockServer server = serve()) {
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        FetchPipeline pipeline = new FetchPipeline(FetchContext.DEFAULT, 0,
+            (url, text) -> results.put(url.getPath(), text), 8, 2, 1, 4);
+
+        for (int i = 0; i < 100; i++) {
+          pipeline.submit(server.url((i % 10 == 9 ? "/missing/" : "/page/") + i));
+        }
+
+        pipeline.finish();
+
+        Assertions.assertEquals(90, results.size());
+        Assertions.assertEquals("page /page/42 ", results.get("/page/42"));
+        Assertions.assertEquals(100, pipeline.getFetchStage().getProcessed());
+        Assertions.assertEquals(10, pipeline.getFetchStage().getFailed());
+        Assertions.assertEquals(90, pipeline.getCleanStage().getProcessed());
+        Assertions.assertEquals(90, pipeline.getSinkStage().getProcessed());
+        Assertions.assertEquals(0, pipeline.getSinkStage().getFailed());
+        Assertions.assertThrows(IllegalStateException.class, () -> pipeline.submit(new URL("http://localhost/")));
+      });
+    }
+  }
+
+  /**
+   * Tests that a slow sink fills the queues and blocks submitting, and that the statistics show
+   * the sink as the busy stage.
+   *
+   * @throws IOException if unable to start the local server
+   */
+  @Test
+  @Order(2)
+  public void testBackpressure() throws IOException {
+    ExecutorService workers = Executors.newCachedThreadPool();
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger delivered = new AtomicInteger();
+
+    try (MockServer server = serve()) {
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        FetchPipeline pipeline = new FetchPipeline(FetchContext.DEFAULT, 0, (url, text) -> {
+          try {
+            release.await();
+            Thread.sleep(2);
+            delivered.incrementAndGet();
+          }
+          catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+        }, 2, 1, 1, 2);
+
+        CountDownLatch submitted = new CountDownLatch(1);
+
+        workers.execute(() -> {
+          try {
+            for (int i = 0; i < 50; i++) {
+              pipeline.submit(server.url("/page/" + i));
+            }
+
+            submitted.countDown();
+          }
+          catch (IOException | InterruptedException e) {
+            return;
+          }
+        });
+
+        // with every queue full and every thread holding an item, submitting cannot finish
+        Assertions.assertFalse(submitted.await(500, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(2, pipeline.getSinkStage().getQueueDepth(), pipeline::toString);
+        Assertions.assertEquals(2, pipeline.getCleanStage().getQueueDepth(), pipeline::toString);
+        Assertions.assertEquals(2, pipeline.getFetchStage().getQueueDepth(), pipeline::toString);
+
+        release.countDown();
+        submitted.await();
+        pipeline.finish();
+
+        Assertions.assertEquals(50, delivered.get());
+        Assertions.assertTrue(pipeline.getSinkStage().getUtilization() > pipeline.getCleanStage().getUtilization(),
+            pipeline::toString);
+      });
+    }
+    finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * Tests that closing stops the stages right away.
+   *
+   * @throws IOException if unable to start the local server
+   */
+  @Test
+  @Order(3)
+  public void testClose() throws IOException {
+    try (MockServer server = new MockServer().route("/slow", MockServer.Response.html("").withLatency(Duration.ofSeconds(5)))) {
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        FetchPipeline pipeline = new FetchPipeline(FetchContext.DEFAULT, 0, (url, text) -> Assertions.fail(), 1, 1, 1, 8);
+        pipeline.submit(server.url("/slow"));
+        Thread.sleep(100);
+
+        long start = System.nanoTime();
+        pipeline.close();
+        pipeline.finish();
+
+        Assertions.assertTrue(System.nanoTime() - start < Duration.ofSeconds(2).toNanos());
+        Assertions.assertEquals(0, pipeline.getSinkStage().getProcessed());
+      });
+    }
+  }
+}
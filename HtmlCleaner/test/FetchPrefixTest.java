@@ -0,0 +1,218 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests that {@link HtmlFetcher#fetchPrefix(URL, int, int, FetchContext, Deadline)} and the
+ * {@link RangeInputStream} only fetch as much of a page as needed, with and without support for
+ * ranges from the {@link MockServer}.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class FetchPrefixTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+  /** A large page with a script to skip and text that is not all ASCII. */
+  private static final String PAGE = page();
+
+  /** The cleaned text of the page. */
+  private static final String TEXT = HtmlCleaner.stripHtml(PAGE);
+
+  /**
+   * Creates a large page.
+   *
+   * @return the html
+   */
+  private static String page() {
+    StringBuilder html = new StringBuilder("<html><head><title>Preview</title><script>");
+    html.append("var x = '<p>not text</p>';\n".repeat(2000));
+    html.append("</script></head><body>\n");
+
+    for (int i = 0; i < 20000; i++) {
+      html.append("<p>Paragraph ").append(i).append(" — café, naïve, 日本語 &amp; more</p>\n");
+    }
+
+    return html.append("</body></html>\n").toString();
+  }
+
+  /**
+   * Fetches a prefix of a page.
+   *
+   * @param url the url
+   * @param maxChars the most characters wanted
+   * @return the prefix
+   */
+  private static String prefix(URL url, int maxChars) {
+    return HtmlFetcher.fetchPrefix(url, 1, maxChars, FetchContext.DEFAULT, FetchContext.DEFAULT.start());
+  }
+
+  /**
+   * Tests that a server supporting ranges is asked for a few small ranges, and that reading every
+   * range gives back the whole page even when characters are split between ranges.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(1)
+  public void testRanged() throws IOException {
+    try (MockServer server = new MockServer()) {
+      server.route("/page", MockServer.Response.html(PAGE).withRanges());
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Assertions.assertEquals(TEXT.substring(0, 1000), prefix(server.url("/page"), 1000));
+        int requests = server.getRequests("/page");
+        Assertions.assertTrue(requests > 1 && requests <= 6, "Requests: " + requests);
+
+        try (RangeInputStream input = new RangeInputStream(server.url("/page"), 1000, FetchContext.DEFAULT, FetchContext.DEFAULT.start())) {
+          Assertions.assertTrue(input.isRanged());
+          Assertions.assertEquals(206, input.getHeaders().getStatusCode());
+
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          input.transferTo(bytes);
+          Assertions.assertEquals(PAGE, bytes.toString(StandardCharsets.UTF_8));
+          Assertions.assertEquals(bytes.size(), input.getPosition());
+        }
+
+        // a range of 8 KiB doubling to cover about 1.5 MB takes 8 requests
+        Assertions.assertEquals(requests + 8, server.getRequests("/page"));
+      });
+    }
+  }
+
+  /**
+   * Tests that a server ignoring ranges is cut off once enough text has arrived, so a slow page is
+   * previewed long before it could be downloaded.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(2)
+  public void testUnranged() throws IOException {
+    try (MockServer server = new MockServer()) {
+      server.route("/slow", MockServer.Response.html(PAGE).withBandwidth(500_000))
+          .route("/chunked", MockServer.Response.html(PAGE).withChunks(4096).withBandwidth(500_000));
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        for (String path : new String[] {"/slow", "/chunked"}) {
+          long start = System.nanoTime();
+          Assertions.assertEquals(TEXT.substring(0, 2000), prefix(server.url(path), 2000), path);
+          Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+          Assertions.assertTrue(elapsed.compareTo(Duration.ofSeconds(1)) < 0, path + " took " + elapsed);
+        }
+      });
+    }
+  }
+
+  /**
+   * Tests short pages, redirects, and resources that are not html.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(3)
+  public void testEdges() throws IOException {
+    String small = "<html><body><p>short 😀 page</p></body></html>";
+
+    try (MockServer server = new MockServer()) {
+      server.route("/small", MockServer.Response.html(small).withRanges())
+          .route("/exact", MockServer.Response.html("x".repeat(RangeInputStream.MIN_WINDOW)).withRanges())
+          .route("/moved", MockServer.Response.redirect(301, "/small"))
+          .route("/text", MockServer.Response.of(200, "text/plain", "plain").withRanges());
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Assertions.assertEquals(HtmlCleaner.stripHtml(small), prefix(server.url("/small"), 1000));
+        Assertions.assertEquals(HtmlCleaner.stripHtml(small), prefix(server.url("/moved"), 1000));
+        Assertions.assertNull(HtmlFetcher.fetchPrefix(server.url("/moved"), 1000));
+        Assertions.assertNull(prefix(server.url("/text"), 1000));
+        Assertions.assertNull(prefix(server.url("/missing"), 1000));
+
+        // the page ends exactly at the end of the first range, which the total length shows
+        try (RangeInputStream input = new RangeInputStream(server.url("/exact"), 0, FetchContext.DEFAULT, FetchContext.DEFAULT.start())) {
+          Assertions.assertEquals(RangeInputStream.MIN_WINDOW, input.readAllBytes().length);
+          Assertions.assertEquals(1, server.getRequests("/exact"));
+        }
+
+        String cut = prefix(server.url("/small"), HtmlCleaner.stripHtml(small).indexOf('😀') + 1);
+        Assertions.assertFalse(Character.isHighSurrogate(cut.charAt(cut.length() - 1)));
+      });
+    }
+  }
+
+  /**
+   * Tests that a weak entity tag is not sent in an "If-Range" header, which a server would treat
+   * as a mismatch, and that a page changing between ranges gives the text cleaned before it
+   * changed.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(4)
+  public void testETags() throws IOException {
+    String page = sparse();
+    String text = HtmlCleaner.stripHtml(page);
+
+    try (MockServer server = new MockServer()) {
+      server.route("/weak", MockServer.Response.html(page).withRanges().withETag("W/\"1\""))
+          .route("/changed", MockServer.Response.html(page).withRanges().withETag("\"1\""),
+              MockServer.Response.html(page).withRanges().withETag("\"2\""));
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Assertions.assertEquals(text.substring(0, 10000), prefix(server.url("/weak"), 10000));
+        Assertions.assertTrue(server.getRequests("/weak") > 1, "Requests: " + server.getRequests("/weak"));
+
+        String partial = prefix(server.url("/changed"), 10000);
+        Assertions.assertEquals(2, server.getRequests("/changed"));
+        Assertions.assertNotNull(partial);
+        Assertions.assertTrue(partial.length() > 0 && partial.length() < 10000, "Length: " + partial.length());
+        Assertions.assertEquals(text.substring(0, partial.length()), partial);
+      });
+    }
+  }
+
+  /**
+   * Tests that a server sending less than each range asked for is asked for the rest, rather than
+   * the content ending early.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(5)
+  public void testShortRanges() throws IOException {
+    String page = sparse();
+
+    try (MockServer server = new MockServer()) {
+      server.route("/page", MockServer.Response.html(page).withRanges(50000));
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        try (RangeInputStream input = new RangeInputStream(server.url("/page"), 1000, FetchContext.DEFAULT, FetchContext.DEFAULT.start())) {
+          Assertions.assertEquals(page, new String(input.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        Assertions.assertEquals(HtmlCleaner.stripHtml(page).substring(0, 20000), prefix(server.url("/page"), 20000));
+      });
+    }
+  }
+
+  /**
+   * Creates a page with little text for its size, so a range holds less text than its length.
+   *
+   * @return the html
+   */
+  private static String sparse() {
+    StringBuilder html = new StringBuilder("<html><body>\n");
+
+    for (int i = 0; i < 5000; i++) {
+      html.append("<div class=\"").append("x".repeat(80)).append("\">item ").append(i).append("</div>\n");
+    }
+
+    return html.append("</body></html>\n").toString();
+  }
+}
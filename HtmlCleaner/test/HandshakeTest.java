@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests TLS session resumption and socket tuning from {@link FetchContext} against a local https
+ * server using the self-signed certificate in "test/localhost.p12".
+ */
+@TestMethodOrder(OrderAnnotation.class)
+@TestInstance(Lifecycle.PER_CLASS)
+public class HandshakeTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  /** The password for the test keystore. */
+  public static final String PASSWORD = "password";
+
+  /** The TLS context trusting and serving the self-signed certificate. */
+  private SSLContext ssl;
+
+  /** The local https server, which closes each connection after one response. */
+  private MockServer server;
+
+  /**
+   * Loads the test certificate and starts the local https server.
+   *
+   * @throws IOException if unable to read the keystore or start the server
+   * @throws GeneralSecurityException if unable to initialize TLS
+   */
+  @BeforeAll
+  public void setup() throws IOException, GeneralSecurityException {
+    ssl = load(Path.of("test", "localhost.p12"), PASSWORD);
+    server = new MockServer(ssl, false).route("/", MockServer.Response.of(200, "text/html", "<p>secure</p>"));
+  }
+
+  /**
+   * Stops the local https server.
+   *
+   * @throws IOException if unable to close the server
+   */
+  @AfterAll
+  public void teardown() throws IOException {
+    server.close();
+  }
+
+  /**
+   * Creates a TLS context that both serves and trusts the certificate in a keystore.
+   *
+   * @param path the PKCS12 keystore
+   * @param password the keystore password
+   * @return the TLS context
+   * @throws IOException if unable to read the keystore
+   * @throws GeneralSecurityException if unable to initialize TLS
+   */
+  public static SSLContext load(Path path, String password) throws IOException, GeneralSecurityException {
+    KeyStore store = KeyStore.getInstance("PKCS12");
+
+    try (InputStream input = Files.newInputStream(path)) {
+      store.load(input, password.toCharArray());
+    }
+
+    KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keys.init(store, password.toCharArray());
+
+    TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    trust.init(store);
+
+    SSLContext context = SSLContext.getInstance("TLS");
+    context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+    return context;
+  }
+
+  /**
+   * Returns the local URL for the path.
+   *
+   * @param path the path to fetch
+   * @return the local URL
+   * @throws IOException if unable to create the URL
+   */
+  private URL local(String path) throws IOException {
+    return server.url(path);
+  }
+
+  /**
+   * Tests that only the first connection does a full handshake.
+   */
+  @Test
+  @Order(1)
+  public void testResumption() {
+    FetchContext context = FetchContext.DEFAULT.withSslContext(ssl);
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      for (int i = 0; i < 3; i++) {
+        Assertions.assertEquals("<p>secure</p>", HtmlFetcher.fetch(local("/"), 0, context));
+      }
+
+      HandshakeStatistics statistics = context.getHandshakeStatistics();
+      Assertions.assertEquals(1, statistics.getFullHandshakes(), statistics::toString);
+      Assertions.assertEquals(2, statistics.getResumedHandshakes(), statistics::toString);
+    });
+  }
+
+  /**
+   * Tests that the non-blocking fetcher also resumes sessions from the shared context.
+   */
+  @Test
+  @Order(2)
+  public void testAsyncResumption() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      FetchContext context = FetchContext.DEFAULT.withSslContext(load(Path.of("test", "localhost.p12"), PASSWORD));
+
+      try (AsyncHtmlFetcher fetcher = new AsyncHtmlFetcher(1, context)) {
+        for (int i = 0; i < 3; i++) {
+          Assertions.assertEquals("<p>secure</p>", fetcher.fetch(local("/"), 0).get());
+        }
+      }
+
+      HandshakeStatistics statistics = context.getHandshakeStatistics();
+      Assertions.assertEquals(1, statistics.getFullHandshakes(), statistics::toString);
+      Assertions.assertEquals(2, statistics.getResumedHandshakes(), statistics::toString);
+    });
+  }
+
+  /**
+   * Tests that the default context does not trust the self-signed certificate.
+   */
+  @Test
+  @Order(3)
+  public void testUntrusted() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      Assertions.assertNull(HtmlFetcher.fetch(local("/"), 0, new FetchContext()));
+    });
+  }
+
+  /**
+   * Tests that the socket options are applied to new connections.
+   */
+  @Test
+  @Order(4)
+  public void testSocketOptions() {
+    FetchContext context = FetchContext.DEFAULT.withSslContext(ssl).withSocketOptions(true, 1 << 16);
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      try (Socket socket = HttpsFetcher.openConnection(local("/"), context, context.start())) {
+        Assertions.assertTrue(socket.getTcpNoDelay());
+        Assertions.assertTrue(socket.getReceiveBufferSize() > 0);
+      }
+
+      Assertions.assertThrows(IllegalArgumentException.class, () -> context.withSocketOptions(true, -1));
+    });
+  }
+}
@@ -0,0 +1,285 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests the {@link HostResolver} cache using a fake lookup that counts how often it is called.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class HostResolverTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+  /**
+   * Returns loopback addresses for every host, counting the number of lookups.
+   *
+   * @param count incremented on every lookup
+   * @param addresses the number of addresses to return
+   * @return the fake lookup
+   */
+  private static HostResolver.Lookup loopback(AtomicInteger count, int addresses) {
+    return host -> {
+      count.incrementAndGet();
+      InetAddress[] results = new InetAddress[addresses];
+
+      for (int i = 0; i < addresses; i++) {
+        results[i] = InetAddress.getByAddress(host, new byte[] {127, 0, 0, (byte) (i + 1)});
+      }
+
+      return results;
+    };
+  }
+
+  /**
+   * Tests that repeat lookups are answered from the cache and that hosts are not case-sensitive.
+   *
+   * @throws UnknownHostException if unable to resolve
+   */
+  @Test
+  @Order(1)
+  public void testCached() throws UnknownHostException {
+    AtomicInteger count = new AtomicInteger();
+    HostResolver resolver = new HostResolver(Duration.ofMinutes(1), Duration.ofMinutes(1), loopback(count, 1));
+
+    for (int i = 0; i < 5; i++) {
+      Assertions.assertEquals("127.0.0.1", resolver.resolve(i % 2 == 0 ? "www.example.com" : "WWW.Example.com").getHostAddress());
+    }
+
+    Assertions.assertEquals(1, count.get());
+    Assertions.assertEquals(1, resolver.getQueries());
+    Assertions.assertEquals(4, resolver.getHits());
+    Assertions.assertEquals(1, resolver.size());
+
+    resolver.invalidate("www.example.com");
+    resolver.resolve("www.example.com");
+    Assertions.assertEquals(2, count.get());
+  }
+
+  /**
+   * Tests that multiple addresses are returned in round-robin order.
+   *
+   * @throws UnknownHostException if unable to resolve
+   */
+  @Test
+  @Order(2)
+  public void testRoundRobin() throws UnknownHostException {
+    HostResolver resolver = new HostResolver(Duration.ofMinutes(1), Duration.ofMinutes(1), loopback(new AtomicInteger(), 3));
+    List<String> actual = new ArrayList<>();
+
+    for (int i = 0; i < 6; i++) {
+      actual.add(resolver.resolve("example.com").getHostAddress());
+    }
+
+    Assertions.assertEquals(List.of("127.0.0.1", "127.0.0.2", "127.0.0.3", "127.0.0.1", "127.0.0.2", "127.0.0.3"), actual);
+  }
+
+  /**
+   * Tests that failures are cached for the negative time-to-live only.
+   */
+  @Test
+  @Order(3)
+  public void testNegative() {
+    AtomicInteger count = new AtomicInteger();
+    HostResolver resolver = new HostResolver(Duration.ofMinutes(1), Duration.ofMillis(200), host -> {
+      count.incrementAndGet();
+      throw new UnknownHostException(host);
+    });
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      for (int i = 0; i < 3; i++) {
+        Assertions.assertThrows(UnknownHostException.class, () -> resolver.resolve("missing.example.com"));
+      }
+
+      Assertions.assertEquals(1, count.get());
+
+      Thread.sleep(250);
+      Assertions.assertThrows(UnknownHostException.class, () -> resolver.resolve("missing.example.com"));
+      Assertions.assertEquals(2, count.get());
+    });
+  }
+
+  /**
+   * Tests that successful lookups expire after the positive time-to-live.
+   */
+  @Test
+  @Order(4)
+  public void testExpired() {
+    AtomicInteger count = new AtomicInteger();
+    HostResolver resolver = new HostResolver(Duration.ofMillis(100), Duration.ZERO, loopback(count, 1));
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      resolver.resolve("example.com");
+      Thread.sleep(150);
+      resolver.resolve("example.com");
+      Assertions.assertEquals(2, count.get());
+    });
+  }
+
+  /**
+   * Tests that a host looked up near the end of its time-to-live is refreshed in the background
+   * without waiting on the lookup.
+   */
+  @Test
+  @Order(5)
+  public void testRefresh() {
+    AtomicInteger count = new AtomicInteger();
+    HostResolver.Lookup slow = loopback(count, 1);
+
+    HostResolver resolver = new HostResolver(Duration.ofMillis(800), Duration.ZERO, host -> {
+      if (count.get() > 0) {
+        try {
+          Thread.sleep(300);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      return slow.lookup(host);
+    });
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      resolver.resolve("example.com");
+      Thread.sleep(650);
+
+      long start = System.nanoTime();
+      resolver.resolve("example.com");
+      Assertions.assertTrue(System.nanoTime() - start < Duration.ofMillis(200).toNanos());
+
+      Thread.sleep(500);
+      resolver.resolve("example.com");
+      Assertions.assertEquals(2, count.get());
+      Assertions.assertEquals(2, resolver.getQueries());
+    });
+  }
+
+  /**
+   * Tests that concurrent lookups of an uncached host share a single query.
+   */
+  @Test
+  @Order(6)
+  public void testConcurrent() {
+    AtomicInteger count = new AtomicInteger();
+    HostResolver.Lookup loopback = loopback(count, 1);
+
+    HostResolver resolver = new HostResolver(Duration.ofMinutes(1), Duration.ZERO, host -> {
+      try {
+        Thread.sleep(100);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      return loopback.lookup(host);
+    });
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      ExecutorService workers = Executors.newFixedThreadPool(8);
+
+      try {
+        List<Future<InetAddress>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+          futures.add(workers.submit(() -> resolver.resolve("example.com")));
+        }
+
+        for (Future<InetAddress> future : futures) {
+          Assertions.assertNotNull(future.get());
+        }
+      }
+      finally {
+        workers.shutdownNow();
+      }
+
+      Assertions.assertEquals(1, count.get());
+    });
+  }
+
+  /**
+   * Tests that fetches use the resolver from the fetch context instead of the system resolver.
+   *
+   * @throws IOException if unable to start the local server
+   */
+  @Test
+  @Order(7)
+  public void testFetch() throws IOException {
+    AtomicInteger count = new AtomicInteger();
+    HostResolver resolver = new HostResolver(Duration.ofMinutes(1), Duration.ZERO, host -> {
+      count.incrementAndGet();
+      return new InetAddress[] {InetAddress.getLoopbackAddress()};
+    });
+
+    FetchContext context = FetchContext.DEFAULT.withResolver(resolver);
+
+    try (MockServer server = new MockServer(null, false)) {
+      server.route("/", MockServer.Response.of(200, "text/html", "<p>resolved</p>"));
+      URL url = new URL("http", "crawler.invalid", server.getPort(), "/");
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        for (int i = 0; i < 3; i++) {
+          Assertions.assertEquals("<p>resolved</p>", HtmlFetcher.fetch(url, 0, context));
+        }
+
+        try (AsyncHtmlFetcher fetcher = new AsyncHtmlFetcher(1, context)) {
+          Assertions.assertEquals("<p>resolved</p>", fetcher.fetch(url).get());
+        }
+
+        Assertions.assertEquals(1, count.get());
+      });
+    }
+  }
+
+  /**
+   * Tests that asynchronous lookups answer cached hosts immediately and look up the rest without
+   * blocking the caller.
+   */
+  @Test
+  @Order(8)
+  public void testAsync() {
+    AtomicInteger count = new AtomicInteger();
+    CompletableFuture<Void> release = new CompletableFuture<>();
+    HostResolver resolver = new HostResolver(Duration.ofMinutes(1), Duration.ofMinutes(1), host -> {
+      count.incrementAndGet();
+      release.join();
+
+      if (host.startsWith("missing")) {
+        throw new UnknownHostException(host);
+      }
+
+      return new InetAddress[] {InetAddress.getLoopbackAddress()};
+    });
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      CompletableFuture<InetAddress> found = resolver.resolveAsync("Example.com");
+      CompletableFuture<InetAddress> missing = resolver.resolveAsync("missing.example.com");
+      Assertions.assertFalse(found.isDone());
+
+      release.complete(null);
+      Assertions.assertEquals(InetAddress.getLoopbackAddress(), found.get());
+
+      ExecutionException failed = Assertions.assertThrows(ExecutionException.class, missing::get);
+      Assertions.assertTrue(failed.getCause() instanceof UnknownHostException, failed::toString);
+
+      CompletableFuture<InetAddress> cached = resolver.resolveAsync("example.com");
+      Assertions.assertTrue(cached.isDone());
+      Assertions.assertEquals(InetAddress.getLoopbackAddress(), cached.get());
+      Assertions.assertEquals(2, count.get());
+    });
+  }
+}
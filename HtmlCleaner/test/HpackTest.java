@@ -0,0 +1,189 @@
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests the {@link Hpack} header compression against the examples in RFC 7541 Appendix C, and
+ * that the encoder and decoder agree as their dynamic tables change size.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class HpackTest {
+
+  /**
+   * Converts hexadecimal text, ignoring spaces, into bytes.
+   *
+   * @param hex the hexadecimal text
+   * @return the bytes
+   */
+  private static byte[] bytes(String hex) {
+    String digits = hex.replace(" ", "");
+    byte[] bytes = new byte[digits.length() / 2];
+
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(digits.substring(2 * i, 2 * i + 2), 16);
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Creates a list of header fields from alternating names and values.
+   *
+   * @param pairs the names and values
+   * @return the header fields
+   */
+  private static List<Map.Entry<String, String>> fields(String... pairs) {
+    List<Map.Entry<String, String>> fields = new ArrayList<>();
+
+    for (int i = 0; i < pairs.length; i += 2) {
+      fields.add(Map.entry(pairs[i], pairs[i + 1]));
+    }
+
+    return fields;
+  }
+
+  /**
+   * Tests Huffman coding of strings, and that padding longer than seven bits is rejected.
+   *
+   * @throws ProtocolException if a valid block is rejected
+   */
+  @Test
+  @Order(1)
+  public void testHuffman() throws ProtocolException {
+    String[][] examples = {
+        {"www.example.com", "f1e3c2e5f23a6ba0ab90f4ff"},
+        {"no-cache", "a8eb10649cbf"},
+        {"custom-key", "25a849e95ba97d7f"},
+        {"custom-value", "25a849e95bb8e8b4bf"},
+        {"302", "6402"},
+        {"private", "aec3771a4b"}
+    };
+
+    for (String[] example : examples) {
+      byte[] plain = example[0].getBytes(StandardCharsets.ISO_8859_1);
+      byte[] coded = bytes(example[1]);
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Hpack.huffmanEncode(plain, out);
+
+      Assertions.assertArrayEquals(coded, out.toByteArray(), example[0]);
+      Assertions.assertEquals(coded.length, Hpack.huffmanLength(plain), example[0]);
+      Assertions.assertArrayEquals(plain, Hpack.huffmanDecode(coded, 0, coded.length), example[0]);
+    }
+
+    byte[] every = new byte[256];
+
+    for (int i = 0; i < every.length; i++) {
+      every[i] = (byte) i;
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Hpack.huffmanEncode(every, out);
+    byte[] coded = out.toByteArray();
+    Assertions.assertArrayEquals(every, Hpack.huffmanDecode(coded, 0, coded.length));
+
+    byte[] padded = bytes("f1e3c2e5f23a6ba0ab90f4ff ff");
+    Assertions.assertThrows(ProtocolException.class, () -> Hpack.huffmanDecode(padded, 0, padded.length));
+  }
+
+  /**
+   * Tests the requests of RFC 7541 Appendix C.4, which share a dynamic table across blocks.
+   *
+   * @throws ProtocolException if a valid block is rejected
+   */
+  @Test
+  @Order(2)
+  public void testRequests() throws ProtocolException {
+    List<List<Map.Entry<String, String>>> requests = List.of(
+        fields(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"),
+        fields(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+            "cache-control", "no-cache"),
+        fields(":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+            "custom-key", "custom-value"));
+
+    List<byte[]> blocks = List.of(
+        bytes("8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff"),
+        bytes("8286 84be 5886 a8eb 1064 9cbf"),
+        bytes("8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf"));
+
+    Hpack.Encoder encoder = new Hpack.Encoder(true);
+    Hpack.Decoder decoder = new Hpack.Decoder();
+
+    for (int i = 0; i < blocks.size(); i++) {
+      byte[] block = blocks.get(i);
+      Assertions.assertArrayEquals(block, encoder.encode(requests.get(i)), "request " + i);
+      Assertions.assertEquals(requests.get(i), decoder.decode(block, 0, block.length), "request " + i);
+    }
+  }
+
+  /**
+   * Tests the responses of RFC 7541 Appendix C.6, where a 256 octet table evicts older entries.
+   *
+   * @throws ProtocolException if a valid block is rejected
+   */
+  @Test
+  @Order(3)
+  public void testResponses() throws ProtocolException {
+    List<List<Map.Entry<String, String>>> responses = List.of(
+        fields(":status", "302", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+            "location", "https://www.example.com"),
+        fields(":status", "307", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+            "location", "https://www.example.com"),
+        fields(":status", "200", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:22 GMT",
+            "location", "https://www.example.com", "content-encoding", "gzip",
+            "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1"));
+
+    List<byte[]> blocks = List.of(
+        bytes("4882 6402 5885 aec3 771a 4b61 96d0 7abe 9410 54d4 44a8 2005 9504 0b81 66e0 82a6 "
+            + "2d1b ff6e 919d 29ad 1718 63c7 8f0b 97c8 e9ae 82ae 43d3"),
+        bytes("4883 640e ffc1 c0bf"),
+        bytes("88c1 6196 d07a be94 1054 d444 a820 0595 040b 8166 e084 a62d 1bff c05a 839b d9ab "
+            + "77ad 94e7 821d d7f2 e6c7 b335 dfdf cd5b 3960 d5af 2708 7f36 72c1 ab27 0fb5 291f "
+            + "9587 3160 65c0 03ed 4ee5 b106 3d50 07"));
+
+    Hpack.Decoder decoder = new Hpack.Decoder(256);
+
+    for (int i = 0; i < blocks.size(); i++) {
+      byte[] block = blocks.get(i);
+      Assertions.assertEquals(responses.get(i), decoder.decode(block, 0, block.length), "response " + i);
+    }
+  }
+
+  /**
+   * Tests that blocks still decode after the encoder shrinks and grows its table, and that a
+   * block referring past the end of the table is rejected.
+   *
+   * @throws ProtocolException if a valid block is rejected
+   */
+  @Test
+  @Order(4)
+  public void testTableSize() throws ProtocolException {
+    Hpack.Encoder encoder = new Hpack.Encoder(false);
+    Hpack.Decoder decoder = new Hpack.Decoder();
+
+    for (int round = 0; round < 50; round++) {
+      if (round % 10 == 5) {
+        encoder.setMaxTableSize(round % 20 == 5 ? 0 : 100);
+        encoder.setMaxTableSize(Hpack.TABLE_SIZE);
+      }
+
+      List<Map.Entry<String, String>> fields = fields(":status", "200",
+          "x-round", String.valueOf(round % 7), "x-long", "value ".repeat(round % 3 * 400),
+          "content-type", "text/html");
+
+      byte[] block = encoder.encode(fields);
+      Assertions.assertEquals(fields, decoder.decode(block, 0, block.length), "round " + round);
+    }
+
+    byte[] invalid = bytes("ff 00");
+    Assertions.assertThrows(ProtocolException.class, () -> new Hpack.Decoder().decode(invalid, 0, invalid.length));
+  }
+}
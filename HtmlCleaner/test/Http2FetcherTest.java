@@ -0,0 +1,218 @@
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests the {@link Http2Fetcher} against a {@link MockServer} speaking HTTP/2, both as h2c over
+ * plain http and negotiated during the TLS handshake, and against servers that do not.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class Http2FetcherTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+  /** How long the server waits before answering each page. */
+  private static final Duration LATENCY = Duration.ofMillis(500);
+
+  /** The number of pages fetched at once. */
+  private static final int PAGES = 20;
+
+  /**
+   * Returns the content of a page.
+   *
+   * @param index the page number
+   * @return the content
+   */
+  private static String page(int index) {
+    return "<html><body><p>page " + index + "</p></body></html>";
+  }
+
+  /**
+   * Adds slow routes for each page to the server.
+   *
+   * @param server the server
+   * @return the urls of the pages in order
+   * @throws IOException if unable to create the urls
+   */
+  private static List<URL> pages(MockServer server) throws IOException {
+    List<URL> urls = new ArrayList<>();
+
+    for (int i = 0; i < PAGES; i++) {
+      server.route("/page/" + i, MockServer.Response.html(page(i)).withLatency(LATENCY));
+      urls.add(server.url("/page/" + i));
+    }
+
+    return urls;
+  }
+
+  /**
+   * Verifies the results for each page are in order.
+   *
+   * @param results the results
+   */
+  private static void verify(List<Map<String, List<String>>> results) {
+    Assertions.assertEquals(PAGES, results.size());
+
+    for (int i = 0; i < PAGES; i++) {
+      Assertions.assertEquals(200, HtmlFetcher.getStatusCode(results.get(i)));
+      Assertions.assertTrue(HtmlFetcher.isHtml(results.get(i)));
+      Assertions.assertEquals(page(i), String.join("\n", results.get(i).get("Content")));
+    }
+  }
+
+  /**
+   * Tests that slow pages are answered concurrently on a single h2c connection.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(1)
+  public void testMultiplexed() throws IOException {
+    try (MockServer server = new MockServer(null, true, true)) {
+      List<URL> urls = pages(server);
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        long start = System.nanoTime();
+        verify(Http2Fetcher.fetchURLs(urls, FetchContext.DEFAULT));
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        Assertions.assertEquals(1, server.getConnections());
+        Assertions.assertEquals(PAGES, server.getRequests());
+        Assertions.assertTrue(elapsed.compareTo(LATENCY.multipliedBy(4)) < 0, "Streams were not concurrent: " + elapsed);
+      });
+    }
+  }
+
+  /**
+   * Tests that https negotiates HTTP/2 during the handshake.
+   *
+   * @throws IOException if unable to start the server
+   * @throws GeneralSecurityException if unable to create the TLS context
+   */
+  @Test
+  @Order(2)
+  public void testNegotiated() throws IOException, GeneralSecurityException {
+    try (MockServer server = new MockServer(MockServer.selfSigned(), true, true)) {
+      List<URL> urls = pages(server);
+      FetchContext trusting = FetchContext.DEFAULT.withSslContext(MockServer.selfSigned());
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        verify(Http2Fetcher.fetchURLs(urls, trusting));
+        Assertions.assertEquals(1, server.getConnections());
+      });
+    }
+  }
+
+  /**
+   * Tests that servers without HTTP/2 support are fetched over HTTP/1.1 instead.
+   *
+   * @throws IOException if unable to start the server
+   * @throws GeneralSecurityException if unable to create the TLS context
+   */
+  @Test
+  @Order(3)
+  public void testFallback() throws IOException, GeneralSecurityException {
+    try (MockServer server = new MockServer(MockServer.selfSigned(), true)) {
+      List<URL> urls = pages(server).subList(0, 3);
+      FetchContext trusting = FetchContext.DEFAULT.withSslContext(MockServer.selfSigned());
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        List<Map<String, List<String>>> results = Http2Fetcher.fetchURLs(urls, trusting);
+
+        for (int i = 0; i < urls.size(); i++) {
+          Assertions.assertTrue(results.get(i).get(null).get(0).startsWith("HTTP/1.1 200"));
+          Assertions.assertEquals(page(i), String.join("\n", results.get(i).get("Content")));
+        }
+      });
+    }
+
+    try (MockServer server = new MockServer()) {
+      List<URL> urls = pages(server).subList(0, 3);
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        List<Map<String, List<String>>> results = Http2Fetcher.fetchURLs(urls, FetchContext.DEFAULT);
+
+        for (int i = 0; i < urls.size(); i++) {
+          Assertions.assertEquals(page(i), String.join("\n", results.get(i).get("Content")));
+        }
+      });
+    }
+  }
+
+  /**
+   * Tests that streams refused by a server shutting down are sent again on new connections.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(4)
+  public void testGoAway() throws IOException {
+    try (MockServer server = new MockServer(null, false, true)) {
+      List<URL> urls = pages(server).subList(0, 5);
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        List<Map<String, List<String>>> results = Http2Fetcher.fetchURLs(urls, FetchContext.DEFAULT);
+
+        for (int i = 0; i < urls.size(); i++) {
+          Assertions.assertEquals(page(i), String.join("\n", results.get(i).get("Content")));
+        }
+
+        Assertions.assertEquals(urls.size(), server.getConnections());
+      });
+    }
+  }
+
+  /**
+   * Tests bodies larger than the flow control windows, status codes, redirects, and charsets.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(5)
+  public void testContent() throws IOException {
+    char[] filler = new char[Http2Fetcher.CONNECTION_WINDOW / 4];
+    Arrays.fill(filler, 'x');
+    String large = String.valueOf(filler);
+    String latin = "<p>café “quoted”</p>";
+
+    try (MockServer server = new MockServer(null, true, true)) {
+      server.route("/large/1", MockServer.Response.of(200, "text/plain", large))
+          .route("/large/2", MockServer.Response.of(200, "text/plain", large))
+          .route("/large/3", MockServer.Response.of(200, "text/plain", large))
+          .route("/large/4", MockServer.Response.of(200, "text/plain", large))
+          .route("/large/5", MockServer.Response.of(200, "text/plain", large))
+          .route("/latin", MockServer.Response.of(200, "text/html; charset=ISO-8859-1",
+              latin.getBytes(Charset.forName("windows-1252"))))
+          .route("/moved", MockServer.Response.redirect(301, "/latin"));
+
+      List<URL> urls = List.of(server.url("/large/1"), server.url("/large/2"), server.url("/large/3"),
+          server.url("/large/4"), server.url("/large/5"), server.url("/latin"), server.url("/moved"),
+          server.url("/missing"));
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        List<Map<String, List<String>>> results = Http2Fetcher.fetchURLs(urls, FetchContext.DEFAULT);
+
+        for (int i = 0; i < 5; i++) {
+          Assertions.assertEquals(large, String.join("\n", results.get(i).get("Content")));
+        }
+
+        Assertions.assertEquals(latin, String.join("\n", results.get(5).get("Content")));
+        Assertions.assertTrue(HtmlFetcher.isRedirect(results.get(6)));
+        Assertions.assertEquals(404, HtmlFetcher.getStatusCode(results.get(7)));
+        Assertions.assertEquals(1, server.getConnections());
+      });
+    }
+  }
+}
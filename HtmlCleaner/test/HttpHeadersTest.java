@@ -0,0 +1,188 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests the {@link HttpHeaders} class.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class HttpHeadersTest {
+
+  /** A typical response header block followed by some content. */
+  public static final String RESPONSE = "HTTP/1.1 301 Moved Permanently\r\n" +
+      "content-type: Text/HTML; Charset=\"ISO-8859-1\"\r\n" +
+      "CONTENT-LENGTH:  42 \r\n" +
+      "Location: https://www.example.com/\r\n" +
+      "Set-Cookie: a=1\r\n" +
+      "set-cookie: b=2\r\n" +
+      "X-Custom:value:with:colons\r\n" +
+      "\r\n" +
+      "<html>content</html>";
+
+  /**
+   * Parses the response used by these tests.
+   *
+   * @return the parsed headers
+   */
+  private static HttpHeaders parse() {
+    return HttpHeaders.parse(RESPONSE.getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  /**
+   * Tests the status line and code.
+   */
+  @Test
+  @Order(1)
+  public void testStatus() {
+    HttpHeaders headers = parse();
+    Assertions.assertEquals("HTTP/1.1 301 Moved Permanently", headers.getStatusLine());
+    Assertions.assertEquals(301, headers.getStatusCode());
+  }
+
+  /**
+   * Tests that invalid status lines result in a status code of -1.
+   *
+   * @param status the invalid status line
+   */
+  @ParameterizedTest
+  @ValueSource(strings = {"", "HTTP/1.1", "HTTP/1.1 abc OK", "HTTP/1.1 2000 OK", "HTTP/1.1 20 OK"})
+  @Order(2)
+  public void testBadStatus(String status) {
+    HttpHeaders headers = HttpHeaders.parse((status + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+    Assertions.assertEquals(-1, headers.getStatusCode());
+  }
+
+  /**
+   * Tests that lookups ignore case and return values in order.
+   */
+  @Test
+  @Order(3)
+  public void testCaseInsensitive() {
+    HttpHeaders headers = parse();
+    Assertions.assertEquals("https://www.example.com/", headers.get("LOCATION"));
+    Assertions.assertEquals(List.of("a=1", "b=2"), headers.getAll("Set-Cookie"));
+    Assertions.assertEquals("value:with:colons", headers.get("x-custom"));
+    Assertions.assertNull(headers.get("Missing"));
+    Assertions.assertEquals(6, headers.size());
+  }
+
+  /**
+   * Tests that common header names are interned.
+   */
+  @Test
+  @Order(4)
+  public void testInterned() {
+    HttpHeaders headers = parse();
+    Assertions.assertSame("Content-Type", headers.names().get(0));
+    Assertions.assertSame("Content-Length", headers.names().get(1));
+    Assertions.assertEquals("X-Custom", headers.names().get(5));
+  }
+
+  /**
+   * Tests the typed accessors.
+   */
+  @Test
+  @Order(5)
+  public void testTyped() {
+    HttpHeaders headers = parse();
+    Assertions.assertEquals("text/html", headers.getContentType());
+    Assertions.assertEquals("ISO-8859-1", headers.getCharset());
+    Assertions.assertEquals(42, headers.getContentLength());
+    Assertions.assertEquals("https://www.example.com/", headers.getLocation());
+    Assertions.assertTrue(headers.isHtml());
+    Assertions.assertTrue(headers.isRedirect());
+    Assertions.assertFalse(headers.isChunked());
+  }
+
+  /**
+   * Tests that only a parameter named exactly "charset" sets the charset, however it is spaced.
+   *
+   * @param type the content type and the expected charset, separated by "|"
+   */
+  @ParameterizedTest
+  @ValueSource(strings = {
+      "text/html; charset=utf-8|utf-8", "text/html;CHARSET = \"utf-8\" ;level=1|utf-8",
+      "text/html; xcharset=latin1; charset=utf-8|utf-8", "text/html; format=charset=latin1|",
+      "text/html; charset=|", "text/charset=latin1|", "text/html|"})
+  @Order(6)
+  public void testCharset(String type) {
+    String[] parts = type.split("\\|", -1);
+    String response = "HTTP/1.1 200 OK\r\nContent-Type: " + parts[0] + "\r\n\r\n";
+    HttpHeaders headers = HttpHeaders.parse(response.getBytes(StandardCharsets.ISO_8859_1));
+    Assertions.assertEquals(parts[1].isEmpty() ? null : parts[1], headers.getCharset());
+  }
+
+  /**
+   * Tests that the map format works with {@link HtmlFetcher} regardless of header name case.
+   */
+  @Test
+  @Order(7)
+  public void testMap() {
+    Map<String, List<String>> map = parse().toMap();
+    Assertions.assertEquals(List.of("HTTP/1.1 301 Moved Permanently"), map.get(null));
+    Assertions.assertEquals(List.of("a=1", "b=2"), map.get("SET-COOKIE"));
+    Assertions.assertTrue(HtmlFetcher.isHtml(map));
+    Assertions.assertTrue(HtmlFetcher.isRedirect(map));
+    Assertions.assertEquals(301, HtmlFetcher.getStatusCode(map));
+  }
+
+  /**
+   * Tests finding the content and reading headers from a stream.
+   *
+   * @throws IOException if unable to read the stream
+   */
+  @Test
+  @Order(8)
+  public void testContent() throws IOException {
+    byte[] bytes = RESPONSE.getBytes(StandardCharsets.ISO_8859_1);
+    int start = HttpHeaders.findContent(bytes, 0, bytes.length);
+    Assertions.assertEquals("<html>content</html>", new String(bytes, start, bytes.length - start, StandardCharsets.ISO_8859_1));
+
+    try (InputStream stream = new BufferedInputStream(new ByteArrayInputStream(bytes))) {
+      HttpHeaders headers = HttpHeaders.read(stream);
+      Assertions.assertEquals(301, headers.getStatusCode());
+      Assertions.assertEquals("<html>content</html>", new String(stream.readAllBytes(), StandardCharsets.ISO_8859_1));
+    }
+  }
+
+  /**
+   * Tests that reading a header block larger than {@link HttpsFetcher#MAX_HEADERS} from a stream
+   * fails instead of buffering all of it.
+   */
+  @Test
+  @Order(9)
+  public void testTooLarge() {
+    String padding = "X-Padding: " + "a".repeat(1000) + "\r\n";
+    String response = "HTTP/1.1 200 OK\r\n" + padding.repeat(HttpsFetcher.MAX_HEADERS / 1000) + "\r\nbody";
+    InputStream stream = new BufferedInputStream(new ByteArrayInputStream(response.getBytes(StandardCharsets.ISO_8859_1)));
+
+    IOException error = Assertions.assertThrows(IOException.class, () -> HttpHeaders.read(stream));
+    Assertions.assertTrue(error.getMessage().contains("too large"), error::getMessage);
+  }
+
+  /**
+   * Tests that reading chunked content fails with an {@link IOException} when a chunk size is
+   * signed, missing, not hex, or too large for an int.
+   *
+   * @param size the chunk size line
+   */
+  @ParameterizedTest
+  @Order(10)
+  @ValueSource(strings = {"-5", "+5", "", ";name=value", "xyz", "80000000"})
+  public void testBadChunkSize(String size) {
+    byte[] bytes = ("3\r\nabc\r\n" + size + "\r\nhello\r\n0\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    InputStream stream = new ChunkedInputStream(new BufferedInputStream(new ByteArrayInputStream(bytes)));
+    Assertions.assertThrows(IOException.class, stream::readAllBytes);
+  }
+}
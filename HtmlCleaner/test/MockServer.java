@@ -0,0 +1,1109 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * A local web server for tests and benchmarks, so fetching can be tested offline and measured
+ * without the noise of a remote server. Each path is answered by a {@link Response}, which can add
+ * latency, limit bandwidth, send chunked content, redirect, answer ranges conditionally on an
+ * entity tag, or hold the connection open after the content. A path may also be given a sequence
+ * of responses, such as a page that changes after the first request. The server speaks plain http, or https using a TLS context such as
+ * {@link #selfSigned()}, and may keep connections alive between requests. It can also speak
+ * HTTP/2, negotiated during the TLS handshake or as h2c with prior knowledge over plain http.
+ *
+ * Paths without a response are answered with "404 Not Found".
+ */
+public class MockServer implements Closeable {
+
+  /** How long an idle kept-alive connection stays open. */
+  public static final Duration IDLE = Duration.ofSeconds(5);
+
+  /** The most concurrent streams allowed on an HTTP/2 connection. */
+  public static final int STREAMS = 100;
+
+  /** The listening socket. */
+  private final ServerSocket server;
+
+  /** Accepts and answers connections. */
+  private final ExecutorService workers;
+
+  /** Whether https is used. */
+  private final boolean https;
+
+  /** Whether connections are kept alive between requests. */
+  private final boolean keepAlive;
+
+  /** Whether HTTP/2 is spoken. */
+  private final boolean http2;
+
+  /** The responses for each path, in the order they are sent. */
+  private final Map<String, List<Response>> routes;
+
+  /** The number of requests for each path. */
+  private final Map<String, AtomicInteger> counts;
+
+  /** The number of connections accepted. */
+  private final AtomicInteger connections;
+
+  /** The number of requests answered. */
+  private final AtomicInteger requests;
+
+  /** The number of responses sent with each status code. */
+  private final Map<Integer, AtomicInteger> statuses;
+
+  /** The number of requests being answered right now. */
+  private final AtomicInteger active;
+
+  /** The most requests answered at once. */
+  private final AtomicInteger highest;
+
+  /**
+   * Starts a plain http server that keeps connections alive.
+   *
+   * @throws IOException if unable to start the server
+   */
+  public MockServer() throws IOException {
+    this(null, true);
+  }
+
+  /**
+   * Starts a server on a free local port.
+   *
+   * @param ssl the TLS context for https, or {@code null} for plain http
+   * @param keepAlive whether to keep connections alive between requests
+   * @throws IOException if unable to start the server
+   */
+  public MockServer(SSLContext ssl, boolean keepAlive) throws IOException {
+    this(ssl, keepAlive, false);
+  }
+
+  /**
+   * Starts a server on a free local port that may also speak HTTP/2. Without keep-alive, an
+   * HTTP/2 connection answers only its first stream and shuts down with a GOAWAY frame.
+   *
+   * @param ssl the TLS context for https, or {@code null} for plain http
+   * @param keepAlive whether to keep connections alive between requests
+   * @param http2 whether to speak HTTP/2 when the client asks for it
+   * @throws IOException if unable to start the server
+   */
+  public MockServer(SSLContext ssl, boolean keepAlive, boolean http2) throws IOException {
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+    this.server = ssl == null ? new ServerSocket(0, 1000, loopback) :
+        ssl.getServerSocketFactory().createServerSocket(0, 1000, loopback);
+    this.workers = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "mock-server");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.https = ssl != null;
+    this.keepAlive = keepAlive;
+    this.http2 = http2;
+
+    if (https && http2) {
+      SSLServerSocket secure = (SSLServerSocket) server;
+      SSLParameters parameters = secure.getSSLParameters();
+      parameters.setApplicationProtocols(Http2Fetcher.PROTOCOLS.toArray(new String[0]));
+      secure.setSSLParameters(parameters);
+    }
+    this.routes = new ConcurrentHashMap<>();
+    this.counts = new ConcurrentHashMap<>();
+    this.connections = new AtomicInteger();
+    this.requests = new AtomicInteger();
+    this.statuses = new ConcurrentHashMap<>();
+    this.active = new AtomicInteger();
+    this.highest = new AtomicInteger();
+
+    workers.execute(() -> {
+      while (!server.isClosed()) {
+        try {
+          Socket socket = server.accept();
+          connections.incrementAndGet();
+          workers.execute(() -> serve(socket));
+        }
+        catch (IOException e) {
+          break;
+        }
+      }
+    });
+  }
+
+  /**
+   * Loads the self-signed certificate for "localhost" in "test/localhost.p12", which both serves
+   * and trusts it, for use by the server and by {@link FetchContext#withSslContext(SSLContext)}.
+   *
+   * @return the TLS context
+   * @throws IOException if unable to read the keystore
+   * @throws GeneralSecurityException if unable to initialize TLS
+   */
+  public static SSLContext selfSigned() throws IOException, GeneralSecurityException {
+    return HandshakeTest.load(Path.of("test", "localhost.p12"), HandshakeTest.PASSWORD);
+  }
+
+  /**
+   * Answers a path with a response, replacing any previous responses. Given several responses, the
+   * first request for the path gets the first response, the second request the second, and so on,
+   * with the last response answering every request after that.
+   *
+   * @param path the path, such as "/hello.html"
+   * @param responses the responses, in the order they are sent
+   * @return this server, for chaining
+   */
+  public MockServer route(String path, Response... responses) {
+    if (responses.length == 0) {
+      throw new IllegalArgumentException("At least one response is needed.");
+    }
+
+    routes.put(path, List.of(responses));
+    return this;
+  }
+
+  /**
+   * Serves every file in a directory under the root path with its name, such as "/hello.html".
+   *
+   * @param directory the directory of files
+   * @return this server, for chaining
+   * @throws IOException if unable to read the files
+   */
+  public MockServer fixtures(Path directory) throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        if (Files.isRegularFile(file)) {
+          route("/" + file.getFileName(), Response.file(file));
+        }
+      }
+    }
+
+    return this;
+  }
+
+  /**
+   * Returns the URL of a path on this server, using "localhost" so the self-signed certificate
+   * matches.
+   *
+   * @param path the path
+   * @return the URL
+   * @throws MalformedURLException if the path is invalid
+   */
+  public URL url(String path) throws MalformedURLException {
+    return new URL(https ? "https" : "http", "localhost", server.getLocalPort(), path);
+  }
+
+  /**
+   * Returns the local port.
+   *
+   * @return the port
+   */
+  public int getPort() {
+    return server.getLocalPort();
+  }
+
+  /**
+   * Returns the number of connections accepted.
+   *
+   * @return the number of connections
+   */
+  public int getConnections() {
+    return connections.get();
+  }
+
+  /**
+   * Returns the number of requests answered.
+   *
+   * @return the number of requests
+   */
+  public int getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * Returns the number of requests for a path.
+   *
+   * @param path the path
+   * @return the number of requests
+   */
+  public int getRequests(String path) {
+    AtomicInteger count = counts.get(path);
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * Returns the number of responses sent with a status code, after answering any conditional or
+   * range request, so a "304 Not Modified" is not counted as a "200 OK".
+   *
+   * @param status the status code
+   * @return the number of responses
+   */
+  public int getResponses(int status) {
+    AtomicInteger count = statuses.get(status);
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * Returns the most requests answered at once, counting the latency of each response.
+   *
+   * @return the most concurrent requests
+   */
+  public int getMostActive() {
+    return highest.get();
+  }
+
+  /**
+   * Stops the server and closes every connection.
+   *
+   * @throws IOException if unable to close the listening socket
+   */
+  @Override
+  public void close() throws IOException {
+    server.close();
+    workers.shutdownNow();
+  }
+
+  /**
+   * Counts a request for a path and picks the response for it.
+   *
+   * @param path the path
+   * @return the response
+   */
+  private Response answer(String path) {
+    requests.incrementAndGet();
+    int count = counts.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+    List<Response> responses = routes.get(path);
+    return responses == null ? Response.status(404) : responses.get(Math.min(count, responses.size()) - 1);
+  }
+
+  /**
+   * Counts a response by its status code.
+   *
+   * @param status the status code
+   */
+  private void sent(int status) {
+    statuses.computeIfAbsent(status, key -> new AtomicInteger()).incrementAndGet();
+  }
+
+  /**
+   * Answers requests on a connection until either side closes it.
+   *
+   * @param socket the connection
+   */
+  private void serve(Socket socket) {
+    try (
+        socket;
+        InputStream input = socket.getInputStream();
+        OutputStream output = socket.getOutputStream();
+    ) {
+      socket.setSoTimeout((int) IDLE.toMillis());
+      boolean open = true;
+
+      if (http2 && socket instanceof SSLSocket) {
+        SSLSocket secure = (SSLSocket) socket;
+        secure.startHandshake();
+
+        if ("h2".equals(secure.getApplicationProtocol())) {
+          new Http2Session(input, output).run(0);
+          return;
+        }
+      }
+
+      while (open) {
+        String line = ChunkedInputStream.readLine(input);
+
+        if (line == null || line.isEmpty()) {
+          break;
+        }
+
+        if (http2 && line.equals("PRI * HTTP/2.0")) {
+          new Http2Session(input, output).run(line.length() + 2);
+          return;
+        }
+
+        String path = line.split(" ")[1];
+        Map<String, String> fields = new HashMap<>();
+
+        while (!(line = ChunkedInputStream.readLine(input)).isEmpty()) {
+          int colon = line.indexOf(':');
+
+          if (colon > 0) {
+            fields.put(line.substring(0, colon).strip().toLowerCase(Locale.ROOT), line.substring(colon + 1).strip());
+          }
+        }
+
+        boolean close = !keepAlive || fields.getOrDefault("connection", "").toLowerCase(Locale.ROOT).contains("close");
+        Response response = answer(path);
+
+        if (response.reset) {
+          break;
+        }
+
+        highest.accumulateAndGet(active.incrementAndGet(), Math::max);
+
+        try {
+          response.write(output, close, fields, this::sent);
+        }
+        finally {
+          active.decrementAndGet();
+        }
+
+        open = !close;
+
+        if (close && !response.slowClose.isZero()) {
+          Thread.sleep(response.slowClose.toMillis());
+        }
+      }
+    }
+    catch (IOException | RuntimeException e) {
+      return;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Answers the HTTP/2 requests on one connection. Each stream is answered by its own worker, so
+   * responses are sent concurrently within the flow control windows of the client. Latency is
+   * honored, but bandwidth, chunking, slow close, resets, conditional requests, and extra header
+   * fields only apply to HTTP/1.1.
+   */
+  private class Http2Session {
+
+    /** Reads frames from the client. */
+    private final DataInputStream input;
+
+    /** Writes frames to the client, guarded by this session. */
+    private final OutputStream output;
+
+    /** Compresses response headers, guarded by this session. */
+    private final Hpack.Encoder encoder;
+
+    /** Decompresses request headers, used only by the reading thread. */
+    private final Hpack.Decoder decoder;
+
+    /** The remaining send window of each stream being answered, guarded by this session. */
+    private final Map<Integer, Long> windows;
+
+    /** The remaining send window of the connection. */
+    private long connectionWindow;
+
+    /** The initial send window of new streams. */
+    private long initialWindow;
+
+    /** The largest frame payload the client accepts. */
+    private int frameSize;
+
+    /** The last stream answered after shutting down, or -1 while open. */
+    private int last;
+
+    /** Whether the connection has closed. */
+    private boolean closed;
+
+    /**
+     * Initializes a session.
+     *
+     * @param input the connection input
+     * @param output the connection output
+     */
+    public Http2Session(InputStream input, OutputStream output) {
+      this.input = new DataInputStream(new BufferedInputStream(input));
+      this.output = new BufferedOutputStream(output);
+      this.encoder = new Hpack.Encoder(true);
+      this.decoder = new Hpack.Decoder();
+      this.windows = new HashMap<>();
+      this.connectionWindow = Http2Fetcher.DEFAULT_WINDOW;
+      this.initialWindow = Http2Fetcher.DEFAULT_WINDOW;
+      this.frameSize = Http2Fetcher.DEFAULT_FRAME_SIZE;
+      this.last = -1;
+      this.closed = false;
+    }
+
+    /**
+     * Reads the rest of the preface, then handles frames until the client goes away.
+     *
+     * @param consumed the number of preface bytes already read
+     * @throws IOException if unable to read or write
+     */
+    public void run(int consumed) throws IOException {
+      byte[] preface = Http2Fetcher.PREFACE;
+      byte[] rest = input.readNBytes(preface.length - consumed);
+
+      if (!Arrays.equals(rest, Arrays.copyOfRange(preface, consumed, preface.length))) {
+        return;
+      }
+
+      synchronized (this) {
+        Http2Fetcher.writeSettings(output, Http2Fetcher.MAX_CONCURRENT_STREAMS, STREAMS);
+        output.flush();
+      }
+
+      try {
+        Http2Fetcher.Frame frame;
+
+        while ((frame = Http2Fetcher.Frame.read(input, Http2Fetcher.DEFAULT_FRAME_SIZE)) != null) {
+          switch (frame.getType()) {
+            case Http2Fetcher.HEADERS:
+              request(frame);
+              break;
+            case Http2Fetcher.SETTINGS:
+              settings(frame);
+              break;
+            case Http2Fetcher.WINDOW_UPDATE:
+              update(frame);
+              break;
+            case Http2Fetcher.PING:
+              synchronized (this) {
+                if (!frame.hasFlag(Http2Fetcher.ACK)) {
+                  byte[] payload = frame.getPayload();
+                  Http2Fetcher.Frame.write(output, Http2Fetcher.PING, Http2Fetcher.ACK, 0, payload, 0, payload.length);
+                  output.flush();
+                }
+              }
+              break;
+            case Http2Fetcher.RST_STREAM:
+              synchronized (this) {
+                windows.remove(frame.getStream());
+                notifyAll();
+              }
+              break;
+            case Http2Fetcher.GOAWAY:
+              return;
+            default:
+              break;
+          }
+        }
+      }
+      finally {
+        synchronized (this) {
+          closed = true;
+          notifyAll();
+        }
+      }
+    }
+
+    /**
+     * Starts answering a request. Without keep-alive, the first request is the last one answered.
+     *
+     * @param frame the HEADERS frame of the request
+     * @throws IOException if unable to read the header block or shut down the connection
+     */
+    private void request(Http2Fetcher.Frame frame) throws IOException {
+      byte[] block = Http2Fetcher.readHeaderBlock(input, frame, Http2Fetcher.DEFAULT_FRAME_SIZE);
+      List<Map.Entry<String, String>> fields = decoder.decode(block, 0, block.length);
+      int id = frame.getStream();
+
+      synchronized (this) {
+        if (last >= 0) {
+          return;
+        }
+
+        windows.put(id, initialWindow);
+
+        if (!keepAlive) {
+          last = id;
+          Http2Fetcher.writeIntegers(output, Http2Fetcher.GOAWAY, 0, last, Http2Fetcher.NO_ERROR);
+          output.flush();
+        }
+      }
+
+      String path = "/";
+
+      for (Map.Entry<String, String> field : fields) {
+        if (field.getKey().equals(":path")) {
+          path = field.getValue();
+        }
+      }
+
+      Response response = answer(path);
+      workers.execute(() -> respond(id, response));
+    }
+
+    /**
+     * Applies the client settings and acknowledges them.
+     *
+     * @param frame the SETTINGS frame
+     * @throws IOException if unable to write the acknowledgement
+     */
+    private synchronized void settings(Http2Fetcher.Frame frame) throws IOException {
+      if (frame.hasFlag(Http2Fetcher.ACK)) {
+        return;
+      }
+
+      byte[] payload = frame.getPayload();
+
+      for (int i = 0; i + 6 <= payload.length; i += 6) {
+        int id = (payload[i] & 0xFF) << 8 | (payload[i + 1] & 0xFF);
+        long value = Http2Fetcher.readInt(payload, i + 2) & 0xFFFFFFFFL;
+
+        if (id == Http2Fetcher.INITIAL_WINDOW_SIZE) {
+          long delta = value - initialWindow;
+          windows.replaceAll((stream, window) -> window + delta);
+          initialWindow = value;
+        }
+        else if (id == Http2Fetcher.MAX_FRAME_SIZE) {
+          frameSize = (int) value;
+        }
+        else if (id == Http2Fetcher.HEADER_TABLE_SIZE) {
+          encoder.setMaxTableSize((int) Math.min(value, Hpack.TABLE_SIZE));
+        }
+      }
+
+      Http2Fetcher.Frame.write(output, Http2Fetcher.SETTINGS, Http2Fetcher.ACK, 0, new byte[0], 0, 0);
+      output.flush();
+      notifyAll();
+    }
+
+    /**
+     * Opens a send window further.
+     *
+     * @param frame the WINDOW_UPDATE frame
+     */
+    private synchronized void update(Http2Fetcher.Frame frame) {
+      long increment = Http2Fetcher.readInt(frame.getPayload(), 0) & 0x7FFFFFFF;
+
+      if (frame.getStream() == 0) {
+        connectionWindow += increment;
+      }
+      else {
+        windows.computeIfPresent(frame.getStream(), (stream, window) -> window + increment);
+      }
+
+      notifyAll();
+    }
+
+    /**
+     * Sends the response on a stream, waiting for the send windows to open when they are used up.
+     *
+     * @param id the stream id
+     * @param response the response
+     */
+    private void respond(int id, Response response) {
+      highest.accumulateAndGet(active.incrementAndGet(), Math::max);
+      sent(response.status);
+
+      try {
+        if (!response.latency.isZero()) {
+          Thread.sleep(response.latency.toMillis());
+        }
+
+        List<Map.Entry<String, String>> fields = new ArrayList<>();
+        fields.add(Map.entry(":status", String.valueOf(response.status)));
+
+        if (response.type != null) {
+          fields.add(Map.entry("content-type", response.type));
+        }
+
+        if (response.location != null) {
+          fields.add(Map.entry("location", response.location));
+        }
+
+        if (response.etag != null) {
+          fields.add(Map.entry("etag", response.etag));
+        }
+
+        fields.add(Map.entry("content-length", String.valueOf(response.body.length)));
+        byte[] body = response.body;
+
+        synchronized (this) {
+          byte[] block = encoder.encode(fields);
+          Http2Fetcher.writeHeaders(output, id, block, body.length == 0, frameSize);
+          output.flush();
+        }
+
+        int offset = 0;
+
+        while (offset < body.length) {
+          synchronized (this) {
+            while (!closed && windows.containsKey(id) && Math.min(connectionWindow, windows.get(id)) <= 0) {
+              wait();
+            }
+
+            if (closed || !windows.containsKey(id)) {
+              return;
+            }
+
+            long window = Math.min(connectionWindow, windows.get(id));
+            int length = (int) Math.min(Math.min(frameSize, body.length - offset), window);
+            int flags = offset + length == body.length ? Http2Fetcher.END_STREAM : 0;
+
+            Http2Fetcher.Frame.write(output, Http2Fetcher.DATA, flags, id, body, offset, length);
+            output.flush();
+
+            connectionWindow -= length;
+            windows.put(id, windows.get(id) - length);
+            offset += length;
+          }
+        }
+      }
+      catch (IOException e) {
+        return;
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      finally {
+        active.decrementAndGet();
+
+        synchronized (this) {
+          windows.remove(id);
+        }
+      }
+    }
+  }
+
+  /**
+   * How the server answers a path. A response is immutable; each of the "with" methods returns a
+   * modified copy.
+   */
+  public static class Response {
+
+    /** The status code. */
+    private final int status;
+
+    /** The content type, or {@code null} for none. */
+    private final String type;
+
+    /** The content. */
+    private final byte[] body;
+
+    /** The "Location" header, or {@code null} for none. */
+    private final String location;
+
+    /** How long to wait before answering. */
+    private Duration latency;
+
+    /** The bytes sent per second, or 0 for no limit. */
+    private long bandwidth;
+
+    /** The chunk size for chunked content, or 0 to send a "Content-Length" instead. */
+    private int chunks;
+
+    /** How long to hold the connection open after the content before closing it. */
+    private Duration slowClose;
+
+    /** Whether a "Range" header is answered with part of the content. */
+    private boolean ranges;
+
+    /** The most bytes sent for one range, or 0 for no limit. */
+    private int rangeLimit;
+
+    /** The "ETag" header, or {@code null} for none. */
+    private String etag;
+
+    /** Other header fields, replacing any generated field of the same name. */
+    private Map<String, String> headers;
+
+    /** Whether the connection is closed without answering. */
+    private boolean reset;
+
+    /**
+     * Initializes a response that is sent right away.
+     *
+     * @param status the status code
+     * @param type the content type, or {@code null}
+     * @param body the content
+     * @param location the "Location" header, or {@code null}
+     */
+    private Response(int status, String type, byte[] body, String location) {
+      this.status = status;
+      this.type = type;
+      this.body = body;
+      this.location = location;
+      this.latency = Duration.ZERO;
+      this.slowClose = Duration.ZERO;
+      this.headers = Map.of();
+    }
+
+    /**
+     * Initializes a copy of a response, for the "with" methods to modify.
+     *
+     * @param other the response to copy
+     */
+    private Response(Response other) {
+      this(other.status, other.type, other.body, other.location);
+      this.latency = other.latency;
+      this.bandwidth = other.bandwidth;
+      this.chunks = other.chunks;
+      this.slowClose = other.slowClose;
+      this.ranges = other.ranges;
+      this.rangeLimit = other.rangeLimit;
+      this.etag = other.etag;
+      this.headers = other.headers;
+      this.reset = other.reset;
+    }
+
+    /**
+     * Returns a response with content.
+     *
+     * @param status the status code
+     * @param type the content type
+     * @param body the content
+     * @return the response
+     */
+    public static Response of(int status, String type, String body) {
+      return new Response(status, type, body.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    /**
+     * Returns a response with binary content.
+     *
+     * @param status the status code
+     * @param type the content type
+     * @param body the content
+     * @return the response
+     */
+    public static Response of(int status, String type, byte[] body) {
+      return new Response(status, type, body.clone(), null);
+    }
+
+    /**
+     * Returns a "200 OK" response with html content.
+     *
+     * @param html the html
+     * @return the response
+     */
+    public static Response html(String html) {
+      return of(200, "text/html; charset=utf-8", html);
+    }
+
+    /**
+     * Returns a "200 OK" response with the content of a file, which is html if the file name ends
+     * with ".html" and plain text otherwise.
+     *
+     * @param file the file
+     * @return the response
+     * @throws IOException if unable to read the file
+     */
+    public static Response file(Path file) throws IOException {
+      String type = file.getFileName().toString().endsWith(".html") ? "text/html; charset=utf-8" : "text/plain";
+      return new Response(200, type, Files.readAllBytes(file), null);
+    }
+
+    /**
+     * Returns a response without content.
+     *
+     * @param status the status code
+     * @return the response
+     */
+    public static Response status(int status) {
+      return new Response(status, null, new byte[0], null);
+    }
+
+    /**
+     * Returns a redirect.
+     *
+     * @param status the status code, such as 301 or 302
+     * @param location the location to redirect to
+     * @return the response
+     */
+    public static Response redirect(int status, String location) {
+      return new Response(status, "text/html", new byte[0], location);
+    }
+
+    /**
+     * Returns a response that closes the connection as soon as the request arrives, without
+     * answering, like a server that failed.
+     *
+     * @return the response
+     */
+    public static Response reset() {
+      Response response = status(0);
+      response.reset = true;
+      return response;
+    }
+
+    /**
+     * Returns a copy that waits before answering, like a slow or distant server.
+     *
+     * @param latency how long to wait before sending the headers
+     * @return the modified copy
+     */
+    public Response withLatency(Duration latency) {
+      Response copy = new Response(this);
+      copy.latency = latency;
+      return copy;
+    }
+
+    /**
+     * Returns a copy that sends the content no faster than a rate.
+     *
+     * @param bytesPerSecond the bytes sent per second, or 0 for no limit
+     * @return the modified copy
+     */
+    public Response withBandwidth(long bytesPerSecond) {
+      Response copy = new Response(this);
+      copy.bandwidth = bytesPerSecond;
+      return copy;
+    }
+
+    /**
+     * Returns a copy that sends the content with chunked transfer encoding.
+     *
+     * @param size the chunk size, or 0 to send a "Content-Length" instead
+     * @return the modified copy
+     */
+    public Response withChunks(int size) {
+      Response copy = new Response(this);
+      copy.chunks = size;
+      return copy;
+    }
+
+    /**
+     * Returns a copy that holds the connection open for a while after the content before closing
+     * it, which stalls clients that read until the connection closes.
+     *
+     * @param delay how long to hold the connection open
+     * @return the modified copy
+     */
+    public Response withSlowClose(Duration delay) {
+      Response copy = new Response(this);
+      copy.slowClose = delay;
+      return copy;
+    }
+
+    /**
+     * Returns a copy that answers a "Range" header for a single range of bytes with a "206 Partial
+     * Content" response, if the status is "200 OK". Other responses ignore the header.
+     *
+     * @return the modified copy
+     */
+    public Response withRanges() {
+      return withRanges(0);
+    }
+
+    /**
+     * Returns a copy that answers ranges like {@link #withRanges()}, but sends at most a number of
+     * bytes for each, like a server that caps the size of partial responses.
+     *
+     * @param most the most bytes sent for one range, or 0 for no limit
+     * @return the modified copy
+     */
+    public Response withRanges(int most) {
+      Response copy = new Response(this);
+      copy.ranges = true;
+      copy.rangeLimit = most;
+      return copy;
+    }
+
+    /**
+     * Returns a copy that sends an "ETag" header. Following RFC 9110, a request whose
+     * "If-None-Match" header matches it is answered with "304 Not Modified", and a range is only
+     * sent if the "If-Range" header of the request, if any, is a strong match for it, and the whole
+     * content is sent otherwise.
+     *
+     * @param etag the entity tag, including its quotes and any "W/" prefix
+     * @return the modified copy
+     */
+    public Response withETag(String etag) {
+      Response copy = new Response(this);
+      copy.etag = etag;
+      return copy;
+    }
+
+    /**
+     * Returns a copy that sends another header field, replacing the field the server would send
+     * under the same name, such as a "Content-Length" that does not match the content.
+     *
+     * @param name the field name
+     * @param value the field value
+     * @return the modified copy
+     */
+    public Response withHeader(String name, String value) {
+      Response copy = new Response(this);
+      copy.headers = new LinkedHashMap<>(headers);
+      copy.headers.put(name, value);
+      return copy;
+    }
+
+    /**
+     * Returns whether an entity tag from a request is a strong match for this response.
+     *
+     * @param condition the entity tag from the request
+     * @return {@code true} if neither tag is weak and both are the same
+     */
+    private boolean matches(String condition) {
+      return etag != null && !etag.startsWith("W/") && etag.equals(condition);
+    }
+
+    /**
+     * Writes the response.
+     *
+     * @param output the connection output
+     * @param close whether the connection closes after this response
+     * @param fields the request header fields by lower case name
+     * @param sent told the status code just before it is sent
+     * @throws IOException if unable to write
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void write(OutputStream output, boolean close, Map<String, String> fields, IntConsumer sent)
+        throws IOException, InterruptedException {
+      if (!latency.isZero()) {
+        Thread.sleep(latency.toMillis());
+      }
+
+      int code = status;
+      byte[] body = this.body;
+      String served = null;
+      String range = fields.get("range");
+      String condition = fields.get("if-range");
+      String match = fields.get("if-none-match");
+
+      if (status == 200 && etag != null && match != null && etag.replaceFirst("^W/", "").equals(match.replaceFirst("^W/", ""))) {
+        code = 304;
+        body = new byte[0];
+      }
+      else if (ranges && status == 200 && range != null && range.startsWith("bytes=") && !range.contains(",") &&
+          (condition == null || matches(condition))) {
+        String[] bounds = range.substring(6).trim().split("-", 2);
+        long start = Long.parseLong(bounds[0]);
+        long end = bounds[1].isEmpty() ? body.length - 1 : Math.min(Long.parseLong(bounds[1]), body.length - 1);
+
+        if (rangeLimit > 0) {
+          end = Math.min(end, start + rangeLimit - 1);
+        }
+
+        if (start >= body.length) {
+          code = 416;
+          body = new byte[0];
+          served = "bytes */" + this.body.length;
+        }
+        else {
+          code = 206;
+          body = Arrays.copyOfRange(body, (int) start, (int) end + 1);
+          served = "bytes " + start + "-" + end + "/" + this.body.length;
+        }
+      }
+
+      Map<String, String> headers = new LinkedHashMap<>();
+
+      if (ranges) {
+        headers.put("Accept-Ranges", "bytes");
+      }
+
+      if (served != null) {
+        headers.put("Content-Range", served);
+      }
+
+      if (type != null) {
+        headers.put("Content-Type", type);
+      }
+
+      if (location != null) {
+        headers.put("Location", location);
+      }
+
+      if (etag != null) {
+        headers.put("ETag", etag);
+      }
+
+      headers.put(chunks > 0 ? "Transfer-Encoding" : "Content-Length", chunks > 0 ? "chunked" : String.valueOf(body.length));
+      headers.put("Connection", close ? "close" : "keep-alive");
+
+      for (Map.Entry<String, String> extra : this.headers.entrySet()) {
+        headers.keySet().removeIf(name -> name.equalsIgnoreCase(extra.getKey()));
+        headers.put(extra.getKey(), extra.getValue());
+      }
+
+      StringBuilder head = new StringBuilder();
+      head.append("HTTP/1.1 ").append(code).append(' ').append(reason(code)).append("\r\n");
+      headers.forEach((name, value) -> head.append(name).append(": ").append(value).append("\r\n"));
+      head.append("\r\n");
+
+      sent.accept(code);
+      output.write(head.toString().getBytes(StandardCharsets.UTF_8));
+      output.flush();
+
+      long start = System.nanoTime();
+      int piece = chunks > 0 ? chunks : bandwidth > 0 ? (int) Math.max(1, Math.min(8192, bandwidth / 20)) : body.length;
+
+      for (int offset = 0; offset < body.length; offset += piece) {
+        int length = Math.min(piece, body.length - offset);
+
+        if (chunks > 0) {
+          output.write((Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.UTF_8));
+          output.write(body, offset, length);
+          output.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+        else {
+          output.write(body, offset, length);
+        }
+
+        if (bandwidth > 0) {
+          output.flush();
+          long due = start + TimeUnit.SECONDS.toNanos(offset + length) / bandwidth;
+          long wait = due - System.nanoTime();
+
+          if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+          }
+        }
+      }
+
+      if (chunks > 0) {
+        output.write("0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+      }
+
+      output.flush();
+    }
+
+    /**
+     * Returns the reason phrase for a status code.
+     *
+     * @param status the status code
+     * @return the reason phrase
+     */
+    private static String reason(int status) {
+      switch (status) {
+        case 200:
+          return "OK";
+        case 206:
+          return "Partial Content";
+        case 301:
+          return "Moved Permanently";
+        case 302:
+          return "Found";
+        case 304:
+          return "Not Modified";
+        case 404:
+          return "Not Found";
+        case 410:
+          return "Gone";
+        case 416:
+          return "Range Not Satisfiable";
+        case 503:
+          return "Service Unavailable";
+        default:
+          return "Status";
+      }
+    }
+  }
+}
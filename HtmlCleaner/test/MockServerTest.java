@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests the {@link HtmlFetcher} offline against the test fixtures served by a {@link MockServer},
+ * mirroring the remote tests, and runs a short {@link FetchBenchmark}.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class MockServerTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+  /**
+   * Reads a fixture the way {@link HtmlFetcher#fetch(URL)} returns it, as lines joined by newlines.
+   *
+   * @param name the file name in the test directory
+   * @return the joined lines
+   * @throws IOException if unable to read the file
+   */
+  private static String fixture(String name) throws IOException {
+    return String.join("\n", Files.readAllLines(Path.of("test", name), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Adds the routes mirroring the remote test site.
+   *
+   * @param server the server
+   * @return the server
+   * @throws IOException if unable to read the fixtures
+   */
+  private static MockServer site(MockServer server) throws IOException {
+    return server.fixtures(Path.of("test"))
+        .route("/simple/no_extension", MockServer.Response.of(200, "text/plain", "hello"))
+        .route("/simple/double_extension.html.txt", MockServer.Response.of(200, "text/plain", "<p>hello</p>"))
+        .route("/redirect/nowhere", MockServer.Response.of(404, "text/html", "<p>missing</p>"))
+        .route("/redirect/gone", MockServer.Response.status(410))
+        .route("/redirect/one", MockServer.Response.redirect(301, "/redirect/two"))
+        .route("/redirect/two", MockServer.Response.redirect(302, "/hello.html"))
+        .route("/redirect/loop", MockServer.Response.redirect(302, "/redirect/loop"));
+  }
+
+  /**
+   * Tests fetching the fixtures, status codes, and redirects over plain http.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(1)
+  public void testFixtures() throws IOException {
+    try (MockServer server = site(new MockServer())) {
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Assertions.assertEquals(fixture("hello.html"), HtmlFetcher.fetch(server.url("/hello.html"), 0, FetchContext.DEFAULT));
+        Assertions.assertEquals(HtmlCleaner.stripHtml(fixture("pangrams.html")),
+            HtmlCleaner.stripHtml(HtmlFetcher.fetch(server.url("/pangrams.html"), 0, FetchContext.DEFAULT)));
+
+        Map<String, List<String>> headers = HttpsFetcher.fetchURL(server.url("/yellowthroat.html"), FetchContext.DEFAULT, FetchContext.DEFAULT.start());
+        Assertions.assertEquals(200, HtmlFetcher.getStatusCode(headers));
+        Assertions.assertTrue(HtmlFetcher.isHtml(headers));
+
+        headers = HttpsFetcher.fetchURL(server.url("/redirect/nowhere"), FetchContext.DEFAULT, FetchContext.DEFAULT.start());
+        Assertions.assertEquals(404, HtmlFetcher.getStatusCode(headers));
+        Assertions.assertTrue(HtmlFetcher.isHtml(headers));
+
+        headers = HttpsFetcher.fetchURL(server.url("/redirect/gone"), FetchContext.DEFAULT, FetchContext.DEFAULT.start());
+        Assertions.assertEquals(410, HtmlFetcher.getStatusCode(headers));
+
+        headers = HttpsFetcher.fetchURL(server.url("/redirect/one"), FetchContext.DEFAULT, FetchContext.DEFAULT.start());
+        Assertions.assertTrue(HtmlFetcher.isRedirect(headers));
+
+        Assertions.assertNull(HtmlFetcher.fetch(server.url("/simple/no_extension"), 0, FetchContext.DEFAULT));
+        Assertions.assertNull(HtmlFetcher.fetch(server.url("/simple/double_extension.html.txt"), 0, FetchContext.DEFAULT));
+        Assertions.assertNull(HtmlFetcher.fetch(server.url("/redirect/nowhere"), 0, FetchContext.DEFAULT));
+        Assertions.assertNull(HtmlFetcher.fetch(server.url("/unknown"), 0, FetchContext.DEFAULT));
+
+        Assertions.assertNull(HtmlFetcher.fetch(server.url("/redirect/one"), 1, FetchContext.DEFAULT));
+        Assertions.assertEquals(fixture("hello.html"), HtmlFetcher.fetch(server.url("/redirect/one"), 2, FetchContext.DEFAULT));
+        Assertions.assertNull(HtmlFetcher.fetch(server.url("/redirect/loop"), 5, FetchContext.DEFAULT));
+        Assertions.assertEquals(6, server.getRequests("/redirect/loop"));
+      });
+    }
+  }
+
+  /**
+   * Tests fetching over https with the self-signed certificate, which is only trusted when the
+   * context uses it.
+   *
+   * @throws IOException if unable to start the server
+   * @throws GeneralSecurityException if unable to load the certificate
+   */
+  @Test
+  @Order(2)
+  public void testHttps() throws IOException, GeneralSecurityException {
+    try (MockServer server = site(new MockServer(MockServer.selfSigned(), false))) {
+      FetchContext trusting = FetchContext.DEFAULT.withSslContext(MockServer.selfSigned());
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Assertions.assertEquals("https", server.url("/").getProtocol());
+        Assertions.assertEquals(fixture("hello.html"), HtmlFetcher.fetch(server.url("/redirect/one"), 2, trusting));
+        Assertions.assertNull(HtmlFetcher.fetch(server.url("/hello.html"), 0, FetchContext.DEFAULT));
+      });
+    }
+  }
+
+  /**
+   * Tests the latency, bandwidth, chunking, and slow close of responses.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(3)
+  public void testShaping() throws IOException {
+    String html = "<p>" + "word ".repeat(2000) + "</p>";
+
+    try (MockServer server = new MockServer()) {
+      server.route("/latency", MockServer.Response.html(html).withLatency(Duration.ofMillis(300)))
+          .route("/bandwidth", MockServer.Response.html(html).withBandwidth(20000))
+          .route("/chunked", MockServer.Response.html(html).withChunks(100))
+          .route("/linger", MockServer.Response.html(html).withSlowClose(Duration.ofMillis(300)));
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        for (String path : List.of("/latency", "/bandwidth", "/linger")) {
+          long start = System.nanoTime();
+          Assertions.assertEquals(html, HtmlFetcher.fetch(server.url(path), 0, FetchContext.DEFAULT), path);
+          Assertions.assertTrue(System.nanoTime() - start >= Duration.ofMillis(280).toNanos(), path);
+        }
+
+        StringBuilder text = new StringBuilder();
+        Assertions.assertTrue(HtmlFetcher.fetchCleaned(server.url("/chunked"), 0, text, 64, FetchContext.DEFAULT, FetchContext.DEFAULT.start()));
+        Assertions.assertEquals(HtmlCleaner.stripHtml(html), text.toString());
+      });
+    }
+  }
+
+  /**
+   * Tests that the server answers several requests on one kept-alive connection, unless asked to
+   * close it.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(4)
+  public void testKeepAlive() throws IOException {
+    try (MockServer server = site(new MockServer())) {
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        List<URL> urls = List.of(server.url("/hello.html"), server.url("/yellowthroat.html"), server.url("/hello.html"));
+        List<Map<String, List<String>>> responses = PipelinedFetcher.fetchURLs(urls);
+
+        Assertions.assertEquals(3, responses.size());
+        Assertions.assertEquals(1, server.getConnections());
+        Assertions.assertEquals(3, server.getRequests());
+
+        HtmlFetcher.fetch(server.url("/hello.html"), 0, FetchContext.DEFAULT);
+        HtmlFetcher.fetch(server.url("/hello.html"), 0, FetchContext.DEFAULT);
+        Assertions.assertEquals(3, server.getConnections());
+      });
+    }
+  }
+
+  /**
+   * Tests that a short benchmark run completes every fetch and reports its throughput.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @Test
+  @Order(5)
+  public void testBenchmark() throws IOException {
+    try (MockServer server = site(new MockServer())) {
+      List<URL> urls = List.of(server.url("/hello.html"), server.url("/pangrams.html"), server.url("/redirect/two"));
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        FetchBenchmark.Result result = FetchBenchmark.run(urls, FetchContext.DEFAULT, 8, 600);
+
+        Assertions.assertEquals(600, result.getFetches());
+        Assertions.assertEquals(0, result.getFailures(), result::toString);
+        Assertions.assertEquals(600, result.getLatencies().getCount());
+        Assertions.assertTrue(result.getThroughput() > 0, result::toString);
+        Assertions.assertEquals(800, server.getRequests());
+      });
+    }
+  }
+}
@@ -0,0 +1,311 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests the {@link PipelinedFetcher} class against a local keep-alive web server that answers
+ * pipelined requests in order, and optionally closes connections early.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class PipelinedFetcherTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+  /** The local web server socket. */
+  private ServerSocket server;
+
+  /** Handles connections to the local web server. */
+  private ExecutorService workers;
+
+  /** The number of connections accepted by the server. */
+  private AtomicInteger connections;
+
+  /** The largest number of requests received but not yet answered on one connection. */
+  private AtomicInteger outstanding;
+
+  /** How many responses the server sends per connection before closing it early. */
+  private volatile int limit;
+
+  /**
+   * Starts the local web server.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @BeforeEach
+  public void setup() throws IOException {
+    server = new ServerSocket(0, 100, InetAddress.getLoopbackAddress());
+    workers = Executors.newCachedThreadPool();
+    connections = new AtomicInteger();
+    outstanding = new AtomicInteger();
+    limit = Integer.MAX_VALUE;
+
+    workers.execute(() -> {
+      while (!server.isClosed()) {
+        try {
+          Socket socket = server.accept();
+          connections.incrementAndGet();
+          workers.execute(() -> serve(socket));
+        }
+        catch (IOException e) {
+          break;
+        }
+      }
+    });
+  }
+
+  /**
+   * Stops the local web server.
+   *
+   * @throws IOException if unable to close the server
+   */
+  @AfterEach
+  public void teardown() throws IOException {
+    server.close();
+    workers.shutdownNow();
+  }
+
+  /**
+   * Serves a keep-alive connection. Requests are read by a separate thread as soon as they arrive,
+   * so the number of requests pipelined ahead of the responses can be observed.
+   *
+   * @param socket the connection to serve
+   */
+  private void serve(Socket socket) {
+    BlockingQueue<String> paths = new LinkedBlockingQueue<>();
+    AtomicInteger received = new AtomicInteger();
+
+    try (
+        socket;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        OutputStream writer = socket.getOutputStream();
+    ) {
+      workers.execute(() -> {
+        try {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (line.startsWith("GET ")) {
+              String path = line.split(" ")[1];
+
+              while ((line = reader.readLine()) != null && !line.isBlank()) {
+                continue;
+              }
+
+              received.incrementAndGet();
+              paths.add(path);
+            }
+          }
+        }
+        catch (IOException e) {
+          return;
+        }
+      });
+
+      // give the client a chance to pipeline requests before answering
+      Thread.sleep(50);
+      int answered = 0;
+      String path;
+
+      while ((path = paths.poll(200, TimeUnit.MILLISECONDS)) != null && answered < limit) {
+        outstanding.accumulateAndGet(received.get() - answered, Math::max);
+        writer.write(respond(path, answered % 2 == 0).getBytes(StandardCharsets.UTF_8));
+        writer.flush();
+        answered++;
+      }
+    }
+    catch (IOException | InterruptedException e) {
+      return;
+    }
+  }
+
+  /**
+   * Creates a response whose content identifies the requested path.
+   *
+   * @param path the requested path
+   * @param chunked whether to use chunked transfer encoding instead of a content length
+   * @return the response
+   */
+  private static String respond(String path, boolean chunked) {
+    String body = expected(path);
+
+    if (chunked) {
+      int half = body.length() / 2;
+      return String.format(
+          "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nTransfer-Encoding: chunked\r\n\r\n%x\r\n%s\r\n%x\r\n%s\r\n0\r\n\r\n",
+          half, body.substring(0, half), body.length() - half, body.substring(half));
+    }
+
+    return String.format("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nContent-Length: %d\r\n\r\n%s",
+        body.length(), body);
+  }
+
+  /**
+   * Returns the expected content for a path.
+   *
+   * @param path the requested path
+   * @return the expected content
+   */
+  private static String expected(String path) {
+    return "<p>" + path + "</p>\n" + "x".repeat(path.length() * 10);
+  }
+
+  /**
+   * Creates the local URLs to fetch.
+   *
+   * @param count the number of URLs
+   * @return the URLs
+   * @throws IOException if unable to create a URL
+   */
+  private List<URL> urls(int count) throws IOException {
+    List<URL> urls = new ArrayList<>();
+
+    for (int i = 0; i < count; i++) {
+      urls.add(new URL("http", "localhost", server.getLocalPort(), "/page/" + i));
+    }
+
+    return urls;
+  }
+
+  /**
+   * Checks that each response matches the URL requested at the same position.
+   *
+   * @param urls the requested URLs
+   * @param results the fetched headers and content
+   */
+  private static void verify(List<URL> urls, List<Map<String, List<String>>> results) {
+    Assertions.assertEquals(urls.size(), results.size());
+
+    for (int i = 0; i < urls.size(); i++) {
+      String content = String.join("\n", results.get(i).get("Content"));
+      Assertions.assertEquals(expected(urls.get(i).getFile()), content);
+      Assertions.assertEquals(200, HtmlFetcher.getStatusCode(results.get(i)));
+    }
+  }
+
+  /**
+   * Tests that pipelined responses are matched to their requests in order on one connection.
+   */
+  @Test
+  @Order(1)
+  public void testInOrder() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      List<URL> urls = urls(20);
+      verify(urls, PipelinedFetcher.fetchURLs(urls, 4));
+
+      Assertions.assertEquals(1, connections.get());
+      Assertions.assertTrue(outstanding.get() > 1, "Requests were not pipelined.");
+    });
+  }
+
+  /**
+   * Tests that requests left unanswered by a server that closes connections early are sent again.
+   */
+  @Test
+  @Order(2)
+  public void testEarlyClose() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      limit = 3;
+      List<URL> urls = urls(10);
+      verify(urls, PipelinedFetcher.fetchURLs(urls, 5));
+
+      Assertions.assertEquals(4, connections.get());
+    });
+  }
+
+  /**
+   * Tests that a depth of one still fetches every page on a single connection.
+   */
+  @Test
+  @Order(3)
+  public void testNoDepth() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      List<URL> urls = urls(5);
+      verify(urls, PipelinedFetcher.fetchURLs(urls, 1));
+
+      Assertions.assertEquals(1, connections.get());
+    });
+  }
+
+  /**
+   * Tests that a server that accepts connections but never answers is given up on once the read
+   * timeout passes, both when pipelining and when falling back to single requests.
+   *
+   * @throws IOException if unable to start the silent server
+   */
+  @Test
+  @Order(4)
+  public void testStalled() throws IOException {
+    FetchContext context = FetchContext.DEFAULT.withReadTimeout(Duration.ofMillis(300));
+    Queue<Socket> accepted = new ConcurrentLinkedQueue<>();
+
+    try (ServerSocket silent = new ServerSocket(0, 100, InetAddress.getLoopbackAddress())) {
+      workers.execute(() -> {
+        try {
+          while (true) {
+            accepted.add(silent.accept());
+          }
+        }
+        catch (IOException e) {
+          return;
+        }
+      });
+
+      URL url = new URL("http", "localhost", silent.getLocalPort(), "/page/0");
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Assertions.assertThrows(IOException.class, () -> PipelinedFetcher.fetchURLs(List.of(url, url), context));
+      });
+    }
+    finally {
+      for (Socket socket : accepted) {
+        socket.close();
+      }
+    }
+  }
+
+  /**
+   * Tests that any number of informational responses before the final response are skipped.
+   *
+   * @throws IOException if unable to read the responses
+   */
+  @Test
+  @Order(5)
+  public void testInterim() throws IOException {
+    String interim = "HTTP/1.1 100 Continue\r\n\r\n".repeat(200000);
+    String body = expected("/page/0");
+    String stream = interim + String.format("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nContent-Length: %d\r\n\r\n%s",
+        body.length(), body);
+
+    Map<String, List<String>> headers = PipelinedFetcher.readResponse(
+        new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)));
+
+    Assertions.assertEquals(200, HtmlFetcher.getStatusCode(headers));
+    Assertions.assertEquals(body, String.join("\n", headers.get("Content")));
+  }
+}
@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests the {@link RedirectCache} directly and when used by {@link HtmlFetcher}.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class RedirectCacheTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+  /**
+   * Returns a test URL.
+   *
+   * @param path the path
+   * @return the url
+   * @throws IOException if unable to create the url
+   */
+  private static URL url(String path) throws IOException {
+    return new URL("https://www.example.com" + path);
+  }
+
+  /**
+   * Tests that chains are followed and compressed.
+   *
+   * @throws IOException if unable to create urls
+   */
+  @Test
+  @Order(1)
+  public void testChain() throws IOException {
+    RedirectCache cache = new RedirectCache();
+    Assertions.assertTrue(cache.record(new URL("http://example.com/a"), url("/a"), 301));
+    Assertions.assertTrue(cache.record(url("/a"), url("/a/"), 308));
+    Assertions.assertFalse(cache.record(url("/a/"), url("/b"), 304));
+
+    RedirectCache.Resolved resolved = cache.resolve(new URL("http://example.com/a#top"), 5);
+    Assertions.assertEquals(url("/a/"), resolved.getUrl());
+    Assertions.assertEquals(2, resolved.getHops());
+
+    resolved = cache.resolve(url("/unknown"), 5);
+    Assertions.assertEquals(url("/unknown"), resolved.getUrl());
+    Assertions.assertEquals(0, resolved.getHops());
+
+    // compressed into a single entry worth two hops
+    Assertions.assertTrue(cache.record(url("/a/"), url("/c"), 301));
+    resolved = cache.resolve(new URL("http://example.com/a"), 5);
+    Assertions.assertEquals(url("/c"), resolved.getUrl());
+    Assertions.assertEquals(3, resolved.getHops());
+  }
+
+  /**
+   * Tests that a fetch never skips more redirects than it is allowed to follow.
+   *
+   * @throws IOException if unable to create urls
+   */
+  @Test
+  @Order(2)
+  public void testHopLimit() throws IOException {
+    RedirectCache cache = new RedirectCache();
+    cache.record(url("/1"), url("/2"), 301);
+    cache.record(url("/2"), url("/3"), 301);
+    cache.record(url("/3"), url("/4"), 301);
+
+    Assertions.assertEquals(url("/1"), cache.resolve(url("/1"), 0).getUrl());
+    Assertions.assertEquals(url("/3"), cache.resolve(url("/1"), 2).getUrl());
+    Assertions.assertEquals(url("/4"), cache.resolve(url("/1"), 3).getUrl());
+    Assertions.assertEquals(url("/1"), cache.resolve(url("/1"), 2).getUrl());
+  }
+
+  /**
+   * Tests that redirects forming a loop are rejected.
+   *
+   * @throws IOException if unable to create urls
+   */
+  @Test
+  @Order(3)
+  public void testLoop() throws IOException {
+    RedirectCache cache = new RedirectCache();
+    Assertions.assertFalse(cache.record(url("/self"), url("/self"), 301));
+    Assertions.assertTrue(cache.record(url("/x"), url("/y"), 301));
+    Assertions.assertTrue(cache.record(url("/y"), url("/z"), 301));
+    Assertions.assertFalse(cache.record(url("/z"), url("/x"), 301));
+
+    Assertions.assertEquals(url("/z"), cache.resolve(url("/x"), 10).getUrl());
+    Assertions.assertEquals(url("/z"), cache.resolve(url("/z"), 10).getUrl());
+  }
+
+  /**
+   * Tests that temporary redirects expire.
+   */
+  @Test
+  @Order(4)
+  public void testTemporary() {
+    RedirectCache cache = new RedirectCache(100, Duration.ofMillis(100));
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      Assertions.assertTrue(cache.record(url("/old"), url("/new"), 302));
+      Assertions.assertEquals(url("/new"), cache.resolve(url("/old"), 1).getUrl());
+
+      Thread.sleep(150);
+      Assertions.assertEquals(url("/old"), cache.resolve(url("/old"), 1).getUrl());
+      Assertions.assertEquals(0, cache.size());
+
+      Assertions.assertFalse(new RedirectCache(100, Duration.ZERO).record(url("/old"), url("/new"), 307));
+    });
+  }
+
+  /**
+   * Tests that the cache stays within its capacity and keeps recently used entries.
+   *
+   * @throws IOException if unable to create urls
+   */
+  @Test
+  @Order(5)
+  public void testCapacity() throws IOException {
+    RedirectCache cache = new RedirectCache(100, Duration.ofMinutes(1));
+    cache.record(url("/hot"), url("/hot/"), 301);
+
+    for (int i = 0; i < 1000; i++) {
+      cache.record(url("/" + i), url("/" + i + "/"), 301);
+      cache.resolve(url("/hot"), 1);
+      Assertions.assertTrue(cache.size() <= 100);
+    }
+
+    Assertions.assertEquals(url("/hot/"), cache.resolve(url("/hot"), 1).getUrl());
+  }
+
+  /**
+   * Returns the number of requests the server got for each step of the redirect chain.
+   *
+   * @param server the server
+   * @return the requests for "/a", "/b", and "/c"
+   */
+  private static List<Integer> requests(MockServer server) {
+    return List.of(server.getRequests("/a"), server.getRequests("/b"), server.getRequests("/c"));
+  }
+
+  /**
+   * Tests that repeat fetches skip cached permanent redirects.
+   *
+   * @throws IOException if unable to start the local server
+   */
+  @Test
+  @Order(6)
+  public void testFetch() throws IOException {
+    try (MockServer server = new MockServer()) {
+      server.route("/a", MockServer.Response.redirect(301, "/b"))
+          .route("/b", MockServer.Response.redirect(308, "/c"))
+          .route("/c", MockServer.Response.of(200, "text/html", "<p>final</p>"));
+
+      FetchContext context = FetchContext.DEFAULT.withRedirectCache(new RedirectCache());
+      URL url = server.url("/a");
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Assertions.assertEquals("<p>final</p>", HtmlFetcher.fetch(url, 2, context));
+        Assertions.assertEquals(List.of(1, 1, 1), requests(server));
+
+        Assertions.assertEquals("<p>final</p>", HtmlFetcher.fetch(url, 2, context));
+        Assertions.assertEquals(List.of(1, 1, 2), requests(server));
+
+        Assertions.assertNull(HtmlFetcher.fetch(url, 1, context));
+        List<Integer> before = requests(server);
+
+        StringBuilder text = new StringBuilder();
+        Assertions.assertTrue(HtmlFetcher.fetchCleaned(url, 2, text, 16, context, context.start()));
+        Assertions.assertEquals("final", text.toString());
+        Assertions.assertEquals(List.of(before.get(0), before.get(1), before.get(2) + 1), requests(server));
+      });
+    }
+  }
+}
@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the {@link ResponseStore} segments, index, compaction, and eviction, and using it from
+ * {@link HttpsFetcher#fetchURL(URL, FetchContext, Deadline)}.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class ResponseStoreTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  /** A temporary directory for the stores. */
+  @TempDir
+  public Path directory;
+
+  /**
+   * Returns the test URL for a number.
+   *
+   * @param i the number
+   * @return the url
+   * @throws IOException if unable to create the url
+   */
+  private static URL url(int i) throws IOException {
+    return new URL("https://www.example.com/page/" + i);
+  }
+
+  /**
+   * Returns the headers of a small html response.
+   *
+   * @return the headers
+   */
+  private static HttpHeaders headers() {
+    return HttpHeaders.parse("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  /**
+   * Returns the body stored for a URL as a string.
+   *
+   * @param store the store
+   * @param url the url
+   * @return the body or {@code null} if not stored
+   */
+  private static String body(ResponseStore store, URL url) {
+    ResponseStore.Response response = store.get(url);
+    return response == null ? null : new String(response.getBodyBytes(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Tests storing and reading responses, including after reopening the store.
+   *
+   * @throws IOException if unable to use the store
+   */
+  @Test
+  @Order(1)
+  public void testRoundTrip() throws IOException {
+    Path path = directory.resolve("round");
+
+    try (ResponseStore store = new ResponseStore(path, 64 * 1024, 1024 * 1024)) {
+      Assertions.assertNull(store.get(url(1)));
+
+      store.put(url(1), headers(), "<p>one</p>".getBytes(StandardCharsets.UTF_8));
+      store.put(url(2), headers(), "<p>two</p>\n<p>lines</p>".getBytes(StandardCharsets.UTF_8));
+      store.put(url(1), headers(), "<p>uno</p>".getBytes(StandardCharsets.UTF_8));
+
+      ResponseStore.Response response = store.get(url(2));
+      Assertions.assertEquals(url(2).toExternalForm(), response.getUrl());
+      Assertions.assertEquals(200, response.getHeaders().getStatusCode());
+      Assertions.assertTrue(response.getHeaders().isHtml());
+      Assertions.assertTrue(response.getBody().isReadOnly());
+
+      Map<String, List<String>> map = response.toMap();
+      Assertions.assertEquals(List.of("<p>two</p>", "<p>lines</p>"), map.get("Content"));
+      Assertions.assertEquals("HTTP/1.1 200 OK", map.get(null).get(0));
+
+      Assertions.assertTrue(store.remove(url(2)));
+      Assertions.assertFalse(store.remove(url(2)));
+      Assertions.assertEquals(1, store.size());
+    }
+
+    try (ResponseStore store = new ResponseStore(path, 64 * 1024, 1024 * 1024)) {
+      Assertions.assertEquals("<p>uno</p>", body(store, url(1)));
+      Assertions.assertNull(store.get(url(2)));
+      Assertions.assertEquals(1, store.size());
+    }
+  }
+
+  /**
+   * Tests many responses across several segments, which also grows the index.
+   *
+   * @throws IOException if unable to use the store
+   */
+  @Test
+  @Order(2)
+  public void testMany() throws IOException {
+    Path path = directory.resolve("many");
+    int count = 5000;
+
+    try (ResponseStore store = new ResponseStore(path, 64 * 1024, 64L * 1024 * 1024)) {
+      for (int i = 0; i < count; i++) {
+        store.put(url(i), headers(), ("<p>" + i + "</p>").getBytes(StandardCharsets.UTF_8));
+      }
+
+      Assertions.assertEquals(count, store.size());
+      Assertions.assertTrue(store.segments() > 1, store::toString);
+    }
+
+    try (ResponseStore store = new ResponseStore(path, 64 * 1024, 64L * 1024 * 1024)) {
+      Assertions.assertEquals(count, store.size());
+
+      for (int i = 0; i < count; i++) {
+        Assertions.assertEquals("<p>" + i + "</p>", body(store, url(i)));
+      }
+
+      for (int i = 0; i < count; i += 2) {
+        Assertions.assertTrue(store.remove(url(i)));
+      }
+
+      for (int i = 0; i < count; i++) {
+        Assertions.assertEquals(i % 2 == 0 ? null : "<p>" + i + "</p>", body(store, url(i)));
+      }
+    }
+  }
+
+  /**
+   * Tests that replacing the same responses over and over compacts old segments instead of growing
+   * forever, and that removed responses stay removed.
+   *
+   * @throws IOException if unable to use the store
+   */
+  @Test
+  @Order(3)
+  public void testCompaction() throws IOException {
+    Path path = directory.resolve("compact");
+    byte[] padding = new byte[200];
+
+    try (ResponseStore store = new ResponseStore(path, 4 * 1024, 1024 * 1024)) {
+      store.put(url(-1), headers(), padding);
+      store.remove(url(-1));
+
+      for (int round = 0; round < 200; round++) {
+        for (int i = 0; i < 10; i++) {
+          store.put(url(i), headers(), ("<p>" + round + "</p>").getBytes(StandardCharsets.UTF_8));
+        }
+
+        store.put(url(100), headers(), padding);
+      }
+
+      Assertions.assertTrue(store.segments() <= 4, store::toString);
+      Assertions.assertEquals(11, store.size());
+    }
+
+    try (ResponseStore store = new ResponseStore(path, 4 * 1024, 1024 * 1024)) {
+      Assertions.assertEquals(11, store.size());
+      Assertions.assertNull(store.get(url(-1)));
+
+      for (int i = 0; i < 10; i++) {
+        Assertions.assertEquals("<p>199</p>", body(store, url(i)));
+      }
+    }
+  }
+
+  /**
+   * Tests that compacting a segment with an old removal does not remove a response stored again
+   * since, including after reopening the store.
+   *
+   * @throws IOException if unable to use the store
+   */
+  @Test
+  @Order(4)
+  public void testRemoveThenPut() throws IOException {
+    Path path = directory.resolve("again");
+    URL a = url(1);
+    byte[] padding = new byte[1850];
+
+    try (ResponseStore store = new ResponseStore(path, 4 * 1024, 1024 * 1024)) {
+      store.put(url(0), headers(), new byte[3950]);
+      store.put(a, headers(), "<p>old</p>".getBytes(StandardCharsets.UTF_8));
+      store.remove(a);
+      store.put(url(2), headers(), padding);
+      store.put(url(3), headers(), padding);
+
+      // stored again in the next segment, leaving only the removal behind in the previous one
+      store.put(a, headers(), "<p>new</p>".getBytes(StandardCharsets.UTF_8));
+      store.put(url(2), headers(), padding);
+      store.put(url(3), headers(), padding);
+      Assertions.assertEquals("<p>new</p>", body(store, a));
+      Assertions.assertEquals(3, store.segments(), store::toString);
+
+      // rolls the active segment, which compacts the segment with the removal
+      store.put(url(4), headers(), padding);
+      Assertions.assertEquals(3, store.segments(), store::toString);
+      Assertions.assertEquals("<p>new</p>", body(store, a), store::toString);
+    }
+
+    try (ResponseStore store = new ResponseStore(path, 4 * 1024, 1024 * 1024)) {
+      Assertions.assertEquals("<p>new</p>", body(store, a));
+      Assertions.assertNotNull(store.get(url(4)));
+      Assertions.assertEquals(5, store.size());
+    }
+  }
+
+  /**
+   * Tests that the oldest segments are evicted once the store grows past its limit.
+   *
+   * @throws IOException if unable to use the store
+   */
+  @Test
+  @Order(5)
+  public void testEviction() throws IOException {
+    try (ResponseStore store = new ResponseStore(directory.resolve("evict"), 4 * 1024, 16 * 1024)) {
+      byte[] padding = new byte[500];
+
+      for (int i = 0; i < 200; i++) {
+        store.put(url(i), headers(), padding);
+      }
+
+      Assertions.assertTrue(store.bytes() <= 16 * 1024, store::toString);
+      Assertions.assertNull(store.get(url(0)));
+      Assertions.assertNotNull(store.get(url(199)));
+      Assertions.assertTrue(store.size() < 200);
+    }
+  }
+
+  /**
+   * Tests that fetches are answered from the store after the first time.
+   *
+   * @throws IOException if unable to start the local server or open the store
+   */
+  @Test
+  @Order(6)
+  public void testFetch() throws IOException {
+    try (
+        MockServer server = new MockServer();
+        ResponseStore store = new ResponseStore(directory.resolve("fetch"));
+    ) {
+      server.route("/", MockServer.Response.of(200, "text/html", "<p>stored</p>").withChunks(6));
+      FetchContext context = FetchContext.DEFAULT.withResponseStore(store);
+      URL url = server.url("/");
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        for (int i = 0; i < 3; i++) {
+          Assertions.assertEquals("<p>stored</p>", HtmlFetcher.fetch(url, 0, context));
+        }
+
+        Assertions.assertEquals(1, server.getRequests());
+        Assertions.assertEquals(1, store.size());
+      });
+    }
+  }
+}
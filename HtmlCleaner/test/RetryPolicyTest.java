@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests retries, retry budgets, and hedged requests from the {@link RetryPolicy} against a local
+ * web server that fails in different ways.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+@TestInstance(Lifecycle.PER_CLASS)
+public class RetryPolicyTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  /** The html returned for successful requests. */
+  private static final String HTML = "<p>ok</p>";
+
+  /** The local web server. */
+  private MockServer server;
+
+  /**
+   * Starts the local web server. The "/flaky" paths answer "503 Service Unavailable" twice before
+   * succeeding, the "/down" paths always answer 503, the "/missing" paths answer 404, the "/reset"
+   * paths close the connection without answering once, and the "/stall" paths stall for a long
+   * time on the first request only. The "/fast" paths succeed right away.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @BeforeAll
+  public void setup() throws IOException {
+    MockServer.Response ok = MockServer.Response.of(200, "text/html", HTML);
+    MockServer.Response unavailable = MockServer.Response.status(503);
+    server = new MockServer();
+
+    for (int i = 1; i <= 3; i++) {
+      server.route("/flaky/" + i, unavailable, unavailable, ok)
+          .route("/down/" + i, unavailable)
+          .route("/reset/" + i, MockServer.Response.reset(), ok)
+          .route("/stall/" + i, ok.withLatency(Duration.ofSeconds(5)), ok);
+    }
+
+    for (int i = 0; i < RetryPolicy.MIN_SAMPLES; i++) {
+      server.route("/fast/" + i, ok);
+    }
+  }
+
+  /**
+   * Stops the local web server.
+   *
+   * @throws IOException if unable to close the server
+   */
+  @AfterAll
+  public void teardown() throws IOException {
+    server.close();
+  }
+
+  /**
+   * Returns the local URL for the path.
+   *
+   * @param path the path to fetch
+   * @return the local URL
+   * @throws IOException if unable to create the URL
+   */
+  private URL local(String path) throws IOException {
+    return server.url(path);
+  }
+
+  /**
+   * Returns the number of requests made for a path.
+   *
+   * @param path the path
+   * @return the number of requests
+   */
+  private int count(String path) {
+    return server.getRequests(path);
+  }
+
+  /**
+   * Returns a context using the policy and no redirect cache.
+   *
+   * @param policy the retry policy
+   * @return the context
+   */
+  private static FetchContext context(RetryPolicy policy) {
+    return FetchContext.DEFAULT.withRetryPolicy(policy);
+  }
+
+  /**
+   * Tests that temporary failures are retried and permanent ones are not.
+   */
+  @Test
+  @Order(1)
+  public void testRetry() {
+    RetryPolicy policy = new RetryPolicy(3, Duration.ofMillis(10), Duration.ofMillis(50), RetryPolicy.BUDGET, false);
+    FetchContext context = context(policy);
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      Assertions.assertEquals(HTML, HtmlFetcher.fetch(local("/flaky/1"), 0, context));
+      Assertions.assertEquals(3, count("/flaky/1"));
+
+      Assertions.assertEquals(HTML, HtmlFetcher.fetch(local("/reset/1"), 0, context));
+      Assertions.assertEquals(2, count("/reset/1"));
+
+      Assertions.assertNull(HtmlFetcher.fetch(local("/down/1"), 0, context));
+      Assertions.assertEquals(3, count("/down/1"));
+
+      Assertions.assertNull(HtmlFetcher.fetch(local("/missing/1"), 0, context));
+      Assertions.assertEquals(1, count("/missing/1"));
+
+      Assertions.assertNull(HtmlFetcher.fetch(local("/flaky/2"), 0, context.withRetryPolicy(null)));
+      Assertions.assertEquals(1, count("/flaky/2"));
+    });
+
+    Assertions.assertEquals(5, policy.getRetries());
+  }
+
+  /**
+   * Tests that a host that keeps failing runs out of retries.
+   */
+  @Test
+  @Order(2)
+  public void testBudget() {
+    RetryPolicy policy = new RetryPolicy(3, Duration.ZERO, Duration.ZERO, 0, false);
+    FetchContext context = context(policy);
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      for (int i = 0; i < 10; i++) {
+        Assertions.assertNull(HtmlFetcher.fetch(local("/down/2"), 0, context));
+      }
+    });
+
+    // the first five fetches spend the whole budget on two retries each
+    Assertions.assertEquals(5 * 3 + 5, count("/down/2"));
+    Assertions.assertEquals(RetryPolicy.BURST, policy.getRetries());
+  }
+
+  /**
+   * Tests that retries stop once the deadline would pass during the backoff.
+   */
+  @Test
+  @Order(3)
+  public void testDeadline() {
+    RetryPolicy policy = new RetryPolicy(10, Duration.ofSeconds(30), Duration.ofSeconds(30), 1, false);
+    FetchContext context = context(policy).withDeadline(Duration.ofSeconds(1));
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      long start = System.nanoTime();
+      Assertions.assertNull(HtmlFetcher.fetch(local("/down/3"), 0, context));
+      Assertions.assertTrue(System.nanoTime() - start < Duration.ofSeconds(2).toNanos());
+    });
+
+    Assertions.assertTrue(count("/down/3") >= 1);
+  }
+
+  /**
+   * Tests that a request much slower than usual for its host is hedged, and the hedged request
+   * answers first.
+   */
+  @Test
+  @Order(4)
+  public void testHedge() {
+    RetryPolicy policy = new RetryPolicy(1, RetryPolicy.BACKOFF, RetryPolicy.MAX_BACKOFF, RetryPolicy.BUDGET, true);
+    FetchContext context = context(policy);
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      for (int i = 0; i < RetryPolicy.MIN_SAMPLES; i++) {
+        Assertions.assertEquals(HTML, HtmlFetcher.fetch(local("/fast/" + i), 0, context));
+      }
+
+      Assertions.assertEquals(0, policy.getHedges());
+
+      long start = System.nanoTime();
+      Assertions.assertEquals(HTML, HtmlFetcher.fetch(local("/stall/1"), 0, context));
+      Assertions.assertTrue(System.nanoTime() - start < Duration.ofSeconds(2).toNanos());
+    });
+
+    Assertions.assertEquals(2, count("/stall/1"));
+    Assertions.assertEquals(1, policy.getHedges());
+    Assertions.assertEquals(1, policy.getHedgeWins());
+    Assertions.assertEquals(0, policy.getRetries());
+  }
+}
@@ -0,0 +1,311 @@
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests parsing and matching {@link RobotsRules}, and fetching them with {@link RobotsCache}.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class RobotsTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  /** The robots.txt file used by most tests. */
+  public static final String ROBOTS = String.join("\n",
+      "# comments are ignored",
+      "User-agent: *",
+      "Disallow: /private/",
+      "Allow: /private/public",
+      "Disallow: /*.pdf$",
+      "Disallow: /search*q=",
+      "Crawl-delay: 0.5",
+      "",
+      "User-agent: OtherBot",
+      "User-agent: HtmlCleaner/2.0",
+      "Disallow: /",
+      "Allow: /open/",
+      "Allow: /$",
+      "",
+      "User-agent: EvilBot",
+      "Disallow: /");
+
+  /**
+   * Tests the rules of the "*" group, including wildcards and end anchors.
+   */
+  @Test
+  @Order(1)
+  public void testWildcards() {
+    RobotsRules rules = RobotsRules.parse(ROBOTS, "SomeBot");
+
+    Assertions.assertTrue(rules.isAllowed("/"));
+    Assertions.assertTrue(rules.isAllowed(""));
+    Assertions.assertFalse(rules.isAllowed("/private/"));
+    Assertions.assertFalse(rules.isAllowed("/private/secret.html"));
+    Assertions.assertTrue(rules.isAllowed("/private/public/page.html"));
+    Assertions.assertTrue(rules.isAllowed("/private"));
+
+    Assertions.assertFalse(rules.isAllowed("/docs/file.pdf"));
+    Assertions.assertTrue(rules.isAllowed("/docs/file.pdf?download"));
+    Assertions.assertTrue(rules.isAllowed("/docs/file.pdfs"));
+
+    Assertions.assertFalse(rules.isAllowed("/search?q=cats"));
+    Assertions.assertFalse(rules.isAllowed("/search/results?page=2&q=cats"));
+    Assertions.assertTrue(rules.isAllowed("/search?page=2"));
+
+    Assertions.assertEquals(Duration.ofMillis(500), rules.getCrawlDelay());
+  }
+
+  /**
+   * Tests that a group naming the crawler replaces the "*" group, that the longest pattern wins,
+   * and that allow wins a tie.
+   */
+  @Test
+  @Order(2)
+  public void testGroups() {
+    RobotsRules rules = RobotsRules.parse(ROBOTS, "htmlcleaner");
+
+    Assertions.assertTrue(rules.isAllowed("/"));
+    Assertions.assertFalse(rules.isAllowed("/index.html"));
+    Assertions.assertTrue(rules.isAllowed("/open/index.html"));
+    Assertions.assertTrue(rules.isAllowed("/robots.txt"));
+    Assertions.assertFalse(rules.isAllowed("/docs/file.pdf?download"));
+    Assertions.assertNull(rules.getCrawlDelay());
+
+    RobotsRules tie = RobotsRules.parse("User-agent: *\nDisallow: /page\nAllow: /page\n", "Bot");
+    Assertions.assertTrue(tie.isAllowed("/page"));
+
+    RobotsRules empty = RobotsRules.parse("User-agent: *\nDisallow:\n", "Bot");
+    Assertions.assertEquals(0, empty.size());
+    Assertions.assertTrue(empty.isAllowed("/anything"));
+
+    Assertions.assertFalse(RobotsRules.DISALLOW_ALL.isAllowed("/"));
+    Assertions.assertTrue(RobotsRules.DISALLOW_ALL.isAllowed("/robots.txt"));
+  }
+
+  /**
+   * Tests that percent-encoding and non-ascii characters compare the same way in patterns and
+   * paths.
+   */
+  @Test
+  @Order(3)
+  public void testEncoding() {
+    RobotsRules rules = RobotsRules.parse("User-agent: *\nDisallow: /café\nDisallow: /a%3cb\n", "Bot");
+
+    Assertions.assertFalse(rules.isAllowed("/café/menu"));
+    Assertions.assertFalse(rules.isAllowed("/caf%C3%A9/menu"));
+    Assertions.assertFalse(rules.isAllowed("/caf%c3%a9/menu"));
+    Assertions.assertFalse(rules.isAllowed("/a%3Cb"));
+    Assertions.assertTrue(rules.isAllowed("/cafe"));
+  }
+
+  /**
+   * Tests that checks are fast once compiled, including from many threads at once.
+   */
+  @Test
+  @Order(4)
+  public void testSpeed() {
+    StringBuilder text = new StringBuilder("User-agent: *\n");
+
+    for (int i = 0; i < 200; i++) {
+      text.append("Disallow: /section").append(i).append("/*/private$\n");
+      text.append("Allow: /section").append(i).append("/public\n");
+    }
+
+    RobotsRules rules = RobotsRules.parse(text.toString(), "Bot");
+    ExecutorService workers = Executors.newFixedThreadPool(4);
+
+    try {
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        List<Future<Integer>> futures = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+          futures.add(workers.submit(() -> {
+            int allowed = 0;
+
+            for (int i = 0; i < 100000; i++) {
+              allowed += rules.isAllowed("/section" + (i % 250) + "/page/" + i) ? 1 : 0;
+            }
+
+            return allowed;
+          }));
+        }
+
+        for (Future<Integer> future : futures) {
+          Assertions.assertEquals(100000, future.get());
+        }
+
+        Assertions.assertFalse(rules.isAllowed("/section7/a/b/private"));
+      });
+    }
+    finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * Tests fetching and caching robots.txt files from local servers, including redirects, missing
+   * files, server errors, and concurrent checks of a new host.
+   *
+   * @throws IOException if unable to start the local servers
+   */
+  @Test
+  @Order(5)
+  public void testCache() throws IOException {
+    ExecutorService workers = Executors.newCachedThreadPool();
+
+    try (
+        MockServer server = new MockServer();
+        MockServer other = new MockServer();
+    ) {
+      server.route("/robots.txt", ok(ROBOTS));
+
+      RobotsCache robots = new RobotsCache("HtmlCleaner", FetchContext.DEFAULT);
+      URL local = server.url("/open/page.html");
+      URL elsewhere = new URL("http", "127.0.0.1", other.getPort(), "/anything");
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        List<Future<Boolean>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+          futures.add(workers.submit(() -> robots.isAllowed(local)));
+        }
+
+        for (Future<Boolean> future : futures) {
+          Assertions.assertTrue(future.get());
+        }
+
+        Assertions.assertFalse(robots.isAllowed(new URL(local, "/closed")));
+        Assertions.assertEquals(1, robots.getFetches());
+        Assertions.assertEquals(1, server.getRequests("/robots.txt"));
+        Assertions.assertEquals(0, other.getRequests());
+
+        Assertions.assertTrue(robots.isAllowed(elsewhere));
+        Assertions.assertEquals(2, robots.size());
+
+        server.route("/robots.txt", MockServer.Response.status(503));
+        robots.invalidate(local);
+        Assertions.assertFalse(robots.isAllowed(local));
+
+        server.route("/robots.txt", MockServer.Response.redirect(301, new URL(elsewhere, "/robots.txt").toString()));
+        other.route("/robots.txt", ok("User-agent: *\nAllow: /\n"));
+        robots.invalidate(local);
+        Assertions.assertTrue(robots.isAllowed(new URL(local, "/closed")));
+      });
+    }
+    finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * Tests that expired rules keep being used while they are fetched again in the background, and
+   * that a failed refresh keeps the previous rules.
+   *
+   * @throws IOException if unable to start the local server
+   */
+  @Test
+  @Order(6)
+  public void testRefresh() throws IOException {
+    try (MockServer server = new MockServer()) {
+      server.route("/robots.txt", ok("User-agent: *\nDisallow: /a\n"), MockServer.Response.status(500));
+      RobotsCache robots = new RobotsCache("Bot", FetchContext.DEFAULT, Duration.ofMillis(100), Duration.ofMinutes(1));
+      URL url = server.url("/a");
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Assertions.assertFalse(robots.isAllowed(url));
+
+        Thread.sleep(150);
+        Assertions.assertFalse(robots.isAllowed(url));
+
+        while (robots.getFetches() < 2) {
+          Thread.sleep(10);
+        }
+
+        Thread.sleep(50);
+        Assertions.assertFalse(robots.isAllowed(url));
+        Assertions.assertTrue(robots.isAllowed(new URL(url, "/b")));
+        Assertions.assertEquals(2, robots.getFetches());
+        Assertions.assertEquals(1, server.getResponses(500));
+      });
+    }
+  }
+
+  /**
+   * Tests that only the first {@link RobotsCache#MAX_SIZE} bytes of a huge robots.txt file are
+   * read, even when its length does not fit in an int.
+   *
+   * @throws IOException if unable to start the local server
+   */
+  @Test
+  @Order(7)
+  public void testHuge() throws IOException {
+    try (MockServer server = new MockServer()) {
+      String rules = "User-agent: *\nDisallow: /a\n";
+      String padding = "#".repeat(RobotsCache.MAX_SIZE) + "\nDisallow: /b\n";
+      server.route("/robots.txt", ok(rules + padding).withHeader("Content-Length", "5000000000"));
+      RobotsCache robots = new RobotsCache("Bot", FetchContext.DEFAULT);
+      URL url = server.url("/a");
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        Assertions.assertFalse(robots.isAllowed(url));
+        Assertions.assertTrue(robots.isAllowed(new URL(url, "/b")));
+        Assertions.assertEquals(1, robots.getFetches());
+      });
+    }
+  }
+
+  /**
+   * Tests that a crawl skips disallowed urls and honors the crawl delay.
+   *
+   * @throws IOException if unable to start the local server
+   */
+  @Test
+  @Order(8)
+  public void testCrawl() throws IOException {
+    try (MockServer server = new MockServer()) {
+      server.route("/robots.txt", ok("User-agent: *\nDisallow: /no\nCrawl-delay: 0.2\n"));
+
+      CrawlScheduler scheduler = new CrawlScheduler(4, Duration.ZERO);
+      List<URL> crawled = new CopyOnWriteArrayList<>();
+
+      for (String path : List.of("/yes/1", "/no/1", "/yes/2", "/no/2", "/yes/3")) {
+        server.route(path, ok(path));
+        scheduler.add(server.url(path));
+      }
+
+      long start = System.nanoTime();
+
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        scheduler.crawl(FetchContext.DEFAULT, 0, new RobotsCache("Bot", FetchContext.DEFAULT),
+            (url, html) -> crawled.add(url));
+      });
+
+      Assertions.assertEquals(3, crawled.size());
+      Assertions.assertTrue(crawled.stream().allMatch(url -> url.getPath().startsWith("/yes")));
+      Assertions.assertEquals(4, server.getRequests());
+      Assertions.assertTrue(System.nanoTime() - start >= Duration.ofMillis(400).toNanos());
+    }
+  }
+
+  /**
+   * Returns a successful html response with a body.
+   *
+   * @param body the body
+   * @return the response
+   */
+  private static MockServer.Response ok(String body) {
+    return MockServer.Response.of(200, "text/html", body);
+  }
+}
@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * Tests the {@link SimHash} fingerprints and the {@link SimHashIndex}.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class SimHashTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  /**
+   * Generates an article of random words.
+   *
+   * @param seed the random seed
+   * @param words the number of words
+   * @return the article
+   */
+  private static String article(long seed, int words) {
+    Random random = new Random(seed);
+    StringBuilder builder = new StringBuilder();
+
+    for (int i = 0; i < words; i++) {
+      builder.append(i % 12 == 11 ? ". " : " ");
+
+      for (int j = 2 + random.nextInt(6); j > 0; j--) {
+        builder.append((char) ('a' + random.nextInt(26)));
+      }
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * Tests that the fingerprint computed while cleaning matches the fingerprint of the cleaned text,
+   * and that cleaned text is forwarded unchanged.
+   *
+   * @throws IOException if unable to clean the html
+   */
+  @Test
+  @Order(1)
+  public void testWhileCleaning() throws IOException {
+    String html = "<html><head><title>Title</title></head><body><p>" + article(1, 500) +
+        "</p><script>var ads = 1;</script><p>The &amp; end</p></body></html>";
+
+    StringBuilder text = new StringBuilder();
+    SimHash hash = new SimHash(text);
+    StreamingHtmlCleaner.clean(new StringReader(html), hash, true, 64);
+
+    Assertions.assertEquals(HtmlCleaner.stripHtml(html), text.toString());
+    Assertions.assertEquals(SimHash.of(text), hash.fingerprint());
+    Assertions.assertEquals(502, hash.words());
+    Assertions.assertNotEquals(0, hash.fingerprint());
+  }
+
+  /**
+   * Tests that near-duplicates have close fingerprints and different text does not.
+   */
+  @Test
+  @Order(2)
+  public void testDistance() {
+    String article = article(2, 2000);
+    String withAds = "Buy now and save big. " + article + " Sponsored content from our partners.";
+    String edited = article.replaceFirst(" \\w+ ", " changed ");
+
+    Assertions.assertEquals(SimHash.of(article), SimHash.of(article.toUpperCase()));
+    Assertions.assertTrue(SimHash.distance(SimHash.of(article), SimHash.of(withAds)) <= SimHashIndex.DISTANCE);
+    Assertions.assertTrue(SimHash.distance(SimHash.of(article), SimHash.of(edited)) <= SimHashIndex.DISTANCE);
+    Assertions.assertTrue(SimHash.distance(SimHash.of(article), SimHash.of(article(3, 2000))) > 10);
+
+    Assertions.assertEquals(0, SimHash.of(" ... "));
+    Assertions.assertNotEquals(SimHash.of("one two"), SimHash.of("two one"));
+    Assertions.assertNotEquals(0, SimHash.of("word"));
+  }
+
+  /**
+   * Tests finding near-duplicates among many fingerprints, and that lookups are fast.
+   */
+  @Test
+  @Order(3)
+  public void testIndex() {
+    SimHashIndex<Integer> index = new SimHashIndex<>();
+    Random random = new Random(4);
+    int count = 100000;
+    long[] fingerprints = new long[count];
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      for (int i = 0; i < count; i++) {
+        fingerprints[i] = random.nextLong();
+        index.add(fingerprints[i], i);
+      }
+
+      long start = System.nanoTime();
+      int lookups = 10000;
+
+      for (int i = 0; i < lookups; i++) {
+        long near = fingerprints[i];
+
+        for (int flip = 0; flip < i % 4; flip++) {
+          near ^= 1L << random.nextInt(64);
+        }
+
+        Assertions.assertEquals(i, index.find(near));
+      }
+
+      long average = (System.nanoTime() - start) / lookups;
+      Assertions.assertTrue(average < Duration.ofMillis(1).toNanos(), () -> Long.toString(average));
+
+      long far = fingerprints[0] ^ 0xFFFFL ^ (0xFFFFL << 32);
+      Assertions.assertNull(index.find(far));
+      Assertions.assertEquals(count, index.size());
+    });
+
+    index.add(fingerprints[0] ^ 1, -1);
+    Assertions.assertEquals(List.of(0, -1), index.findAll(fingerprints[0]));
+    Assertions.assertEquals(0, index.find(fingerprints[0]));
+    Assertions.assertEquals(0, index.addIfAbsent(fingerprints[0] ^ 6, -2));
+    Assertions.assertNull(index.addIfAbsent(~fingerprints[0], -3));
+    Assertions.assertEquals(-3, index.find(~fingerprints[0]));
+  }
+}
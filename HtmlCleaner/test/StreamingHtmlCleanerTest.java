@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.Alphanumeric;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests that the {@link StreamingHtmlCleaner} class produces exactly the same output as
+ * {@link HtmlCleaner#stripHtml(String)}, regardless of how the html is split up.
+ */
+@TestMethodOrder(Alphanumeric.class)
+public class StreamingHtmlCleanerTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+  /**
+   * Cleans the html using the streaming cleaner, reading the provided number of characters at a
+   * time, and compares it to the output of {@link HtmlCleaner#stripHtml(String)}.
+   *
+   * @param html the html to clean
+   * @param size the number of characters to read at a time
+   * @throws IOException if unable to clean
+   */
+  public static void test(String html, int size) throws IOException {
+    StringBuilder actual = new StringBuilder();
+    StreamingHtmlCleaner.clean(new StringReader(html), actual, false, size);
+    HtmlCleanerStripTest.test(html, HtmlCleaner.stripHtml(html), actual.toString());
+  }
+
+  /**
+   * Tests small snippets of html, including unfinished and overlapping constructs.
+   */
+  @Nested
+  @TestMethodOrder(OrderAnnotation.class)
+  public class A_SnippetTests {
+
+    /**
+     * Tests each snippet one character at a time.
+     *
+     * @param html the html to clean
+     * @throws IOException if unable to clean
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "hello & good-bye;", "2010&ndash;2011 &#x2013; &; && &a&b; &a b;",
+        "A<!-- B -->C D<!-- E -->F", "A<!-->B-->C", "A<!--->C", "A<!-- B", "<!<!--x-->",
+        "<b>hello\n</b> world!", "<a \n name=toc>table of contents</a>", "a<b<c>d", "a<b",
+        "a<test>b</test>c", "<title>Hello</title><script>potato</script> world",
+        "<SCRIPT type=x>a</script >b", "<scripts>a</scripts>", "<script>a</scriptx></script>",
+        "<script>a</ script></script>", "<script>a<</script>", "<script>a", "<script",
+        "<head><style>x</style></head>body", "<svg><path/></svg>&copy;",
+        "<noscript><!-- </noscript> --></noscript>z", "<scr<!-- x -->ipt>y</script>",
+        "<style>a</style\n\t>b", "\u0130<scrIpt>x</scr\u0130pt>",
+        "<script\u8a9e>a</script>", "<head\u0301>a</head>", "<svg\uD835\uDC00>a</svg>",
+        "<svg\uD83D\uDE00>a</svg>"})
+    @Order(1)
+    public void testSnippets(String html) throws IOException {
+      test(html, 1);
+      test(html, 1024);
+    }
+
+    /**
+     * Tests that a construct left unfinished for more than {@link StreamingHtmlCleaner#MAX_PENDING}
+     * characters is released as text before the input ends, the same way the regular expressions
+     * leave it in place.
+     *
+     * @param open how the unfinished construct starts
+     * @throws IOException if unable to clean
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {"<!--", "<script>", "<svg x=1>", "<b ", "&amp"})
+    @Order(2)
+    public void testUnterminated(String open) throws IOException {
+      String filler = "x".repeat(1000);
+      StringBuilder html = new StringBuilder("a").append(open);
+      StringBuilder actual = new StringBuilder();
+      StreamingHtmlCleaner cleaner = new StreamingHtmlCleaner(actual).append(html);
+
+      while (html.length() < 2 * StreamingHtmlCleaner.MAX_PENDING) {
+        html.append(filler);
+        cleaner.append(filler);
+      }
+
+      Assertions.assertTrue(actual.length() > StreamingHtmlCleaner.MAX_PENDING, () -> Integer.toString(actual.length()));
+
+      cleaner.finish();
+      String text = html.toString();
+      HtmlCleanerStripTest.test(open, HtmlCleaner.stripHtml(text), actual.toString());
+    }
+  }
+
+  /**
+   * Tests entire html files.
+   */
+  @Nested
+  @TestMethodOrder(OrderAnnotation.class)
+  public class B_FileTests {
+
+    /**
+     * Tests the html files used by the other tests in different buffer sizes.
+     *
+     * @param name the name of the html file
+     * @throws IOException if unable to read or clean
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {"hello.html", "pangrams.html", "yellowthroat.html"})
+    @Order(1)
+    public void testFiles(String name) throws IOException {
+      String html = Files.readString(Path.of("test", name), StandardCharsets.UTF_8);
+
+      for (int size : new int[] {1, 7, 64, 8192}) {
+        test(html, size);
+      }
+    }
+
+    /**
+     * Tests that the expected pangrams text is produced.
+     *
+     * @throws IOException if unable to read or clean
+     */
+    @Test
+    @Order(2)
+    public void testPangrams() throws IOException {
+      String html = Files.readString(Path.of("test", "pangrams.html"), StandardCharsets.UTF_8);
+      String expected = Files.readString(Path.of("test", "pangrams.txt"), StandardCharsets.UTF_8);
+      Assertions.assertEquals(expected, StreamingHtmlCleaner.stripHtml(html));
+    }
+
+    /**
+     * Tests that line terminators are normalized the same way as {@link HtmlFetcher}.
+     *
+     * @throws IOException if unable to clean
+     */
+    @Test
+    @Order(3)
+    public void testLines() throws IOException {
+      String html = "a\r\nb\rc\n\n<b>d</b>\r\n";
+      StringBuilder actual = new StringBuilder();
+      StreamingHtmlCleaner.clean(new StringReader(html), actual, true, 3);
+      Assertions.assertEquals(HtmlCleaner.stripHtml(String.join("\n", html.lines().toArray(String[]::new))), actual.toString());
+    }
+  }
+
+  /**
+   * Tests {@link HtmlFetcher#fetchCleaned(URL, int, Appendable)} against a local web server.
+   */
+  @Nested
+  @TestMethodOrder(OrderAnnotation.class)
+  public class C_FetchTests {
+
+    /**
+     * Serves the yellowthroat page at "/", optionally chunked, and a redirect to it at "/redirect".
+     *
+     * @param mode odd to send the page using chunked encoding, 2 or more to fetch the redirect
+     * @throws IOException if unable to start the server or read the page
+     */
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2, 3})
+    @Order(1)
+    public void testFetch(int mode) throws IOException {
+      boolean chunked = mode % 2 == 1;
+      boolean redirect = mode >= 2;
+      byte[] page = Files.readAllBytes(Path.of("test", "yellowthroat.html"));
+      MockServer.Response response = MockServer.Response.of(200, "text/html", page);
+
+      try (MockServer server = new MockServer()) {
+        server.route("/", chunked ? response.withChunks(100) : response)
+            .route("/redirect", MockServer.Response.redirect(301, "/"));
+
+        URL url = server.url(redirect ? "/redirect" : "/");
+
+        Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+          String expected = HtmlCleaner.stripHtml(String.join("\n",
+              Files.readAllLines(Path.of("test", "yellowthroat.html"), StandardCharsets.UTF_8)));
+
+          StringBuilder actual = new StringBuilder();
+          Assertions.assertTrue(HtmlFetcher.fetchCleaned(url, 1, actual, 16));
+          Assertions.assertEquals(expected, actual.toString());
+
+          if (redirect) {
+            Assertions.assertFalse(HtmlFetcher.fetchCleaned(url, 0, new StringBuilder()));
+          }
+        });
+      }
+    }
+  }
+}
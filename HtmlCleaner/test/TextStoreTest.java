@@ -0,0 +1,208 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the {@link TextStore} blocks, index, scans, and recovery after reopening.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class TextStoreTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+  /** A temporary directory for the stores. */
+  @TempDir
+  public Path directory;
+
+  /**
+   * Creates documents of varied sizes, including empty ones, ones larger than a block, and text
+   * that is not all ASCII.
+   *
+   * @param count the number of documents
+   * @param seed the random seed
+   * @return the documents
+   */
+  private static List<String> documents(int count, long seed) {
+    Random random = new Random(seed);
+    List<String> documents = new ArrayList<>();
+
+    for (int i = 0; i < count; i++) {
+      int kind = random.nextInt(20);
+
+      if (kind == 0) {
+        documents.add("");
+      }
+      else if (kind == 1) {
+        documents.add(("large document " + i + " ").repeat(2000 + random.nextInt(4000)));
+      }
+      else {
+        documents.add(("document " + i + " — café 日本語 😀\n").repeat(1 + random.nextInt(200)));
+      }
+    }
+
+    return documents;
+  }
+
+  /**
+   * Returns the segment files in the directory.
+   *
+   * @return the segment files in order
+   * @throws IOException if unable to list the directory
+   */
+  private List<Path> files() throws IOException {
+    try (Stream<Path> listing = Files.list(directory)) {
+      return listing.sorted().collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Tests adding and reading documents at random, before and after reopening the store, and that
+   * the text is compressed.
+   *
+   * @throws IOException if unable to use the store
+   */
+  @Test
+  @Order(1)
+  public void testRandomAccess() throws IOException {
+    List<String> documents = documents(3000, 1);
+    long raw = 0;
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      try (TextStore store = new TextStore(directory, TextStore.BLOCK_SIZE, 128 * 1024, TextStore.LEVEL)) {
+        for (int i = 0; i < documents.size(); i++) {
+          Assertions.assertEquals(i, store.add(documents.get(i)));
+        }
+
+        Random random = new Random(2);
+
+        for (int i = 0; i < 1000; i++) {
+          int id = random.nextInt(documents.size());
+          Assertions.assertEquals(documents.get(id), store.get(id), "document " + id);
+        }
+
+        // the last documents are still in the block being filled
+        Assertions.assertEquals(documents.get(documents.size() - 1), store.get(documents.size() - 1));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> store.get(documents.size()));
+        Assertions.assertTrue(store.segments() > 1);
+      }
+
+      try (TextStore store = new TextStore(directory, TextStore.BLOCK_SIZE, 128 * 1024, TextStore.LEVEL)) {
+        Assertions.assertEquals(documents.size(), store.size());
+
+        for (int id = 0; id < documents.size(); id += 7) {
+          Assertions.assertEquals(documents.get(id), store.get(id), "document " + id);
+        }
+
+        Assertions.assertEquals(documents.size(), store.add("after reopening"));
+        Assertions.assertEquals("after reopening", store.get(documents.size()));
+      }
+    });
+
+    for (String document : documents) {
+      raw += document.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    long stored = 0;
+
+    for (Path file : files()) {
+      stored += Files.size(file);
+    }
+
+    Assertions.assertTrue(stored * 5 < raw, "Stored " + stored + " of " + raw + " bytes.");
+  }
+
+  /**
+   * Tests that a scan visits every document in order, decompressing each block once, including
+   * documents still in the block being filled.
+   *
+   * @throws IOException if unable to use the store
+   */
+  @Test
+  @Order(2)
+  public void testScan() throws IOException {
+    List<String> documents = documents(2000, 3);
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      try (TextStore store = new TextStore(directory)) {
+        for (String document : documents) {
+          store.add(document);
+        }
+
+        List<String> visited = new ArrayList<>();
+        store.scan((id, text) -> {
+          Assertions.assertEquals(visited.size(), id);
+          visited.add(text);
+        });
+
+        Assertions.assertEquals(documents, visited);
+        Assertions.assertEquals(store.blocks(), store.getBlocksInflated());
+
+        List<Integer> tail = new ArrayList<>();
+        store.scan(1500, (id, text) -> tail.add(id));
+        Assertions.assertEquals(500, tail.size());
+        Assertions.assertEquals(1500, tail.get(0));
+      }
+    });
+  }
+
+  /**
+   * Tests that a block cut short at the end of the newest segment is discarded when reopening,
+   * while every block written before it is kept.
+   *
+   * @throws IOException if unable to use the store
+   */
+  @Test
+  @Order(3)
+  public void testRecovery() throws IOException {
+    List<String> documents = documents(500, 4);
+
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      try (TextStore store = new TextStore(directory)) {
+        for (String document : documents) {
+          store.add(document);
+        }
+      }
+
+      List<Path> files = files();
+      Path newest = files.get(files.size() - 1);
+      long length = Files.size(newest);
+
+      try (TextStore store = new TextStore(directory)) {
+        store.add("lost in a crash ".repeat(10000));
+        store.flush();
+      }
+
+      // cut the last block short, as if the process died while writing it
+      try (FileChannel channel = FileChannel.open(newest, StandardOpenOption.WRITE)) {
+        channel.truncate(Files.size(newest) - 100);
+      }
+
+      try (TextStore store = new TextStore(directory)) {
+        Assertions.assertEquals(documents.size(), store.size());
+        Assertions.assertEquals(length, Files.size(newest));
+        Assertions.assertEquals(documents.get(documents.size() - 1), store.get(documents.size() - 1));
+        Assertions.assertEquals(documents.size(), store.add("replacement"));
+      }
+
+      try (TextStore store = new TextStore(directory)) {
+        Assertions.assertEquals("replacement", store.get(documents.size()));
+      }
+    });
+  }
+}
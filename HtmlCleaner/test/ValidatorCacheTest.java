@@ -0,0 +1,213 @@
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests conditional requests using the {@link ValidatorCache} against a local web server that
+ * answers "304 Not Modified" when the validators match.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+@TestInstance(Lifecycle.PER_CLASS)
+public class ValidatorCacheTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+  /** The "Last-Modified" header sent by the local web server. */
+  public static final String MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+  /** The local web server. */
+  private MockServer server;
+
+  /** A temporary directory for the caches. */
+  @TempDir
+  public Path directory;
+
+  /**
+   * Starts the local web server, which answers with the first version of the page, or "304 Not
+   * Modified" if the "If-None-Match" header matches it. The "/plain" path never sends validators.
+   *
+   * @throws IOException if unable to start the server
+   */
+  @BeforeAll
+  public void setup() throws IOException {
+    server = new MockServer().route("/plain", MockServer.Response.of(200, "text/html", "<p>plain</p>"));
+    publish(1);
+  }
+
+  /**
+   * Stops the local web server.
+   *
+   * @throws IOException if unable to close the server
+   */
+  @AfterAll
+  public void teardown() throws IOException {
+    server.close();
+  }
+
+  /**
+   * Answers the page with a version of it, using the version as the entity tag.
+   *
+   * @param version the version
+   */
+  private void publish(int version) {
+    server.route("/page", MockServer.Response.of(200, "text/html", "<h1>Version &amp; " + version + "</h1>")
+        .withETag("\"v" + version + "\"")
+        .withHeader("Last-Modified", MODIFIED));
+  }
+
+  /**
+   * Returns the local URL for the path.
+   *
+   * @param path the path to fetch
+   * @return the local URL
+   * @throws IOException if unable to create the URL
+   */
+  private URL local(String path) throws IOException {
+    return server.url(path);
+  }
+
+  /**
+   * Fetches and cleans the URL.
+   *
+   * @param url the url to fetch
+   * @param context the fetch context
+   * @return the cleaned text or {@code null} if the fetch failed
+   */
+  private static String fetch(URL url, FetchContext context) {
+    StringBuilder text = new StringBuilder();
+    return HtmlFetcher.fetchCleaned(url, 0, text, 16, context, context.start()) ? text.toString() : null;
+  }
+
+  /**
+   * Tests storing, reading, and removing entries directly.
+   *
+   * @throws IOException if unable to use the cache
+   */
+  @Test
+  @Order(1)
+  public void testEntries() throws IOException {
+    ValidatorCache cache = new ValidatorCache(directory.resolve("entries"));
+    URL url = local("/entry");
+
+    Assertions.assertNull(cache.get(url));
+    Assertions.assertTrue(cache.put(url, "\"abc\"", null, "hello world"));
+
+    ValidatorCache.Entry entry = cache.get(url);
+    Assertions.assertEquals("\"abc\"", entry.getETag());
+    Assertions.assertNull(entry.getLastModified());
+    Assertions.assertEquals(Map.of("If-None-Match", "\"abc\""), entry.getConditions());
+    Assertions.assertEquals("hello world", entry.getText());
+
+    // replacing the entry switches to new text and removes the old text
+    Assertions.assertTrue(cache.put(url, "\"def\"", null, "good-bye"));
+    ValidatorCache.Entry replaced = cache.get(url);
+    Assertions.assertEquals("\"def\"", replaced.getETag());
+    Assertions.assertEquals("good-bye", replaced.getText());
+    Assertions.assertThrows(NoSuchFileException.class, entry::getText);
+
+    try (Stream<Path> files = Files.list(cache.getDirectory())) {
+      Assertions.assertEquals(2, files.count());
+    }
+
+    Assertions.assertFalse(cache.put(url, null, null, "ignored"));
+    Assertions.assertNull(cache.get(url));
+
+    try (Stream<Path> files = Files.list(cache.getDirectory())) {
+      Assertions.assertEquals(0, files.count());
+    }
+  }
+
+  /**
+   * Tests that a repeat fetch gets "304 Not Modified" and returns the stored text, even from a new
+   * cache instance on the same directory.
+   */
+  @Test
+  @Order(2)
+  public void testNotModified() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      Path path = directory.resolve("fetch");
+      FetchContext context = FetchContext.DEFAULT.withValidatorCache(new ValidatorCache(path));
+      URL url = local("/page");
+      String expected = HtmlCleaner.stripHtml("<h1>Version &amp; 1</h1>");
+
+      Assertions.assertEquals(expected, fetch(url, context));
+      Assertions.assertEquals(1, server.getResponses(200));
+      Assertions.assertEquals(0, server.getResponses(304));
+
+      Assertions.assertEquals(expected, fetch(url, context));
+      Assertions.assertEquals(1, server.getResponses(200));
+      Assertions.assertEquals(1, server.getResponses(304));
+
+      FetchContext reopened = FetchContext.DEFAULT.withValidatorCache(new ValidatorCache(path));
+      Assertions.assertEquals(expected, fetch(url, reopened));
+      Assertions.assertEquals(1, server.getResponses(200));
+      Assertions.assertEquals(2, server.getResponses(304));
+    });
+  }
+
+  /**
+   * Tests that a changed page is fetched in full and replaces the stored text.
+   */
+  @Test
+  @Order(3)
+  public void testModified() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      FetchContext context = FetchContext.DEFAULT.withValidatorCache(new ValidatorCache(directory.resolve("fetch")));
+      URL url = local("/page");
+
+      publish(2);
+      Assertions.assertEquals(HtmlCleaner.stripHtml("<h1>Version &amp; 2</h1>"), fetch(url, context));
+      Assertions.assertEquals(2, server.getResponses(200));
+
+      Assertions.assertEquals(HtmlCleaner.stripHtml("<h1>Version &amp; 2</h1>"), fetch(url, context));
+      Assertions.assertEquals(2, server.getResponses(200));
+      Assertions.assertEquals(3, server.getResponses(304));
+    });
+  }
+
+  /**
+   * Tests that pages without validators are not stored and that missing text files disable the
+   * conditional request.
+   */
+  @Test
+  @Order(4)
+  public void testUncached() {
+    Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+      ValidatorCache cache = new ValidatorCache(directory.resolve("uncached"));
+      FetchContext context = FetchContext.DEFAULT.withValidatorCache(cache);
+
+      Assertions.assertEquals("plain", fetch(local("/plain"), context));
+      Assertions.assertNull(cache.get(local("/plain")));
+
+      URL url = local("/page");
+      Assertions.assertNotNull(fetch(url, context));
+      Assertions.assertNotNull(cache.get(url));
+
+      try (Stream<Path> files = Files.list(cache.getDirectory())) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          if (file.toString().endsWith(".txt")) {
+            Files.delete(file);
+          }
+        }
+      }
+
+      Assertions.assertNull(cache.get(url));
+    });
+  }
+}
@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Tests the {@link UrlCanonicalizer} and {@link VisitedUrlSet}.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+public class VisitedUrlSetTest {
+
+  /** How long to wait for individual tests to complete. */
+  public static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  /** A temporary directory for saved sets. */
+  @TempDir
+  public Path directory;
+
+  /**
+   * Tests canonicalizing different spellings of urls.
+   *
+   * @param url the url to canonicalize
+   * @param expected the canonical form
+   * @throws IOException if unable to create the url
+   */
+  @ParameterizedTest
+  @Order(1)
+  @CsvSource({
+      "HTTPS://WWW.Example.COM:443/A/B?Q=1#top, https://www.example.com/A/B?Q=1",
+      "http://example.com, http://example.com/",
+      "http://example.com:80/index.html, http://example.com/index.html",
+      "http://example.com:8080/, http://example.com:8080/",
+      "http://example.com./a, http://example.com/a",
+      "http://example.com/a/./b/../c, http://example.com/a/c",
+      "http://example.com/a/b/.., http://example.com/a/",
+      "http://example.com/a/b/., http://example.com/a/b/",
+      "http://example.com/../../a, http://example.com/a",
+      "http://example.com/.hidden/x, http://example.com/.hidden/x",
+      "http://example.com/%7euser/%2e%2e/x?a=%2f, http://example.com/x?a=%2F",
+      "http://example.com/caf%c3%a9, http://example.com/caf%C3%A9"
+  })
+  public void testCanonicalize(String url, String expected) throws IOException {
+    Assertions.assertEquals(expected, UrlCanonicalizer.canonicalize(url));
+  }
+
+  /**
+   * Tests that different spellings of the same url count as one.
+   *
+   * @throws IOException if unable to create urls
+   */
+  @Test
+  @Order(2)
+  public void testAdd() throws IOException {
+    VisitedUrlSet set = new VisitedUrlSet(100, 0.01);
+
+    Assertions.assertFalse(set.contains(new URL("https://example.com/a")));
+    Assertions.assertTrue(set.add(new URL("https://example.com/a")));
+    Assertions.assertFalse(set.add(new URL("HTTPS://Example.com:443/b/../a#frag")));
+    Assertions.assertTrue(set.contains(new URL("https://example.com/./a")));
+    Assertions.assertFalse(set.contains(new URL("http://example.com/a")));
+    Assertions.assertEquals(1, set.size());
+  }
+
+  /**
+   * Tests many urls from several threads, well past the expected size of the Bloom filter, and
+   * that the memory used stays small.
+   */
+  @Test
+  @Order(3)
+  public void testConcurrent() {
+    VisitedUrlSet set = new VisitedUrlSet(100000, 0.01);
+    ExecutorService workers = Executors.newFixedThreadPool(4);
+    int count = 200000;
+
+    try {
+      Assertions.assertTimeoutPreemptively(TIMEOUT, () -> {
+        List<Future<Integer>> futures = new ArrayList<>();
+
+        // every thread adds the same urls, so each url is new for exactly one thread
+        for (int t = 0; t < 4; t++) {
+          futures.add(workers.submit(() -> {
+            int added = 0;
+
+            for (int i = 0; i < count; i++) {
+              added += set.add(new URL("https://host" + (i % 100) + ".example.com/page/" + i)) ? 1 : 0;
+            }
+
+            return added;
+          }));
+        }
+
+        int added = 0;
+
+        for (Future<Integer> future : futures) {
+          added += future.get();
+        }
+
+        Assertions.assertEquals(count, added);
+        Assertions.assertEquals(count, set.size());
+
+        for (int i = 0; i < count; i += 997) {
+          Assertions.assertTrue(set.contains(new URL("https://HOST" + (i % 100) + ".example.com/page/" + i)));
+          Assertions.assertFalse(set.contains(new URL("https://host" + (i % 100) + ".example.com/other/" + i)));
+        }
+
+        Assertions.assertTrue(set.bytes() < 40L * count, set::toString);
+      });
+    }
+    finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * Tests saving and loading a set.
+   *
+   * @throws IOException if unable to save or load the set
+   */
+  @Test
+  @Order(4)
+  public void testSave() throws IOException {
+    VisitedUrlSet set = new VisitedUrlSet(1000, 0.001);
+
+    for (int i = 0; i < 5000; i++) {
+      set.add(new URL("https://example.com/" + i));
+    }
+
+    Path path = directory.resolve("visited.dat");
+    set.save(path);
+    set.add(new URL("https://example.com/after"));
+
+    VisitedUrlSet loaded = VisitedUrlSet.load(path);
+    Assertions.assertEquals(5000, loaded.size());
+    Assertions.assertTrue(loaded.contains(new URL("https://example.com/4999")));
+    Assertions.assertFalse(loaded.contains(new URL("https://example.com/after")));
+    Assertions.assertFalse(loaded.add(new URL("https://example.com/0")));
+
+    Path other = directory.resolve("other.dat");
+    Files.writeString(other, "not a set");
+    Assertions.assertThrows(IOException.class, () -> VisitedUrlSet.load(other));
+  }
+}